@@ -22,12 +22,17 @@ package javax.activation;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+
+import org.apache.geronimo.specs.activation.DataContentPipe;
 
 /**
  * @version $Rev$ $Date$
@@ -79,7 +84,17 @@ public class DataHandler implements Transferable {
             }
             dch.writeTo(ods.data, ods.mimeType, os);
         } else {
-            byte[] buffer = new byte[1024];
+            // a file copied to another file can be transferred by the system, without
+            // passing through our buffers.  The exact stream class is required, as a
+            // subclass may do more with the data than write it to the file.
+            if (os.getClass() == FileOutputStream.class) {
+                File file = getFile(ds);
+                if (file != null) {
+                    transferFile(file, (FileOutputStream) os);
+                    return;
+                }
+            }
+            byte[] buffer = new byte[8192];
             InputStream is = getInputStream();
             try {
                 int count;
@@ -96,6 +111,63 @@ public class DataHandler implements Transferable {
         return ds.getOutputStream();
     }
 
+    /**
+     * Get the file behind a data source, if we know the source just reads
+     * that file.
+     *
+     * @param ds     The data source.
+     *
+     * @return The file, or null if the source is not a plain file source.
+     */
+    private static File getFile(DataSource ds) {
+        // subclasses might not return the file content unchanged
+        if (ds.getClass() == FileDataSource.class) {
+            return ((FileDataSource) ds).getFile();
+        }
+        if (ds.getClass() == URLDataSource.class) {
+            URL url = ((URLDataSource) ds).getURL();
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    return new File(url.toURI());
+                } catch (URISyntaxException e) {
+                    // not a well formed file URL, so leave this to the URL handler
+                } catch (IllegalArgumentException e) {
+                    // a file URL with an authority, or the like
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the content of a file to a file output stream using the file
+     * channels.
+     *
+     * @param file   The source file.
+     * @param os     The target stream.
+     *
+     * @exception IOException
+     */
+    private static void transferFile(File file, FileOutputStream os) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            FileChannel source = is.getChannel();
+            FileChannel target = os.getChannel();
+            long position = 0;
+            long size = source.size();
+            while (position < size) {
+                long count = source.transferTo(position, size - position, target);
+                if (count <= 0) {
+                    // the file has been truncated since we looked at it
+                    break;
+                }
+                position += count;
+            }
+        } finally {
+            is.close();
+        }
+    }
+
     public synchronized DataFlavor[] getTransferDataFlavors() {
         return getDataContentHandler().getTransferDataFlavors();
     }
@@ -186,23 +258,7 @@ public class DataHandler implements Transferable {
             if (dch == null) {
                 throw new UnsupportedDataTypeException(mimeType);
             }
-            final PipedInputStream is = new PipedInputStream();
-            final PipedOutputStream os = new PipedOutputStream(is);
-            Thread thread = new Thread("DataHandler Pipe Pump") {
-                public void run() {
-                    try {
-                        try {
-                            dch.writeTo(data, mimeType, os);
-                        } finally {
-                            os.close();
-                        }
-                    } catch (IOException e) {
-                        // ignore, per spec - doh!
-                    }
-                }
-            };
-            thread.start();
-            return is;
+            return DataContentPipe.getInputStream(dch, data, mimeType);
         }
 
         public OutputStream getOutputStream() throws IOException {
@@ -33,24 +33,31 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import org.apache.geronimo.osgi.locator.ProviderLocator;
+import org.apache.geronimo.specs.activation.DataContentHandlerCache;
 
 /**
  * @version $Rev$ $Date$
  */
 public class MailcapCommandMap extends CommandMap {
-    private final Map mimeTypes = new HashMap();
-    private final Map preferredCommands = new HashMap();
-    private final Map allCommands = new HashMap();
+    private final Map<String, String> mimeTypes = new HashMap<String, String>();
+    private final Map<String, Map<String, CommandInfo>> preferredCommands = new HashMap<String, Map<String, CommandInfo>>();
+    private final Map<String, List<CommandInfo>> allCommands = new HashMap<String, List<CommandInfo>>();
     // the unparsed commands from the mailcap file.
-    private final Map nativeCommands = new HashMap();
+    private final Map<String, List<String>> nativeCommands = new HashMap<String, List<String>>();
     // commands identified as fallbacks...these are used last, and also used as wildcards.
-    private final Map fallbackCommands = new HashMap();
+    private final Map<String, Map<String, CommandInfo>> fallbackCommands = new HashMap<String, Map<String, CommandInfo>>();
+    // the content handler classes marked as stateless, which can share a single instance.
+    private final Set<String> statelessHandlers = new HashSet<String>();
     private URL url;
+    // the tables above are only used when adding entries, and to build this view of them for
+    // the lookups.  A snapshot is never changed once built, so lookups need no locking; adding
+    // an entry discards the current one, and the next lookup builds a new one.
+    private volatile Snapshot snapshot;
 
     public MailcapCommandMap() {
         ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
@@ -201,11 +208,11 @@ public class MailcapCommandMap extends CommandMap {
         // if the next encountered text is not a ";", then we have a view.  This gets added to the
         // native list.
         if (index == mail_cap.length() || mail_cap.charAt(index) != ';') {
-            ArrayList nativeCommandList = (ArrayList)nativeCommands.get(mimeType);
+            List<String> nativeCommandList = nativeCommands.get(mimeType);
 
             // if this is the first for this mimetype, create a holder
             if (nativeCommandList == null) {
-                nativeCommandList = new ArrayList();
+                nativeCommandList = new ArrayList<String>();
                 nativeCommands.put(mimeType, nativeCommandList);
             }
 
@@ -217,9 +224,11 @@ public class MailcapCommandMap extends CommandMap {
 
         // we don't know which list this will be added to until we finish parsing, as there
         // can be an x-java-fallback-entry parameter that moves this to the fallback list.
-        List commandList = new ArrayList();
+        List<CommandInfo> commandList = new ArrayList<CommandInfo>();
         // but by default, this is not a fallback.
         boolean fallback = false;
+        // an x-java-content-handler-stateless parameter allows the content handler to be shared.
+        boolean stateless = false;
 
         int fieldNumber = 0;
 
@@ -244,6 +253,11 @@ public class MailcapCommandMap extends CommandMap {
                             fallback = true;
                         }
                     }
+                    else if (command.equals("content-handler-stateless")) {
+                        if (value.equals("true")) {
+                            stateless = true;
+                        }
+                    }
                     else {
                         // create a CommandInfo item and add it the accumulator
                         CommandInfo info = new CommandInfo(command, value);
@@ -252,6 +266,13 @@ public class MailcapCommandMap extends CommandMap {
                 }
             }
         }
+        if (stateless) {
+            for (CommandInfo info : commandList) {
+                if (info.getCommandName().equals("content-handler")) {
+                    statelessHandlers.add(info.getCommandClass());
+                }
+            }
+        }
         addCommands(mimeType, commandList, fallback);
     }
 
@@ -262,21 +283,21 @@ public class MailcapCommandMap extends CommandMap {
      * @param commands A List containing the command information.
      * @param fallback The target list identifier.
      */
-    private void addCommands(String mimeType, List commands, boolean fallback) {
+    private void addCommands(String mimeType, List<CommandInfo> commands, boolean fallback) {
+        snapshot = null;
         // add this to the mimeType set
         mimeTypes.put(mimeType, mimeType);
         // the target list changes based on the type of entry.
-        Map target = fallback ? fallbackCommands : preferredCommands;
+        Map<String, Map<String, CommandInfo>> target = fallback ? fallbackCommands : preferredCommands;
 
         // now process
-        for (Iterator i = commands.iterator(); i.hasNext();) {
-            CommandInfo info = (CommandInfo)i.next();
+        for (CommandInfo info : commands) {
             addCommand(target, mimeType, info);
             // if this is not a fallback position, then this to the allcommands list.
             if (!fallback) {
-                List cmdList = (List) allCommands.get(mimeType);
+                List<CommandInfo> cmdList = allCommands.get(mimeType);
                 if (cmdList == null) {
-                    cmdList = new ArrayList();
+                    cmdList = new ArrayList<CommandInfo>();
                     allCommands.put(mimeType, cmdList);
                 }
                 cmdList.add(info);
@@ -293,11 +314,11 @@ public class MailcapCommandMap extends CommandMap {
      * @param mimeType The MIME type the command is associated with.
      * @param command  The command information.
      */
-    private void addCommand(Map commandList, String mimeType, CommandInfo command) {
+    private void addCommand(Map<String, Map<String, CommandInfo>> commandList, String mimeType, CommandInfo command) {
 
-        Map commands = (Map) commandList.get(mimeType);
+        Map<String, CommandInfo> commands = commandList.get(mimeType);
         if (commands == null) {
-            commands = new HashMap();
+            commands = new HashMap<String, CommandInfo>();
             commandList.put(mimeType, commands);
         }
         commands.put(command.getCommandName(), command);
@@ -335,129 +356,156 @@ public class MailcapCommandMap extends CommandMap {
         return index;
     }
 
-    public synchronized CommandInfo[] getPreferredCommands(String mimeType) {
+    public CommandInfo[] getPreferredCommands(String mimeType) {
         // get the mimetype as a lowercase version.
+        CommandInfo[] commands = getSnapshot().getEntry(mimeType.toLowerCase()).preferred;
+        return commands.clone();
+    }
+
+    public CommandInfo[] getAllCommands(String mimeType) {
+        CommandInfo[] commands = getSnapshot().getEntry(mimeType.toLowerCase()).all;
+        return commands.clone();
+    }
+
+    public CommandInfo getCommand(String mimeType, String cmdName) {
         mimeType = mimeType.toLowerCase();
+        // strip any parameters from the supplied mimeType
+        int i = mimeType.indexOf(';');
+        if (i != -1) {
+            mimeType = mimeType.substring(0, i).trim();
+        }
+        return getSnapshot().getEntry(mimeType).commands.get(cmdName.toLowerCase());
+    }
 
-        Map commands = (Map) preferredCommands.get(mimeType);
-        if (commands == null) {
-            commands = (Map) preferredCommands.get(getWildcardMimeType(mimeType));
+    private static String getWildcardMimeType(String mimeType) {
+        int i = mimeType.indexOf('/');
+        if (i == -1) {
+            return mimeType + "/*";
+        } else {
+            return mimeType.substring(0, i + 1) + "*";
+        }
+    }
+
+    /**
+     * Get the current snapshot of the command tables, building a new
+     * one if the tables have been changed since the last one.
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            current = buildSnapshot();
         }
+        return current;
+    }
 
-        Map fallbackCommands = getFallbackCommands(mimeType);
+    private synchronized Snapshot buildSnapshot() {
+        if (snapshot != null) {
+            return snapshot;
+        }
+        Map<String, Entry> types = new HashMap<String, Entry>();
+        Map<String, Entry> subtypes = new HashMap<String, Entry>();
+        for (String mimeType : mimeTypes.keySet()) {
+            String wildcard = getWildcardMimeType(mimeType);
+            types.put(mimeType, buildEntry(mimeType, wildcard));
+            // types without entries of their own resolve to the wildcard ones.
+            if (!subtypes.containsKey(wildcard)) {
+                subtypes.put(wildcard, buildEntry(null, wildcard));
+            }
+        }
+
+        Map<String, String[]> natives = new HashMap<String, String[]>();
+        for (Map.Entry<String, List<String>> entry : nativeCommands.entrySet()) {
+            List<String> commands = entry.getValue();
+            natives.put(entry.getKey(), commands.toArray(new String[commands.size()]));
+        }
 
-        // if we have fall backs, then we need to merge this stuff.
-        if (fallbackCommands != null) {
+        snapshot = new Snapshot(types, subtypes, mimeTypes.values().toArray(new String[mimeTypes.size()]), natives,
+            new DataContentHandlerCache(new HashSet<String>(statelessHandlers)));
+        return snapshot;
+    }
+
+    /**
+     * Resolve the commands for a MIME type from the command tables.
+     *
+     * @param mimeType The MIME type, or null for a type that has no entries of its own.
+     * @param wildcard The wildcard form of the type.
+     */
+    private Entry buildEntry(String mimeType, String wildcard) {
+        // the preferred commands are the explicit ones, with any fallbacks filling the gaps.
+        Map<String, CommandInfo> commands = preferredCommands.get(mimeType);
+        if (commands == null) {
+            commands = preferredCommands.get(wildcard);
+        }
+        Map<String, CommandInfo> fallbacks = getFallbackCommands(mimeType, wildcard);
+        Map<String, CommandInfo> preferred = commands;
+        if (fallbacks != null) {
             // if there's no command list, we can just use this as the master list.
-            if (commands == null) {
-                commands = fallbackCommands;
+            if (preferred == null) {
+                preferred = fallbacks;
             }
             else {
                 // merge the two lists.  The ones in the commands list will take precedence.
-                commands = mergeCommandMaps(commands, fallbackCommands);
+                preferred = mergeCommandMaps(preferred, fallbacks);
             }
         }
 
-        // now convert this into an array result.
+        // all commands lists the exact ones, then the wildcard ones, then the fallbacks.
+        List<CommandInfo> all = new ArrayList<CommandInfo>();
+        List<CommandInfo> exactCommands = allCommands.get(mimeType);
+        if (exactCommands != null) {
+            all.addAll(exactCommands);
+        }
+        List<CommandInfo> wildCommands = allCommands.get(wildcard);
+        if (wildCommands != null) {
+            all.addAll(wildCommands);
+        }
+        if (fallbacks != null) {
+            all.addAll(fallbacks.values());
+        }
+
+        // a command lookup takes the first of an exact match, a wild card match, and then the
+        // fallback searches, both standard and wild card.
         if (commands == null) {
-            return new CommandInfo[0];
+            commands = fallbackCommands.get(mimeType);
+            if (commands == null) {
+                commands = fallbackCommands.get(wildcard);
+            }
         }
-        return (CommandInfo[]) commands.values().toArray(new CommandInfo[commands.size()]);
+
+        return new Entry(
+            preferred == null ? new CommandInfo[0] : preferred.values().toArray(new CommandInfo[preferred.size()]),
+            all.toArray(new CommandInfo[all.size()]),
+            commands == null ? Collections.<String, CommandInfo>emptyMap() : new HashMap<String, CommandInfo>(commands));
     }
 
-    private Map getFallbackCommands(String mimeType) {
-        Map commands = (Map) fallbackCommands.get(mimeType);
+    private Map<String, CommandInfo> getFallbackCommands(String mimeType, String wildcard) {
+        Map<String, CommandInfo> commands = fallbackCommands.get(mimeType);
 
         // now we also need to search this as if it was a wildcard.  If we get a wildcard hit,
         // we have to merge the two lists.
-        Map wildcardCommands = (Map)fallbackCommands.get(getWildcardMimeType(mimeType));
+        Map<String, CommandInfo> wildcardCommands = fallbackCommands.get(wildcard);
         // no wildcard version
         if (wildcardCommands == null) {
             return commands;
         }
+        if (commands == null) {
+            return wildcardCommands;
+        }
         // we need to merge these.
         return mergeCommandMaps(commands, wildcardCommands);
     }
 
 
-    private Map mergeCommandMaps(Map main, Map fallback) {
+    private Map<String, CommandInfo> mergeCommandMaps(Map<String, CommandInfo> main, Map<String, CommandInfo> fallback) {
         // create a cloned copy of the second map.  We're going to use a PutAll operation to
         // overwrite any duplicates.
-        Map result = new HashMap(fallback);
+        Map<String, CommandInfo> result = new HashMap<String, CommandInfo>(fallback);
         result.putAll(main);
 
         return result;
     }
 
-    public synchronized CommandInfo[] getAllCommands(String mimeType) {
-        mimeType = mimeType.toLowerCase();
-        List exactCommands = (List) allCommands.get(mimeType);
-        if (exactCommands == null) {
-            exactCommands = Collections.EMPTY_LIST;
-        }
-        List wildCommands = (List) allCommands.get(getWildcardMimeType(mimeType));
-        if (wildCommands == null) {
-            wildCommands = Collections.EMPTY_LIST;
-        }
-
-        Map fallbackCommands = getFallbackCommands(mimeType);
-        if (fallbackCommands == null) {
-            fallbackCommands = Collections.EMPTY_MAP;
-        }
-
-
-        CommandInfo[] result = new CommandInfo[exactCommands.size() + wildCommands.size() + fallbackCommands.size()];
-        int j = 0;
-        for (int i = 0; i < exactCommands.size(); i++) {
-            result[j++] = (CommandInfo) exactCommands.get(i);
-        }
-        for (int i = 0; i < wildCommands.size(); i++) {
-            result[j++] = (CommandInfo) wildCommands.get(i);
-        }
-
-        for (Iterator i = fallbackCommands.keySet().iterator(); i.hasNext();) {
-            result[j++] = (CommandInfo) fallbackCommands.get((String)i.next());
-        }
-        return result;
-    }
-
-    public synchronized CommandInfo getCommand(String mimeType, String cmdName) {
-        mimeType = mimeType.toLowerCase();
-        // strip any parameters from the supplied mimeType
-        int i = mimeType.indexOf(';');
-        if (i != -1) {
-            mimeType = mimeType.substring(0, i).trim();
-        }
-
-        // search for an exact match
-        Map commands = (Map) preferredCommands.get(mimeType);
-        if (commands == null) {
-            // then a wild card match
-            commands = (Map) preferredCommands.get(getWildcardMimeType(mimeType));
-            if (commands == null) {
-                // then fallback searches, both standard and wild card.
-                commands = (Map) fallbackCommands.get(mimeType);
-                if (commands == null) {
-                    commands = (Map) fallbackCommands.get(getWildcardMimeType(mimeType));
-                }
-                if (commands == null) {
-                    return null;
-                }
-            }
-        }
-        return (CommandInfo) commands.get(cmdName.toLowerCase());
-    }
-
-    private String getWildcardMimeType(String mimeType) {
-        int i = mimeType.indexOf('/');
-        if (i == -1) {
-            return mimeType + "/*";
-        } else {
-            return mimeType.substring(0, i + 1) + "*";
-        }
-    }
-
-    public synchronized DataContentHandler createDataContentHandler(String mimeType) {
+    public DataContentHandler createDataContentHandler(String mimeType) {
 
         CommandInfo info = getCommand(mimeType, "content-handler");
         if (info == null) {
@@ -469,7 +517,7 @@ public class MailcapCommandMap extends CommandMap {
             cl = getClass().getClassLoader();
         }
         try {
-            return (DataContentHandler) ProviderLocator.loadClass(info.getCommandClass(), this.getClass(), cl).newInstance();
+            return getSnapshot().handlers.getHandler(info.getCommandClass(), this.getClass(), cl);
         } catch (ClassNotFoundException e) {
             return null;
         } catch (IllegalAccessException e) {
@@ -484,9 +532,8 @@ public class MailcapCommandMap extends CommandMap {
      *
      * @return A String array of the MIME type names.
      */
-    public synchronized String[] getMimeTypes() {
-        ArrayList types = new ArrayList(mimeTypes.values());
-        return (String[])types.toArray(new String[types.size()]);
+    public String[] getMimeTypes() {
+        return getSnapshot().mimeTypes.clone();
     }
 
     /**
@@ -498,11 +545,64 @@ public class MailcapCommandMap extends CommandMap {
      * @return A String array of the raw command strings.  Returns
      *         an empty array if the mimetype is not currently known.
      */
-    public synchronized String[] getNativeCommands(String mimeType) {
-        ArrayList commands = (ArrayList)nativeCommands.get(mimeType.toLowerCase());
+    public String[] getNativeCommands(String mimeType) {
+        String[] commands = getSnapshot().nativeCommands.get(mimeType.toLowerCase());
         if (commands == null) {
             return new String[0];
         }
-        return (String[])commands.toArray(new String[commands.size()]);
+        return commands.clone();
+    }
+
+    /**
+     * An immutable view of the command tables, with the commands for each
+     * MIME type already resolved against the wildcard and fallback entries.
+     */
+    private static final class Snapshot {
+        private static final Entry EMPTY = new Entry(new CommandInfo[0], new CommandInfo[0], Collections.<String, CommandInfo>emptyMap());
+
+        // the resolved commands for the types that have entries of their own
+        private final Map<String, Entry> types;
+        // the resolved commands for any other subtype, by the wildcard type
+        private final Map<String, Entry> subtypes;
+        private final String[] mimeTypes;
+        private final Map<String, String[]> nativeCommands;
+        // the content handler classes resolved for these entries
+        private final DataContentHandlerCache handlers;
+
+        Snapshot(Map<String, Entry> types, Map<String, Entry> subtypes, String[] mimeTypes, Map<String, String[]> nativeCommands,
+                DataContentHandlerCache handlers) {
+            this.types = types;
+            this.subtypes = subtypes;
+            this.mimeTypes = mimeTypes;
+            this.nativeCommands = nativeCommands;
+            this.handlers = handlers;
+        }
+
+        Entry getEntry(String mimeType) {
+            Entry entry = types.get(mimeType);
+            if (entry == null) {
+                entry = subtypes.get(getWildcardMimeType(mimeType));
+                if (entry == null) {
+                    entry = EMPTY;
+                }
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * The commands resolved for a single MIME type.
+     */
+    private static final class Entry {
+        final CommandInfo[] preferred;
+        final CommandInfo[] all;
+        // the commands by name, as found by getCommand()
+        final Map<String, CommandInfo> commands;
+
+        Entry(CommandInfo[] preferred, CommandInfo[] all, Map<String, CommandInfo> commands) {
+            this.preferred = preferred;
+            this.all = all;
+            this.commands = commands;
+        }
     }
 }
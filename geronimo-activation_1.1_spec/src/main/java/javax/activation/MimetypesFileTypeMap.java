@@ -39,7 +39,12 @@ import java.net.URL;
 public class MimetypesFileTypeMap extends FileTypeMap {
     private static final String DEFAULT_TYPE = "application/octet-stream";
 
-    private final Map types = new HashMap();
+    // the file types, keyed by the case folded extension.  This is only used when adding types,
+    // and to build the table used for the lookups.
+    private final Map<String, String> types = new HashMap<String, String>();
+    // the current lookup table.  A table is never changed once built, so lookups need no locking;
+    // adding types discards the current one, and the next lookup builds a new one.
+    private volatile ExtensionTable table;
 
     public MimetypesFileTypeMap() {
         // defaults from /META-INF/mimetypes.default
@@ -165,21 +170,121 @@ public class MimetypesFileTypeMap extends FileTypeMap {
         String contentType = tok.nextToken();
         while (tok.hasMoreTokens()) {
             String fileType = tok.nextToken();
-            types.put(fileType, contentType);
+            types.put(foldCase(fileType), contentType);
         }
+        table = null;
     }
 
     public String getContentType(File f) {
         return getContentType(f.getName());
     }
 
-    public synchronized String getContentType(String filename) {
+    public String getContentType(String filename) {
         int index = filename.lastIndexOf('.');
         if (index == -1 || index == filename.length()-1) {
             return DEFAULT_TYPE;
         }
-        String fileType = filename.substring(index + 1);
-        String contentType = (String) types.get(fileType);
+        ExtensionTable current = table;
+        if (current == null) {
+            current = buildTable();
+        }
+        String contentType = current.get(filename, index + 1);
         return contentType == null ? DEFAULT_TYPE : contentType;
     }
+
+    private synchronized ExtensionTable buildTable() {
+        if (table == null) {
+            table = new ExtensionTable(types);
+        }
+        return table;
+    }
+
+    /**
+     * Fold a character for the case insensitive extension matching.  This
+     * is the same folding String.equalsIgnoreCase() uses, and unlike
+     * String.toLowerCase() does not depend on the default locale.
+     */
+    private static char foldCase(char ch) {
+        if (ch < 128) {
+            return ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch;
+        }
+        return Character.toLowerCase(Character.toUpperCase(ch));
+    }
+
+    private static String foldCase(String s) {
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = foldCase(s.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * An immutable open addressed hash table of the case folded extensions,
+     * which can match the extension in place at the end of a file name.
+     */
+    private static final class ExtensionTable {
+        private final String[] extensions;
+        private final String[] contentTypes;
+        private final int mask;
+
+        ExtensionTable(Map<String, String> types) {
+            // keep the table at most half full, so the probe sequences stay short.
+            int size = 2;
+            while (size < types.size() * 2) {
+                size <<= 1;
+            }
+            extensions = new String[size];
+            contentTypes = new String[size];
+            mask = size - 1;
+            for (Map.Entry<String, String> entry : types.entrySet()) {
+                String extension = entry.getKey();
+                int slot = spread(extension.hashCode()) & mask;
+                while (extensions[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                extensions[slot] = extension;
+                contentTypes[slot] = entry.getValue();
+            }
+        }
+
+        /**
+         * Get the content type for the extension at the end of a file name.
+         *
+         * @param filename The file name.
+         * @param start    The index of the extension within the name.
+         *
+         * @return The content type, or null if the extension is not known.
+         */
+        String get(String filename, int start) {
+            int length = filename.length() - start;
+            // the same as the hashCode() of the folded extension
+            int hash = 0;
+            for (int i = start; i < filename.length(); i++) {
+                hash = 31 * hash + foldCase(filename.charAt(i));
+            }
+            int slot = spread(hash) & mask;
+            String extension;
+            while ((extension = extensions[slot]) != null) {
+                if (extension.length() == length && matches(extension, filename, start)) {
+                    return contentTypes[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean matches(String extension, String filename, int start) {
+            for (int i = 0; i < extension.length(); i++) {
+                if (extension.charAt(i) != foldCase(filename.charAt(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
 }
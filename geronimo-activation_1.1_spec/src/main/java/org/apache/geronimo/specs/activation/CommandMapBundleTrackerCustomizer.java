@@ -60,7 +60,12 @@ public class CommandMapBundleTrackerCustomizer implements BundleTrackerCustomize
             return null;
         }
 
-        return registerBundle(bundle);
+        // any bundle might provide content handler classes, so the ones already
+        // resolved are discarded whenever one comes or goes.
+        DataContentHandlerCache.invalidateAll();
+        Object url = registerBundle(bundle);
+        // bundles without a mailcap file are still tracked, so we hear when they go away.
+        return url != null ? url : bundle;
     }
 
     /**
@@ -105,6 +110,7 @@ public class CommandMapBundleTrackerCustomizer implements BundleTrackerCustomize
     }
 
     public void removedBundle(Bundle bundle, BundleEvent event, Object object) {
+        DataContentHandlerCache.invalidateAll();
         unregisterBundle(bundle);
     }
 
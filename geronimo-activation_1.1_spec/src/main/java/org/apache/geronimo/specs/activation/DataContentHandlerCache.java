@@ -0,0 +1,166 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.specs.activation;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.DataContentHandler;
+
+import org.apache.geronimo.osgi.locator.ProviderLocator;
+
+/**
+ * The DataContentHandler classes resolved by a command map, so that
+ * creating a handler does not have to go through the provider lookup
+ * each time.  The classes are kept for each class loader they were
+ * resolved against, and only weakly, so the cache does not keep an
+ * application's classes loaded.
+ *
+ * Handlers known to be stateless are created once and shared by all
+ * callers using the same class loader.
+ */
+public class DataContentHandlerCache {
+    // bumped whenever the set of bundles changes, as a class resolved before
+    // then might now come from a different provider.
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    // the class names of the handlers that can be shared
+    private final Set<String> statelessHandlers;
+    // the resolved handlers, by class loader and then by class name
+    private final Map<ClassLoader, Map<String, CachedHandler>> handlers = new WeakHashMap<ClassLoader, Map<String, CachedHandler>>();
+    // the generation the cached handlers were resolved in
+    private int resolvedGeneration = generation.get();
+
+    /**
+     * Create a cache.
+     *
+     * @param statelessHandlers
+     *               The class names of the handlers that can be shared.
+     */
+    public DataContentHandlerCache(Set<String> statelessHandlers) {
+        this.statelessHandlers = statelessHandlers;
+    }
+
+    /**
+     * Discard the handler classes resolved by all of the caches.  This
+     * is used when bundles come and go, and any handler class might now
+     * be resolved differently.
+     */
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Create (or, for a stateless handler, share) a handler instance.
+     *
+     * @param className The handler class name.
+     * @param requester The class requesting the handler, used for the class lookup.
+     * @param loader    The class loader to resolve the class against.
+     *
+     * @return The handler instance.
+     * @exception ClassNotFoundException
+     * @exception IllegalAccessException
+     * @exception InstantiationException
+     */
+    public DataContentHandler getHandler(String className, Class<?> requester, ClassLoader loader)
+            throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+        CachedHandler cached = getCachedHandler(className, loader);
+        if (cached != null) {
+            DataContentHandler handler = cached.getHandler();
+            if (handler != null) {
+                return handler;
+            }
+        }
+
+        // a missing class is not remembered, as it might turn up in a later lookup.
+        Class<?> handlerClass = ProviderLocator.loadClass(className, requester, loader);
+        cached = new CachedHandler(handlerClass, statelessHandlers.contains(className));
+        DataContentHandler handler = cached.getHandler();
+        putCachedHandler(className, loader, cached);
+        return handler;
+    }
+
+    private synchronized CachedHandler getCachedHandler(String className, ClassLoader loader) {
+        int current = generation.get();
+        if (current != resolvedGeneration) {
+            handlers.clear();
+            resolvedGeneration = current;
+            return null;
+        }
+        Map<String, CachedHandler> loaderHandlers = handlers.get(loader);
+        return loaderHandlers == null ? null : loaderHandlers.get(className);
+    }
+
+    private synchronized void putCachedHandler(String className, ClassLoader loader, CachedHandler cached) {
+        if (generation.get() != resolvedGeneration) {
+            // resolved against a set of bundles that has since changed
+            return;
+        }
+        Map<String, CachedHandler> loaderHandlers = handlers.get(loader);
+        if (loaderHandlers == null) {
+            loaderHandlers = new HashMap<String, CachedHandler>();
+            handlers.put(loader, loaderHandlers);
+        }
+        loaderHandlers.put(className, cached);
+    }
+
+    /**
+     * A resolved handler class, along with the shared instance for a
+     * stateless handler.
+     */
+    private static final class CachedHandler {
+        private final Reference<Class<?>> handlerClass;
+        private final boolean stateless;
+        // the shared instance is only softly held, and is created again if it gets cleared
+        private volatile Reference<DataContentHandler> shared;
+
+        CachedHandler(Class<?> handlerClass, boolean stateless) {
+            this.handlerClass = new WeakReference<Class<?>>(handlerClass);
+            this.stateless = stateless;
+        }
+
+        /**
+         * Get a handler instance, or null if the class has been unloaded
+         * and needs to be resolved again.
+         */
+        DataContentHandler getHandler() throws IllegalAccessException, InstantiationException {
+            if (stateless) {
+                Reference<DataContentHandler> ref = shared;
+                DataContentHandler handler = ref == null ? null : ref.get();
+                if (handler != null) {
+                    return handler;
+                }
+            }
+            Class<?> clazz = handlerClass.get();
+            if (clazz == null) {
+                return null;
+            }
+            DataContentHandler handler = (DataContentHandler) clazz.newInstance();
+            if (stateless) {
+                // racing threads may each create one, any of them will do
+                shared = new SoftReference<DataContentHandler>(handler);
+            }
+            return handler;
+        }
+    }
+}
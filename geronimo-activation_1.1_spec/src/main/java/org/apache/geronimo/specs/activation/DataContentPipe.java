@@ -0,0 +1,332 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.geronimo.specs.activation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.activation.DataContentHandler;
+
+/**
+ * Turns the output of a DataContentHandler into an InputStream, as
+ * DataHandler needs to for a DataSource wrapping an object.
+ *
+ * String and byte array objects, the typical text part, are written to a
+ * buffer in the calling thread.  Their content is no larger than the object
+ * that is already held in memory.  Any other object, which may be large or
+ * may only be readable once, is written by a separate pump thread, taken
+ * from a small pool of reusable threads and handing the data over through a
+ * ring buffer.  Either way the handler writes the content only once.
+ */
+public final class DataContentPipe {
+    // the size of the ring buffer between a pump thread and the reader
+    private static final int PIPE_SIZE = 32 * 1024;
+    // the number of idle pump threads kept around for reuse
+    private static final int MAX_POOLED_PUMPS = 8;
+
+    private static final Executor pumps = new ThreadPoolExecutor(0, MAX_POOLED_PUMPS, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new PumpThreadFactory(), new PumpRejectionHandler());
+
+    private DataContentPipe() {
+    }
+
+    /**
+     * Get a stream of the content a handler writes for an object.
+     *
+     * @param dch      The handler used to write the object.
+     * @param data     The object.
+     * @param mimeType The MIME type of the object.
+     *
+     * @return An InputStream over the written content.
+     * @exception IOException
+     */
+    public static InputStream getInputStream(DataContentHandler dch, Object data, String mimeType) throws IOException {
+        if (data instanceof String || data instanceof byte[]) {
+            ContentBuffer buffer = new ContentBuffer();
+            try {
+                dch.writeTo(data, mimeType, buffer);
+            } catch (IOException e) {
+                // treated as the end of the content, the same as the pump thread does.
+            }
+            return buffer.getInputStream();
+        }
+
+        // anything else is written by a pump thread, as it may be too large to hold.
+        Pipe pipe = new Pipe(PIPE_SIZE);
+        pumps.execute(new Pump(dch, data, mimeType, pipe, Thread.currentThread().getContextClassLoader()));
+        return new PipeInputStream(pipe);
+    }
+
+    /**
+     * A growable buffer that can be read without copying it.
+     */
+    private static final class ContentBuffer extends ByteArrayOutputStream {
+        ContentBuffer() {
+            super(1024);
+        }
+
+        InputStream getInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    /**
+     * Writes the content into a pipe, on a pump thread.
+     */
+    private static final class Pump implements Runnable {
+        private final DataContentHandler dch;
+        private final Object data;
+        private final String mimeType;
+        private final Pipe pipe;
+        private final ClassLoader contextLoader;
+
+        Pump(DataContentHandler dch, Object data, String mimeType, Pipe pipe, ClassLoader contextLoader) {
+            this.dch = dch;
+            this.data = data;
+            this.mimeType = mimeType;
+            this.pipe = pipe;
+            this.contextLoader = contextLoader;
+        }
+
+        public void run() {
+            Thread thread = Thread.currentThread();
+            // the handler runs with the requester's context loader, which
+            // must not stay with a pooled thread once it's done.
+            thread.setContextClassLoader(contextLoader);
+            Throwable failure = null;
+            try {
+                OutputStream out = new PipeOutputStream(pipe);
+                dch.writeTo(data, mimeType, out);
+                out.flush();
+            } catch (IOException e) {
+                // ignore, per spec - doh!
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                failure = e;
+                throw e;
+            } finally {
+                pipe.closeWrite(failure);
+                thread.setContextClassLoader(null);
+            }
+        }
+    }
+
+    /**
+     * A ring buffer handing content over from a single writer to a single
+     * reader.
+     */
+    private static final class Pipe {
+        private final byte[] buffer;
+        // the position of the first unread byte, and the number of unread bytes
+        private int readPos;
+        private int count;
+        private boolean writeClosed;
+        private boolean readClosed;
+        private Throwable failure;
+
+        Pipe(int size) {
+            buffer = new byte[size];
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                while (count == buffer.length && !readClosed) {
+                    waitForChange();
+                }
+                if (readClosed) {
+                    throw new IOException("Pipe closed by the reader");
+                }
+                int writePos = (readPos + count) % buffer.length;
+                int length = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                System.arraycopy(b, off, buffer, writePos, length);
+                // the reader only waits when the buffer is empty
+                if (count == 0) {
+                    notifyAll();
+                }
+                count += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (readClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (count == 0 && !writeClosed) {
+                waitForChange();
+            }
+            if (count == 0) {
+                if (failure != null) {
+                    IOException e = new IOException("Error writing content: " + failure);
+                    e.initCause(failure);
+                    throw e;
+                }
+                return -1;
+            }
+            int length = Math.min(len, Math.min(count, buffer.length - readPos));
+            System.arraycopy(buffer, readPos, b, off, length);
+            // the writer only waits when the buffer is full
+            if (count == buffer.length) {
+                notifyAll();
+            }
+            readPos = (readPos + length) % buffer.length;
+            count -= length;
+            return length;
+        }
+
+        synchronized int available() throws IOException {
+            if (readClosed) {
+                throw new IOException("Stream closed");
+            }
+            return count;
+        }
+
+        synchronized void closeWrite(Throwable failure) {
+            writeClosed = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        synchronized void closeRead() {
+            readClosed = true;
+            count = 0;
+            notifyAll();
+        }
+
+        private void waitForChange() throws IOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static final class PipeInputStream extends InputStream {
+        private final Pipe pipe;
+
+        PipeInputStream(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count;
+            while ((count = pipe.read(b, 0, 1)) == 0) {
+            }
+            return count == -1 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            return pipe.read(b, off, len);
+        }
+
+        public int available() throws IOException {
+            return pipe.available();
+        }
+
+        public void close() {
+            // this also releases a pump waiting on a full buffer
+            pipe.closeRead();
+        }
+    }
+
+    /**
+     * The writing end of a pipe.  Handlers often write a byte at a time, so
+     * the writes are collected here and handed over in chunks.
+     */
+    private static final class PipeOutputStream extends OutputStream {
+        private final Pipe pipe;
+        private final byte[] buffer = new byte[8192];
+        private int count;
+
+        PipeOutputStream(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len > buffer.length - count) {
+                flush();
+                if (len >= buffer.length) {
+                    pipe.write(b, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        public void flush() throws IOException {
+            if (count > 0) {
+                pipe.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+
+    private static final class PumpThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DataHandler Pipe Pump");
+            // idle pumps should not keep the VM running
+            thread.setDaemon(true);
+            thread.setContextClassLoader(null);
+            return thread;
+        }
+    }
+
+    /**
+     * When all of the pooled pumps are busy (which happens with nested
+     * content, where a pump reads from another pump) the content gets a
+     * thread of its own rather than waiting for one.
+     */
+    private static final class PumpRejectionHandler implements RejectedExecutionHandler {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            Thread thread = new Thread(r, "DataHandler Pipe Pump");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
@@ -22,11 +22,17 @@
 //
 package javax.activation;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.UnsupportedFlavorException;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
@@ -44,10 +50,102 @@ public class DataHandlerTest extends TestCase {
         assertEquals("Hello World", new String(bytes, 0, 11));
     }
 
+    public void testLargeObjectInputStream() throws IOException {
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; text.length() < 200000; i++) {
+            text.append(i).append(' ');
+        }
+        DataHandler handler = new DataHandler(text.toString(), "text/plain");
+        InputStream is = handler.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] bytes = new byte[1000];
+        int count;
+        while ((count = is.read(bytes)) != -1) {
+            out.write(bytes, 0, count);
+        }
+        is.close();
+        assertEquals(text.toString(), out.toString());
+    }
+
+    public void testStreamObjectWrittenOnce() throws IOException {
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        // the object can only be read once, so a second writeTo() would lose content
+        StreamHandler.calls = 0;
+        DataHandler handler = new DataHandler(new ByteArrayInputStream(content), "application/x-stream");
+        InputStream is = handler.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] bytes = new byte[1000];
+        int count;
+        while ((count = is.read(bytes)) != -1) {
+            out.write(bytes, 0, count);
+        }
+        is.close();
+        assertTrue(Arrays.equals(content, out.toByteArray()));
+        assertEquals(1, StreamHandler.calls);
+
+        // closing the stream early stops the content being written
+        is = new DataHandler(new ByteArrayInputStream(content), "application/x-stream").getInputStream();
+        assertEquals(0, is.read());
+        is.close();
+        try {
+            is.read();
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void testFileWriteTo() throws IOException {
+        File source = File.createTempFile("source", ".dat");
+        File target = File.createTempFile("target", ".dat");
+        try {
+            byte[] content = new byte[100000];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) i;
+            }
+            FileOutputStream out = new FileOutputStream(source);
+            out.write(content);
+            out.close();
+
+            // file to file goes through the channels, after anything already written
+            out = new FileOutputStream(target);
+            out.write('x');
+            new DataHandler(new FileDataSource(source)).writeTo(out);
+            new DataHandler(new URLDataSource(source.toURI().toURL())).writeTo(out);
+            out.close();
+            assertEquals(1 + 2 * content.length, target.length());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataHandler(new FileDataSource(source)).writeTo(bytes);
+            assertTrue(Arrays.equals(content, bytes.toByteArray()));
+
+            FileInputStream in = new FileInputStream(target);
+            try {
+                assertEquals('x', in.read());
+                byte[] copy = new byte[content.length];
+                for (int copies = 0; copies < 2; copies++) {
+                    int count = 0;
+                    while (count < copy.length) {
+                        count += in.read(copy, count, copy.length - count);
+                    }
+                    assertTrue(Arrays.equals(content, copy));
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
     protected void setUp() throws Exception {
         defaultMap = CommandMap.getDefaultCommandMap();
         MailcapCommandMap myMap = new MailcapCommandMap();
         myMap.addMailcap("text/plain;;    x-java-content-handler=" + DummyTextHandler.class.getName());
+        myMap.addMailcap("application/x-stream;;    x-java-content-handler=" + StreamHandler.class.getName());
         CommandMap.setDefaultCommandMap(myMap);
     }
 
@@ -72,4 +170,18 @@ public class DataHandlerTest extends TestCase {
             os.write(((String)obj).getBytes());
         }
     }
+
+    public static class StreamHandler extends DummyTextHandler {
+        static int calls;
+
+        public void writeTo(Object obj, String mimeType, OutputStream os) throws IOException {
+            calls++;
+            InputStream in = (InputStream) obj;
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
+            }
+        }
+    }
 }
@@ -115,6 +115,55 @@ public class MailcapCommandMapTest extends TestCase {
         assertEquals(0, commands.length);
     }
 
+    public void testLookupAfterAdd() {
+        map.addMailcap("foo/* ;; x-java-view=Star");
+        assertEquals("Star", map.getCommand("foo/bar", "view").getCommandClass());
+        assertEquals(1, map.getPreferredCommands("foo/bar").length);
+
+        // the lookups see the entries added after earlier lookups
+        map.addMailcap("foo/bar ;; x-java-view=Bar; x-java-edit=Edit");
+        assertEquals("Bar", map.getCommand("foo/bar", "view").getCommandClass());
+        assertEquals("Star", map.getCommand("foo/baz", "view").getCommandClass());
+        assertEquals(2, map.getPreferredCommands("foo/bar").length);
+        assertEquals(3, map.getAllCommands("foo/bar").length);
+
+        // the results are copies
+        map.getAllCommands("foo/bar")[0] = null;
+        assertNotNull(map.getAllCommands("foo/bar")[0]);
+    }
+
+    public void testWildcardFallback() {
+        map.addMailcap("foo/* ;; x-java-view=Fallback; x-java-fallback-entry=true");
+        map.addMailcap("foo/bar ;; x-java-edit=Edit");
+
+        CommandInfo[] commands = map.getPreferredCommands("foo/baz");
+        assertEquals(1, commands.length);
+        assertEquals("Fallback", commands[0].getCommandClass());
+        assertEquals(2, map.getPreferredCommands("foo/bar").length);
+        assertEquals(1, map.getAllCommands("foo/baz").length);
+    }
+
+    public void testCreateDataContentHandler() {
+        map.addMailcap("foo/bar ;; x-java-content-handler=" + DataHandlerTest.DummyTextHandler.class.getName());
+        DataContentHandler handler = map.createDataContentHandler("foo/bar");
+        assertTrue(handler instanceof DataHandlerTest.DummyTextHandler);
+        // handlers are not shared unless marked as stateless
+        assertNotSame(handler, map.createDataContentHandler("foo/bar"));
+
+        map.addMailcap("foo/baz ;; x-java-content-handler=Missing");
+        assertNull(map.createDataContentHandler("foo/baz"));
+        assertNull(map.createDataContentHandler("foo/baz"));
+    }
+
+    public void testStatelessDataContentHandler() {
+        map.addMailcap("foo/bar ;; x-java-content-handler=" + DataHandlerTest.DummyTextHandler.class.getName()
+            + "; x-java-content-handler-stateless=true");
+        assertNull(map.getCommand("foo/bar", "content-handler-stateless"));
+        DataContentHandler handler = map.createDataContentHandler("foo/bar");
+        assertTrue(handler instanceof DataHandlerTest.DummyTextHandler);
+        assertSame(handler, map.createDataContentHandler("foo/bar"));
+    }
+
     protected void setUp() throws Exception {
         super.setUp();
         map = new MailcapCommandMap();
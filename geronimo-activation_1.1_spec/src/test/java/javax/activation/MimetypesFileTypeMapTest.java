@@ -48,6 +48,38 @@ public class MimetypesFileTypeMapTest extends TestCase {
         assertEquals("text/foo", typeMap.getContentType("x.foo"));
     }
 
+    public void testCaseInsensitive() {
+        assertEquals("text/html", typeMap.getContentType("x.HTML"));
+        assertEquals("text/html", typeMap.getContentType("x.Html"));
+        typeMap.addMimeTypes("text/foo FOO");
+        assertEquals("text/foo", typeMap.getContentType("x.foo"));
+        assertEquals("text/foo", typeMap.getContentType("x.Foo"));
+        assertEquals("application/octet-stream", typeMap.getContentType("x.fo"));
+        assertEquals("application/octet-stream", typeMap.getContentType("x.fooo"));
+    }
+
+    public void testAddAfterLookup() {
+        assertEquals("application/octet-stream", typeMap.getContentType("x.foo"));
+        typeMap.addMimeTypes("text/foo foo bar");
+        assertEquals("text/foo", typeMap.getContentType("x.foo"));
+        assertEquals("text/foo", typeMap.getContentType("x.bar"));
+        // the latest entry for an extension wins
+        typeMap.addMimeTypes("text/bar BAR");
+        assertEquals("text/bar", typeMap.getContentType("x.bar"));
+        assertEquals("application/octet-stream", typeMap.getContentType("x."));
+        assertEquals("application/octet-stream", typeMap.getContentType("x"));
+    }
+
+    public void testManyTypes() {
+        for (int i = 0; i < 1000; i++) {
+            typeMap.addMimeTypes("text/x-" + i + " ext" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("text/x-" + i, typeMap.getContentType("file.EXT" + i));
+        }
+        assertEquals("text/html", typeMap.getContentType("x.html"));
+    }
+
     protected void setUp() throws Exception {
         super.setUp();
         typeMap = new MimetypesFileTypeMap();
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures address list parsing through InternetAddress, which is where
+ * the AddressParser is used.  The lists mix the plain address forms with
+ * a few that need the full RFC 822 grammar: comments, quoted local parts
+ * and domain literals.  Group syntax is measured separately.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressBenchmark {
+
+    private static final String[] FORMS = {
+        "user%d@example.com",
+        "First Last <first.last%d@example.com>",
+        "\"Last, First\" <last.first%d@example.org>",
+        "=?UTF-8?Q?J=C3=B6rg_M=C3=BCller?= <joerg%d@example.de>",
+        "user%d@mail.example.co.uk",
+        "(Comment) user%d@example.com",
+        "\"quoted local\"@example%d.com",
+        "user%d@[192.0.2.1]",
+    };
+
+    /**
+     * The number of addresses in the list.
+     */
+    @Param({ "1", "100", "10000" })
+    private int count;
+
+    private String list;
+    private String group;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder buffer = new StringBuilder();
+        final StringBuilder members = new StringBuilder("Team: ");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+                members.append(", ");
+            }
+            buffer.append(String.format(FORMS[i % FORMS.length], i));
+            // group members are kept to addr-spec form
+            members.append(String.format(FORMS[0], i));
+        }
+        list = buffer.toString();
+        group = members.append(';').toString();
+    }
+
+    @Benchmark
+    public InternetAddress[] parse() throws AddressException {
+        return InternetAddress.parse(list);
+    }
+
+    @Benchmark
+    public InternetAddress[] parseHeader() throws AddressException {
+        return InternetAddress.parseHeader(list, false);
+    }
+
+    @Benchmark
+    public InternetAddress[] parseGroup() throws AddressException {
+        return InternetAddress.parseHeader(group, false)[0].getGroup(false);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeUtility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the base64 and quoted-printable transfer encodings, through
+ * the MimeUtility encode and decode streams every message part goes
+ * through.  The quoted-printable data is mostly text with some 8bit
+ * characters, the base64 data is random bytes.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    /**
+     * The size of the unencoded data.
+     */
+    @Param({ "1024", "1048576" })
+    private int size;
+
+    private byte[] binary;
+    private byte[] text;
+    private byte[] base64;
+    private byte[] quotedPrintable;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws MessagingException, IOException {
+        final Random random = new Random(42);
+        binary = new byte[size];
+        random.nextBytes(binary);
+        text = new byte[size];
+        for (int i = 0; i < size; i++) {
+            final int value = random.nextInt(100);
+            // words, lines, and the occasional character that needs encoding
+            text[i] = (byte)(value < 15 ? ' ' : value == 15 ? '\n' : value < 18 ? 0xe9 : 'a' + value % 26);
+        }
+        base64 = encode(binary, "base64");
+        quotedPrintable = encode(text, "quoted-printable");
+    }
+
+    @Benchmark
+    public byte[] base64Encode() throws MessagingException, IOException {
+        return encode(binary, "base64");
+    }
+
+    @Benchmark
+    public long base64Decode() throws MessagingException, IOException {
+        return decode(base64, "base64");
+    }
+
+    @Benchmark
+    public byte[] quotedPrintableEncode() throws MessagingException, IOException {
+        return encode(text, "quoted-printable");
+    }
+
+    @Benchmark
+    public long quotedPrintableDecode() throws MessagingException, IOException {
+        return decode(quotedPrintable, "quoted-printable");
+    }
+
+    private static byte[] encode(final byte[] data, final String encoding) throws MessagingException, IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length * 2);
+        final OutputStream out = MimeUtility.encode(bytes, encoding);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private long decode(final byte[] data, final String encoding) throws MessagingException, IOException {
+        final InputStream in = MimeUtility.decode(new ByteArrayInputStream(data), encoding);
+        long total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            total += count;
+        }
+        return total;
+    }
+}
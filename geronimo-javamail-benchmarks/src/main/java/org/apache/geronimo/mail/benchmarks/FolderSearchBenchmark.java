@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.URLName;
+import javax.mail.internet.MimeMessage;
+import javax.mail.search.AndTerm;
+import javax.mail.search.BodyTerm;
+import javax.mail.search.FlagTerm;
+import javax.mail.search.SearchTerm;
+import javax.mail.search.SubjectTerm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Folder.search over an in-memory folder of messages, with a
+ * term mixing a flag test, a header test and a body test.  The body
+ * test is written first so the benefit of evaluating the cheap parts of
+ * the term first shows up.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FolderSearchBenchmark {
+
+    /**
+     * The number of messages in the folder.
+     */
+    @Param({ "100", "10000" })
+    private int count;
+
+    /**
+     * The value of mail.search.parallel; 0 searches on the calling thread.
+     * The 1.4 spec ignores it.
+     */
+    @Param({ "0", "4" })
+    private int threads;
+
+    private Folder folder;
+    private SearchTerm term;
+
+    @Setup
+    public void setUp() throws MessagingException {
+        final Properties properties = new Properties();
+        properties.setProperty("mail.search.parallel", String.valueOf(threads));
+        final Session session = Session.getInstance(properties);
+        final Message[] messages = new Message[count];
+        for (int i = 0; i < count; i++) {
+            final MimeMessage message = new MimeMessage(session);
+            message.setSubject(i % 10 == 0 ? "Invoice " + i : "Newsletter " + i);
+            message.setText("Message " + i + (i % 3 == 0 ? " is overdue." : " is informational."));
+            message.setFlag(Flags.Flag.SEEN, i % 4 == 0);
+            message.saveChanges();
+            messages[i] = message;
+        }
+        folder = new MemoryFolder(new MemoryStore(session), messages);
+        term = new AndTerm(new SearchTerm[] {
+            new BodyTerm("overdue"),
+            new SubjectTerm("invoice"),
+            new FlagTerm(new Flags(Flags.Flag.SEEN), false),
+        });
+    }
+
+    @Benchmark
+    public Message[] search() throws MessagingException {
+        return folder.search(term);
+    }
+
+    /**
+     * A store with nothing in it, there to give the folder a session.
+     */
+    static final class MemoryStore extends Store {
+        MemoryStore(final Session session) {
+            super(session, new URLName("memory:"));
+        }
+
+        @Override
+        public Folder getDefaultFolder() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Folder getFolder(final String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Folder getFolder(final URLName name) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A read-only folder over a fixed array of messages.
+     */
+    static final class MemoryFolder extends Folder {
+        private final Message[] messages;
+
+        MemoryFolder(final Store store, final Message[] messages) {
+            super(store);
+            this.messages = messages;
+        }
+
+        @Override
+        public String getName() {
+            return "INBOX";
+        }
+
+        @Override
+        public String getFullName() {
+            return "INBOX";
+        }
+
+        @Override
+        public Folder getParent() {
+            return null;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public Folder[] list(final String pattern) {
+            return new Folder[0];
+        }
+
+        @Override
+        public char getSeparator() {
+            return '/';
+        }
+
+        @Override
+        public int getType() {
+            return HOLDS_MESSAGES;
+        }
+
+        @Override
+        public boolean create(final int type) {
+            return false;
+        }
+
+        @Override
+        public boolean hasNewMessages() {
+            return false;
+        }
+
+        @Override
+        public Folder getFolder(final String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean delete(final boolean recurse) {
+            return false;
+        }
+
+        @Override
+        public boolean renameTo(final Folder newName) {
+            return false;
+        }
+
+        @Override
+        public void open(final int mode) {
+        }
+
+        @Override
+        public void close(final boolean expunge) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public Flags getPermanentFlags() {
+            return new Flags();
+        }
+
+        @Override
+        public int getMessageCount() {
+            return messages.length;
+        }
+
+        @Override
+        public Message getMessage(final int index) {
+            return messages[index - 1];
+        }
+
+        @Override
+        public Message[] getMessages() {
+            return messages.clone();
+        }
+
+        @Override
+        public void appendMessages(final Message[] messages) throws MessagingException {
+            throw new MessagingException("Folder is read-only");
+        }
+
+        @Override
+        public Message[] expunge() {
+            return new Message[0];
+        }
+    }
+}
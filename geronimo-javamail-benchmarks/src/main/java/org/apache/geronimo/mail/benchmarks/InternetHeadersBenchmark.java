@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Header;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares InternetHeaders parsing and lookup against the original
+ * line-at-a-time implementation, which is reproduced here as the
+ * "legacy" baseline.  Like the original, the legacy version loads into a
+ * plain list (a header block loaded from a stream has no placeholder
+ * headers) and scans that list directly for a lookup.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InternetHeadersBenchmark {
+
+    /**
+     * The number of Received headers in the header block.
+     */
+    @Param({ "5", "100" })
+    private int received;
+
+    private byte[] data;
+    private InternetHeaders loaded;
+    private List<Header> legacyLoaded;
+
+    @Setup
+    public void setUp() throws MessagingException, IOException {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("Return-Path: <sender@example.com>\r\n");
+        for (int i = 0; i < received; i++) {
+            buffer.append("Received: from relay").append(i).append(".example.com (relay").append(i)
+                .append(".example.com [192.0.2.").append(i % 255).append("])\r\n")
+                .append("\tby mx.example.org with ESMTP id ").append(1000000 + i)
+                .append(";\r\n\tMon, 15 Jan 2018 10:").append(10 + i % 50).append(":00 +0100\r\n");
+        }
+        buffer.append("From: \"Sender Name\" <sender@example.com>\r\n");
+        buffer.append("To: recipient@example.org\r\n");
+        buffer.append("Subject: Quarterly report\r\n");
+        buffer.append("Date: Mon, 15 Jan 2018 10:00:00 +0100\r\n");
+        buffer.append("Message-ID: <1234567890.12345@example.com>\r\n");
+        buffer.append("MIME-Version: 1.0\r\n");
+        buffer.append("Content-Type: text/plain; charset=us-ascii\r\n");
+        buffer.append("Content-Transfer-Encoding: 7bit\r\n");
+        buffer.append("\r\n");
+        buffer.append("Body text.\r\n");
+        data = buffer.toString().getBytes();
+        loaded = new InternetHeaders(new ByteArrayInputStream(data));
+        legacyLoaded = legacyLoad(new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public InternetHeaders load() throws MessagingException {
+        return new InternetHeaders(new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public List<Header> legacyLoad() throws IOException {
+        return legacyLoad(new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public String[] getHeader() {
+        return loaded.getHeader("Content-Type");
+    }
+
+    @Benchmark
+    public String[] legacyGetHeader() {
+        return legacyGetHeader(legacyLoaded, "Content-Type");
+    }
+
+    @Benchmark
+    public InternetHeaders loadAndLookup() throws MessagingException {
+        final InternetHeaders headers = new InternetHeaders(new ByteArrayInputStream(data));
+        headers.getHeader("From");
+        headers.getHeader("To");
+        headers.getHeader("Subject");
+        headers.getHeader("Message-ID");
+        headers.getHeader("Content-Type");
+        return headers;
+    }
+
+    @Benchmark
+    public List<Header> legacyLoadAndLookup() throws IOException {
+        final List<Header> headers = legacyLoad(new ByteArrayInputStream(data));
+        legacyGetHeader(headers, "From");
+        legacyGetHeader(headers, "To");
+        legacyGetHeader(headers, "Subject");
+        legacyGetHeader(headers, "Message-ID");
+        legacyGetHeader(headers, "Content-Type");
+        return headers;
+    }
+
+    /**
+     * The original InternetHeaders.load() logic:  one byte at a time, with a
+     * new StringBuffer for every line.
+     */
+    private static List<Header> legacyLoad(final InputStream in) throws IOException {
+        final List<Header> headers = new ArrayList<Header>();
+        final StringBuffer buffer = new StringBuffer(128);
+        String line;
+        while ((line = legacyReadLine(in)) != null) {
+            if (line.startsWith(" ") || line.startsWith("\t")) {
+                if (buffer.length() == 0) {
+                    legacyAddHeaderLine(headers, line);
+                }
+                else {
+                    buffer.append("\r\n");
+                    buffer.append(line);
+                }
+            }
+            else {
+                if (buffer.length() > 0) {
+                    legacyAddHeaderLine(headers, buffer.toString());
+                    buffer.setLength(0);
+                }
+                buffer.append(line);
+            }
+        }
+        if (buffer.length() > 0) {
+            legacyAddHeaderLine(headers, buffer.toString());
+        }
+        return headers;
+    }
+
+    private static String legacyReadLine(final InputStream in) throws IOException {
+        final StringBuffer buffer = new StringBuffer(128);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            else if (c == '\r') {
+                continue;
+            }
+            else {
+                buffer.append((char)c);
+            }
+        }
+        if (buffer.length() == 0) {
+            return null;
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * The original addHeaderLine() logic, including the parsing of the
+     * InternetHeader line constructor.
+     */
+    private static void legacyAddHeaderLine(final List<Header> headers, final String line) {
+        if (line.length() == 0) {
+            return;
+        }
+        final char first = line.charAt(0);
+        if (first == ' ' || first == '\t') {
+            final int size = headers.size();
+            if (size > 0) {
+                final Header header = headers.get(size - 1);
+                headers.set(size - 1, new Header(header.getName(), header.getValue() + "\r\n" + line));
+            }
+            return;
+        }
+        int separator = line.indexOf(':');
+        if (separator == -1) {
+            headers.add(new Header(line.trim(), null));
+            return;
+        }
+        final String name = line.substring(0, separator);
+        separator++;
+        while (separator < line.length()) {
+            final char ch = line.charAt(separator);
+            if (ch != ' ' && ch != '\t' && ch != '\r' && ch != '\n') {
+                break;
+            }
+            separator++;
+        }
+        headers.add(new Header(name, line.substring(separator)));
+    }
+
+    /**
+     * The original getHeader() logic:  a linear, case-insensitive scan of
+     * every header.
+     */
+    private static String[] legacyGetHeader(final List<Header> headers, final String name) {
+        final List<String> accumulator = new ArrayList<String>();
+        for (int i = 0; i < headers.size(); i++) {
+            final Header header = headers.get(i);
+            if (header.getName().equalsIgnoreCase(name) && header.getValue() != null) {
+                accumulator.add(header.getValue());
+            }
+        }
+        if (accumulator.isEmpty()) {
+            return null;
+        }
+        return accumulator.toArray(new String[accumulator.size()]);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.MailDateFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures formatting and parsing of RFC 822 dates, over the variations
+ * seen in Date and Received headers.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailDateFormatBenchmark {
+
+    private static final String[] DATES = {
+        "Mon, 15 Jan 2018 10:00:00 +0100",
+        "Tue, 2 Feb 2016 08:05:09 -0800 (PST)",
+        "15 Jan 2018 10:00 GMT",
+        "Wed, 31 Dec 1997 23:59:59 EST",
+        "Fri, 1 Mar 19 12:30:00 +0000",
+    };
+
+    private MailDateFormat format;
+    private Date date;
+
+    @Setup
+    public void setUp() {
+        format = new MailDateFormat();
+        date = new Date(1516006800000L);
+    }
+
+    @Benchmark
+    public String format() {
+        return format.format(date);
+    }
+
+    @Benchmark
+    public void parse(final Blackhole hole) throws ParseException {
+        for (int i = 0; i < DATES.length; i++) {
+            hole.consume(format.parse(DATES[i]));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeUtility;
+
+/**
+ * The messages the benchmarks are run over.  They are generated rather
+ * than stored so the corpus is the same for every spec version, and are
+ * modelled on the shapes of real mail:
+ *
+ * <ul>
+ * <li>plain - a short text/plain message.</li>
+ * <li>alternative - a multipart/alternative with quoted-printable text and HTML parts.</li>
+ * <li>attachment - a multipart/mixed with a 1MB base64 attachment.</li>
+ * <li>nested - a forwarded message/rfc822 holding a multipart/alternative.</li>
+ * <li>received - a plain message with a chain of 100 Received headers.</li>
+ * </ul>
+ *
+ * @version $Rev$ $Date$
+ */
+final class MessageCorpus {
+
+    private static final String CRLF = "\r\n";
+
+    private MessageCorpus() {
+    }
+
+    /**
+     * Get the raw bytes of one of the corpus messages.
+     *
+     * @param name   The message name.
+     *
+     * @return The message in RFC 822 form.
+     */
+    static byte[] message(final String name) {
+        try {
+            final StringBuilder buffer = new StringBuilder(4096);
+            if ("plain".equals(name)) {
+                headers(buffer, 3, "Quarterly report");
+                buffer.append("Content-Type: text/plain; charset=us-ascii").append(CRLF);
+                buffer.append("Content-Transfer-Encoding: 7bit").append(CRLF).append(CRLF);
+                text(buffer, 40);
+            }
+            else if ("alternative".equals(name)) {
+                headers(buffer, 5, "=?UTF-8?Q?R=C3=A9union_de_l'=C3=A9quipe?=");
+                alternative(buffer, "alt-boundary");
+            }
+            else if ("attachment".equals(name)) {
+                headers(buffer, 5, "Scanned document");
+                buffer.append("Content-Type: multipart/mixed; boundary=\"mixed-boundary\"").append(CRLF).append(CRLF);
+                buffer.append("--mixed-boundary").append(CRLF);
+                buffer.append("Content-Type: text/plain; charset=us-ascii").append(CRLF).append(CRLF);
+                text(buffer, 5);
+                buffer.append("--mixed-boundary").append(CRLF);
+                buffer.append("Content-Type: application/pdf; name=\"scan.pdf\"").append(CRLF);
+                buffer.append("Content-Disposition: attachment; filename=\"scan.pdf\"").append(CRLF);
+                buffer.append("Content-Transfer-Encoding: base64").append(CRLF).append(CRLF);
+                final byte[] data = new byte[1024 * 1024];
+                new Random(42).nextBytes(data);
+                buffer.append(encode(data, "base64"));
+                buffer.append(CRLF).append("--mixed-boundary--").append(CRLF);
+            }
+            else if ("nested".equals(name)) {
+                headers(buffer, 5, "Fwd: Meeting notes");
+                buffer.append("Content-Type: multipart/mixed; boundary=\"outer-boundary\"").append(CRLF).append(CRLF);
+                buffer.append("--outer-boundary").append(CRLF);
+                buffer.append("Content-Type: text/plain; charset=us-ascii").append(CRLF).append(CRLF);
+                buffer.append("See the forwarded message below.").append(CRLF);
+                buffer.append("--outer-boundary").append(CRLF);
+                buffer.append("Content-Type: message/rfc822").append(CRLF).append(CRLF);
+                headers(buffer, 3, "Meeting notes");
+                alternative(buffer, "inner-boundary");
+                buffer.append("--outer-boundary--").append(CRLF);
+            }
+            else if ("received".equals(name)) {
+                headers(buffer, 100, "Delivery report");
+                buffer.append("Content-Type: text/plain; charset=us-ascii").append(CRLF).append(CRLF);
+                text(buffer, 10);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown corpus message " + name);
+            }
+            return buffer.toString().getBytes("ISO-8859-1");
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        } catch (final MessagingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void headers(final StringBuilder buffer, final int received, final String subject) {
+        buffer.append("Return-Path: <sender@example.com>").append(CRLF);
+        for (int i = 0; i < received; i++) {
+            buffer.append("Received: from relay").append(i).append(".example.com (relay").append(i)
+                .append(".example.com [192.0.2.").append(i % 255).append("])").append(CRLF)
+                .append("\tby mx.example.org with ESMTP id ").append(1000000 + i)
+                .append(";").append(CRLF).append("\tMon, 15 Jan 2018 10:").append(10 + i % 50).append(":00 +0100").append(CRLF);
+        }
+        buffer.append("From: \"Sender Name\" <sender@example.com>").append(CRLF);
+        buffer.append("To: recipient@example.org, Second Recipient <second@example.org>").append(CRLF);
+        buffer.append("Cc: =?ISO-8859-1?Q?J=F6rg_M=FCller?= <joerg@example.de>").append(CRLF);
+        buffer.append("Subject: ").append(subject).append(CRLF);
+        buffer.append("Date: Mon, 15 Jan 2018 10:00:00 +0100").append(CRLF);
+        buffer.append("Message-ID: <1234567890.12345@example.com>").append(CRLF);
+        buffer.append("MIME-Version: 1.0").append(CRLF);
+    }
+
+    private static void alternative(final StringBuilder buffer, final String boundary) throws IOException, MessagingException {
+        buffer.append("Content-Type: multipart/alternative; boundary=\"").append(boundary).append("\"").append(CRLF).append(CRLF);
+        final StringBuilder text = new StringBuilder();
+        text.append("Caf\u00e9 cr\u00e8me, na\u00efve r\u00e9sum\u00e9: 5 \u20ac").append(CRLF);
+        text(text, 30);
+        buffer.append("--").append(boundary).append(CRLF);
+        buffer.append("Content-Type: text/plain; charset=UTF-8").append(CRLF);
+        buffer.append("Content-Transfer-Encoding: quoted-printable").append(CRLF).append(CRLF);
+        buffer.append(encode(text.toString().getBytes("UTF-8"), "quoted-printable")).append(CRLF);
+        buffer.append("--").append(boundary).append(CRLF);
+        buffer.append("Content-Type: text/html; charset=UTF-8").append(CRLF);
+        buffer.append("Content-Transfer-Encoding: quoted-printable").append(CRLF).append(CRLF);
+        final String html = "<html><body><p>" + text.toString().replace("\r\n", "</p>\r\n<p>") + "</p></body></html>";
+        buffer.append(encode(html.getBytes("UTF-8"), "quoted-printable")).append(CRLF);
+        buffer.append("--").append(boundary).append("--").append(CRLF);
+    }
+
+    private static void text(final StringBuilder buffer, final int lines) {
+        for (int i = 0; i < lines; i++) {
+            buffer.append("Line ").append(i).append(" of the message, with enough text in it that quoted-printable needs soft line breaks.").append(CRLF);
+        }
+    }
+
+    private static String encode(final byte[] data, final String encoding) throws IOException, MessagingException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length * 2);
+        final OutputStream out = MimeUtility.encode(bytes, encoding);
+        out.write(data);
+        out.close();
+        try {
+            return bytes.toString("ISO-8859-1");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
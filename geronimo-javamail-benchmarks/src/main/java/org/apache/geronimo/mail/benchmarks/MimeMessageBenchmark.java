@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the life of a received message over the {@link MessageCorpus}:
+ * parsing it, reading its headers, decoding all of its content and
+ * writing it back out.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeMessageBenchmark {
+
+    @Param({ "plain", "alternative", "attachment", "nested", "received" })
+    private String corpus;
+
+    private Session session;
+    private byte[] data;
+    private MimeMessage parsed;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws MessagingException {
+        session = Session.getInstance(new Properties());
+        data = MessageCorpus.message(corpus);
+        parsed = new MimeMessage(session, new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public MimeMessage parse() throws MessagingException {
+        return new MimeMessage(session, new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public void getHeaders(final Blackhole hole) throws MessagingException {
+        hole.consume(parsed.getHeader("Message-ID"));
+        hole.consume(parsed.getHeader("Received"));
+        hole.consume(parsed.getSubject());
+        hole.consume(parsed.getSentDate());
+        hole.consume(parsed.getContentType());
+        hole.consume(parsed.getFrom());
+        hole.consume(parsed.getAllRecipients());
+    }
+
+    /**
+     * Parse the message and decode every part of it, as a client showing
+     * the message would.
+     */
+    @Benchmark
+    public long getContent() throws MessagingException, IOException {
+        return decode(new MimeMessage(session, new ByteArrayInputStream(data)));
+    }
+
+    @Benchmark
+    public void writeTo() throws MessagingException, IOException {
+        parsed.writeTo(NullOutputStream.INSTANCE);
+    }
+
+    private long decode(final Part part) throws MessagingException, IOException {
+        if (part.isMimeType("multipart/*")) {
+            final Multipart multipart = (Multipart)part.getContent();
+            long total = 0;
+            for (int i = 0; i < multipart.getCount(); i++) {
+                total += decode(multipart.getBodyPart(i));
+            }
+            return total;
+        }
+        if (part.isMimeType("message/rfc822")) {
+            return decode((Part)part.getContent());
+        }
+        if (part.isMimeType("text/*")) {
+            return ((String)part.getContent()).length();
+        }
+        final InputStream in = part.getInputStream();
+        long total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            total += count;
+        }
+        in.close();
+        return total;
+    }
+
+    /**
+     * Discards everything written, so only the cost of producing the data is measured.
+     */
+    static final class NullOutputStream extends OutputStream {
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    }
+}
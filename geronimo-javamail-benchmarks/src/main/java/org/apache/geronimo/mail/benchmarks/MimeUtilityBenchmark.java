@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.MimeUtility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the RFC 2047 header text methods of MimeUtility over a corpus
+ * of subjects and display names as they're seen in a folder listing:
+ * mostly plain ASCII, with encoded-words in several charsets and both
+ * encodings.  Build with -Pjavamail-1.4 for the figures of the original
+ * implementation.
+ *
+ * @version $Rev$ $Date$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeUtilityBenchmark {
+
+    private static final String[] HEADERS = {
+        "Quarterly report",
+        "Re: Meeting on Thursday",
+        "\"Sender Name\" <sender@example.com>",
+        "[users] Problem with the build on Windows",
+        "=?UTF-8?Q?Caf=C3=A9_au_lait?=",
+        "=?ISO-8859-1?Q?Gr=FC=DFe_aus_M=FCnchen?=",
+        "Re: =?UTF-8?B?0J/RgNC40LLQtdGCLCDQvNC40YA=?=",
+        "=?UTF-8?B?5pel5pys6Kqe44Gu5Lu25ZCN?= =?UTF-8?B?44Gn44GZ?=",
+        "=?windows-1252?Q?Invitation_=96_Annual_Meeting?=",
+        "=?ISO-2022-JP?B?GyRCJUYlOSVIGyhC?=",
+        "=?utf-8?q?J=C3=B6rg_M=C3=BCller?= <joerg@example.de>",
+        "Fwd: =?UTF-8?Q?R=C3=A9sum=C3=A9?= and cover letter",
+    };
+
+    private static final String[] TEXT = {
+        "Quarterly report",
+        "Caf\u00e9 au lait",
+        "Gr\u00fc\u00dfe aus M\u00fcnchen",
+        "\u041f\u0440\u0438\u0432\u0435\u0442, \u043c\u0438\u0440",
+        "\u65e5\u672c\u8a9e\u306e\u4ef6\u540d\u3067\u3059",
+    };
+
+    private String[] folded;
+    private String longText;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            buffer.append("The quick brown fox jumped over the lazy dog. ");
+        }
+        longText = buffer.toString();
+        folded = new String[HEADERS.length];
+        for (int i = 0; i < HEADERS.length; i++) {
+            folded[i] = MimeUtility.fold(9, HEADERS[i] + " " + longText);
+        }
+    }
+
+    @Benchmark
+    public void decodeText(final Blackhole hole) throws UnsupportedEncodingException {
+        for (int i = 0; i < HEADERS.length; i++) {
+            hole.consume(MimeUtility.decodeText(HEADERS[i]));
+        }
+    }
+
+    @Benchmark
+    public void encodeText(final Blackhole hole) throws UnsupportedEncodingException {
+        for (int i = 0; i < TEXT.length; i++) {
+            hole.consume(MimeUtility.encodeText(TEXT[i], "UTF-8", null));
+        }
+    }
+
+    @Benchmark
+    public void fold(final Blackhole hole) {
+        for (int i = 0; i < HEADERS.length; i++) {
+            hole.consume(MimeUtility.fold(9, HEADERS[i] + " " + longText));
+        }
+    }
+
+    @Benchmark
+    public void unfold(final Blackhole hole) {
+        for (int i = 0; i < folded.length; i++) {
+            hole.consume(MimeUtility.unfold(folded[i]));
+        }
+    }
+}
@@ -26,12 +26,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.mail.Address;
 import javax.mail.Header;
@@ -43,11 +46,31 @@ import javax.mail.MessagingException;
  * @version $Rev$ $Date$
  */
 public class InternetHeaders {
+    // the size of the blocks read when loading from a stream that supports mark/reset
+    private static final int LOAD_BLOCK_SIZE = 2048;
+    // the maximum number of distinct header names we'll keep canonical index keys for
+    private static final int MAX_INDEX_KEYS = 512;
+    // canonical lower-case index keys, shared by all instances.  Header names are mostly
+    // string constants, so this saves a toLowerCase() on every lookup.
+    private static final Map<String, String> indexKeys = new ConcurrentHashMap<String, String>();
+
     // the list of headers (to preserve order);
-    protected List headers = new ArrayList();
+    protected List headers = new HeaderList();
 
     private transient String lastHeaderName;
 
+    // case-insensitive index of the headers list, mapping the lower-case header name to
+    // the matching headers in list order.  Only the methods that change the headers build
+    // or update the index, so reading the headers never changes this object and is as safe
+    // to do from several threads as it was without the index.  Any other modification of the list
+    // is detected using the list modification count, and the readers scan the list until
+    // the next update rebuilds the index.
+    private transient Map<String, List<InternetHeader>> index;
+    // the list the index was built for
+    private transient HeaderList indexedList;
+    // the modification count of the list at the time the index was last synchronized
+    private transient int indexModCount;
+
     /**
      * Create an empty InternetHeaders
      */
@@ -110,40 +133,39 @@ public class InternetHeaders {
      */
     public void load(InputStream in) throws MessagingException {
         try {
-            StringBuffer buffer = new StringBuffer(128);
-            String line;
-            // loop until we hit the end or a null line
-            while ((line = readLine(in)) != null) {
-                // lines beginning with white space get special handling
-                if (line.startsWith(" ") || line.startsWith("\t")) {
-                    // this gets handled using the logic defined by
-                    // the addHeaderLine method.  If this line is a continuation, but
-                    // there's nothing before it, just call addHeaderLine to add it
-                    // to the last header in the headers list
-                    if (buffer.length() == 0) {
-                        addHeaderLine(line);
+            HeaderScanner scanner = new HeaderScanner();
+            // if the stream supports mark/reset, we can read and scan whole blocks of data, then
+            // back up to the end of the header section so that the body is left unread.  Otherwise,
+            // we have to stop at the blank line, so the data is read a byte at a time.
+            if (in.markSupported()) {
+                byte[] block = new byte[LOAD_BLOCK_SIZE];
+                while (true) {
+                    in.mark(LOAD_BLOCK_SIZE);
+                    int count = in.read(block, 0, LOAD_BLOCK_SIZE);
+                    if (count <= 0) {
+                        break;
                     }
-                    else {
-                        // preserve the line break and append the continuation
-                        buffer.append("\r\n");
-                        buffer.append(line);
+                    int used = scanner.scan(block, 0, count);
+                    // we hit the terminating null line before the end of the block,
+                    // so push back the part of the block we did not use.
+                    if (used < count) {
+                        in.reset();
+                        skipFully(in, used);
+                        break;
                     }
-                }
-                else {
-                    // if we have a line pending in the buffer, flush it
-                    if (buffer.length() > 0) {
-                        addHeaderLine(buffer.toString());
-                        buffer.setLength(0);
+                    if (scanner.isComplete()) {
+                        break;
                     }
-                    // add this to the accumulator
-                    buffer.append(line);
                 }
             }
-
-            // if we have a line pending in the buffer, flush it
-            if (buffer.length() > 0) {
-                addHeaderLine(buffer.toString());
+            else {
+                int c;
+                while (!scanner.isComplete() && (c = in.read()) != -1) {
+                    scanner.scan((byte)c);
+                }
             }
+            // flush anything still pending if we hit the end of the stream
+            scanner.finish();
         } catch (IOException e) {
             throw new MessagingException("Error loading headers", e);
         }
@@ -151,39 +173,27 @@ public class InternetHeaders {
 
 
     /**
-     * Read a single line from the input stream
+     * Skip the requested number of bytes from a stream.
      *
-     * @param in     The source stream for the line
+     * @param in     The source stream.
+     * @param count  The number of bytes to skip.
      *
-     * @return The string value of the line (without line separators)
+     * @exception IOException
      */
-    private String readLine(InputStream in) throws IOException {
-        StringBuffer buffer = new StringBuffer(128);
-
-        int c;
-
-        while ((c = in.read()) != -1) {
-            // a linefeed is a terminator, always.
-            if (c == '\n') {
-                break;
-            }
-            // just ignore the CR.  The next character SHOULD be an NL.  If not, we're
-            // just going to discard this
-            else if (c == '\r') {
-                continue;
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                // skip() is allowed to give up early, so fall back to reading
+                if (in.read() == -1) {
+                    return;
+                }
+                count--;
             }
             else {
-                // just add to the buffer
-                buffer.append((char)c);
+                count -= skipped;
             }
         }
-
-        // no characters found...this was either an eof or a null line.
-        if (buffer.length() == 0) {
-            return null;
-        }
-
-        return buffer.toString();
     }
 
 
@@ -197,10 +207,21 @@ public class InternetHeaders {
     public String[] getHeader(String name) {
         List accumulator = new ArrayList();
 
-        for (int i = 0; i < headers.size(); i++) {
-            InternetHeader header = (InternetHeader)headers.get(i);
-            if (header.getName().equalsIgnoreCase(name) && header.getValue() != null) {
-                accumulator.add(header.getValue());
+        List<InternetHeader> matches = lookup(name);
+        if (matches != null) {
+            for (int i = 0; i < matches.size(); i++) {
+                InternetHeader header = matches.get(i);
+                if (header.getValue() != null) {
+                    accumulator.add(header.getValue());
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < headers.size(); i++) {
+                InternetHeader header = (InternetHeader)headers.get(i);
+                if (header.getName().equalsIgnoreCase(name) && header.getValue() != null) {
+                    accumulator.add(header.getValue());
+                }
             }
         }
 
@@ -260,19 +281,19 @@ public class InternetHeaders {
      *            the new value
      */
     public void setHeader(String name, String value) {
+        syncIndex();
         // look for a header match
-        for (int i = 0; i < headers.size(); i++) {
-            InternetHeader header = (InternetHeader)headers.get(i);
-            // found a matching header
-            if (name.equalsIgnoreCase(header.getName())) {
-                // we update both the name and the value for a set so that
-                // the header ends up with the same case as what is getting set
-                header.setValue(value);
-                header.setName(name);
-                // remove all of the headers from this point
-                removeHeaders(name, i + 1);
-                return;
-            }
+        int pos = findHeader(name);
+        // found a matching header
+        if (pos != -1) {
+            InternetHeader header = (InternetHeader)headers.get(pos);
+            // we update both the name and the value for a set so that
+            // the header ends up with the same case as what is getting set
+            header.setValue(value);
+            header.setName(name);
+            // remove all of the headers from this point
+            removeHeaders(name, pos + 1);
+            return;
         }
 
         // doesn't exist, so process as an add.
@@ -288,16 +309,33 @@ public class InternetHeaders {
      * @param pos    The position of the first header to examine.
      */
     private void removeHeaders(String name, int pos) {
-        // now go remove all other instances of this header
+        List<InternetHeader> matches = lookup(name);
+        // if the index tells us there's nothing after the first occurrence, there's nothing to do.
+        if (matches != null && matches.size() <= 1) {
+            return;
+        }
+
+        // compact the list in a single pass rather than shifting the tail on every removal.
+        int target = pos;
         for (int i = pos; i < headers.size(); i++) {
             InternetHeader header = (InternetHeader)headers.get(i);
-            // found a matching header
-            if (name.equalsIgnoreCase(header.getName())) {
-                // remove this item, and back up
-                headers.remove(i);
-                i--;
+            // keep everything that does not match
+            if (!name.equalsIgnoreCase(header.getName())) {
+                headers.set(target++, header);
             }
         }
+        int size = headers.size();
+        if (target < size) {
+            headers.subList(target, size).clear();
+        }
+
+        // the survivor (if any) is the first entry of the chain
+        if (matches != null) {
+            InternetHeader first = matches.get(0);
+            matches.clear();
+            matches.add(first);
+            indexUpdated();
+        }
     }
 
 
@@ -310,6 +348,10 @@ public class InternetHeaders {
      *         condition.
      */
     private int findHeader(String name) {
+        List<InternetHeader> matches = lookup(name);
+        if (matches != null) {
+            return matches.isEmpty() ? -1 : indexOf(matches.get(0), 0);
+        }
         return findHeader(name, 0);
     }
 
@@ -335,6 +377,30 @@ public class InternetHeaders {
         return -1;
     }
 
+
+    /**
+     * Find the last header in the current list with a given name.
+     *
+     * @param name   The target header name.
+     *
+     * @return The index of the last matching header.  Returns -1 if the
+     *         header is not located.
+     */
+    private int findLastHeader(String name) {
+        List<InternetHeader> matches = lookup(name);
+        if (matches != null) {
+            return matches.isEmpty() ? -1 : lastIndexOf(matches.get(matches.size() - 1));
+        }
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            InternetHeader header = (InternetHeader)headers.get(i);
+            if (name.equalsIgnoreCase(header.getName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
     /**
      * Add a new value to the header with the supplied name.
      *
@@ -344,6 +410,7 @@ public class InternetHeaders {
      *            another value
      */
     public void addHeader(String name, String value) {
+        syncIndex();
         InternetHeader newHeader = new InternetHeader(name, value);
 
         // The javamail spec states that "Recieved" headers need to be added in reverse order.
@@ -361,12 +428,12 @@ public class InternetHeaders {
                     oldHeader.setValue(value);
                 }
                 else {
-                    headers.add(pos, newHeader);
+                    insertHeader(pos, newHeader, true);
                 }
             }
             else {
                 // doesn't exist, so insert at the beginning
-                headers.add(0, newHeader);
+                insertHeader(0, newHeader, true);
             }
         }
         // normal insertion
@@ -384,16 +451,10 @@ public class InternetHeaders {
                 else {
                     // we have at least one existing header with this name.  We need to find the last occurrance,
                     // and insert after that spot.
-
-                    int lastPos = findHeader(name, pos + 1);
-
-                    while (lastPos != -1) {
-                        pos = lastPos;
-                        lastPos = findHeader(name, pos + 1);
-                    }
+                    pos = findLastHeader(name);
 
                     // ok, we have the insertion position
-                    headers.add(pos + 1, newHeader);
+                    insertHeader(pos + 1, newHeader, false);
                 }
             }
             else {
@@ -402,7 +463,7 @@ public class InternetHeaders {
                 if (pos == -1) {
                     pos = headers.size();
                 }
-                headers.add(pos, newHeader);
+                insertHeader(pos, newHeader, false);
             }
         }
     }
@@ -415,6 +476,7 @@ public class InternetHeaders {
      *            the header to remove
      */
     public void removeHeader(String name) {
+        syncIndex();
         // the first occurrance of a header is just zeroed out.
         int pos = findHeader(name);
 
@@ -544,11 +606,204 @@ public class InternetHeaders {
         }
         else {
             // this just gets appended to the end, preserving the addition order.
-            headers.add(new InternetHeader(line));
+            appendHeader(new InternetHeader(line));
+        }
+    }
+
+
+    /**
+     * Insert a new header into the list at the given position, keeping
+     * the name index in sync.
+     *
+     * @param pos    The insertion position.
+     * @param header The new header.
+     * @param first  true if the header goes in front of any other headers
+     *               with the same name, false if it goes after them.
+     */
+    private void insertHeader(int pos, InternetHeader header, boolean first) {
+        boolean indexed = syncIndex();
+        headers.add(pos, header);
+        if (indexed) {
+            List<InternetHeader> matches = indexChain(header.getName());
+            if (first) {
+                matches.add(0, header);
+            }
+            else {
+                matches.add(header);
+            }
+            indexUpdated();
         }
     }
 
 
+    /**
+     * Append a new header to the end of the list, keeping the
+     * name index in sync.
+     *
+     * @param header The new header.
+     */
+    private void appendHeader(InternetHeader header) {
+        boolean indexed = syncIndex();
+        headers.add(header);
+        if (indexed) {
+            indexChain(header.getName()).add(header);
+            indexUpdated();
+        }
+    }
+
+
+    /**
+     * Locate all headers with a given name using the name index.
+     *
+     * @param name   The target header name.
+     *
+     * @return The list of matching headers, in list order.  Returns null if the
+     *         index is not current with the headers list, in which case the
+     *         caller must scan the list.
+     */
+    private List<InternetHeader> lookup(String name) {
+        // this never builds the index, that's left to the updates
+        if (!isIndexSynced()) {
+            return null;
+        }
+        // no header matches a null name
+        if (name == null) {
+            return Collections.emptyList();
+        }
+        List<InternetHeader> matches = index.get(indexKey(name));
+        if (matches == null) {
+            return Collections.emptyList();
+        }
+        return matches;
+    }
+
+
+    /**
+     * Test if the name index is current with the headers list.
+     *
+     * @return true if the index can be used and updated.
+     */
+    private boolean isIndexSynced() {
+        return index != null && headers == indexedList && indexModCount == indexedList.getModCount();
+    }
+
+
+    /**
+     * Bring the name index up to date with the headers list before
+     * an update, rebuilding it if the list has been changed by other
+     * means.
+     *
+     * @return true if the index is in use, false if the headers list
+     *         cannot be indexed (i.e., it has been replaced by a subclass).
+     */
+    private boolean syncIndex() {
+        if (!(headers instanceof HeaderList)) {
+            return false;
+        }
+        if (!isIndexSynced()) {
+            rebuildIndex();
+        }
+        return true;
+    }
+
+
+    /**
+     * Record that the index has been brought up to date with
+     * the latest change to the headers list.
+     */
+    private void indexUpdated() {
+        indexModCount = indexedList.getModCount();
+    }
+
+
+    /**
+     * Rebuild the name index from the headers list.
+     */
+    private void rebuildIndex() {
+        indexedList = (HeaderList)headers;
+        index = new HashMap<String, List<InternetHeader>>();
+        for (int i = 0; i < indexedList.size(); i++) {
+            InternetHeader header = (InternetHeader)indexedList.get(i);
+            indexChain(header.getName()).add(header);
+        }
+        indexModCount = indexedList.getModCount();
+    }
+
+
+    /**
+     * Get the index entry for a header name, creating it if necessary.
+     *
+     * @param name   The header name.
+     *
+     * @return The list of headers with that name.
+     */
+    private List<InternetHeader> indexChain(String name) {
+        String key = indexKey(name);
+        List<InternetHeader> matches = index.get(key);
+        if (matches == null) {
+            matches = new ArrayList<InternetHeader>(2);
+            index.put(key, matches);
+        }
+        return matches;
+    }
+
+
+    /**
+     * Return the index key for a header name.
+     *
+     * @param name   The header name.
+     *
+     * @return The lower-case form of the name.
+     */
+    private static String indexKey(String name) {
+        String key = indexKeys.get(name);
+        if (key == null) {
+            key = name.toLowerCase(Locale.ENGLISH);
+            // this is just a cache, so stop adding once we're full
+            if (indexKeys.size() < MAX_INDEX_KEYS) {
+                indexKeys.put(name, key);
+            }
+        }
+        return key;
+    }
+
+
+    /**
+     * Find the list position of a header object (by identity).
+     *
+     * @param header The header to locate.
+     * @param start  The starting search position.
+     *
+     * @return The list index, or -1 if not found.
+     */
+    private int indexOf(Object header, int start) {
+        for (int i = start; i < headers.size(); i++) {
+            if (headers.get(i) == header) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find the list position of a header object (by identity),
+     * searching backwards from the end of the list.
+     *
+     * @param header The header to locate.
+     *
+     * @return The list index, or -1 if not found.
+     */
+    private int lastIndexOf(Object header) {
+        for (int i = headers.size() - 1; i >= 0; i--) {
+            if (headers.get(i) == header) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
     /**
      * Return all the header lines as an Enumeration of Strings.
      */
@@ -705,6 +960,191 @@ public class InternetHeaders {
         }
     }
 
+    /**
+     * The list used to hold the headers.  This just exposes a count of the list
+     * changes so we can tell if the list has been updated without going through
+     * the InternetHeaders methods.
+     */
+    private static final class HeaderList extends ArrayList<Object> {
+
+        private static final long serialVersionUID = -4587243411282624873L;
+
+        // the number of elements replaced with set().  That's not a structural change, so
+        // it must not touch modCount, but it does invalidate our name index.
+        private int replacements;
+
+        int getModCount() {
+            return modCount + replacements;
+        }
+
+        public Object set(int index, Object element) {
+            replacements++;
+            return super.set(index, element);
+        }
+    }
+
+    /**
+     * Incremental parser for a block of RFC822 header lines.  Raw bytes are
+     * fed in as they are read, and each complete header (with any continuation
+     * lines folded in) is handed to addHeaderLine().  Parsing stops at the first
+     * null line.
+     */
+    private final class HeaderScanner {
+        // the current line, without line terminators
+        private char[] line = new char[128];
+        private int lineLength;
+        // the header being accumulated, including continuation lines
+        private char[] header = new char[128];
+        private int headerLength;
+        // set once the null line terminating the headers has been seen
+        private boolean complete;
+
+        /**
+         * Test if the end of the header block has been located.
+         *
+         * @return true if the terminating null line has been consumed.
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Scan a block of data.
+         *
+         * @param data   The data buffer.
+         * @param offset The starting offset of the data.
+         * @param length The length of the data.
+         *
+         * @return The number of bytes consumed.  This will be less than length
+         *         if the end of the headers is located within the block.
+         */
+        int scan(byte[] data, int offset, int length) {
+            int end = offset + length;
+            int start = offset;
+            while (start < end) {
+                // locate the end of the current line within the block
+                int lineEnd = start;
+                while (lineEnd < end && data[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                // copy the run of line data, dropping any CR characters.
+                ensureLineCapacity(lineEnd - start);
+                for (int i = start; i < lineEnd; i++) {
+                    byte ch = data[i];
+                    if (ch != '\r') {
+                        line[lineLength++] = (char)(ch & 0xff);
+                    }
+                }
+                // the line continues into the next block
+                if (lineEnd == end) {
+                    break;
+                }
+                start = lineEnd + 1;
+                // a null line is the end of the headers
+                if (lineLength == 0) {
+                    complete = true;
+                    return start - offset;
+                }
+                endLine();
+            }
+            return length;
+        }
+
+        /**
+         * Scan a single byte of data.
+         *
+         * @param ch     The data byte.
+         */
+        void scan(byte ch) {
+            // a linefeed is a terminator, always.
+            if (ch == '\n') {
+                if (lineLength == 0) {
+                    complete = true;
+                }
+                else {
+                    endLine();
+                }
+            }
+            // just ignore the CR.  The next character SHOULD be an NL.  If not, we're
+            // just going to discard this
+            else if (ch != '\r') {
+                ensureLineCapacity(1);
+                line[lineLength++] = (char)(ch & 0xff);
+            }
+        }
+
+        /**
+         * Process any pending data once the input is exhausted.
+         */
+        void finish() {
+            if (lineLength > 0) {
+                endLine();
+            }
+            flushHeader();
+        }
+
+        /**
+         * Process a completed line.
+         */
+        private void endLine() {
+            char ch = line[0];
+            // lines beginning with white space get special handling
+            if (ch == ' ' || ch == '\t') {
+                // this gets handled using the logic defined by
+                // the addHeaderLine method.  If this line is a continuation, but
+                // there's nothing before it, just call addHeaderLine to add it
+                // to the last header in the headers list
+                if (headerLength == 0) {
+                    addHeaderLine(new String(line, 0, lineLength));
+                }
+                else {
+                    // preserve the line break and append the continuation
+                    ensureHeaderCapacity(lineLength + 2);
+                    header[headerLength++] = '\r';
+                    header[headerLength++] = '\n';
+                    System.arraycopy(line, 0, header, headerLength, lineLength);
+                    headerLength += lineLength;
+                }
+            }
+            else {
+                // if we have a line pending, flush it
+                flushHeader();
+                // this line becomes the pending header.  Just swap the buffers rather than copying.
+                char[] pending = header;
+                header = line;
+                headerLength = lineLength;
+                line = pending;
+            }
+            lineLength = 0;
+        }
+
+        /**
+         * Add the accumulated header, if any.
+         */
+        private void flushHeader() {
+            if (headerLength > 0) {
+                addHeaderLine(new String(header, 0, headerLength));
+                headerLength = 0;
+            }
+        }
+
+        private void ensureLineCapacity(int additional) {
+            if (lineLength + additional > line.length) {
+                char[] newLine = new char[Math.max(line.length * 2, lineLength + additional)];
+                System.arraycopy(line, 0, newLine, 0, lineLength);
+                line = newLine;
+            }
+        }
+
+        private void ensureHeaderCapacity(int additional) {
+            if (headerLength + additional > header.length) {
+                char[] newHeader = new char[Math.max(header.length * 2, headerLength + additional)];
+                System.arraycopy(header, 0, newHeader, 0, headerLength);
+                header = newHeader;
+            }
+        }
+    }
+
     private static class HeaderLineEnumeration implements Enumeration {
         private Enumeration headers;
 
@@ -20,7 +20,13 @@
 package javax.mail.internet;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.ListIterator;
 
+import javax.mail.Header;
 import javax.mail.MessagingException;
 
 import junit.framework.TestCase;
@@ -39,6 +45,159 @@ public class InternetHeadersTest extends TestCase {
         assertEquals("text/plain", header[0]);
     }
 
+    public void testLoadLeavesBody() throws Exception {
+        String stream = "From: sender@example.com\r\nSubject: hello\r\n\r\nbody text\r\n";
+        InputStream in = new ByteArrayInputStream(stream.getBytes("ISO8859-1"));
+        headers.load(in);
+        assertEquals("hello", headers.getHeader("Subject", null));
+        assertEquals('b', in.read());
+    }
+
+    public void testLoadUnmarkableStream() throws Exception {
+        String stream = "From: sender@example.com\nSubject: hello\n\nbody text\n";
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(stream.getBytes("ISO8859-1"))) {
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        headers.load(in);
+        assertEquals("sender@example.com", headers.getHeader("from", null));
+        assertEquals('b', in.read());
+    }
+
+    public void testLoadContinuationLines() throws MessagingException {
+        String stream = "Subject: a long\r\n\tsubject\r\nX-Test:\r\n  value\r\n\r\n";
+        headers.load(new ByteArrayInputStream(stream.getBytes()));
+        assertEquals("a long\r\n\tsubject", headers.getHeader("Subject", null));
+        assertEquals("value", headers.getHeader("X-Test", null));
+    }
+
+    public void testLoadLargeHeaderBlock() throws Exception {
+        StringBuffer stream = new StringBuffer();
+        for (int i = 0; i < 200; i++) {
+            stream.append("Received: from host").append(i).append(".example.com by mx.example.com\r\n");
+        }
+        stream.append("Subject: hello\r\n\r\nbody");
+        InputStream in = new ByteArrayInputStream(stream.toString().getBytes("ISO8859-1"));
+        headers.load(in);
+        String[] received = headers.getHeader("RECEIVED");
+        assertEquals(200, received.length);
+        assertEquals("from host0.example.com by mx.example.com", received[0]);
+        assertEquals("from host199.example.com by mx.example.com", received[199]);
+        assertEquals("hello", headers.getHeader("subject", null));
+        assertEquals('b', in.read());
+    }
+
+    public void testLoadNoTerminator() throws MessagingException {
+        String stream = "Subject: hello\r\nX-Test: value";
+        headers.load(new ByteArrayInputStream(stream.getBytes()));
+        assertEquals("hello", headers.getHeader("Subject", null));
+        assertEquals("value", headers.getHeader("X-Test", null));
+    }
+
+    public void testHeaderOrder() throws MessagingException {
+        String stream = "X-A: 1\r\nReceived: r1\r\nX-B: 2\r\nReceived: r2\r\nX-A: 3\r\n\r\n";
+        headers = new InternetHeaders(new ByteArrayInputStream(stream.getBytes()));
+        headers.addHeader("received", "r0");
+        headers.addHeader("x-a", "4");
+        headers.addHeader("X-C", "5");
+        assertHeaders(new String[] { "X-A: 1", "received: r0", "Received: r1", "X-B: 2", "Received: r2", "X-A: 3", "x-a: 4", "X-C: 5" });
+
+        headers.setHeader("x-a", "6");
+        assertHeaders(new String[] { "x-a: 6", "received: r0", "Received: r1", "X-B: 2", "Received: r2", "X-C: 5" });
+        assertEquals("6", headers.getHeader("X-A", ","));
+
+        headers.removeHeader("RECEIVED");
+        assertHeaders(new String[] { "x-a: 6", "X-B: 2", "X-C: 5" });
+        assertNull(headers.getHeader("Received"));
+
+        headers.addHeader("Received", "r3");
+        headers.addHeader("Received", "r4");
+        assertHeaders(new String[] { "x-a: 6", "Received: r4", "received: r3", "X-B: 2", "X-C: 5" });
+    }
+
+    public void testDirectListUpdates() throws MessagingException {
+        headers.setHeader("Subject", "first");
+        assertEquals("first", headers.getHeader("Subject", null));
+        // subclasses are allowed to manipulate the list directly
+        headers.headers.add(new InternetHeaders.InternetHeader("X-Direct", "value"));
+        assertEquals("value", headers.getHeader("x-direct", null));
+        headers.headers.clear();
+        assertNull(headers.getHeader("Subject"));
+        headers.addHeader("Subject", "second");
+        assertEquals("second", headers.getHeader("Subject", null));
+    }
+
+    public void testDirectListReplacement() throws MessagingException {
+        headers.addHeader("Subject", "first");
+        headers.addHeader("To", "someone");
+        // replacing headers through the list is seen by the lookups, and is not a
+        // concurrent modification of the list
+        for (ListIterator i = headers.headers.listIterator(); i.hasNext();) {
+            InternetHeaders.InternetHeader header = (InternetHeaders.InternetHeader)i.next();
+            if (header.getName().equals("Subject")) {
+                i.set(new InternetHeaders.InternetHeader("Subject", "second"));
+            }
+        }
+        assertEquals("second", headers.getHeader("Subject", null));
+        Collections.reverse(headers.headers);
+        assertEquals("someone", headers.getHeader("To", null));
+        assertEquals("second", headers.getHeader("Subject", null));
+    }
+
+    public void testNullName() throws MessagingException {
+        headers.addHeader("Subject", "first");
+        assertNull(headers.getHeader(null));
+        assertNull(headers.getHeader(null, ","));
+    }
+
+    public void testConcurrentReaders() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            headers.addHeader("X-Header-" + i, "value " + i);
+        }
+        for (int round = 0; round < 200; round++) {
+            // changing the list directly leaves the name index out of date, and the
+            // readers must not try to bring it up to date between them
+            headers.headers.add(new InternetHeaders.InternetHeader("X-Round", "round " + round));
+            Thread[] threads = new Thread[4];
+            final Throwable[] failures = new Throwable[threads.length];
+            for (int i = 0; i < threads.length; i++) {
+                final int index = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 50; j++) {
+                                String[] values = headers.getHeader("X-Header-" + j);
+                                assertEquals(1, values.length);
+                                assertEquals("value " + j, values[0]);
+                            }
+                        } catch (Throwable e) {
+                            failures[index] = e;
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].join();
+                if (failures[i] != null) {
+                    throw new AssertionError(failures[i]);
+                }
+            }
+        }
+        assertEquals(200, headers.getHeader("X-Round").length);
+    }
+
+    private void assertHeaders(final String[] expected) {
+        Enumeration e = headers.getAllHeaders();
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(e.hasMoreElements());
+            Header header = (Header)e.nextElement();
+            assertEquals(expected[i], header.getName() + ": " + header.getValue());
+        }
+        assertFalse(e.hasMoreElements());
+    }
+
     protected void setUp() throws Exception {
         headers = new InternetHeaders();
     }
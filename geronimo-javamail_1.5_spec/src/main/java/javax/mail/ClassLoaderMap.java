@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map keyed by class loader.  The class loaders are only
+ * weakly referenced, so the entries of an application's class loader go
+ * away with the application, the same as with a WeakHashMap.  Unlike a
+ * WeakHashMap, lookups need no locking.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ClassLoaderMap<V> {
+    private final ConcurrentMap<LoaderKey, V> map = new ConcurrentHashMap<LoaderKey, V>();
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+    // the bootstrap loader shows up as null, which can't be weakly referenced
+    private volatile V bootstrapValue;
+
+    /**
+     * Get the value for a class loader.
+     *
+     * @param cl     The class loader, which may be null.
+     *
+     * @return The value, or null if there is none.
+     */
+    V get(final ClassLoader cl) {
+        if (cl == null) {
+            return bootstrapValue;
+        }
+        return map.get(new LoaderKey(cl, null));
+    }
+
+    /**
+     * Set the value for a class loader, unless another thread got there first.
+     *
+     * @param cl     The class loader, which may be null.
+     * @param value  The new value.
+     *
+     * @return The value now held for the class loader.
+     */
+    V putIfAbsent(final ClassLoader cl, final V value) {
+        if (cl == null) {
+            synchronized (this) {
+                if (bootstrapValue == null) {
+                    bootstrapValue = value;
+                }
+                return bootstrapValue;
+            }
+        }
+        expungeStaleEntries();
+        final V existing = map.putIfAbsent(new LoaderKey(cl, queue), value);
+        return existing == null ? value : existing;
+    }
+
+    private void expungeStaleEntries() {
+        Object key;
+        while ((key = queue.poll()) != null) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Weak reference to a class loader that compares by identity.  A cleared
+     * key only matches itself, so it can still be removed once it's been
+     * queued.
+     */
+    private static final class LoaderKey extends WeakReference<ClassLoader> {
+        private final int hash;
+
+        LoaderKey(final ClassLoader cl, final ReferenceQueue<ClassLoader> queue) {
+            super(cl, queue);
+            hash = System.identityHashCode(cl);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof LoaderKey)) {
+                return false;
+            }
+            final ClassLoader cl = get();
+            return cl != null && cl == ((LoaderKey)other).get();
+        }
+    }
+}
@@ -24,88 +24,208 @@
 //
 package javax.mail;
 
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.event.MailEvent;
 
+import org.apache.geronimo.mail.util.SessionUtil;
+
 /**
  * This is an event queue to dispatch javamail events on separate threads
  * from the main thread.  EventQueues are created by javamail Services 
  * (Transport and Store instances), as well as Folders created from Store 
- * instances.  Each entity will have its own private EventQueue instance, but 
- * will delay creating it until it has an event to dispatch to a real listener.
+ * instances, but only once there is an event to dispatch to a real listener.
  * 
- * NOTE:  It would be nice to use the concurrency support in Java 5 to 
- * manage the queue, but this code needs to run on Java 1.4 still.  We also 
- * don't want to have dependencies on other packages with this, so no 
- * outside concurrency packages can be used either. 
+ * Events are held in a non-blocking queue and dispatched by a drain task run
+ * on an Executor.  Only one drain task for a queue is scheduled at a time, so
+ * the events of a queue are always delivered in order, while the dispatch
+ * threads themselves are shared between all of the queues.  The dispatching
+ * is controlled by these Session properties:
+ * <ul>
+ * <li>mail.event.scope - "folder" (the default) gives each Service and Folder
+ * its own queue.  "session" shares one queue between everything created from
+ * a Session, and "application" uses a single queue for everything, ordering
+ * events across all of the sources.</li>
+ * <li>mail.event.executor - a java.util.concurrent.Executor object (not a
+ * String) used to run the dispatching.</li>
+ * <li>mail.event.threads - the number of threads in the shared dispatch pool
+ * used when no executor is given.  0 gives each queue a thread of its own
+ * while it has events to dispatch.</li>
+ * </ul>
  * @version $Rev$ $Date$
  */
 class EventQueue implements Runnable {
+    // the number of events dispatched before a drain task yields its thread
+    private static final int MAX_BATCH = 64;
+    // how long an idle pool thread is kept around
+    private static final long KEEP_ALIVE = 60;
+
+    // the shared dispatch pools, by thread count
+    private static final Map<Integer, Executor> pools = new HashMap<Integer, Executor>();
+    // the queue used for the application event scope
+    private static EventQueue applicationQueue;
+
     /**
-     * The dispatch thread that handles notification events. 
+     * The executor that runs the dispatching. 
      */
-    protected Thread dispatchThread; 
+    protected final Executor executor; 
     
     /**
      * The dispatching queue for events. 
      */
-    protected List eventQueue = new LinkedList(); 
+    protected final ConcurrentLinkedQueue<PendingEvent> eventQueue = new ConcurrentLinkedQueue<PendingEvent>(); 
+
+    // set while a drain task is scheduled or running
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // shared queues belong to a Session or the application, and aren't stopped by their users
+    private final boolean shared;
+    private volatile boolean stopped;
     
     /**
-     * Create a new EventQueue, including starting the new thread. 
+     * Create a new EventQueue using the default shared dispatch pool. 
      */
     public EventQueue() {
-        dispatchThread = new Thread(this, "JavaMail-EventQueue"); 
-        dispatchThread.setDaemon(true);  // this is a background server thread. 
-        // start the thread up 
-        dispatchThread.start(); 
+        this(getExecutor(null), false); 
+    }
+
+    /**
+     * Create a new EventQueue dispatching on a given executor.
+     *
+     * @param executor The executor used to run the dispatching.
+     * @param shared   true if the queue is shared by several event sources.
+     */
+    EventQueue(final Executor executor, final boolean shared) {
+        this.executor = executor;
+        this.shared = shared;
+    }
+
+    /**
+     * Get the queue an event source should use, based on the event
+     * scope configured for the Session. 
+     *
+     * @param session The Session the event source belongs to.  This may be null.
+     *
+     * @return An EventQueue for the event source.
+     */
+    static EventQueue getEventQueue(final Session session) {
+        final String scope = session == null ? null : session.getProperty("mail.event.scope");
+        if ("session".equalsIgnoreCase(scope)) {
+            return session.getEventQueue();
+        }
+        if ("application".equalsIgnoreCase(scope)) {
+            synchronized (EventQueue.class) {
+                if (applicationQueue == null) {
+                    applicationQueue = new EventQueue(getExecutor(session), true);
+                }
+                return applicationQueue;
+            }
+        }
+        return new EventQueue(getExecutor(session), false);
+    }
+
+    /**
+     * Resolve the executor used for dispatching events for a Session. 
+     *
+     * @param session The Session, or null to use the defaults.
+     *
+     * @return The Executor used to run the dispatching.
+     */
+    static Executor getExecutor(final Session session) {
+        if (session != null) {
+            final Object executor = session.getProperties().get("mail.event.executor");
+            if (executor instanceof Executor) {
+                return (Executor)executor;
+            }
+        }
+        final int threads = session == null ? Math.max(4, Runtime.getRuntime().availableProcessors())
+            : SessionUtil.getIntProperty(session, "mail.event.threads", Math.max(4, Runtime.getRuntime().availableProcessors()));
+        if (threads <= 0) {
+            return new Executor() {
+                public void execute(final Runnable command) {
+                    newThread(command).start();
+                }
+            };
+        }
+        synchronized (pools) {
+            Executor pool = pools.get(threads);
+            if (pool == null) {
+                final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(final Runnable r) {
+                            return EventQueue.newThread(r);
+                        }
+                    });
+                // the pool holds no threads while there are no events to dispatch
+                executor.allowCoreThreadTimeOut(true);
+                pool = executor;
+                pools.put(threads, pool);
+            }
+            return pool;
+        }
+    }
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private static Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "JavaMail-EventQueue-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);  // this is a background server thread. 
+        return thread;
     }
     
     /**
-     * When an object implementing interface <code>Runnable</code> is used
-     * to create a thread, starting the thread causes the object's
-     * <code>run</code> method to be called in that separately executing
-     * thread.
-     * <p>
-     * The general contract of the method <code>run</code> is that it may
-     * take any action whatsoever.
+     * Dispatch the queued events.  This runs as a task on the executor, and
+     * dispatches a limited number of events before handing its thread back
+     * so a busy queue doesn't starve the others sharing the executor.
      *
      * @see     java.lang.Thread#run()
      */
     public void run() {
-        try {
-            while (true) {
-                // get the next event 
-                final PendingEvent p = dequeueEvent(); 
-                // an empty event on the queue means time to shut things down. 
-                if (p.event == null) {
-                    return; 
-                }
-                
+        int dispatched = 0;
+        while (true) {
+            PendingEvent p;
+            while ((p = eventQueue.poll()) != null) {
                 // and tap the listeners on the shoulder. 
                 dispatchEvent(p.event, p.listeners); 
+                if (++dispatched >= MAX_BATCH && !eventQueue.isEmpty()) {
+                    // we're still scheduled, so just requeue ourselves behind the others
+                    try {
+                        executor.execute(this);
+                        return;
+                    } catch (final RejectedExecutionException e) {
+                        // keep going on this thread
+                        dispatched = 0;
+                    }
+                }
+            }
+            scheduled.set(false);
+            // an event queued after the last poll might not have been able to schedule 
+            // a task, so check again before giving up
+            if (eventQueue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                return;
             }
-        } catch (final InterruptedException e) {
-            // been told to stop, so we stop 
         }
     }
     
     
    /**
-    * Stop the EventQueue.  This will terminate the dispatcher thread as soon 
-    * as it can, so there may be undispatched events in the queue that will 
-    * not get dispatched. 
+    * Stop the EventQueue.  Events already queued will still be dispatched, 
+    * but any further events are discarded.  Queues shared by several event 
+    * sources are not stopped. 
     */
-    public synchronized void stop() {
-        // if the thread has not been stopped yet, interrupt it 
-        // and clear the reference. 
-        if (dispatchThread != null) {
-            // push a dummy marker on to the event queue  
-            // to force the dispatch thread to wake up. 
-            queueEvent(null, null); 
-            dispatchThread = null; 
+    public void stop() {
+        if (!shared) {
+            stopped = true;
         }
     }
     
@@ -118,29 +238,20 @@ class EventQueue implements Runnable {
      *                  the event is queued and the dispatcher thread makes the calls to the
      *                  handlers.
      */
-    public synchronized void queueEvent(final MailEvent event, final List listeners) {
-        // add an element to the list, then notify the processing thread. 
-        // Note that we make a copy of the listeners list.  This ensures 
-        // we're going to dispatch this to the snapshot of the listeners 
-        final PendingEvent p = new PendingEvent(event, listeners);
-        eventQueue.add(p);         
-        // wake up the dispatch thread 
-        notify(); 
-    }
-    
-    /**
-     * Remove the next event from the message queue. 
-     * 
-     * @return The PendingEvent item from the queue. 
-     */
-    protected synchronized PendingEvent dequeueEvent() throws InterruptedException {
-        // a little spin loop to wait for an event 
-        while (eventQueue.isEmpty()) {
-            wait(); 
+    public void queueEvent(final MailEvent event, final List listeners) {
+        if (stopped) {
+            return;
+        }
+        eventQueue.offer(new PendingEvent(event, listeners));
+        // get a drain task going if there isn't one already 
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (final RejectedExecutionException e) {
+                // the executor has been shut down, so fall back on a thread of our own 
+                newThread(this).start();
+            }
         }
-        
-        // just remove the first element of this 
-        return (PendingEvent)eventQueue.remove(0); 
     }
     
     
@@ -166,11 +277,11 @@ class EventQueue implements Runnable {
     /**
      * Small helper class to give a single reference handle for a pending event. 
      */
-    class PendingEvent {
+    static class PendingEvent {
         // the event we're broadcasting  
-        MailEvent event;  
+        final MailEvent event;  
         // the list of listeners we send this to. 
-        List listeners; 
+        final List listeners; 
             
         PendingEvent(final MailEvent event, final List listeners) {    
             this.event = event; 
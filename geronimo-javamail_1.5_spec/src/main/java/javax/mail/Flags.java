@@ -19,8 +19,20 @@
 
 package javax.mail;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Representation of flags that may be associated with a message.
@@ -30,6 +42,11 @@ import java.util.Hashtable;
  * on a per-provider basis.
  * <p/>
  * This class is Serializable but compatibility is not guaranteed across releases.
+ * <p/>
+ * The operations on user flags are synchronized on the instance, as they were when the
+ * user flags were held in a Hashtable.  The system flags are not synchronized.  The
+ * operations taking another Flags instance copy it under its own lock first, and then
+ * work on the copy under the lock of this instance, so only one lock is held at a time.
  *
  * @version $Rev$ $Date$
  */
@@ -78,16 +95,31 @@ public class Flags implements Cloneable, Serializable {
         }
     }
 
-    // the Serialized form of this class required the following two fields to be persisted
-    // this leads to a specific type of implementation
+    // the Serialized form of this class requires the system_flags and user_flags fields.  The
+    // user flags are now held as bits over a shared vocabulary of flag names, so the Hashtable
+    // for the user_flags field is produced when the object is written, and read back when read.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("system_flags", Integer.TYPE),
+        new ObjectStreamField("user_flags", Hashtable.class),
+    };
+
+    private static final long[] NO_USER_FLAGS = new long[0];
+
     private int system_flags;
-    private final Hashtable user_flags;
+    // the user flags set, as bits indexed by vocabulary number
+    private transient long[] user_bits;
+    // the names of the user flags that were added with a spelling different from the
+    // vocabulary's, keyed by vocabulary number.  null if there aren't any.
+    private transient Map<Integer, String> user_names;
+    // the user flags that didn't fit in the vocabulary, keyed by lower case name as the
+    // Hashtable was.  null if there aren't any.
+    private transient Map<String, String> user_overflow;
 
     /**
      * Construct a Flags instance with no flags set.
      */
     public Flags() {
-        user_flags = new Hashtable();
+        user_bits = NO_USER_FLAGS;
     }
 
     /**
@@ -96,7 +128,7 @@ public class Flags implements Cloneable, Serializable {
      */
     public Flags(final Flag flag) {
         system_flags = flag.mask;
-        user_flags = new Hashtable();
+        user_bits = NO_USER_FLAGS;
     }
 
     /**
@@ -105,7 +137,11 @@ public class Flags implements Cloneable, Serializable {
      */
     public Flags(final Flags flags) {
         system_flags = flags.system_flags;
-        user_flags = new Hashtable(flags.user_flags);
+        synchronized (flags) {
+            user_bits = flags.user_bits.length == 0 ? NO_USER_FLAGS : flags.user_bits.clone();
+            user_names = flags.user_names == null ? null : new HashMap<Integer, String>(flags.user_names);
+            user_overflow = flags.user_overflow == null ? null : new HashMap<String, String>(flags.user_overflow);
+        }
     }
 
     /**
@@ -114,8 +150,8 @@ public class Flags implements Cloneable, Serializable {
      * @param name the user flag to set
      */
     public Flags(final String name) {
-        user_flags = new Hashtable();
-        user_flags.put(name.toLowerCase(), name);
+        user_bits = NO_USER_FLAGS;
+        add(name);
     }
 
     /**
@@ -132,8 +168,38 @@ public class Flags implements Cloneable, Serializable {
      * @param flags the Flags to add
      */
     public void add(final Flags flags) {
-        system_flags |= flags.system_flags;
-        user_flags.putAll(flags.user_flags);
+        final Flags copy = new Flags(flags);
+        synchronized (this) {
+            system_flags |= copy.system_flags;
+            final long[] other = copy.user_bits;
+            if (other.length > user_bits.length) {
+                user_bits = Arrays.copyOf(user_bits, other.length);
+            }
+            for (int i = 0; i < other.length; i++) {
+                user_bits[i] |= other[i];
+            }
+            // the other's spellings replace ours, as a Hashtable put would
+            if (user_names != null) {
+                for (final Iterator<Integer> i = user_names.keySet().iterator(); i.hasNext();) {
+                    final int index = i.next();
+                    if (isSet(other, index)) {
+                        i.remove();
+                    }
+                }
+            }
+            if (copy.user_names != null) {
+                if (user_names == null) {
+                    user_names = new HashMap<Integer, String>();
+                }
+                user_names.putAll(copy.user_names);
+            }
+            if (copy.user_overflow != null) {
+                if (user_overflow == null) {
+                    user_overflow = new HashMap<String, String>();
+                }
+                user_overflow.putAll(copy.user_overflow);
+            }
+        }
     }
 
     /**
@@ -141,8 +207,29 @@ public class Flags implements Cloneable, Serializable {
      * Question: should this fail if the USER system flag is not set?
      * @param name the user flag to set
      */
-    public void add(final String name) {
-        user_flags.put(name.toLowerCase(), name);
+    public synchronized void add(final String name) {
+        final int index = UserFlagVocabulary.index(name);
+        if (index < 0) {
+            if (user_overflow == null) {
+                user_overflow = new HashMap<String, String>();
+            }
+            user_overflow.put(name.toLowerCase(), name);
+            return;
+        }
+        final int word = index >>> 6;
+        if (word >= user_bits.length) {
+            user_bits = Arrays.copyOf(user_bits, word + 1);
+        }
+        user_bits[word] |= 1L << index;
+        // remember the spelling if it's not the vocabulary's
+        if (!name.equals(UserFlagVocabulary.name(index))) {
+            if (user_names == null) {
+                user_names = new HashMap<Integer, String>();
+            }
+            user_names.put(index, name);
+        } else if (user_names != null) {
+            user_names.remove(index);
+        }
     }
 
     /**
@@ -169,8 +256,24 @@ public class Flags implements Cloneable, Serializable {
      * @return true if all the supplied system and user flags are set
      */
     public boolean contains(final Flags flags) {
-        return ((system_flags & flags.system_flags) == flags.system_flags)
-                && user_flags.keySet().containsAll(flags.user_flags.keySet());
+        final Flags copy = new Flags(flags);
+        synchronized (this) {
+            if ((system_flags & copy.system_flags) != copy.system_flags) {
+                return false;
+            }
+            final long[] other = copy.user_bits;
+            for (int i = 0; i < other.length; i++) {
+                final long mine = i < user_bits.length ? user_bits[i] : 0;
+                if ((mine & other[i]) != other[i]) {
+                    return false;
+                }
+            }
+            final Map<String, String> overflow = copy.user_overflow;
+            if (overflow == null || overflow.isEmpty()) {
+                return true;
+            }
+            return user_overflow != null && user_overflow.keySet().containsAll(overflow.keySet());
+        }
     }
 
     /**
@@ -178,8 +281,12 @@ public class Flags implements Cloneable, Serializable {
      * @param name the user flag to check for
      * @return true if the flag is set
      */
-    public boolean contains(final String name) {
-        return user_flags.containsKey(name.toLowerCase());
+    public synchronized boolean contains(final String name) {
+        final int index = UserFlagVocabulary.find(name);
+        if (index < 0) {
+            return user_overflow != null && user_overflow.containsKey(name.toLowerCase());
+        }
+        return isSet(user_bits, index);
     }
 
     /**
@@ -196,8 +303,21 @@ public class Flags implements Cloneable, Serializable {
         if (other instanceof Flags == false) {
 			return false;
 		}
-        final Flags flags = (Flags) other;
-        return system_flags == flags.system_flags && user_flags.keySet().equals(flags.user_flags.keySet());
+        final Flags flags = new Flags((Flags) other);
+        synchronized (this) {
+            if (system_flags != flags.system_flags) {
+                return false;
+            }
+            final int length = Math.max(user_bits.length, flags.user_bits.length);
+            for (int i = 0; i < length; i++) {
+                final long mine = i < user_bits.length ? user_bits[i] : 0;
+                final long theirs = i < flags.user_bits.length ? flags.user_bits[i] : 0;
+                if (mine != theirs) {
+                    return false;
+                }
+            }
+            return overflowKeys(user_overflow).equals(overflowKeys(flags.user_overflow));
+        }
     }
 
     /**
@@ -205,8 +325,18 @@ public class Flags implements Cloneable, Serializable {
      * @return a hashCode for this instance
      */
     @Override
-    public int hashCode() {
-        return system_flags ^ user_flags.keySet().hashCode();
+    public synchronized int hashCode() {
+        // the same value as the hash of the set of lower case user flag names
+        int hash = overflowKeys(user_overflow).hashCode();
+        for (int word = 0; word < user_bits.length; word++) {
+            long bits = user_bits[word];
+            while (bits != 0) {
+                final int bit = Long.numberOfTrailingZeros(bits);
+                hash += UserFlagVocabulary.key((word << 6) + bit).hashCode();
+                bits &= bits - 1;
+            }
+        }
+        return system_flags ^ hash;
     }
 
     /**
@@ -266,8 +396,26 @@ public class Flags implements Cloneable, Serializable {
      * Return a list of user flags that have been set
      * @return a list of user flags
      */
-    public String[] getUserFlags() {
-        return (String[]) user_flags.values().toArray(new String[user_flags.values().size()]);
+    public synchronized String[] getUserFlags() {
+        int size = user_overflow == null ? 0 : user_overflow.size();
+        for (int i = 0; i < user_bits.length; i++) {
+            size += Long.bitCount(user_bits[i]);
+        }
+        final String[] result = new String[size];
+        int next = 0;
+        if (user_overflow != null) {
+            for (final String name : user_overflow.values()) {
+                result[next++] = name;
+            }
+        }
+        for (int word = 0; word < user_bits.length; word++) {
+            long bits = user_bits[word];
+            while (bits != 0) {
+                result[next++] = getUserFlag((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return result;
     }
 
     /**
@@ -284,15 +432,174 @@ public class Flags implements Cloneable, Serializable {
      * @param flags the flags to clear
      */
     public void remove(final Flags flags) {
-        system_flags &= ~flags.system_flags;
-        user_flags.keySet().removeAll(flags.user_flags.keySet());
+        final Flags copy = new Flags(flags);
+        synchronized (this) {
+            system_flags &= ~copy.system_flags;
+            final long[] other = copy.user_bits;
+            final int length = Math.min(user_bits.length, other.length);
+            for (int i = 0; i < length; i++) {
+                user_bits[i] &= ~other[i];
+            }
+            if (user_names != null) {
+                for (final Iterator<Integer> i = user_names.keySet().iterator(); i.hasNext();) {
+                    if (!isSet(user_bits, i.next())) {
+                        i.remove();
+                    }
+                }
+            }
+            if (user_overflow != null && copy.user_overflow != null) {
+                user_overflow.keySet().removeAll(copy.user_overflow.keySet());
+            }
+        }
     }
 
     /**
      * Unset the supplied user flag.
      * @param name the flag to clear
      */
-    public void remove(final String name) {
-        user_flags.remove(name.toLowerCase());
+    public synchronized void remove(final String name) {
+        final int index = UserFlagVocabulary.find(name);
+        if (index < 0) {
+            if (user_overflow != null) {
+                user_overflow.remove(name.toLowerCase());
+            }
+        }
+        else if (index >>> 6 < user_bits.length) {
+            user_bits[index >>> 6] &= ~(1L << index);
+            if (user_names != null) {
+                user_names.remove(index);
+            }
+        }
+    }
+
+    private String getUserFlag(final int index) {
+        if (user_names != null) {
+            final String name = user_names.get(index);
+            if (name != null) {
+                return name;
+            }
+        }
+        return UserFlagVocabulary.name(index);
+    }
+
+    private static Set<String> overflowKeys(final Map<String, String> overflow) {
+        return overflow == null ? Collections.<String>emptySet() : overflow.keySet();
+    }
+
+    private static boolean isSet(final long[] bits, final int index) {
+        final int word = index >>> 6;
+        return word < bits.length && (bits[word] & (1L << index)) != 0;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        final Hashtable<String, String> names = new Hashtable<String, String>();
+        final String[] flags = getUserFlags();
+        for (int i = 0; i < flags.length; i++) {
+            names.put(flags[i].toLowerCase(), flags[i]);
+        }
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("system_flags", system_flags);
+        fields.put("user_flags", names);
+        out.writeFields();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        system_flags = fields.get("system_flags", 0);
+        user_bits = NO_USER_FLAGS;
+        user_names = null;
+        user_overflow = null;
+        final Hashtable<?, ?> names = (Hashtable<?, ?>)fields.get("user_flags", null);
+        if (names != null) {
+            for (final Object name : names.values()) {
+                add((String)name);
+            }
+        }
+    }
+
+    /**
+     * The names of the user flags seen, each given a number that is used as
+     * its bit in the user flags of every Flags instance.  Names compare
+     * case-insensitively, and the spelling first seen is kept.  The same few
+     * keywords are used throughout a mail store, so they are shared by the
+     * whole VM rather than held by each instance.  A Flags instance has no
+     * Folder it belongs to, so there is no narrower scope to keep them in.
+     * The vocabulary only holds
+     * the first CAPACITY names, which keeps it and the bits of each instance
+     * bounded.  Any others are held by name in the instances that use them.
+     */
+    private static final class UserFlagVocabulary {
+        // the number of names given a bit
+        private static final int CAPACITY = 256;
+
+        private static final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+        // the original and lower case names, by number.  An entry is written before its
+        // number is published through indexes, and never changes after that.
+        private static final String[] names = new String[CAPACITY];
+        private static final String[] keys = new String[CAPACITY];
+        // guarded by indexes
+        private static int size;
+
+        private UserFlagVocabulary() {
+        }
+
+        /**
+         * Find the number of a user flag.
+         * @param name the flag name, in any case
+         * @return the number of the flag, or -1 if it's not in the vocabulary
+         */
+        static int find(final String name) {
+            final Integer index = indexes.get(name.toLowerCase());
+            return index == null ? -1 : index.intValue();
+        }
+
+        /**
+         * Get the number of a user flag, adding it to the vocabulary if needed.
+         * @param name the flag name, in any case
+         * @return the number of the flag, or -1 if the vocabulary is full
+         */
+        static int index(final String name) {
+            final String key = name.toLowerCase();
+            final Integer index = indexes.get(key);
+            if (index != null) {
+                return index.intValue();
+            }
+            synchronized (indexes) {
+                final Integer added = indexes.get(key);
+                if (added != null) {
+                    return added.intValue();
+                }
+                if (size == CAPACITY) {
+                    return -1;
+                }
+                final int next = size++;
+                names[next] = name;
+                keys[next] = key;
+                indexes.put(key, next);
+                return next;
+            }
+        }
+
+        static String name(final int index) {
+            final String name = names[index];
+            // a number read from another thread's Flags without a lock may be newer than
+            // the entries this thread has seen
+            if (name == null) {
+                synchronized (indexes) {
+                    return names[index];
+                }
+            }
+            return name;
+        }
+
+        static String key(final int index) {
+            final String key = keys[index];
+            if (key == null) {
+                synchronized (indexes) {
+                    return keys[index];
+                }
+            }
+            return key;
+        }
     }
 }
@@ -34,6 +34,9 @@ import javax.mail.event.MessageCountEvent;
 import javax.mail.event.MessageCountListener;
 import javax.mail.search.SearchTerm;
 
+import org.apache.geronimo.mail.util.Instrumentation;
+import org.apache.geronimo.mail.util.MailInstrumentation;
+
 /**
  * An abstract representation of a folder in a mail system; subclasses would
  * implement Folders for each supported protocol.
@@ -85,8 +88,8 @@ public abstract class Folder {
     private final ArrayList folderListeners = new ArrayList(2);
     private final ArrayList messageChangedListeners = new ArrayList(2);
     private final ArrayList messageCountListeners = new ArrayList(2);
-    // the EventQueue spins off a new thread, so we only create this 
-    // if we have actual listeners to dispatch an event to. 
+    // we only create the EventQueue if we have actual listeners to 
+    // dispatch an event to. 
     private EventQueue queue = null;
 
     /**
@@ -623,6 +626,9 @@ public abstract class Folder {
      * The default implementation iterates through the messages, returning those
      * whose {@link Message#match(javax.mail.search.SearchTerm)} method returns true;
      * subclasses may provide a more efficient implementation.
+     * The term is evaluated with its cheapest parts first, and the messages are
+     * matched in parallel if the session property mail.search.parallel is set to
+     * the number of threads to use.
      *
      * @param term the search criteria
      * @param messages the messages to search
@@ -630,14 +636,18 @@ public abstract class Folder {
      * @throws MessagingException if there was a problem accessing the store
      */
     public Message[] search(final SearchTerm term, final Message[] messages) throws MessagingException {
-        final List result = new ArrayList(messages.length);
-        for (int i = 0; i < messages.length; i++) {
-            final Message message = messages[i];
-            if (message.match(term)) {
-                result.add(message);
+        final Session session = store == null ? null : store.session;
+        final Instrumentation instrumentation = Instrumentation.start(session, MailInstrumentation.Operation.SEARCH, null);
+        try {
+            final Message[] result = FolderSearch.search(session, term, messages);
+            instrumentation.completed();
+            return result;
+        } finally {
+            if (instrumentation.isEnabled()) {
+                instrumentation.setTarget(store.getURLName());
             }
+            instrumentation.close();
         }
-        return (Message[]) result.toArray(new Message[result.size()]);
     }
 
     public void addConnectionListener(final ConnectionListener listener) {
@@ -741,7 +751,7 @@ public abstract class Folder {
         }
         // first real event?  Time to get the queue kicked off. 
         if (queue == null) {
-            queue = new EventQueue(); 
+            queue = EventQueue.getEventQueue(store == null ? null : store.session); 
         }
         // tee it up and let it rip. 
         queue.queueEvent(event, (List)listeners.clone()); 
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.mail.search.AndTerm;
+import javax.mail.search.BodyTerm;
+import javax.mail.search.FlagTerm;
+import javax.mail.search.MessageNumberTerm;
+import javax.mail.search.NotTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.ReceivedDateTerm;
+import javax.mail.search.SearchTerm;
+import javax.mail.search.SizeTerm;
+
+import org.apache.geronimo.mail.util.SessionUtil;
+
+/**
+ * The search used by the default implementation of
+ * {@link Folder#search(SearchTerm, Message[])}.
+ *
+ * The search term is first compiled into an equivalent term that is
+ * cheaper to evaluate:  nested AND and OR terms are flattened, double
+ * negations removed, and the terms of each AND and OR are reordered so
+ * the terms that can be decided from the flags and envelope information
+ * are tried before the ones that need the headers, with body searches
+ * last.  Since the result of an AND or OR is known as soon as one term
+ * decides it, the expensive terms are often never evaluated.
+ *
+ * The messages can also be matched in parallel by setting the session
+ * property mail.search.parallel to the number of threads to use.  The
+ * messages are split into ranges matched on a shared fork/join pool.
+ * This is only worthwhile for folders whose messages can safely be
+ * examined concurrently, such as local folders, so it is off by default.
+ *
+ * @version $Rev$ $Date$
+ */
+final class FolderSearch {
+    // the messages in a range that's not split any further
+    private static final int RANGE_SIZE = 256;
+
+    // the relative costs of evaluating the terms
+    private static final int COST_ENVELOPE = 0;
+    private static final int COST_HEADER = 1;
+    private static final int COST_UNKNOWN = 2;
+    private static final int COST_BODY = 3;
+
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+    private FolderSearch() {
+    }
+
+    /**
+     * Search messages for those matching a term.
+     *
+     * @param session  The session of the folder's store, or null if there isn't one.
+     * @param term     The search criteria.
+     * @param messages The messages to search.
+     *
+     * @return The matching messages, in the order they were given.
+     * @exception MessagingException
+     */
+    static Message[] search(final Session session, final SearchTerm term, final Message[] messages) throws MessagingException {
+        final SearchTerm plan = compile(term);
+        final boolean[] matches = new boolean[messages.length];
+
+        final int parallel = session == null ? 1 : SessionUtil.getIntProperty(session, "mail.search.parallel", 1);
+        if (parallel > 1 && messages.length > RANGE_SIZE) {
+            try {
+                getPool(parallel).invoke(new RangeMatch(plan, messages, matches, 0, messages.length));
+            } catch (final RuntimeException e) {
+                // the pool may hand back a copy of the failure, so look for the original cause
+                for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                    if (cause instanceof MessagingException) {
+                        throw (MessagingException)cause;
+                    }
+                }
+                throw e;
+            }
+        } else {
+            match(plan, messages, matches, 0, messages.length);
+        }
+
+        final List<Message> result = new ArrayList<Message>();
+        for (int i = 0; i < messages.length; i++) {
+            if (matches[i]) {
+                result.add(messages[i]);
+            }
+        }
+        return result.toArray(new Message[result.size()]);
+    }
+
+    private static void match(final SearchTerm term, final Message[] messages, final boolean[] matches, final int start, final int end) throws MessagingException {
+        for (int i = start; i < end; i++) {
+            matches[i] = messages[i].match(term);
+        }
+    }
+
+    /**
+     * Compile a search term into an equivalent one that evaluates the
+     * cheapest terms first.
+     *
+     * @param term   The search term.
+     *
+     * @return The term to evaluate.
+     */
+    static SearchTerm compile(final SearchTerm term) {
+        if (term instanceof NotTerm) {
+            final SearchTerm negated = ((NotTerm)term).getTerm();
+            if (negated instanceof NotTerm) {
+                return compile(((NotTerm)negated).getTerm());
+            }
+            return new NotTerm(compile(negated));
+        }
+        if (term instanceof AndTerm) {
+            final List<SearchTerm> terms = new ArrayList<SearchTerm>();
+            flatten(term, true, terms);
+            return terms.size() == 1 ? terms.get(0) : new AndTerm(sort(terms));
+        }
+        if (term instanceof OrTerm) {
+            final List<SearchTerm> terms = new ArrayList<SearchTerm>();
+            flatten(term, false, terms);
+            return terms.size() == 1 ? terms.get(0) : new OrTerm(sort(terms));
+        }
+        return term;
+    }
+
+    /**
+     * Collect the compiled terms of nested ANDs (or nested ORs) into a single list.
+     */
+    private static void flatten(final SearchTerm term, final boolean and, final List<SearchTerm> terms) {
+        final SearchTerm[] children = and ? ((AndTerm)term).getTerms() : ((OrTerm)term).getTerms();
+        for (int i = 0; i < children.length; i++) {
+            final SearchTerm child = compile(children[i]);
+            if (and ? child instanceof AndTerm : child instanceof OrTerm) {
+                terms.addAll(Arrays.asList(and ? ((AndTerm)child).getTerms() : ((OrTerm)child).getTerms()));
+            } else {
+                terms.add(child);
+            }
+        }
+    }
+
+    private static SearchTerm[] sort(final List<SearchTerm> terms) {
+        final SearchTerm[] sorted = terms.toArray(new SearchTerm[terms.size()]);
+        // a stable sort, so terms of equal cost are tried in the order given
+        Arrays.sort(sorted, new Comparator<SearchTerm>() {
+            public int compare(final SearchTerm a, final SearchTerm b) {
+                return cost(a) - cost(b);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Estimate the relative cost of evaluating a term.
+     */
+    static int cost(final SearchTerm term) {
+        if (term instanceof FlagTerm || term instanceof MessageNumberTerm || term instanceof SizeTerm
+            || term instanceof ReceivedDateTerm) {
+            return COST_ENVELOPE;
+        }
+        if (term instanceof BodyTerm) {
+            return COST_BODY;
+        }
+        if (term instanceof NotTerm) {
+            return cost(((NotTerm)term).getTerm());
+        }
+        if (term instanceof AndTerm || term instanceof OrTerm) {
+            final SearchTerm[] terms = term instanceof AndTerm ? ((AndTerm)term).getTerms() : ((OrTerm)term).getTerms();
+            int cost = COST_ENVELOPE;
+            for (int i = 0; i < terms.length; i++) {
+                cost = Math.max(cost, cost(terms[i]));
+            }
+            return cost;
+        }
+        // the remaining standard terms examine the headers
+        if (term.getClass().getName().startsWith("javax.mail.search.")) {
+            return COST_HEADER;
+        }
+        return COST_UNKNOWN;
+    }
+
+    private static ForkJoinPool getPool(final int parallelism) {
+        synchronized (pools) {
+            ForkJoinPool pool = pools.get(parallelism);
+            if (pool == null) {
+                pool = new ForkJoinPool(parallelism);
+                pools.put(parallelism, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Matches a range of the messages, splitting it in two while it's larger
+     * than a single range.
+     */
+    private static final class RangeMatch extends RecursiveAction {
+        private static final long serialVersionUID = 3162404575838658271L;
+
+        private final SearchTerm term;
+        private final Message[] messages;
+        private final boolean[] matches;
+        private final int start;
+        private final int end;
+
+        RangeMatch(final SearchTerm term, final Message[] messages, final boolean[] matches, final int start, final int end) {
+            this.term = term;
+            this.messages = messages;
+            this.matches = matches;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= RANGE_SIZE) {
+                try {
+                    match(term, messages, matches, start, end);
+                } catch (final MessagingException e) {
+                    throw new SearchFailure(e);
+                }
+                return;
+            }
+            final int middle = (start + end) >>> 1;
+            invokeAll(new RangeMatch(term, messages, matches, start, middle),
+                new RangeMatch(term, messages, matches, middle, end));
+        }
+    }
+
+    /**
+     * Carries a MessagingException out of a range match.
+     */
+    private static final class SearchFailure extends RuntimeException {
+        private static final long serialVersionUID = -5720614388213526391L;
+
+        SearchFailure(final MessagingException cause) {
+            super(cause);
+        }
+    }
+}
@@ -28,6 +28,9 @@ import javax.mail.event.ConnectionEvent;
 import javax.mail.event.ConnectionListener;
 import javax.mail.event.MailEvent;
 
+import org.apache.geronimo.mail.util.Instrumentation;
+import org.apache.geronimo.mail.util.MailInstrumentation;
+
 /**
  * @version $Rev$ $Date$
  */
@@ -47,8 +50,8 @@ public abstract class Service {
 
     private boolean connected;
     private final Vector connectionListeners = new Vector(2);
-    // the EventQueue spins off a new thread, so we only create this
-    // if we have actual listeners to dispatch an event to.
+    // we only create the EventQueue if we have actual listeners to
+    // dispatch an event to.
     private EventQueue queue = null;
     // when returning the URL, we need to ensure that the password and file information is
     // stripped out.
@@ -118,7 +121,19 @@ public abstract class Service {
      * @throws MessagingException for other failures
      * @throws IllegalStateException if this service is already connected
      */
-    public void connect(String host, int port, String user, String password) throws MessagingException {
+    public void connect(final String host, final int port, final String user, final String password) throws MessagingException {
+        final Instrumentation instrumentation = Instrumentation.start(session, MailInstrumentation.Operation.CONNECT, null);
+        try {
+            connectService(host, port, user, password);
+            instrumentation.completed();
+        } finally {
+            // the URLName is filled in with the host used once we're connected
+            instrumentation.setTarget(url);
+            instrumentation.close();
+        }
+    }
+
+    private void connectService(String host, int port, String user, String password) throws MessagingException {
 
         if (isConnected()) {
             throw new IllegalStateException("Already connected");
@@ -410,7 +425,7 @@ public abstract class Service {
         }
         // first real event?  Time to get the queue kicked off.
         if (queue == null) {
-            queue = new EventQueue();
+            queue = EventQueue.getEventQueue(session);
         }
         // tee it up and let it rip.
         queue.queueEvent(event, (List)listeners.clone());
@@ -26,11 +26,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -38,9 +38,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.geronimo.mail.MailProviderRegistry;
+import org.apache.geronimo.mail.util.Instrumentation;
+import org.apache.geronimo.mail.util.MailInstrumentation;
 import org.apache.geronimo.osgi.locator.ProviderLocator;
 
 /**
@@ -58,7 +62,7 @@ import org.apache.geronimo.osgi.locator.ProviderLocator;
  */
 public final class Session {
     private static final Class[] PARAM_TYPES = {Session.class, URLName.class};
-    private static final WeakHashMap addressMapsByClassLoader = new WeakHashMap();
+    private static final ClassLoaderMap<Map> addressMapsByClassLoader = new ClassLoaderMap<Map>();
     private static Session DEFAULT_SESSION;
 
     private final Map passwordAuthentications = new HashMap();
@@ -67,8 +71,10 @@ public final class Session {
     private final Authenticator authenticator;
     private boolean debug;
     private PrintStream debugOut = System.out;
+    private TransportPool transportPool;
+    private EventQueue eventQueue;
 
-    private static final WeakHashMap providersByClassLoader = new WeakHashMap();
+    private static final ClassLoaderMap<ProviderInfo> providersByClassLoader = new ClassLoaderMap<ProviderInfo>();
 
     /**
      * No public constrcutor allowed.
@@ -196,7 +202,7 @@ public final class Session {
      * classloader, or if that is not available, the classloader that loaded this class.
      * <p/>
      * As searching for providers is potentially expensive, this implementation maintains
-     * a WeakHashMap of providers indexed by ClassLoader.
+     * a cache of providers indexed by ClassLoader.
      *
      * @return an array of providers
      */
@@ -366,6 +372,18 @@ public final class Session {
      * @throws NoSuchProviderException
      */
     public Transport getTransport(final Address address) throws NoSuchProviderException {
+        return getTransport(getProvider(address));
+    }
+
+    /**
+     * Return the transport Provider for the protocol associated with the type
+     * of an address.
+     *
+     * @param address the address we are trying to deliver to
+     * @return the Provider for the address
+     * @throws NoSuchProviderException
+     */
+    Provider getProvider(final Address address) throws NoSuchProviderException {
         final String type = address.getType();
         // load the address map from the resource files.
         final Map addressMap = getAddressMap();
@@ -373,7 +391,33 @@ public final class Session {
         if (protocolName == null) {
             throw new NoSuchProviderException("No provider for address type " + type);
         }
-        return getTransport(protocolName);
+        return getProvider(protocolName);
+    }
+
+    /**
+     * Return the event queue shared by the Services and Folders of this
+     * Session when the session event scope is used.
+     *
+     * @return the session event queue
+     */
+    synchronized EventQueue getEventQueue() {
+        if (eventQueue == null) {
+            eventQueue = new EventQueue(EventQueue.getExecutor(this), true);
+        }
+        return eventQueue;
+    }
+
+    /**
+     * Return the pool of connected transports used by the static
+     * Transport.send() methods.
+     *
+     * @return the session transport pool
+     */
+    synchronized TransportPool getTransportPool() {
+        if (transportPool == null) {
+            transportPool = new TransportPool(this);
+        }
+        return transportPool;
     }
 
     /**
@@ -481,19 +525,36 @@ public final class Session {
     }
 
 
-    private Service getService(final Provider provider, URLName name) throws NoSuchProviderException {
+    private Service getService(final Provider provider, final URLName name) throws NoSuchProviderException {
+        final Instrumentation instrumentation = Instrumentation.start(this, MailInstrumentation.Operation.PROVIDER_LOOKUP, provider.getProtocol());
+        try {
+            final Service service = createService(provider, name);
+            instrumentation.completed();
+            return service;
+        } finally {
+            instrumentation.close();
+        }
+    }
+
+    private Service createService(final Provider provider, URLName name) throws NoSuchProviderException {
         try {
             if (name == null) {
                 name = new URLName(provider.getProtocol(), null, -1, null, null, null);
             }
             final ClassLoader cl = getClassLoader();
-            Class clazz = null;
-            try {
-                clazz = ProviderLocator.loadClass(provider.getClassName(), this.getClass(), cl);
-            } catch (final ClassNotFoundException e) {
-                throw (NoSuchProviderException) new NoSuchProviderException("Unable to load class for provider: " + provider).initCause(e);
+            // resolving the class is only done the first time a provider class is used,
+            // after which the class comes from the cache.
+            final ProviderInfo info = getProviderInfo(cl);
+            Class<?> clazz = info.getProviderClass(provider.getClassName());
+            if (clazz == null) {
+                try {
+                    clazz = ProviderLocator.loadClass(provider.getClassName(), this.getClass(), cl);
+                } catch (final ClassNotFoundException e) {
+                    throw (NoSuchProviderException) new NoSuchProviderException("Unable to load class for provider: " + provider).initCause(e);
+                }
+                info.putProviderClass(provider.getClassName(), clazz);
             }
-            final Constructor ctr = clazz.getConstructor(PARAM_TYPES);
+            final Constructor<?> ctr = clazz.getConstructor(PARAM_TYPES);
             return(Service) ctr.newInstance(new Object[]{this, name});
         } catch (final NoSuchMethodException e) {
             throw (NoSuchProviderException) new NoSuchProviderException("Provider class does not have a constructor(Session, URLName): " + provider).initCause(e);
@@ -507,21 +568,24 @@ public final class Session {
     }
 
     private ProviderInfo getProviderInfo() {
-        final ClassLoader cl = getClassLoader();
-        synchronized (providersByClassLoader) {
-            ProviderInfo info = (ProviderInfo) providersByClassLoader.get(cl);
-            if (info == null) {
-                info = loadProviders(cl);
-            }
-            return info;
+        return getProviderInfo(getClassLoader());
+    }
+
+    private ProviderInfo getProviderInfo(final ClassLoader cl) {
+        ProviderInfo info = providersByClassLoader.get(cl);
+        if (info == null) {
+            // if another thread is loading these at the same time, the first one
+            // to finish is used by everybody.
+            info = providersByClassLoader.putIfAbsent(cl, loadProviders(cl));
         }
+        return info;
     }
 
     private Map getAddressMap() {
         final ClassLoader cl = getClassLoader();
-        Map addressMap = (Map)addressMapsByClassLoader.get(cl);
+        Map addressMap = addressMapsByClassLoader.get(cl);
         if (addressMap == null) {
-            addressMap = loadAddressMap(cl);
+            addressMap = addressMapsByClassLoader.putIfAbsent(cl, loadAddressMap(cl));
         }
         return addressMap;
     }
@@ -661,9 +725,6 @@ public final class Session {
             // ignore
         }
 
-        // make sure this is added to the global map.
-        providersByClassLoader.put(cl, info);
-
         return info;
     }
 
@@ -742,9 +803,6 @@ public final class Session {
         // just use Properties.load() to read in the files.
         final Properties addressMap = new Properties();
 
-        // add this to the tracking map.
-        addressMapsByClassLoader.put(cl, addressMap);
-
         // NOTE:  We are reading these resources in reverse order of what's cited above.  This allows
         // user defined entries to overwrite default entries if there are similarly named items.
 
@@ -839,11 +897,27 @@ public final class Session {
 
 
     private static class ProviderInfo {
-        private final Map byClassName = new HashMap();
-        private final Map byProtocol = new HashMap();
-        private final List all = new ArrayList();
+        // these are read without locking, and only updated in addProvider()
+        private final Map byClassName = new ConcurrentHashMap();
+        private final Map byProtocol = new ConcurrentHashMap();
+        private final List all = new CopyOnWriteArrayList();
+        // the resolved provider classes, by class name
+        private final ConcurrentMap<String, ProviderClass> classes = new ConcurrentHashMap<String, ProviderClass>();
+
+        public Class<?> getProviderClass(final String className) {
+            final ProviderClass entry = classes.get(className);
+            // the OSGi registry may have changed the provider classes since this was cached
+            if (entry == null || entry.generation != MailProviderRegistry.getGeneration()) {
+                return null;
+            }
+            return entry.get();
+        }
+
+        public void putProviderClass(final String className, final Class<?> providerClass) {
+            classes.put(className, new ProviderClass(providerClass, MailProviderRegistry.getGeneration()));
+        }
 
-        public void addProvider(final Provider provider) {
+        public synchronized void addProvider(final Provider provider) {
             final String className = provider.getClassName();
 
             if (!byClassName.containsKey(className)) {
@@ -857,4 +931,20 @@ public final class Session {
             all.add(provider);
         }
     }
+
+
+    /**
+     * A cached provider class.  The ProviderInfo holding this is itself only
+     * released along with its class loader, and the provider class is usually
+     * loaded by that same class loader, so the class is weakly referenced to
+     * keep the class loader collectable.
+     */
+    private static class ProviderClass extends WeakReference<Class<?>> {
+        private final int generation;
+
+        ProviderClass(final Class<?> providerClass, final int generation) {
+            super(providerClass);
+            this.generation = generation;
+        }
+    }
 }
@@ -20,16 +20,28 @@
 package javax.mail;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.mail.event.TransportEvent;
 import javax.mail.event.TransportListener;
 
+import org.apache.geronimo.mail.util.Instrumentation;
+import org.apache.geronimo.mail.util.MailInstrumentation;
+import org.apache.geronimo.mail.util.SessionUtil;
+
 /**
  * Abstract class modeling a message transport.
  *
@@ -66,56 +78,246 @@ public abstract class Transport extends Service {
     }
     
     
+    /**
+     * Send a message to the supplied addresses in the background.  The message
+     * is prepared and the addresses are grouped by transport before this method
+     * returns.  Each group is then delivered by a task run on the supplied executor,
+     * so groups handled by different transports are delivered concurrently.
+     * <p/>
+     * {@link Message#saveChanges()} will be called before this method returns, and
+     * the message should not be changed until the delivery is complete.
+     * If the delivery fails, {@link Future#get()} throws an ExecutionException
+     * whose cause is the same {@link SendFailedException} that
+     * {@link #send(Message, Address[])} would have thrown.
+     *
+     * @param message   the message to send
+     * @param addresses the addresses to send to
+     * @param executor  the executor used to run the deliveries
+     * @return a Future tracking completion of the delivery
+     * @throws MessagingException if there was a problem preparing the message
+     */
+    public static Future<Void> sendAsync(final Message message, final Address[] addresses, final Executor executor) throws MessagingException {
+        final Delivery delivery = prepare(message, addresses, null, null);
+        delivery.start(executor);
+        return delivery;
+    }
+
+
     private static void sendInternal(final Message message, final Address[] addresses, final String user, final String password) throws MessagingException {
-        
+        final Delivery delivery = prepare(message, addresses, user, password);
+
+        // deliveries to different transports are independent, so they can optionally be run
+        // concurrently.  The results are merged in the same way regardless.
+        final int parallel = SessionUtil.getIntProperty(message.session, "mail.transport.parallel", 1);
+        if (parallel <= 1 || delivery.size() <= 1) {
+            for (int i = 0; i < delivery.size(); i++) {
+                delivery.deliver(i);
+            }
+            delivery.complete();
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallel, delivery.size()), DELIVERY_THREADS);
+        try {
+            delivery.start(executor);
+            delivery.get();
+        } catch (final InterruptedException e) {
+            delivery.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while sending message", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new MessagingException("Unable to send message", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    private static Delivery prepare(final Message message, final Address[] addresses, final String user, final String password) throws MessagingException {
+
         if (addresses == null || addresses.length == 0) {
             throw new SendFailedException("No recipient addresses");
         }
-        
+
         final Session session = message.session;
-        final Map<Transport, List<Address>> msgsByTransport = new HashMap<Transport, List<Address>>();
+        // group the addresses by the provider that delivers them, so each provider needs only a
+        // single connection however many recipients it handles.
+        final Delivery delivery = new Delivery(message, user, password, session.getTransportPool());
         for (int i = 0; i < addresses.length; i++) {
             final Address address = addresses[i];
-            final Transport transport = session.getTransport(address);
-            List<Address> addrs = msgsByTransport.get(transport);
+            delivery.add(session.getProvider(address), address);
+        }
+
+        message.saveChanges();
+        return delivery;
+    }
+
+
+    // daemon threads used by the parallel send.  These must not keep the VM alive.
+    private static final ThreadFactory DELIVERY_THREADS = new ThreadFactory() {
+        private final ThreadFactory factory = Executors.defaultThreadFactory();
+
+        public Thread newThread(final Runnable r) {
+            final Thread thread = factory.newThread(r);
+            thread.setName("JavaMail-Transport-" + thread.getName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+
+    /**
+     * A single send of a message, with the addresses grouped by the provider
+     * that delivers them.  The groups can be delivered in any order, or
+     * concurrently, and the results are then combined into a single outcome.
+     */
+    private static final class Delivery implements Future<Void> {
+        private final Message message;
+        private final String user;
+        private final String password;
+        private final TransportPool pool;
+        private final Map<Provider, List<Address>> msgsByProvider = new LinkedHashMap<Provider, List<Address>>();
+        private final List<Provider> providers = new ArrayList<Provider>();
+        // the outcome of each group's delivery, with null for a success
+        private MessagingException[] failures;
+        private List<FutureTask<Void>> tasks;
+        // the merged outcome, worked out once as merging links the failures into a chain
+        private boolean completed;
+        private MessagingException outcome;
+
+        Delivery(final Message message, final String user, final String password, final TransportPool pool) {
+            this.message = message;
+            this.user = user;
+            this.password = password;
+            this.pool = pool;
+        }
+
+        void add(final Provider provider, final Address address) {
+            List<Address> addrs = msgsByProvider.get(provider);
             if (addrs == null) {
                 addrs = new ArrayList<Address>();
-                msgsByTransport.put(transport, addrs);
+                msgsByProvider.put(provider, addrs);
+                providers.add(provider);
             }
             addrs.add(address);
         }
 
-        message.saveChanges();
-
-        // Since we might be sending to multiple protocols, we need to catch and process each exception
-        // when we send and then throw a new SendFailedException when everything is done.  Unfortunately, this
-        // also means unwrapping the information in any SendFailedExceptions we receive and building
-        // composite failed list.
-        MessagingException chainedException = null;
-        final List<Address> sentAddresses = new ArrayList<Address>();
-        final List<Address> unsentAddresses = new ArrayList<Address>();
-        final List<Address> invalidAddresses = new ArrayList<Address>();
+        int size() {
+            return providers.size();
+        }
 
+        /**
+         * Deliver the message to a single group of addresses, recording any failure.
+         */
+        void deliver(final int index) throws MessagingException {
+            if (failures == null) {
+                failures = new MessagingException[providers.size()];
+            }
+            final Provider provider = providers.get(index);
+            final List<Address> addrs = msgsByProvider.get(provider);
+            Transport transport = null;
+            // a connection that failed other than by rejecting addresses is not reused
+            boolean reusable = false;
+            try {
+                // we MUST connect to the transport before attempting to send.  The pool
+                // hands us a connected one.
+                transport = pool.getTransport(provider, user, password);
+                sendGroup(transport, addrs.toArray(new Address[addrs.size()]));
+                reusable = true;
+            } catch (final SendFailedException e) {
+                reusable = true;
+                failures[index] = e;
+            } catch (final MessagingException e) {
+                failures[index] = e;
+            }
+            finally {
+                if (transport != null) {
+                    pool.release(provider, user, password, transport, reusable);
+                }
+            }
+        }
 
-        for (final Iterator<Entry<Transport, List<Address>>> i = msgsByTransport.entrySet().iterator(); i.hasNext();) {
-            final Entry<Transport, List<Address>> entry = i.next();
-            final Transport transport = entry.getKey();
-            final List<Address> addrs = entry.getValue();
+        private void sendGroup(final Transport transport, final Address[] addrs) throws MessagingException {
+            final Instrumentation instrumentation = Instrumentation.start(message.session, MailInstrumentation.Operation.SEND, null);
             try {
-                // we MUST connect to the transport before attempting to send.
-                if(user != null) {
-                    transport.connect(user, password);
-                } else {
-                    transport.connect();
+                transport.sendMessage(message, addrs);
+                if (instrumentation.isEnabled()) {
+                    instrumentation.setBytes(message.getSize());
+                }
+                instrumentation.completed();
+            } finally {
+                instrumentation.setTarget(transport.getURLName());
+                instrumentation.close();
+            }
+        }
+
+        /**
+         * Start delivering each of the groups as a separate task.
+         */
+        void start(final Executor executor) {
+            failures = new MessagingException[providers.size()];
+            tasks = new ArrayList<FutureTask<Void>>(providers.size());
+            for (int i = 0; i < providers.size(); i++) {
+                final int index = i;
+                tasks.add(new FutureTask<Void>(new Callable<Void>() {
+                    public Void call() throws MessagingException {
+                        deliver(index);
+                        return null;
+                    }
+                }));
+            }
+            for (final FutureTask<Void> task : tasks) {
+                executor.execute(task);
+            }
+        }
+
+        /**
+         * Combine the results of the group deliveries, throwing a SendFailedException
+         * if any of them failed.  The same outcome is thrown each time this is called.
+         */
+        synchronized void complete() throws MessagingException {
+            if (!completed) {
+                outcome = merge();
+                completed = true;
+            }
+            if (outcome != null) {
+                throw outcome;
+            }
+        }
+
+        /**
+         * Merge the results of the group deliveries.
+         *
+         * @return The exception for the failed deliveries, or null if all of them succeeded.
+         */
+        private MessagingException merge() {
+            // Since we might be sending to multiple protocols, we need to catch and process each exception
+            // when we send and then throw a new SendFailedException when everything is done.  Unfortunately, this
+            // also means unwrapping the information in any SendFailedExceptions we receive and building
+            // composite failed list.
+            MessagingException chainedException = null;
+            final List<Address> sentAddresses = new ArrayList<Address>();
+            final List<Address> unsentAddresses = new ArrayList<Address>();
+            final List<Address> invalidAddresses = new ArrayList<Address>();
+
+            for (int i = 0; i < providers.size(); i++) {
+                final MessagingException e = failures[i];
+                if (e == null) {
+                    // if we have to throw an exception because of another failure, these addresses need to
+                    // be in the valid list.
+                    sentAddresses.addAll(msgsByProvider.get(providers.get(i)));
+                    continue;
                 }
-                transport.sendMessage(message, addrs.toArray(new Address[addrs.size()]));
-                // if we have to throw an exception because of another failure, these addresses need to
-                // be in the valid list.  Since we succeeded here, we can add these now.
-                sentAddresses.addAll(addrs);
-            } catch (final SendFailedException e) {
-                // a true send failure.  The exception contains a wealth of information about
-                // the failures, including a potential chain of exceptions explaining what went wrong.  We're
-                // going to send a new one of these, so we need to merge the information.
 
                 // add this to our exception chain
                 if (chainedException == null) {
@@ -125,58 +327,104 @@ public abstract class Transport extends Service {
                     chainedException.setNextException(e);
                 }
 
-                // now extract each of the address categories from
-                Address[] exAddrs = e.getValidSentAddresses();
-                if (exAddrs != null) {
-                    for (int j = 0; j < exAddrs.length; j++) {
-                        sentAddresses.add(exAddrs[j]);
+                if (e instanceof SendFailedException) {
+                    // a true send failure.  The exception contains a wealth of information about
+                    // the failures, including a potential chain of exceptions explaining what went wrong.  We're
+                    // going to send a new one of these, so we need to merge the information.
+                    final SendFailedException sendFailure = (SendFailedException)e;
+
+                    // now extract each of the address categories from
+                    Address[] exAddrs = sendFailure.getValidSentAddresses();
+                    if (exAddrs != null) {
+                        for (int j = 0; j < exAddrs.length; j++) {
+                            sentAddresses.add(exAddrs[j]);
+                        }
                     }
-                }
 
-                exAddrs = e.getValidUnsentAddresses();
-                if (exAddrs != null) {
-                    for (int j = 0; j < exAddrs.length; j++) {
-                        unsentAddresses.add(exAddrs[j]);
+                    exAddrs = sendFailure.getValidUnsentAddresses();
+                    if (exAddrs != null) {
+                        for (int j = 0; j < exAddrs.length; j++) {
+                            unsentAddresses.add(exAddrs[j]);
+                        }
                     }
-                }
 
-                exAddrs = e.getInvalidAddresses();
-                if (exAddrs != null) {
-                    for (int j = 0; j < exAddrs.length; j++) {
-                        invalidAddresses.add(exAddrs[j]);
+                    exAddrs = sendFailure.getInvalidAddresses();
+                    if (exAddrs != null) {
+                        for (int j = 0; j < exAddrs.length; j++) {
+                            invalidAddresses.add(exAddrs[j]);
+                        }
                     }
                 }
+            }
 
-            } catch (final MessagingException e) {
-                // add this to our exception chain
-                if (chainedException == null) {
-                    chainedException = e;
+            // if we have an exception chain then we need to throw a new exception giving the failure
+            // information.
+            if (chainedException != null) {
+                // if we're only sending to a single transport (common), and we received a SendFailedException
+                // as a result, then we have a fully formed exception already.  Rather than wrap this in another
+                // exception, we can just rethrow the one we have.
+                if (providers.size() == 1 && chainedException instanceof SendFailedException) {
+                    return chainedException;
                 }
-                else {
-                    chainedException.setNextException(e);
+
+                // create our lists for notification and exception reporting from this point on.
+                final Address[] sent = sentAddresses.toArray(new Address[0]);
+                final Address[] unsent = unsentAddresses.toArray(new Address[0]);
+                final Address[] invalid = invalidAddresses.toArray(new Address[0]);
+
+                return new SendFailedException("Send failure", chainedException, sent, unsent, invalid);
+            }
+            return null;
+        }
+
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            boolean cancelled = false;
+            for (final FutureTask<Void> task : tasks) {
+                cancelled |= task.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+
+        public boolean isCancelled() {
+            for (final FutureTask<Void> task : tasks) {
+                if (task.isCancelled()) {
+                    return true;
                 }
             }
-            finally {
-                transport.close();
+            return false;
+        }
+
+        public boolean isDone() {
+            for (final FutureTask<Void> task : tasks) {
+                if (!task.isDone()) {
+                    return false;
+                }
             }
+            return true;
         }
 
-        // if we have an exception chain then we need to throw a new exception giving the failure
-        // information.
-        if (chainedException != null) {
-            // if we're only sending to a single transport (common), and we received a SendFailedException
-            // as a result, then we have a fully formed exception already.  Rather than wrap this in another
-            // exception, we can just rethrow the one we have.
-            if (msgsByTransport.size() == 1 && chainedException instanceof SendFailedException) {
-                throw chainedException;
+        public Void get() throws InterruptedException, ExecutionException {
+            for (final FutureTask<Void> task : tasks) {
+                task.get();
             }
+            return getResult();
+        }
 
-            // create our lists for notification and exception reporting from this point on.
-            final Address[] sent = sentAddresses.toArray(new Address[0]);
-            final Address[] unsent = unsentAddresses.toArray(new Address[0]);
-            final Address[] invalid = invalidAddresses.toArray(new Address[0]);
+        public Void get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (final FutureTask<Void> task : tasks) {
+                task.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            return getResult();
+        }
 
-            throw new SendFailedException("Send failure", chainedException, sent, unsent, invalid);
+        private Void getResult() throws ExecutionException {
+            try {
+                complete();
+            } catch (final MessagingException e) {
+                throw new ExecutionException(e);
+            }
+            return null;
         }
     }
 
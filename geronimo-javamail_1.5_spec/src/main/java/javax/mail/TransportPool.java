@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geronimo.mail.util.SessionUtil;
+
+/**
+ * Session scoped pool of connected transports used by the static
+ * {@link Transport#send(Message)} methods.  Pooling is off unless enabled
+ * for a protocol with these session properties:
+ * <ul>
+ * <li>mail.&lt;protocol&gt;.pool.size - the number of idle connections kept
+ * open for each provider and user.  0 (the default) disables pooling.</li>
+ * <li>mail.&lt;protocol&gt;.pool.timeout - the time in milliseconds an idle
+ * connection is kept before it is closed.  Defaults to 60000.  0 closes a
+ * connection as soon as it is released.</li>
+ * </ul>
+ * Idle connections are evicted as the pool is used, and by a background
+ * sweep once their timeout has passed, so they are closed even if the pool
+ * (or the Session it belongs to) is never used again.  The sweep holds on
+ * to a pool only while it has idle connections.  A pooled connection is
+ * checked with {@link Service#isConnected()} before it is handed out again.
+ *
+ * @version $Rev$ $Date$
+ */
+final class TransportPool {
+    private static final int DEFAULT_TIMEOUT = 60000;
+
+    // closes idle connections once they time out, for all of the pools.  Its thread
+    // goes away while there is nothing to sweep.
+    private static final ScheduledThreadPoolExecutor sweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "JavaMail-TransportPool-Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        sweeper.setKeepAliveTime(60, TimeUnit.SECONDS);
+        sweeper.allowCoreThreadTimeOut(true);
+    }
+
+    private final Session session;
+    // idle transports, keyed by provider and credentials.  The most recently used is first.
+    private final Map<String, LinkedList<IdleTransport>> idle = new HashMap<String, LinkedList<IdleTransport>>();
+    // the time of the earliest sweep scheduled for this pool, or 0 if there isn't one
+    private long nextSweep;
+
+    TransportPool(final Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Get a connected transport for a provider, reusing an idle pooled
+     * connection if there is one.
+     *
+     * @param provider The provider to deliver with.
+     * @param user     The user to connect as, or null to use the session defaults.
+     * @param password The password for the user.
+     *
+     * @return A connected transport.
+     * @exception MessagingException
+     */
+    Transport getTransport(final Provider provider, final String user, final String password) throws MessagingException {
+        if (getPoolSize(provider) > 0) {
+            final String key = getKey(provider, user, password);
+            Transport transport;
+            while ((transport = take(key)) != null) {
+                // the server may have dropped the connection while it was idle
+                if (transport.isConnected()) {
+                    return transport;
+                }
+                closeQuietly(transport);
+            }
+        }
+
+        final Transport transport = session.getTransport(provider);
+        if (user != null) {
+            transport.connect(user, password);
+        } else {
+            transport.connect();
+        }
+        return transport;
+    }
+
+    /**
+     * Hand back a transport obtained from {@link #getTransport(Provider, String, String)}.
+     * The transport is pooled if pooling is enabled, the pool has room, and the
+     * connection is still usable.  Otherwise it is closed.
+     *
+     * @param provider  The provider the transport was obtained for.
+     * @param user      The user the transport was obtained for.
+     * @param password  The password for the user.
+     * @param transport The transport.
+     * @param reusable  false if the transport failed in a way that leaves the connection
+     *                  in doubt.
+     *
+     * @exception MessagingException
+     */
+    void release(final Provider provider, final String user, final String password, final Transport transport, final boolean reusable) throws MessagingException {
+        final int size = getPoolSize(provider);
+        final int timeout = getTimeout(provider);
+        if (size > 0 && timeout > 0 && reusable && transport.isConnected()) {
+            final List<Transport> evicted = new ArrayList<Transport>();
+            synchronized (this) {
+                evictIdle(evicted);
+                final String key = getKey(provider, user, password);
+                LinkedList<IdleTransport> transports = idle.get(key);
+                if (transports == null) {
+                    transports = new LinkedList<IdleTransport>();
+                    idle.put(key, transports);
+                }
+                final IdleTransport entry = new IdleTransport(transport, timeout);
+                transports.addFirst(entry);
+                while (transports.size() > size) {
+                    evicted.add(transports.removeLast().transport);
+                }
+                scheduleSweep(entry.expires);
+            }
+            for (final Transport t : evicted) {
+                closeQuietly(t);
+            }
+            return;
+        }
+        transport.close();
+    }
+
+    /**
+     * Remove the most recently used idle transport for a key, evicting any
+     * connections that have been idle too long on the way.
+     */
+    private Transport take(final String key) {
+        final List<Transport> evicted = new ArrayList<Transport>();
+        Transport transport = null;
+        synchronized (this) {
+            evictIdle(evicted);
+            final LinkedList<IdleTransport> transports = idle.get(key);
+            if (transports != null) {
+                transport = transports.removeFirst().transport;
+                if (transports.isEmpty()) {
+                    idle.remove(key);
+                }
+            }
+        }
+        for (final Transport t : evicted) {
+            closeQuietly(t);
+        }
+        return transport;
+    }
+
+    /**
+     * Move any transports idle longer than their protocol's timeout to the
+     * evicted list.  The caller closes them once the pool lock is released.
+     */
+    private void evictIdle(final List<Transport> evicted) {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<LinkedList<IdleTransport>> i = idle.values().iterator(); i.hasNext();) {
+            final LinkedList<IdleTransport> transports = i.next();
+            for (final Iterator<IdleTransport> j = transports.iterator(); j.hasNext();) {
+                final IdleTransport entry = j.next();
+                if (now >= entry.expires) {
+                    evicted.add(entry.transport);
+                    j.remove();
+                }
+            }
+            if (transports.isEmpty()) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Make sure a sweep runs by the given time.  Called with the pool lock held.
+     */
+    private void scheduleSweep(final long time) {
+        if (nextSweep != 0 && nextSweep <= time) {
+            return;
+        }
+        nextSweep = time;
+        sweeper.schedule(new Runnable() {
+            public void run() {
+                sweep(time);
+            }
+        }, Math.max(0, time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the transports that have timed out, and schedule the next sweep
+     * for the ones still idle.
+     */
+    private void sweep(final long scheduled) {
+        final List<Transport> evicted = new ArrayList<Transport>();
+        synchronized (this) {
+            // a later sweep may have been replaced by an earlier one, which has covered it
+            if (nextSweep != scheduled) {
+                return;
+            }
+            nextSweep = 0;
+            evictIdle(evicted);
+            long next = 0;
+            for (final LinkedList<IdleTransport> transports : idle.values()) {
+                for (final IdleTransport entry : transports) {
+                    if (next == 0 || entry.expires < next) {
+                        next = entry.expires;
+                    }
+                }
+            }
+            if (next != 0) {
+                scheduleSweep(next);
+            }
+        }
+        for (final Transport t : evicted) {
+            closeQuietly(t);
+        }
+    }
+
+    private int getPoolSize(final Provider provider) {
+        return SessionUtil.getIntProperty(session, "mail." + provider.getProtocol() + ".pool.size", 0);
+    }
+
+    private int getTimeout(final Provider provider) {
+        return SessionUtil.getIntProperty(session, "mail." + provider.getProtocol() + ".pool.timeout", DEFAULT_TIMEOUT);
+    }
+
+    private static String getKey(final Provider provider, final String user, final String password) {
+        return provider.getProtocol() + '\u0000' + provider.getClassName() + '\u0000' + user + '\u0000' + password;
+    }
+
+    private static void closeQuietly(final Transport transport) {
+        try {
+            transport.close();
+        } catch (final MessagingException e) {
+            // the connection is being discarded anyway
+        }
+    }
+
+    private static final class IdleTransport {
+        final Transport transport;
+        // when the transport times out
+        final long expires;
+
+        IdleTransport(final Transport transport, final int timeout) {
+            this.transport = transport;
+            this.expires = System.currentTimeMillis() + timeout;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail.internet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.geronimo.mail.util.SessionUtil;
+
+/**
+ * An optional cache of parsed address lists, for applications that parse
+ * the same header values over and over, such as the From and To headers
+ * of a mailing list.  The system property mail.mime.address.cachesize
+ * gives the number of address lists kept, with the least recently used
+ * dropped first.  The cache is off by default.
+ *
+ * InternetAddress objects can be modified, so the cache holds its own
+ * copies and hands out new copies each time.
+ *
+ * @version $Rev$ $Date$
+ */
+final class AddressCache {
+    private static final String MIME_ADDRESS_CACHESIZE = "mail.mime.address.cachesize";
+
+    private static final Map<Key, InternetAddress[]> cache = new LinkedHashMap<Key, InternetAddress[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = -3096153786823416340L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, InternetAddress[]> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    // the size limit in effect, guarded by the cache lock
+    private static int maxSize;
+
+    private AddressCache() {
+    }
+
+    /**
+     * Get the size of the cache.
+     *
+     * @return The number of address lists to keep, 0 if the cache is off.
+     */
+    static int getSize() {
+        return SessionUtil.getIntProperty(null, MIME_ADDRESS_CACHESIZE, 0);
+    }
+
+    /**
+     * Look up a parsed address list.
+     *
+     * @param addresses The address list string.
+     * @param level     The validation level it was parsed at.
+     *
+     * @return A copy of the parsed addresses, or null if the list isn't cached.
+     */
+    static InternetAddress[] get(final String addresses, final int level) {
+        final InternetAddress[] parsed;
+        synchronized (cache) {
+            parsed = cache.get(new Key(addresses, level));
+        }
+        return parsed == null ? null : copy(parsed);
+    }
+
+    /**
+     * Add a parsed address list to the cache.
+     *
+     * @param addresses The address list string.
+     * @param level     The validation level it was parsed at.
+     * @param parsed    The parsed addresses.
+     * @param size      The cache size limit.
+     */
+    static void put(final String addresses, final int level, final InternetAddress[] parsed, final int size) {
+        final InternetAddress[] copy = copy(parsed);
+        synchronized (cache) {
+            maxSize = size;
+            cache.put(new Key(addresses, level), copy);
+        }
+    }
+
+    private static InternetAddress[] copy(final InternetAddress[] addresses) {
+        final InternetAddress[] copy = new InternetAddress[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            copy[i] = (InternetAddress)addresses[i].clone();
+        }
+        return copy;
+    }
+
+    private static final class Key {
+        private final String addresses;
+        private final int level;
+
+        Key(final String addresses, final int level) {
+            this.addresses = addresses;
+            this.level = level;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)other;
+            return level == key.level && addresses.equals(key.addresses);
+        }
+
+        @Override
+        public int hashCode() {
+            return addresses.hashCode() * 31 + level;
+        }
+    }
+}
@@ -76,6 +76,12 @@ class AddressParser {
      */
     public InternetAddress[] parseAddressList() throws AddressException
     {
+        // most lists are just plain addresses, which we can pick out without the tokens.
+        final List<InternetAddress> simple = parseSimpleAddresses(false);
+        if (simple != null) {
+            return simple.toArray(new InternetAddress[simple.size()]);
+        }
+
         // get the address as a set of tokens we can process.
         final TokenStream tokens = tokenizeAddress();
 
@@ -108,6 +114,13 @@ class AddressParser {
      */
     public InternetAddress parseAddress() throws AddressException
     {
+        // a plain address can be picked out without the tokens.  Anything else, including
+        // the error cases, goes through the full parser.
+        final List<InternetAddress> simple = parseSimpleAddresses(true);
+        if (simple != null && simple.size() == 1) {
+            return simple.get(0);
+        }
+
         // get the address as a set of tokens we can process.
         final TokenStream tokens = tokenizeAddress();
 
@@ -220,6 +233,203 @@ class AddressParser {
     }
 
 
+    /**
+     * Parse an address list made up only of the common address forms,
+     * "local@domain" and "phrase <local@domain>", in a single scan of the
+     * characters.  The local part and domain must be dot separated atoms,
+     * and the phrase atoms or quoted strings without escapes.  These
+     * forms are valid at every validation level and give the same
+     * addresses the full parser would.
+     *
+     * @param single true if the string must hold a single address, so
+     *               no list delimiters are allowed.
+     *
+     * @return The list of addresses, or null if the string needs the full parser.
+     */
+    private List<InternetAddress> parseSimpleAddresses(final boolean single) {
+        final List<InternetAddress> parsedAddresses = new ArrayList<InternetAddress>();
+        final int length = addresses.length();
+        int offset = 0;
+
+        while (true) {
+            offset = skipWhiteSpace(offset);
+            if (offset == length) {
+                return parsedAddresses;
+            }
+            if (addresses.charAt(offset) == ',') {
+                // an empty list element
+                if (single) {
+                    return null;
+                }
+                offset++;
+                continue;
+            }
+
+            String address = null;
+            String personal = null;
+
+            // the bare address form first
+            final int addressEnd = scanAddressSpec(offset);
+            if (addressEnd != -1 && atElementEnd(skipWhiteSpace(addressEnd))) {
+                address = addresses.substring(offset, addressEnd);
+                offset = skipWhiteSpace(addressEnd);
+            }
+            else {
+                // a phrase, which is the personal part of a route address.  Multiple words
+                // are blank delimited, with quoted words keeping their quotes.
+                StringBuffer phrase = null;
+                int words = 0;
+                boolean firstQuoted = false;
+                while (true) {
+                    offset = skipWhiteSpace(offset);
+                    if (offset == length) {
+                        return null;
+                    }
+                    final char ch = addresses.charAt(offset);
+                    final String word;
+                    final boolean quoted = ch == '"';
+                    if (quoted) {
+                        final int close = scanQuotedWord(offset);
+                        if (close == -1) {
+                            return null;
+                        }
+                        word = addresses.substring(offset + 1, close);
+                        offset = close + 1;
+                    }
+                    else if (isAtom(ch)) {
+                        final int atomEnd = scanAtom(offset);
+                        word = addresses.substring(offset, atomEnd);
+                        offset = atomEnd;
+                    }
+                    else {
+                        break;
+                    }
+                    if (words == 0) {
+                        personal = word;
+                        firstQuoted = quoted;
+                    }
+                    else {
+                        if (phrase == null) {
+                            phrase = new StringBuffer();
+                            phrase.append(firstQuoted ? formatQuotedString(personal) : personal);
+                        }
+                        phrase.append(' ');
+                        phrase.append(quoted ? formatQuotedString(word) : word);
+                    }
+                    words++;
+                }
+                if (phrase != null) {
+                    personal = phrase.toString();
+                }
+
+                // and the route address
+                if (addresses.charAt(offset) != '<') {
+                    return null;
+                }
+                final int start = skipWhiteSpace(offset + 1);
+                final int end = scanAddressSpec(start);
+                if (end == -1) {
+                    return null;
+                }
+                offset = skipWhiteSpace(end);
+                if (offset == length || addresses.charAt(offset) != '>') {
+                    return null;
+                }
+                offset = skipWhiteSpace(offset + 1);
+                if (!atElementEnd(offset)) {
+                    return null;
+                }
+                address = addresses.substring(start, end);
+            }
+
+            if (single && offset != length) {
+                return null;
+            }
+
+            final InternetAddress result = new InternetAddress();
+            result.setAddress(address);
+            try {
+                result.setPersonal(personal);
+            } catch (final UnsupportedEncodingException e) {
+            }
+            parsedAddresses.add(result);
+
+            if (offset == length) {
+                return parsedAddresses;
+            }
+            // step over the ','
+            offset++;
+        }
+    }
+
+    /**
+     * Scan a "local@domain" address, where both parts are atoms separated
+     * by periods.
+     *
+     * @return The end of the address, or -1 if there isn't one at the offset.
+     */
+    private int scanAddressSpec(int offset) {
+        offset = scanDottedAtoms(offset);
+        if (offset == -1 || offset == addresses.length() || addresses.charAt(offset) != '@') {
+            return -1;
+        }
+        return scanDottedAtoms(offset + 1);
+    }
+
+    private int scanDottedAtoms(int offset) {
+        while (true) {
+            if (offset == addresses.length() || !isAtom(addresses.charAt(offset))) {
+                return -1;
+            }
+            offset = scanAtom(offset);
+            if (offset == addresses.length() || addresses.charAt(offset) != '.') {
+                return offset;
+            }
+            offset++;
+        }
+    }
+
+    private int scanAtom(int offset) {
+        while (offset < addresses.length() && isAtom(addresses.charAt(offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    /**
+     * Find the closing quote of a quoted word that has no escapes.
+     *
+     * @return The offset of the closing quote, or -1 if the word needs the full parser.
+     */
+    private int scanQuotedWord(int offset) {
+        while (++offset < addresses.length()) {
+            final char ch = addresses.charAt(offset);
+            if (ch == '"') {
+                return offset;
+            }
+            if (ch == '\\' || ch == '\r') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private int skipWhiteSpace(int offset) {
+        while (offset < addresses.length()) {
+            final char ch = addresses.charAt(offset);
+            if (ch != ' ' && ch != '\t' && ch != '\r' && ch != '\n') {
+                break;
+            }
+            offset++;
+        }
+        return offset;
+    }
+
+    private boolean atElementEnd(final int offset) {
+        return offset == addresses.length() || addresses.charAt(offset) == ',';
+    }
+
+
     /**
      * Parse out a single address from a string from a string
      * of address tokens, returning an InternetAddress object that
@@ -1835,7 +2045,20 @@ class AddressParser {
          *         token is somehow not in the stream.
          */
         public int tokenIndex(final AddressToken token) {
-            return tokens.indexOf(token);
+            // each token is in the stream only once, and the ones we look for are nearly always
+            // at or just behind the cursor, so search backwards from there before looking ahead.
+            final int size = tokens.size();
+            for (int i = Math.min(currentToken, size - 1); i >= 0; i--) {
+                if (tokens.get(i) == token) {
+                    return i;
+                }
+            }
+            for (int i = currentToken + 1; i < size; i++) {
+                if (tokens.get(i) == token) {
+                    return i;
+                }
+            }
+            return -1;
         }
 
 
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail.internet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.geronimo.mail.util.SharedFileTransfer;
+
+/**
+ * Helpers for writing message data to a {@link WritableByteChannel}.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ChannelOutput {
+
+    private ChannelOutput() {
+    }
+
+    /**
+     * Write buffers to a channel, in a single gathering write where the
+     * channel supports that.
+     *
+     * @param channel The target channel.
+     * @param buffers The data to write.
+     *
+     * @exception IOException
+     */
+    static void write(final WritableByteChannel channel, final ByteBuffer... buffers) throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            final GatheringByteChannel gathering = (GatheringByteChannel)channel;
+            long remaining = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                remaining += buffers[i].remaining();
+            }
+            // any of the buffers may be empty, so count down the total rather than
+            // watching a single buffer
+            while (remaining > 0) {
+                remaining -= gathering.write(buffers);
+            }
+            return;
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            while (buffers[i].hasRemaining()) {
+                channel.write(buffers[i]);
+            }
+        }
+    }
+
+    /**
+     * Copy the rest of a stream to a channel.  The data of a
+     * {@link SharedFileInputStream} is transferred directly from the file.
+     *
+     * @param in      The source stream.
+     * @param channel The target channel.
+     *
+     * @exception IOException
+     */
+    static void copy(final InputStream in, final WritableByteChannel channel) throws IOException {
+        if (in instanceof SharedFileInputStream) {
+            SharedFileTransfer.transferTo((SharedFileInputStream)in, channel);
+            return;
+        }
+        final byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            write(channel, ByteBuffer.wrap(buffer, 0, length));
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream whose data can be written out without copying it.
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+        Buffer(final int size) {
+            super(size);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail.internet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.mail.util.SharedFileInputStream;
+
+/**
+ * Moves content that can't be read on demand out of the heap.  The source
+ * is always read to the end.  The content is buffered in memory up to a
+ * threshold, and anything larger is copied to a temporary file which is
+ * then read back through a {@link SharedFileInputStream}.  Parts sliced out
+ * of the file, such as the parts of a multipart body, are only read back
+ * when they are used.
+ *
+ * The temporary file is deleted as soon as it is open where the platform
+ * allows that, and otherwise when the VM exits.  Its space is released when
+ * the returned stream, and every stream created from it, has been closed.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ContentSpool {
+
+    private ContentSpool() {
+    }
+
+    /**
+     * Read the rest of a stream, spooling it to a temporary file if it is
+     * larger than the threshold.
+     *
+     * @param in        The stream to read.
+     * @param buffer    Receives the content if it doesn't exceed the threshold.
+     * @param threshold The largest content kept in memory.
+     *
+     * @return A shared stream reading the spooled content, which the caller must
+     *         close, or null if the content was small enough to be held in the
+     *         buffer.
+     * @exception IOException
+     */
+    static SharedFileInputStream spool(final InputStream in, final ByteArrayOutputStream buffer, final int threshold) throws IOException {
+        final byte[] block = new byte[8192];
+        int count;
+        while ((count = in.read(block, 0, block.length)) != -1) {
+            buffer.write(block, 0, count);
+            if (buffer.size() > threshold) {
+                return spool(in, buffer, block);
+            }
+        }
+        return null;
+    }
+
+    private static SharedFileInputStream spool(final InputStream in, final ByteArrayOutputStream buffer, final byte[] block) throws IOException {
+        final File file = File.createTempFile("javamail", ".tmp");
+        try {
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                buffer.writeTo(out);
+                buffer.reset();
+                int count;
+                while ((count = in.read(block, 0, block.length)) != -1) {
+                    out.write(block, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+            final SharedFileInputStream spooled = new SharedFileInputStream(file);
+            // the open file stays readable after it's deleted, except on Windows
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            return spooled;
+        } catch (final IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+}
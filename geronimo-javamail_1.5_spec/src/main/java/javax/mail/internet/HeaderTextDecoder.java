@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail.internet;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes RFC 2047 encoded-words in header text.  The text is scanned
+ * once, and the encoded-words are decoded straight from the header
+ * characters into a byte buffer and then through a cached
+ * {@link CharsetDecoder}, without the intermediate strings and streams.
+ *
+ * The buffers and decoders are kept per thread, since decoders can't be
+ * shared.
+ *
+ * @version $Rev$ $Date$
+ */
+final class HeaderTextDecoder {
+    // the most charsets we keep decoders for on each thread
+    private static final int MAX_DECODERS = 16;
+    // buffers grown beyond this aren't kept for the next use
+    private static final int MAX_KEPT = 8192;
+
+    private static final String LINEAR_WHITE_SPACE = " \t\r\n";
+
+    private static final byte[] BASE64 = new byte[128];
+
+    static {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64[i] = -1;
+        }
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = (byte)i;
+        }
+    }
+
+    private static final ThreadLocal<HeaderTextDecoder> decoders = new ThreadLocal<HeaderTextDecoder>() {
+        @Override
+        protected HeaderTextDecoder initialValue() {
+            return new HeaderTextDecoder();
+        }
+    };
+
+    private final Map<String, CharsetDecoder> charsets = new HashMap<String, CharsetDecoder>();
+    private StringBuilder result = new StringBuilder(128);
+    private byte[] bytes = new byte[128];
+    private CharBuffer chars = CharBuffer.allocate(128);
+
+    private HeaderTextDecoder() {
+    }
+
+    /**
+     * Decode the encoded-words in a string of header text.
+     *
+     * @param text   The text to decode.
+     * @param strict If true, only whole words are decoded, as RFC 2047
+     *               requires.  Otherwise encoded-words are also found
+     *               inside other words.
+     *
+     * @return The decoded text.
+     * @exception UnsupportedEncodingException
+     */
+    static String decodeText(final String text, final boolean strict) throws UnsupportedEncodingException {
+        final HeaderTextDecoder decoder = decoders.get();
+        try {
+            return decoder.decode(text, strict);
+        } finally {
+            decoder.trim();
+        }
+    }
+
+    /**
+     * Decode a single RFC 2047 encoded-word.
+     *
+     * @param word   The encoded word.
+     *
+     * @return The decoded word.
+     * @exception ParseException
+     * @exception UnsupportedEncodingException
+     */
+    static String decodeWord(final String word) throws ParseException, UnsupportedEncodingException {
+        final HeaderTextDecoder decoder = decoders.get();
+        try {
+            return decoder.decodeWord(word, 0, word.length()).toString();
+        } finally {
+            decoder.trim();
+        }
+    }
+
+    private String decode(final String text, final boolean strict) throws UnsupportedEncodingException {
+        final StringBuilder decoded = result;
+        decoded.setLength(0);
+
+        final int endOffset = text.length();
+        int offset = 0;
+        // the white space before the current word, only added if it's significant
+        int startWhiteSpace = -1;
+        int endWhiteSpace = -1;
+        boolean previousTokenEncoded = false;
+
+        while (offset < endOffset) {
+            if (LINEAR_WHITE_SPACE.indexOf(text.charAt(offset)) != -1) {
+                startWhiteSpace = offset;
+                while (offset < endOffset && LINEAR_WHITE_SPACE.indexOf(text.charAt(offset)) != -1) {
+                    offset++;
+                }
+                // trailing white space is discarded
+                endWhiteSpace = offset;
+                continue;
+            }
+
+            final int wordStart = offset;
+            while (offset < endOffset && LINEAR_WHITE_SPACE.indexOf(text.charAt(offset)) == -1) {
+                offset++;
+            }
+            final int wordEnd = offset;
+
+            int decodeStart = wordStart;
+            while (decodeStart < wordEnd) {
+                // in strict mode, only a word that starts with the marker is an encoded-word
+                final int tokenStart = strict ? (text.startsWith("=?", decodeStart) ? decodeStart : -1) : indexOf(text, "=?", decodeStart, wordEnd);
+                final int tokenEnd = tokenStart == -1 ? -1 : (strict ? wordEnd : findEnd(text, tokenStart, wordEnd));
+                if (tokenEnd == -1) {
+                    appendText(text, decodeStart, wordEnd, startWhiteSpace, endWhiteSpace);
+                    startWhiteSpace = -1;
+                    previousTokenEncoded = false;
+                    break;
+                }
+                // there may be ordinary text ahead of the encoded-word
+                if (tokenStart > decodeStart) {
+                    appendText(text, decodeStart, tokenStart, startWhiteSpace, endWhiteSpace);
+                    startWhiteSpace = -1;
+                    previousTokenEncoded = false;
+                }
+                decodeStart = tokenEnd;
+                try {
+                    final CharBuffer word = decodeWord(text, tokenStart, tokenEnd);
+                    // white space between two encoded-words isn't significant
+                    if (!previousTokenEncoded && startWhiteSpace != -1) {
+                        decoded.append(text, startWhiteSpace, endWhiteSpace);
+                    }
+                    startWhiteSpace = -1;
+                    previousTokenEncoded = true;
+                    decoded.append(word);
+                } catch (final ParseException e) {
+                    // not a valid encoded-word, so it's handled as normal text
+                    appendText(text, tokenStart, tokenEnd, startWhiteSpace, endWhiteSpace);
+                    startWhiteSpace = -1;
+                    previousTokenEncoded = false;
+                }
+            }
+        }
+        return decoded.toString();
+    }
+
+    private void appendText(final String text, final int start, final int end, final int startWhiteSpace, final int endWhiteSpace) {
+        if (startWhiteSpace != -1) {
+            result.append(text, startWhiteSpace, endWhiteSpace);
+        }
+        result.append(text, start, end);
+    }
+
+    /**
+     * Find the end of the encoded-word starting at an offset, skipping the
+     * charset and encoding fields so the encoded text can begin with "=".
+     *
+     * @return The offset following the closing "?=", or -1 if there isn't one.
+     */
+    private static int findEnd(final String text, final int start, final int end) {
+        final int charsetPos = indexOf(text, "?", start + 2, end);
+        if (charsetPos == -1) {
+            return -1;
+        }
+        final int encodingPos = indexOf(text, "?", charsetPos + 1, end);
+        if (encodingPos == -1) {
+            return -1;
+        }
+        final int encodedTextPos = indexOf(text, "?=", encodingPos + 1, end);
+        return encodedTextPos == -1 ? -1 : encodedTextPos + 2;
+    }
+
+    private static int indexOf(final String text, final String target, final int from, final int end) {
+        final int index = text.indexOf(target, from);
+        return index == -1 || index + target.length() > end ? -1 : index;
+    }
+
+    /**
+     * Decode the encoded-word in a range of the text.  Anything following the
+     * closing "?=" in the range is ignored.
+     *
+     * @return A buffer holding the decoded characters, valid until the next decode.
+     */
+    private CharBuffer decodeWord(final String text, final int start, final int end) throws ParseException, UnsupportedEncodingException {
+        if (!text.startsWith("=?", start)) {
+            throw new ParseException("Invalid RFC 2047 encoded-word: " + text.substring(start, end));
+        }
+        final int charsetPos = indexOf(text, "?", start + 2, end);
+        if (charsetPos == -1) {
+            throw new ParseException("Missing charset in RFC 2047 encoded-word: " + text.substring(start, end));
+        }
+        final int encodingPos = indexOf(text, "?", charsetPos + 1, end);
+        if (encodingPos == -1) {
+            throw new ParseException("Missing encoding in RFC 2047 encoded-word: " + text.substring(start, end));
+        }
+        final int encodedTextPos = indexOf(text, "?=", encodingPos + 1, end);
+        if (encodedTextPos == -1) {
+            throw new ParseException("Missing encoded text in RFC 2047 encoded-word: " + text.substring(start, end));
+        }
+
+        chars.clear();
+        // seems a bit silly to encode a null string, but easy to deal with.
+        if (encodedTextPos == encodingPos + 1) {
+            chars.flip();
+            return chars;
+        }
+
+        final int length;
+        if (encodingPos - charsetPos == 2 && (text.charAt(charsetPos + 1) == 'B' || text.charAt(charsetPos + 1) == 'b')) {
+            length = decodeBase64(text, encodingPos + 1, encodedTextPos);
+        }
+        else if (encodingPos - charsetPos == 2 && (text.charAt(charsetPos + 1) == 'Q' || text.charAt(charsetPos + 1) == 'q')) {
+            length = decodeQuotedPrintable(text, encodingPos + 1, encodedTextPos);
+        }
+        else {
+            throw new UnsupportedEncodingException("Unknown RFC 2047 encoding: " + text.substring(charsetPos + 1, encodingPos));
+        }
+
+        final CharsetDecoder decoder = getDecoder(text.substring(start + 2, charsetPos).toLowerCase());
+        final int size = (int)Math.ceil(length * (double)decoder.maxCharsPerByte());
+        if (chars.capacity() < size) {
+            chars = CharBuffer.allocate(size);
+        }
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(bytes, 0, length), chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars;
+    }
+
+    /**
+     * Decode base64 data into the byte buffer.  White space and any other
+     * characters outside the base64 alphabet are skipped.
+     *
+     * @return The number of bytes decoded.
+     */
+    private int decodeBase64(final String text, final int start, final int end) {
+        ensureBytes((end - start) / 4 * 3 + 3);
+        int length = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            final char ch = text.charAt(i);
+            if (ch == '=') {
+                break;
+            }
+            final int value = ch < 128 ? BASE64[ch] : -1;
+            if (value == -1) {
+                continue;
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                bytes[length++] = (byte)(bits >> 16);
+                bytes[length++] = (byte)(bits >> 8);
+                bytes[length++] = (byte)bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        // a final partial group, as left by the padding
+        if (count == 2) {
+            bytes[length++] = (byte)(bits >> 4);
+        }
+        else if (count == 3) {
+            bytes[length++] = (byte)(bits >> 10);
+            bytes[length++] = (byte)(bits >> 2);
+        }
+        return length;
+    }
+
+    /**
+     * Decode "Q" encoded data into the byte buffer.
+     *
+     * @return The number of bytes decoded.
+     */
+    private int decodeQuotedPrintable(final String text, final int start, final int end) throws UnsupportedEncodingException {
+        ensureBytes(end - start);
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            final char ch = text.charAt(i++);
+            // space characters were translated to '_' on encode, so we need to translate them back.
+            if (ch == '_') {
+                bytes[length++] = ' ';
+            }
+            else if (ch == '=') {
+                if (i + 1 >= end) {
+                    throw new UnsupportedEncodingException("Invalid RFC 2047 encoding");
+                }
+                final char c1 = text.charAt(i++);
+                final char c2 = text.charAt(i++);
+                if (c1 == '\r') {
+                    // a soft line break, which is dropped
+                    if (c2 != '\n') {
+                        throw new UnsupportedEncodingException("Invalid RFC 2047 encoding");
+                    }
+                }
+                else {
+                    final int high = Character.digit(c1, 16);
+                    final int low = Character.digit(c2, 16);
+                    bytes[length++] = (byte)(((high < 0 ? 0 : high) << 4) | (low < 0 ? 0 : low));
+                }
+            }
+            else {
+                // the encoded text is ASCII, anything else is unrepresentable
+                bytes[length++] = ch < 128 ? (byte)ch : (byte)'?';
+            }
+        }
+        return length;
+    }
+
+    private void ensureBytes(final int size) {
+        if (bytes.length < size) {
+            bytes = new byte[size];
+        }
+    }
+
+    private CharsetDecoder getDecoder(final String charset) throws UnsupportedEncodingException {
+        CharsetDecoder decoder = charsets.get(charset);
+        if (decoder == null) {
+            try {
+                // replace bad data the same way new String(byte[], charset) does
+                decoder = Charset.forName(MimeUtility.javaCharset(charset)).newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            } catch (final IllegalArgumentException e) {
+                throw new UnsupportedEncodingException(charset);
+            }
+            if (charsets.size() >= MAX_DECODERS) {
+                charsets.clear();
+            }
+            charsets.put(charset, decoder);
+        }
+        return decoder;
+    }
+
+    /**
+     * Drop any buffers that grew too large to keep around.
+     */
+    private void trim() {
+        if (result.capacity() > MAX_KEPT) {
+            result = new StringBuilder(128);
+        }
+        if (bytes.length > MAX_KEPT) {
+            bytes = new byte[128];
+        }
+        if (chars.capacity() > MAX_KEPT) {
+            chars = CharBuffer.allocate(128);
+        }
+    }
+}
@@ -555,9 +555,21 @@ public class InternetAddress extends Address implements Cloneable {
      *                if address checking fails
      */
     private static InternetAddress[] parse(final String addresses, final int level) throws AddressException {
+        // repeated header values may already have been parsed.
+        final int cacheSize = AddressCache.getSize();
+        if (cacheSize > 0) {
+            final InternetAddress[] cached = AddressCache.get(addresses, level);
+            if (cached != null) {
+                return cached;
+            }
+        }
         // create a parser and have it extract the list using the requested strictness leve.
         final AddressParser parser = new AddressParser(addresses, level);
-        return parser.parseAddressList();
+        final InternetAddress[] parsed = parser.parseAddressList();
+        if (cacheSize > 0) {
+            AddressCache.put(addresses, level, parsed, cacheSize);
+        }
+        return parsed;
     }
 
     /**
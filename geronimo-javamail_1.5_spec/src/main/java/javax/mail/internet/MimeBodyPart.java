@@ -93,17 +93,26 @@ public class MimeBodyPart extends BodyPart implements MimePart {
      */
     protected InternetHeaders headers;
 
+    // the parsed forms of the content type and disposition headers
+    private final ParsedHeaders parsedHeaders = new ParsedHeaders();
+
     public MimeBodyPart() {
         headers = new InternetHeaders();
     }
 
     public MimeBodyPart(final InputStream in) throws MessagingException {
         headers = new InternetHeaders(in);
+        // a shared source lets us keep a view onto the content rather than a copy of it
+        if (in instanceof SharedInputStream) {
+            final SharedInputStream sin = (SharedInputStream)in;
+            contentStream = sin.newStream(sin.getPosition(), -1);
+            return;
+        }
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final byte[] buffer = new byte[1024];
+        final byte[] buffer = new byte[8192];
         int count;
         try {
-            while((count = in.read(buffer, 0, 1024)) > 0) {
+            while((count = in.read(buffer, 0, buffer.length)) > 0) {
                 baos.write(buffer, 0, count);
             }
         } catch (final IOException e) {
@@ -164,7 +173,7 @@ public class MimeBodyPart extends BodyPart implements MimePart {
      * @exception MessagingException
      */
     public boolean isMimeType(final String type) throws MessagingException {
-        return new ContentType(getContentType()).match(type);
+        return parsedHeaders.getContentType(getContentType()).match(type);
     }
 
     /**
@@ -178,7 +187,7 @@ public class MimeBodyPart extends BodyPart implements MimePart {
     public String getDisposition() throws MessagingException {
         final String disp = getSingleHeader("Content-Disposition");
         if (disp != null) {
-            return new ContentDisposition(disp).getDisposition();
+            return parsedHeaders.getContentDisposition(disp).getDisposition();
         }
         return null;
     }
@@ -321,7 +330,7 @@ public class MimeBodyPart extends BodyPart implements MimePart {
         String filename = null;
 
         if (disposition != null) {
-            filename = new ContentDisposition(disposition).getParameter("filename");
+            filename = parsedHeaders.getContentDisposition(disposition).getParameter("filename");
         }
 
         // if there's no filename on the disposition, there might be a name parameter on a
@@ -330,7 +339,7 @@ public class MimeBodyPart extends BodyPart implements MimePart {
             final String type = getSingleHeader("Content-Type");
             if (type != null) {
                 try {
-                    filename = new ContentType(type).getParameter("name");
+                    filename = parsedHeaders.getContentType(type).getParameter("name");
                 } catch (final ParseException e) {
                 }
             }
@@ -388,6 +397,10 @@ public class MimeBodyPart extends BodyPart implements MimePart {
 
     protected InputStream getContentStream() throws MessagingException {
         if (contentStream != null) {
+            // hand out a fresh view of shared content so it can be read more than once
+            if (contentStream instanceof SharedInputStream) {
+                return ((SharedInputStream)contentStream).newStream(0, -1);
+            }
             return contentStream;
         }
 
@@ -619,7 +632,7 @@ public class MimeBodyPart extends BodyPart implements MimePart {
                 final String disp = getHeader("Content-Disposition", null);
                 if (disp != null) {
                     // parse up the string value of the disposition
-                    final ContentDisposition disposition = new ContentDisposition(disp);
+                    final ContentDisposition disposition = parsedHeaders.getContentDisposition(disp);
                     // now check for a filename value
                     final String filename = disposition.getParameter("filename");
                     // copy and rename the parameter, if it exists.
@@ -773,6 +786,18 @@ public class MimeBodyPart extends BodyPart implements MimePart {
      * @exception MessagingException
      */
     public void saveFile(final File file) throws IOException, MessagingException {
+        final DataHandler handler = getDataHandler();
+        if (handler.getClass() == DataHandler.class && handler.getDataSource() instanceof FileDataSource) {
+            // an attached file is copied by the data handler, which can leave the copy
+            // to the file channels rather than reading it through our buffers.
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                handler.writeTo(out);
+            } finally {
+                out.close();
+            }
+            return;
+        }
     	final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
         // we need to read the data in to write it out (sigh).
         final InputStream in = getInputStream();
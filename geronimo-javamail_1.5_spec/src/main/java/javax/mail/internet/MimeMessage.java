@@ -20,6 +20,7 @@
 package javax.mail.internet;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -27,6 +28,9 @@ import java.io.InputStream;
 import java.io.ObjectStreamException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -36,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.mail.Address;
 import javax.mail.Flags;
 import javax.mail.Folder;
@@ -46,8 +51,12 @@ import javax.mail.Multipart;
 import javax.mail.Part;
 import javax.mail.Session;
 import javax.mail.internet.HeaderTokenizer.Token;
+import javax.mail.util.SharedFileInputStream;
 
 import org.apache.geronimo.mail.util.ASCIIUtil;
+import org.apache.geronimo.mail.util.Instrumentation;
+import org.apache.geronimo.mail.util.MailDateCodec;
+import org.apache.geronimo.mail.util.MailInstrumentation;
 import org.apache.geronimo.mail.util.SessionUtil;
 
 /**
@@ -57,6 +66,11 @@ public class MimeMessage extends Message implements MimePart {
 	private static final String MIME_ADDRESS_STRICT = "mail.mime.address.strict";
 	private static final String MIME_DECODEFILENAME = "mail.mime.decodefilename";
 	private static final String MIME_ENCODEFILENAME = "mail.mime.encodefilename";
+	private static final String MIME_LAZYBODY = "mail.mime.lazybody";
+	private static final String MIME_LAZYBODY_THRESHOLD = "mail.mime.lazybody.threshold";
+
+	// the largest body kept in memory when mail.mime.lazybody is set
+	private static final int DEFAULT_LAZYBODY_THRESHOLD = 64 * 1024;
 
 	private static final String MAIL_ALTERNATES = "mail.alternates";
 	private static final String MAIL_REPLYALLCC = "mail.replyallcc";
@@ -124,10 +138,17 @@ public class MimeMessage extends Message implements MimePart {
      * if this field is non-null, then {@link #content} will be null.
      */
     protected InputStream contentStream;
+    // the temporary file a large body was spooled to (see mail.mime.lazybody).  This
+    // message owns it, so it's closed once replacement content is saved.  Streams
+    // already handed out for the content keep the file open until they're closed too.
+    private SharedFileInputStream spool;
     /**
      * This message's headers.
      */
     protected InternetHeaders headers;
+
+    // the parsed forms of the content type and disposition headers
+    private final ParsedHeaders parsedHeaders = new ParsedHeaders();
     /**
      * This message's flags.
      */
@@ -142,8 +163,6 @@ public class MimeMessage extends Message implements MimePart {
      */
     protected boolean saved;
 
-    private final MailDateFormat dateFormat = new MailDateFormat();
-
     /**
      * Create a new MimeMessage.
      * An empty message is created, with empty {@link #headers} and empty {@link #flags}.
@@ -169,7 +188,7 @@ public class MimeMessage extends Message implements MimePart {
      */
     public MimeMessage(final Session session, final InputStream in) throws MessagingException {
         this(session);
-        parse(in);
+        parseMessage(in);
         // this message is complete, so marked as unmodified.
         modified = false;
         // and no saving required
@@ -245,7 +264,7 @@ public class MimeMessage extends Message implements MimePart {
      */
     protected MimeMessage(final Folder folder, final InputStream in, final int number) throws MessagingException {
         this(folder, number);
-        parse(in);
+        parseMessage(in);
         // this message is complete, so marked as unmodified.
         modified = false;
         // and no saving required
@@ -270,26 +289,75 @@ public class MimeMessage extends Message implements MimePart {
         modified = false;
     }
 
+    /**
+     * Parse the stream a message is created from, reporting the parse to the
+     * session instrumentation.
+     */
+    private void parseMessage(final InputStream in) throws MessagingException {
+        final Instrumentation instrumentation = Instrumentation.start(session, MailInstrumentation.Operation.PARSE, null);
+        try {
+            parse(in);
+            instrumentation.setBytes(content == null ? -1 : content.length);
+            instrumentation.completed();
+        } finally {
+            instrumentation.close();
+        }
+    }
+
     /**
      * Parse the supplied stream and initialize {@link #headers} and {@link #content} appropriately.
      *
+     * If the stream is a {@link SharedInputStream}, the content is not read, but is left
+     * as a view onto the stream in {@link #contentStream}.  Any other stream is read to
+     * the end here.  If the session property mail.mime.lazybody is true, a body larger
+     * than mail.mime.lazybody.threshold bytes (64K by default) is then kept in a temporary
+     * file rather than in memory.  The file is closed, and its space released, when
+     * changes replacing the content are saved, or else once the message is garbage
+     * collected.
+     *
      * @param in the stream to read
      * @throws MessagingException if there was a problem parsing the stream
      */
     protected void parse(InputStream in) throws MessagingException {
-        in = new BufferedInputStream(in);
+        // a SharedInputStream already supports mark/reset, and wrapping it would
+        // hide the position information we need to slice out the content.
+        if (!(in instanceof SharedInputStream)) {
+            in = new BufferedInputStream(in);
+        }
         // create the headers first from the stream.  Note:  We need to do this 
         // by calling createInternetHeaders because subclasses might wish to add 
         // additional headers to the set initialized from the stream. 
         headers = createInternetHeaders(in);
+        releaseSpool();
+
+        // if the source is shared, the content is just a view onto the remainder of the
+        // stream.  No data gets copied, and parts of a multipart body are sliced out of the
+        // same backing data when the content is parsed.
+        if (in instanceof SharedInputStream) {
+            final SharedInputStream sin = (SharedInputStream)in;
+            contentStream = sin.newStream(sin.getPosition(), -1);
+            content = null;
+            return;
+        }
 
         // now we need to get the rest of the content as a byte array...this means reading from the current
         // position in the stream until the end and writing it to an accumulator ByteArrayOutputStream.
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            final byte buffer[] = new byte[1024];
+            if (SessionUtil.getBooleanProperty(session, MIME_LAZYBODY, false)) {
+                // a large body is still read in full, but it's kept in a temporary file
+                final SharedFileInputStream spooled = ContentSpool.spool(in, baos,
+                    SessionUtil.getIntProperty(session, MIME_LAZYBODY_THRESHOLD, DEFAULT_LAZYBODY_THRESHOLD));
+                if (spooled != null) {
+                    spool = spooled;
+                    contentStream = spooled;
+                    content = null;
+                    return;
+                }
+            }
+            final byte buffer[] = new byte[8192];
             int count;
-            while ((count = in.read(buffer, 0, 1024)) != -1) {
+            while ((count = in.read(buffer, 0, buffer.length)) != -1) {
                 baos.write(buffer, 0, count);
             }
         } catch (final Exception e) {
@@ -640,7 +708,7 @@ public class MimeMessage extends Message implements MimePart {
             return null;
         }
         try {
-            return dateFormat.parse(value);
+            return MailDateCodec.parse(value);
         } catch (final java.text.ParseException e) {
             return null;
         }
@@ -656,7 +724,7 @@ public class MimeMessage extends Message implements MimePart {
      */
     @Override
     public void setSentDate(final Date sent) throws MessagingException {
-        setOrRemoveHeader("Date", dateFormat.format(sent));
+        setOrRemoveHeader("Date", sent == null ? null : MailDateCodec.format(sent));
     }
 
     /**
@@ -737,7 +805,7 @@ public class MimeMessage extends Message implements MimePart {
      * @exception MessagingException
      */
     public boolean isMimeType(final String type) throws MessagingException {
-        return new ContentType(getContentType()).match(type);
+        return parsedHeaders.getContentType(getContentType()).match(type);
     }
 
     /**
@@ -751,7 +819,7 @@ public class MimeMessage extends Message implements MimePart {
     public String getDisposition() throws MessagingException {
         final String disp = getSingleHeader("Content-Disposition");
         if (disp != null) {
-            return new ContentDisposition(disp).getDisposition();
+            return parsedHeaders.getContentDisposition(disp).getDisposition();
         }
         return null;
     }
@@ -899,7 +967,7 @@ public class MimeMessage extends Message implements MimePart {
         String filename = null;
 
         if (disposition != null) {
-            filename = new ContentDisposition(disposition).getParameter("filename");
+            filename = parsedHeaders.getContentDisposition(disposition).getParameter("filename");
         }
 
         // if there's no filename on the disposition, there might be a name parameter on a
@@ -908,7 +976,7 @@ public class MimeMessage extends Message implements MimePart {
             final String type = getContentType();
             if (type != null) {
                 try {
-                    filename = new ContentType(type).getParameter("name");
+                    filename = parsedHeaders.getContentType(type).getParameter("name");
                 } catch (final ParseException e) {
                 }
             }
@@ -957,6 +1025,11 @@ public class MimeMessage extends Message implements MimePart {
 
     protected InputStream getContentStream() throws MessagingException {
         if (contentStream != null) {
+            // a shared content stream hands out a fresh view each time, so the
+            // content can be read more than once.
+            if (contentStream instanceof SharedInputStream) {
+                return ((SharedInputStream)contentStream).newStream(0, -1);
+            }
             return contentStream;
         }
 
@@ -984,7 +1057,15 @@ public class MimeMessage extends Message implements MimePart {
             return cachedContent;
         }
         
-        final Object c = getDataHandler().getContent();
+        final Object c;
+        final Instrumentation instrumentation = Instrumentation.start(session, MailInstrumentation.Operation.DECODE, null);
+        try {
+            c = getDataHandler().getContent();
+            instrumentation.setBytes(content == null ? -1 : content.length);
+            instrumentation.completed();
+        } finally {
+            instrumentation.close();
+        }
         
         if (MimeBodyPart.cacheMultipart && (c instanceof Multipart || c instanceof Message) && (content != null || contentStream != null)) {
             cachedContent = c;
@@ -1008,6 +1089,29 @@ public class MimeMessage extends Message implements MimePart {
         cachedContent = null;
     }
 
+    /**
+     * Test if a data handler reads the content this message was parsed from,
+     * rather than content set since.
+     */
+    private boolean isOwnContent(final DataHandler handler) {
+        final DataSource source = handler.getDataSource();
+        return source instanceof MimePartDataSource && ((MimePartDataSource)source).part == this;
+    }
+
+    /**
+     * Close the temporary file holding a spooled body, if there is one.
+     */
+    private void releaseSpool() {
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (final IOException e) {
+                // no-op
+            }
+            spool = null;
+        }
+    }
+
     public void setContent(final Object content, final String type) throws MessagingException {
         setDataHandler(new DataHandler(content, type));
     }
@@ -1287,9 +1391,15 @@ public class MimeMessage extends Message implements MimePart {
         // if the modfied flag, we don't have current content, so the data handler needs to
         // take care of writing this data out.
         if (modified) {
-            final OutputStream encoderStream = MimeUtility.encode(out, getEncoding());
-            dh.writeTo(encoderStream);
-            encoderStream.flush();
+            final Instrumentation instrumentation = Instrumentation.start(session, MailInstrumentation.Operation.ENCODE, null);
+            try {
+                final OutputStream encoderStream = MimeUtility.encode(instrumentation.count(out), getEncoding());
+                dh.writeTo(encoderStream);
+                encoderStream.flush();
+                instrumentation.completed();
+            } finally {
+                instrumentation.close();
+            }
         } else {
             // if we have content directly, we can write this out now.
             if (content != null) {
@@ -1316,6 +1426,68 @@ public class MimeMessage extends Message implements MimePart {
     }
 
 
+    /**
+     * Write the message out to a channel.  This produces the same data as
+     * {@link #writeTo(OutputStream)}.
+     *
+     * @param channel The target channel.
+     *
+     * @exception MessagingException
+     * @exception IOException
+     */
+    public void writeTo(final WritableByteChannel channel) throws MessagingException, IOException {
+        writeTo(channel, null);
+    }
+
+    /**
+     * Write the message out to a channel, excluding the specified message
+     * headers.  This produces the same data as {@link #writeTo(OutputStream, String[])}.
+     *
+     * An unmodified message that holds its content is written without being
+     * re-encoded:  the headers are collected into a single buffer, and the
+     * original content bytes follow it, in a single gathering write for
+     * in-memory content, or transferred straight from the file for content
+     * backed by a {@link SharedFileInputStream}.  Other messages are written
+     * through {@link #writeTo(OutputStream, String[])}.
+     *
+     * @param channel The target channel.
+     * @param ignoreHeaders
+     *               An array of header types to ignore.  This can be null, which means
+     *               write out all headers.
+     *
+     * @exception MessagingException
+     * @exception IOException
+     */
+    public void writeTo(final WritableByteChannel channel, final String[] ignoreHeaders) throws MessagingException, IOException {
+        // make sure everything is saved before we write
+        if (!saved) {
+            saveChanges();
+        }
+
+        if (modified || (content == null && contentStream == null)) {
+            final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 8192);
+            writeTo(out, ignoreHeaders);
+            return;
+        }
+
+        final ChannelOutput.Buffer head = new ChannelOutput.Buffer(1024);
+        headers.writeTo(head, ignoreHeaders);
+        head.write('\r');
+        head.write('\n');
+
+        if (content != null) {
+            ChannelOutput.write(channel, head.toByteBuffer(), ByteBuffer.wrap(content));
+            return;
+        }
+        ChannelOutput.write(channel, head.toByteBuffer());
+        final InputStream in = getContentStream();
+        try {
+            ChannelOutput.copy(in, channel);
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Retrieve all headers that match a given name.
      *
@@ -1565,7 +1737,7 @@ public class MimeMessage extends Message implements MimePart {
                 final String disp = getSingleHeader("Content-Disposition");
                 if (disp != null) {
                     // parse up the string value of the disposition
-                    final ContentDisposition disposition = new ContentDisposition(disp);
+                    final ContentDisposition disposition = parsedHeaders.getContentDisposition(disp);
                     // now check for a filename value
                     final String filename = disposition.getParameter("filename");
                     // copy and rename the parameter, if it exists.
@@ -1598,6 +1770,14 @@ public class MimeMessage extends Message implements MimePart {
                     }
                 }
                 contentStream = null;
+                spool = null;
+            }
+
+            // a spooled body that has been replaced is never written again once the
+            // changes are saved, so its temporary file can go now.
+            if (spool != null && !isOwnContent(handler)) {
+                contentStream = null;
+                releaseSpool();
             }
 
         } catch (final IOException e) {
@@ -276,20 +276,24 @@ public class MimeMultipart extends Multipart {
                 throw new MessagingException("Missing boundary parameter in content-type");
             }           
                         
-            final InputStream is = new BufferedInputStream(ds.getInputStream());
-            BufferedInputStream pushbackInStream = null;
+            final InputStream source = ds.getInputStream();
+            // a shared source is used as is (it supports mark/reset) so the parts can
+            // be sliced out of the same backing data instead of being copied.
+            final SharedInputStream sin = source instanceof SharedInputStream ? (SharedInputStream)source : null;
+            final InputStream is = sin != null ? source : new BufferedInputStream(source);
+            InputStream pushbackInStream = null;
             boolean boundaryFound = false;
             
             byte[] boundary = null;
             if (boundaryString == null || ignoreExistingBoundaryParameter) {
-                pushbackInStream = new BufferedInputStream(is, 1200);
+                pushbackInStream = sin != null ? is : new BufferedInputStream(is, 1200);
                 // read until we find something that looks like a boundary string
                 boundary = readTillFirstBoundary(pushbackInStream);
                 boundaryFound = boundary != null;
             }
             else {
                 boundary = ("--" + boundaryString).getBytes("ISO8859-1");
-                pushbackInStream = new BufferedInputStream(is, boundary.length + 1000);
+                pushbackInStream = sin != null ? is : new BufferedInputStream(is, boundary.length + 1000);
                 boundaryFound = readTillFirstBoundary(pushbackInStream, boundary);
             }
             
@@ -308,7 +312,15 @@ public class MimeMultipart extends Multipart {
             while (true) {
                 MimeBodyPartInputStream partStream;
                 partStream = new MimeBodyPartInputStream(pushbackInStream, boundary);
-                addBodyPart(new MimeBodyPart(partStream));
+                if (sin != null) {
+                    // locate the end of the part, then hand out a view of that range
+                    final long start = sin.getPosition();
+                    final long length = partStream.skipToBoundary();
+                    addBodyPart(createMimeBodyPart(sin.newStream(start, start + length)));
+                }
+                else {
+                    addBodyPart(createMimeBodyPart(partStream));
+                }
 
                 // terminated by an EOF rather than a proper boundary?
                 if (!partStream.boundaryFound) {
@@ -342,13 +354,14 @@ public class MimeMultipart extends Multipart {
      * @param boundary
      * @throws MessagingException
      */
-    private byte[] readTillFirstBoundary(final BufferedInputStream pushbackInStream) throws MessagingException {
+    private byte[] readTillFirstBoundary(final InputStream pushbackInStream) throws MessagingException {
         final ByteArrayOutputStream preambleStream = new ByteArrayOutputStream();
+        final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
 
         try {
             while (true) {
                 // read the next line
-                final byte[] line = readLine(pushbackInStream);
+                final byte[] line = readLine(pushbackInStream, lineBuffer);
                 // hit an EOF?
                 if (line == null || line.length==0) {
                     return null;//throw new MessagingException("Unexpected End of Stream while searching for first Mime Boundary");
@@ -413,13 +426,14 @@ public class MimeMultipart extends Multipart {
      * @param boundary
      * @throws MessagingException
      */
-    private boolean readTillFirstBoundary(final BufferedInputStream pushbackInStream, final byte[] boundary) throws MessagingException {
+    private boolean readTillFirstBoundary(final InputStream pushbackInStream, final byte[] boundary) throws MessagingException {
         final ByteArrayOutputStream preambleStream = new ByteArrayOutputStream();
+        final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
 
         try {
             while (true) {
                 // read the next line
-                final byte[] line = readLine(pushbackInStream);
+                final byte[] line = readLine(pushbackInStream, lineBuffer);
                 // hit an EOF?
                 if (line == null || line.length==0) {
                 	return false;//throw new MessagingException("Unexpected End of Stream while searching for first Mime Boundary");
@@ -489,14 +503,15 @@ public class MimeMultipart extends Multipart {
      * returning it as an array of bytes.
      *
      * @param in     The source input stream.
+     * @param line   An accumulator reused between calls.
      *
      * @return A byte array containing the line data.  Returns
      *         null if there's nothing left in the stream.
      * @exception MessagingException
      */
-    private byte[] readLine(final BufferedInputStream in) throws IOException
+    private byte[] readLine(final InputStream in, final ByteArrayOutputStream line) throws IOException
     {
-        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        line.reset();
 
         while (in.available() > 0) {
             int value = in.read();
@@ -557,17 +572,244 @@ public class MimeMultipart extends Multipart {
     }
 
     private class MimeBodyPartInputStream extends InputStream {
-        BufferedInputStream inStream;
+        // the largest chunk of part data returned by a single bulk read
+        private static final int BLOCK_SIZE = 8192;
+        // room allowed after a boundary for linear whitespace and the line end
+        private static final int BOUNDARY_SLACK = 80;
+        // result of a delimiter check that needs more data than we've buffered
+        private static final int INCOMPLETE = -1;
+
+        InputStream inStream;
         public boolean boundaryFound = false;
         byte[] boundary;
         public boolean finalBoundaryFound = false;
 
-        public MimeBodyPartInputStream(final BufferedInputStream inStream, final byte[] boundary) {
+        // Horspool shift table for the boundary, and the read-ahead block (both created lazily)
+        private int[] shift;
+        private byte[] block;
+
+        public MimeBodyPartInputStream(final InputStream inStream, final byte[] boundary) {
             super();
             this.inStream = inStream;
             this.boundary = boundary;
         }
 
+        /**
+         * Bulk read of the part data.  A block of data is read ahead from
+         * the source stream and searched for the boundary using a
+         * Boyer-Moore-Horspool scan.  Everything in front of the first delimiter
+         * line is returned in one piece, and the source is then repositioned
+         * just after the returned data (or after the delimiter line, once the
+         * boundary is reached).  The delimiter rules are the same ones applied
+         * by {@link #read()}.
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (boundaryFound) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            // without mark support we can't push back the read-ahead, so go byte by byte
+            if (!inStream.markSupported()) {
+                return readBytes(b, off, len);
+            }
+            if (shift == null) {
+                shift = new int[256];
+                Arrays.fill(shift, boundary.length);
+                for (int i = 0; i < boundary.length - 1; i++) {
+                    shift[boundary[i] & 0xff] = boundary.length - 1 - i;
+                }
+                block = new byte[BLOCK_SIZE + boundary.length + BOUNDARY_SLACK];
+            }
+
+            final int want = Math.min(len, BLOCK_SIZE);
+            final int request = want + boundary.length + BOUNDARY_SLACK;
+            inStream.mark(request);
+            int count = 0;
+            while (count < request) {
+                final int n = inStream.read(block, count, request - count);
+                if (n == -1) {
+                    break;
+                }
+                count += n;
+            }
+            if (count == 0) {
+                // premature end, which is not a boundary
+                return -1;
+            }
+            // if we came up short, the end of the block is the end of the data
+            final boolean eof = count < request;
+
+            // look at each occurrence of the boundary that could start a delimiter line
+            // within the range we're allowed to return.
+            int match = findBoundary(1, want + 1, count);
+            while (match != -1) {
+                // the boundary needs to be at the start of a line
+                if (block[match - 1] == '\n') {
+                    final int lineStart = match >= 2 && block[match - 2] == '\r' ? match - 2 : match - 1;
+                    if (lineStart >= want) {
+                        break;
+                    }
+                    final int end = matchDelimiter(block, match + boundary.length, count, eof);
+                    if (end == INCOMPLETE) {
+                        // can't decide with what's buffered.  Return the data up to this point,
+                        // or let the single byte reader handle it if there is none
+                        inStream.reset();
+                        if (lineStart > 0) {
+                            return consume(b, off, lineStart, lineStart);
+                        }
+                        return readBytes(b, off, 1);
+                    }
+                    if (end > 0) {
+                        inStream.reset();
+                        final int read = consume(b, off, lineStart, end);
+                        boundaryFound = true;
+                        finalBoundaryFound = block[match + boundary.length] == '-';
+                        return read == 0 ? -1 : read;
+                    }
+                }
+                match = findBoundary(match + 1, want + 1, count);
+            }
+
+            // no delimiter in this block, so return as much as we're allowed
+            inStream.reset();
+            return consume(b, off, Math.min(count, want), Math.min(count, want));
+        }
+
+        /**
+         * Copy data from the read-ahead block to the caller's buffer, and
+         * skip the source stream past the consumed section.
+         */
+        private int consume(final byte[] b, final int off, final int length, final int skip) throws IOException {
+            System.arraycopy(block, 0, b, off, length);
+            long remaining = skip;
+            while (remaining > 0) {
+                final long skipped = inStream.skip(remaining);
+                if (skipped <= 0) {
+                    // skip() is allowed to give up early, so fall back to reading
+                    if (inStream.read() == -1) {
+                        break;
+                    }
+                    remaining--;
+                }
+                else {
+                    remaining -= skipped;
+                }
+            }
+            return length;
+        }
+
+        /**
+         * Fill a buffer one byte at a time using {@link #read()}.
+         */
+        private int readBytes(final byte[] b, final int off, final int len) throws IOException {
+            int count = 0;
+            while (count < len) {
+                final int value = read();
+                if (value == -1) {
+                    break;
+                }
+                b[off + count++] = (byte) value;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        /**
+         * Horspool scan for the next occurrence of the boundary.
+         *
+         * @param from      The first index to consider.
+         * @param lastStart The last index a match may start at.
+         * @param count     The amount of buffered data.
+         *
+         * @return The index of the match, or -1 if there isn't one.
+         */
+        private int findBoundary(final int from, final int lastStart, final int count) {
+            final int last = boundary.length - 1;
+            int index = from;
+            while (index <= lastStart && index + last < count) {
+                int i = last;
+                while (i >= 0 && block[index + i] == boundary[i]) {
+                    i--;
+                }
+                if (i < 0) {
+                    return index;
+                }
+                index += shift[block[index + last] & 0xff];
+            }
+            return -1;
+        }
+
+        /**
+         * Check the remainder of a delimiter line following the boundary
+         * string: an optional "--" close marker, linear whitespace, and
+         * the line end.
+         *
+         * @param data   The buffered data.
+         * @param start  The index just after the boundary string.
+         * @param count  The amount of buffered data.
+         * @param eof    true if there's nothing after the buffered data.
+         *
+         * @return The index just past the delimiter line, 0 if this is not a delimiter,
+         *         or INCOMPLETE if more data is needed to decide.
+         */
+        private int matchDelimiter(final byte[] data, final int start, final int count, final boolean eof) {
+            int index = start;
+            final boolean close = index < count && data[index] == '-';
+            if (close) {
+                index++;
+                if (index >= count) {
+                    return eof ? 0 : INCOMPLETE;
+                }
+                if (data[index++] != '-') {
+                    return 0;
+                }
+            }
+            // skip over the linear whitespace
+            while (index < count && (data[index] == ' ' || data[index] == '\t')) {
+                index++;
+            }
+            if (index >= count) {
+                if (!eof) {
+                    return INCOMPLETE;
+                }
+                // a close delimiter is allowed to end the data (typical of nested multiparts)
+                return close ? index : 0;
+            }
+            if (data[index] == '\n') {
+                return index + 1;
+            }
+            if (data[index] != '\r') {
+                return 0;
+            }
+            index++;
+            if (index >= count) {
+                return eof ? 0 : INCOMPLETE;
+            }
+            return data[index] == '\n' ? index + 1 : 0;
+        }
+
+        /**
+         * Read through the remainder of the part, leaving the source
+         * stream positioned after the terminating boundary.
+         *
+         * @return The number of part data bytes skipped.
+         * @exception IOException
+         */
+        public long skipToBoundary() throws IOException {
+            final byte[] buffer = new byte[BLOCK_SIZE];
+            long count = 0;
+            int read;
+            while ((read = read(buffer, 0, buffer.length)) != -1) {
+                count += read;
+            }
+            return count;
+        }
+
         /**
          * The base reading method for reading one character
          * at a time.
@@ -85,7 +85,7 @@ public class MimePartDataSource implements DataSource, MessageAware {
         final String contentType = part.getContentType(); 
         if (contentType != null) {
             try {
-                final ContentType type = new ContentType(contentType); 
+                final ContentType type = ParsedHeaders.contentType(contentType); 
                 // no decoding done here 
                 if (type.match("multipart/*")) {
                     return stream; 
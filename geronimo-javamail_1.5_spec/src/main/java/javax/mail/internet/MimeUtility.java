@@ -20,27 +20,30 @@
 package javax.mail.internet;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
+import javax.activation.FileDataSource;
 import javax.mail.EncodingAware;
 import javax.mail.MessagingException;
+import javax.mail.util.ByteArrayDataSource;
 
 import org.apache.geronimo.mail.util.ASCIIUtil;
-import org.apache.geronimo.mail.util.Base64;
 import org.apache.geronimo.mail.util.Base64DecoderStream;
 import org.apache.geronimo.mail.util.Base64Encoder;
 import org.apache.geronimo.mail.util.Base64EncoderStream;
+import org.apache.geronimo.mail.util.ContentAnalyzer;
 import org.apache.geronimo.mail.util.QuotedPrintableDecoderStream;
 import org.apache.geronimo.mail.util.QuotedPrintableEncoder;
 import org.apache.geronimo.mail.util.QuotedPrintableEncoderStream;
@@ -67,7 +70,6 @@ public class MimeUtility {
     public static final int ALL = -1;
 
     private static String escapedChars = "\"\\\r\n";
-    private static String linearWhiteSpace = " \t\r\n";
 
     private static String QP_WORD_SPECIALS = "=_?\"#$%&'(),.:;<>@[\\]^`{|}~";
     private static String QP_TEXT_SPECIALS = "=_?";
@@ -122,254 +124,10 @@ public class MimeUtility {
             return text;
         }
 
-        // we have two sets of rules we can apply.
-        if (!SessionUtil.getBooleanProperty(MIME_DECODE_TEXT_STRICT, true)) {
-            return decodeTextNonStrict(text);
-        }
-
-        int offset = 0;
-        final int endOffset = text.length();
-
-        int startWhiteSpace = -1;
-        int endWhiteSpace = -1;
-
-        final StringBuffer decodedText = new StringBuffer(text.length());
-
-        boolean previousTokenEncoded = false;
-
-        while (offset < endOffset) {
-            char ch = text.charAt(offset);
-
-            // is this a whitespace character?
-            if (linearWhiteSpace.indexOf(ch) != -1) {
-                startWhiteSpace = offset;
-                while (offset < endOffset) {
-                    // step over the white space characters.
-                    ch = text.charAt(offset);
-                    if (linearWhiteSpace.indexOf(ch) != -1) {
-                        offset++;
-                    }
-                    else {
-                        // record the location of the first non lwsp and drop down to process the
-                        // token characters.
-                        endWhiteSpace = offset;
-                        break;
-                    }
-                }
-            }
-            else {
-                // we have a word token.  We need to scan over the word and then try to parse it.
-                final int wordStart = offset;
-
-                while (offset < endOffset) {
-                    // step over the white space characters.
-                    ch = text.charAt(offset);
-                    if (linearWhiteSpace.indexOf(ch) == -1) {
-                        offset++;
-                    }
-                    else {
-                        break;
-                    }
-
-                    //NB:  Trailing whitespace on these header strings will just be discarded.
-                }
-                // pull out the word token.
-                final String word = text.substring(wordStart, offset);
-                // is the token encoded?  decode the word
-                if (word.startsWith("=?")) {
-                    try {
-                        // if this gives a parsing failure, treat it like a non-encoded word.
-                        final String decodedWord = decodeWord(word);
-
-                        // are any whitespace characters significant?  Append 'em if we've got 'em.
-                        if (!previousTokenEncoded) {
-                            if (startWhiteSpace != -1) {
-                                decodedText.append(text.substring(startWhiteSpace, endWhiteSpace));
-                                startWhiteSpace = -1;
-                            }
-                        }
-                        // this is definitely a decoded token.
-                        previousTokenEncoded = true;
-                        // and add this to the text.
-                        decodedText.append(decodedWord);
-                        // we continue parsing from here...we allow parsing errors to fall through
-                        // and get handled as normal text.
-                        continue;
-
-                    } catch (final ParseException e) {
-                    }
-                }
-                // this is a normal token, so it doesn't matter what the previous token was.  Add the white space
-                // if we have it.
-                if (startWhiteSpace != -1) {
-                    decodedText.append(text.substring(startWhiteSpace, endWhiteSpace));
-                    startWhiteSpace = -1;
-                }
-                // this is not a decoded token.
-                previousTokenEncoded = false;
-                decodedText.append(word);
-            }
-        }
-
-        return decodedText.toString();
-    }
-
-
-    /**
-     * Decode a string of text obtained from a mail header into
-     * it's proper form.  The text generally will consist of a
-     * string of tokens, some of which may be encoded using
-     * base64 encoding.  This is for non-strict decoded for mailers that
-     * violate the RFC 2047 restriction that decoded tokens must be delimited
-     * by linear white space.  This will scan tokens looking for inner tokens
-     * enclosed in "=?" -- "?=" pairs.
-     *
-     * @param text   The text to decode.
-     *
-     * @return The decoded test string.
-     * @exception UnsupportedEncodingException
-     */
-    private static String decodeTextNonStrict(final String text) throws UnsupportedEncodingException {
-        int offset = 0;
-        final int endOffset = text.length();
-
-        int startWhiteSpace = -1;
-        int endWhiteSpace = -1;
-
-        final StringBuffer decodedText = new StringBuffer(text.length());
-
-        boolean previousTokenEncoded = false;
-
-        while (offset < endOffset) {
-            char ch = text.charAt(offset);
-
-            // is this a whitespace character?
-            if (linearWhiteSpace.indexOf(ch) != -1) {
-                startWhiteSpace = offset;
-                while (offset < endOffset) {
-                    // step over the white space characters.
-                    ch = text.charAt(offset);
-                    if (linearWhiteSpace.indexOf(ch) != -1) {
-                        offset++;
-                    }
-                    else {
-                        // record the location of the first non lwsp and drop down to process the
-                        // token characters.
-                        endWhiteSpace = offset;
-                        break;
-                    }
-                }
-            }
-            else {
-                // we're at the start of a word token.  We potentially need to break this up into subtokens
-                final int wordStart = offset;
-
-                while (offset < endOffset) {
-                    // step over the white space characters.
-                    ch = text.charAt(offset);
-                    if (linearWhiteSpace.indexOf(ch) == -1) {
-                        offset++;
-                    }
-                    else {
-                        break;
-                    }
-
-                    //NB:  Trailing whitespace on these header strings will just be discarded.
-                }
-                // pull out the word token.
-                final String word = text.substring(wordStart, offset);
-
-                int decodeStart = 0;
-
-                // now scan and process each of the bits within here.
-                while (decodeStart < word.length()) {
-                    final int tokenStart = word.indexOf("=?", decodeStart);
-                    if (tokenStart == -1) {
-                        // this is a normal token, so it doesn't matter what the previous token was.  Add the white space
-                        // if we have it.
-                        if (startWhiteSpace != -1) {
-                            decodedText.append(text.substring(startWhiteSpace, endWhiteSpace));
-                            startWhiteSpace = -1;
-                        }
-                        // this is not a decoded token.
-                        previousTokenEncoded = false;
-                        decodedText.append(word.substring(decodeStart));
-                        // we're finished.
-                        break;
-                    }
-                    // we have something to process
-                    else {
-                        // we might have a normal token preceeding this.
-                        if (tokenStart != decodeStart) {
-                            // this is a normal token, so it doesn't matter what the previous token was.  Add the white space
-                            // if we have it.
-                            if (startWhiteSpace != -1) {
-                                decodedText.append(text.substring(startWhiteSpace, endWhiteSpace));
-                                startWhiteSpace = -1;
-                            }
-                            // this is not a decoded token.
-                            previousTokenEncoded = false;
-                            decodedText.append(word.substring(decodeStart, tokenStart));
-                        }
-
-                        // now find the end marker.
-                        final int tokenEnd = word.indexOf("?=", tokenStart);
-                        // sigh, an invalid token.  Treat this as plain text.
-                        if (tokenEnd == -1) {
-                            // this is a normal token, so it doesn't matter what the previous token was.  Add the white space
-                            // if we have it.
-                            if (startWhiteSpace != -1) {
-                                decodedText.append(text.substring(startWhiteSpace, endWhiteSpace));
-                                startWhiteSpace = -1;
-                            }
-                            // this is not a decoded token.
-                            previousTokenEncoded = false;
-                            decodedText.append(word.substring(tokenStart));
-                            // we're finished.
-                            break;
-                        }
-                        else {
-                            // update our ticker
-                            decodeStart = tokenEnd + 2;
-
-                            final String token = word.substring(tokenStart, tokenEnd);
-                            try {
-                                // if this gives a parsing failure, treat it like a non-encoded word.
-                                final String decodedWord = decodeWord(token);
-
-                                // are any whitespace characters significant?  Append 'em if we've got 'em.
-                                if (!previousTokenEncoded) {
-                                    if (startWhiteSpace != -1) {
-                                        decodedText.append(text.substring(startWhiteSpace, endWhiteSpace));
-                                        startWhiteSpace = -1;
-                                    }
-                                }
-                                // this is definitely a decoded token.
-                                previousTokenEncoded = true;
-                                // and add this to the text.
-                                decodedText.append(decodedWord);
-                                // we continue parsing from here...we allow parsing errors to fall through
-                                // and get handled as normal text.
-                                continue;
-
-                            } catch (final ParseException e) {
-                            }
-                            // this is a normal token, so it doesn't matter what the previous token was.  Add the white space
-                            // if we have it.
-                            if (startWhiteSpace != -1) {
-                                decodedText.append(text.substring(startWhiteSpace, endWhiteSpace));
-                                startWhiteSpace = -1;
-                            }
-                            // this is not a decoded token.
-                            previousTokenEncoded = false;
-                            decodedText.append(token);
-                        }
-                    }
-                }
-            }
-        }
-
-        return decodedText.toString();
+        // we have two sets of rules we can apply.  The non-strict rules are for mailers that
+        // violate the RFC 2047 restriction that encoded tokens must be delimited by linear white space,
+        // and find tokens enclosed in "=?" -- "?=" pairs inside other words.
+        return HeaderTextDecoder.decodeText(text, SessionUtil.getBooleanProperty(MIME_DECODE_TEXT_STRICT, true));
     }
 
     /**
@@ -385,67 +143,7 @@ public class MimeUtility {
      * @exception UnsupportedEncodingException
      */
     public static String decodeWord(final String word) throws ParseException, UnsupportedEncodingException {
-        // encoded words start with the characters "=?".  If this not an encoded word, we throw a
-        // ParseException for the caller.
-
-        if (!word.startsWith("=?")) {
-            throw new ParseException("Invalid RFC 2047 encoded-word: " + word);
-        }
-
-        final int charsetPos = word.indexOf('?', 2);
-        if (charsetPos == -1) {
-            throw new ParseException("Missing charset in RFC 2047 encoded-word: " + word);
-        }
-
-        // pull out the character set information (this is the MIME name at this point).
-        final String charset = word.substring(2, charsetPos).toLowerCase();
-
-        // now pull out the encoding token the same way.
-        final int encodingPos = word.indexOf('?', charsetPos + 1);
-        if (encodingPos == -1) {
-            throw new ParseException("Missing encoding in RFC 2047 encoded-word: " + word);
-        }
-
-        final String encoding = word.substring(charsetPos + 1, encodingPos);
-
-        // and finally the encoded text.
-        final int encodedTextPos = word.indexOf("?=", encodingPos + 1);
-        if (encodedTextPos == -1) {
-            throw new ParseException("Missing encoded text in RFC 2047 encoded-word: " + word);
-        }
-
-        final String encodedText = word.substring(encodingPos + 1, encodedTextPos);
-
-        // seems a bit silly to encode a null string, but easy to deal with.
-        if (encodedText.length() == 0) {
-            return "";
-        }
-
-        try {
-            // the decoder writes directly to an output stream.
-            final ByteArrayOutputStream out = new ByteArrayOutputStream(encodedText.length());
-
-            final byte[] encodedData = encodedText.getBytes("US-ASCII");
-
-            // Base64 encoded?
-            if (encoding.equals("B")) {
-                Base64.decode(encodedData, out);
-            }
-            // maybe quoted printable.
-            else if (encoding.equals("Q")) {
-                final QuotedPrintableEncoder dataEncoder = new QuotedPrintableEncoder();
-                dataEncoder.decodeWord(encodedData, out);
-            }
-            else {
-                throw new UnsupportedEncodingException("Unknown RFC 2047 encoding: " + encoding);
-            }
-            // get the decoded byte data and convert into a string.
-            final byte[] decodedData = out.toByteArray();
-            return new String(decodedData, javaCharset(charset));
-        } catch (final IOException e) {
-            throw new UnsupportedEncodingException("Invalid RFC 2047 encoding");
-        }
-
+        return HeaderTextDecoder.decodeWord(word);
     }
 
     /**
@@ -722,17 +420,11 @@ public class MimeUtility {
             // The only access to the content bytes at this point is by asking the handler to write
             // the information out to a stream.  We're going to pipe this through a special stream
             // that examines the bytes as they go by.
-            final ContentCheckingOutputStream checker = new ContentCheckingOutputStream();
+            final ContentCheckingOutputStream checker = new ContentCheckingOutputStream(content.match("text/*"));
 
             handler.writeTo(checker);
 
-            // figure this out based on whether we believe this to be a text type or not.
-            if (content.match("text/*")) {
-                return checker.getTextTransferEncoding();
-            }
-            else {
-                return checker.getBinaryTransferEncoding();
-            }
+            return checker.getEncoding();
 
         } catch (final Exception e) {
             // any unexpected I/O exceptions we'll force to a "safe" fallback position.
@@ -759,6 +451,27 @@ public class MimeUtility {
                 return encoding;
             }
         }
+
+        // the content of a byte array source never changes, and a file is assumed
+        // unchanged as long as its size and modification time are the same.
+        long size = 0;
+        long modified = 0;
+        boolean cacheable = false;
+        if (source instanceof ByteArrayDataSource) {
+            cacheable = true;
+        }
+        else if (source instanceof FileDataSource) {
+            final File file = ((FileDataSource)source).getFile();
+            size = file.length();
+            modified = file.lastModified();
+            cacheable = true;
+        }
+        if (cacheable) {
+            final String cached = getCachedEncoding(source, size, modified);
+            if (cached != null) {
+                return cached;
+            }
+        }
         
         InputStream in = null;
 
@@ -769,14 +482,13 @@ public class MimeUtility {
             // we're probably going to have to scan the data.
             in = source.getInputStream();
 
-            if (!content.match("text/*")) {
-                // Not purporting to be a text type?  Examine the content to see we might be able to
-                // at least pretend it is an ascii type.
-                return ASCIIUtil.getBinaryTransferEncoding(in);
-            }
-            else {
-                return ASCIIUtil.getTextTransferEncoding(in);
+            // Not purporting to be a text type?  Examine the content to see we might be able to
+            // at least pretend it is an ascii type.
+            final String encoding = ContentAnalyzer.getEncoding(in, content.match("text/*"));
+            if (cacheable) {
+                cacheEncoding(source, size, modified, encoding);
             }
+            return encoding;
         } catch (final Exception e) {
             // this was a problem...not sure what makes sense here, so we'll assume it's binary
             // and we need to transfer this using Base64 encoding.
@@ -793,6 +505,49 @@ public class MimeUtility {
     }
 
 
+    /**
+     * Look up a previously determined encoding for some content.
+     *
+     * @param content  The DataSource for the content.
+     * @param size     The content size when the encoding was determined, if this can change.
+     * @param modified The content modification time when the encoding was determined, if this can change.
+     *
+     * @return The cached encoding, or null if we don't have one or it's out of date.
+     */
+    private static String getCachedEncoding(final DataSource content, final long size, final long modified) {
+        synchronized (encodingCache) {
+            final CachedEncoding cached = encodingCache.get(content);
+            if (cached != null && cached.size == size && cached.modified == modified) {
+                return cached.encoding;
+            }
+            return null;
+        }
+    }
+
+
+    private static void cacheEncoding(final DataSource content, final long size, final long modified, final String encoding) {
+        synchronized (encodingCache) {
+            encodingCache.put(content, new CachedEncoding(encoding, size, modified));
+        }
+    }
+
+
+    // the encodings determined for content that we know won't change underneath us
+    private static final Map<DataSource, CachedEncoding> encodingCache = new WeakHashMap<DataSource, CachedEncoding>();
+
+    private static class CachedEncoding {
+        final String encoding;
+        final long size;
+        final long modified;
+
+        CachedEncoding(final String encoding, final long size, final long modified) {
+            this.encoding = encoding;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+
     /**
      * Quote a "word" value.  If the word contains any character from
      * the specified "specials" list, this value is returned as a
@@ -1081,7 +836,7 @@ public class MimeUtility {
      *
      * @return The input text, with linebreaks inserted at appropriate fold points.
      */
-    public static String fold(int used, String s) {
+    public static String fold(int used, final String s) {
         // if folding is disable, unfolding is also.  Return the string unchanged.
         if (!SessionUtil.getBooleanProperty(MIME_FOLDTEXT, true)) {
             return s;
@@ -1097,32 +852,32 @@ public class MimeUtility {
                 break;
             }
         }
-
-        // did we actually find something to remove?  Shorten the String to the trimmed length
-        if (end != s.length() - 1) {
-            s = s.substring(0, end + 1);
-        }
+        // the length of the trimmed text
+        end++;
 
         // does the string as it exists now not require folding?  We can just had that back right off.
-        if (s.length() + used <= FOLD_THRESHOLD) {
-            return s;
+        if (end + used <= FOLD_THRESHOLD) {
+            return end == s.length() ? s : s.substring(0, end);
         }
 
         // get a buffer for the length of the string, plus room for a few line breaks.
         // these are soft line breaks, so we generally need more that just the line breaks (an escape +
         // CR + LF + leading space on next line);
-        final StringBuffer newString = new StringBuffer(s.length() + 8);
+        final StringBuilder newString = new StringBuilder(end + 8);
 
+        // the start of the text still to be folded.  We work through the string by offset rather
+        // than chopping off copies of the remainder.
+        int start = 0;
 
         // now keep chopping this down until we've accomplished what we need.
-        while (used + s.length() > FOLD_THRESHOLD) {
+        while (used + end - start > FOLD_THRESHOLD) {
             int breakPoint = -1;
             char breakChar = 0;
 
             // now scan for the next place where we can break.
-            for (int i = 0; i < s.length(); i++) {
+            for (int i = start; i < end; i++) {
                 // have we passed the fold limit?
-                if (used + i > FOLD_THRESHOLD) {
+                if (used + i - start > FOLD_THRESHOLD) {
                     // if we've already seen a blank, then stop now.  Otherwise
                     // we keep going until we hit a fold point.
                     if (breakPoint != -1) {
@@ -1138,7 +893,7 @@ public class MimeUtility {
                     // we need to maintain the same character type after the inserted linebreak.
                     breakChar = ch;
                     i++;
-                    while (i < s.length()) {
+                    while (i < end) {
                         ch = s.charAt(i);
                         if (ch != ' ' && ch != '\t') {
                             break;
@@ -1156,7 +911,7 @@ public class MimeUtility {
                     newString.append('\n');
                     i++;
                     // if this is a CRLF pair, add the second char also
-                    if (i < s.length() && s.charAt(i) == '\n') {
+                    if (i < end && s.charAt(i) == '\n') {
                         newString.append('\r');
                     }
                 }
@@ -1164,20 +919,20 @@ public class MimeUtility {
             }
             // no fold point found, we punt, append the remainder and leave.
             if (breakPoint == -1) {
-                newString.append(s);
+                newString.append(s, start, end);
                 return newString.toString();
             }
-            newString.append(s.substring(0, breakPoint));
+            newString.append(s, start, breakPoint);
             newString.append("\r\n");
             newString.append(breakChar);
-            // chop the string
-            s = s.substring(breakPoint + 1);
+            // move past the break
+            start = breakPoint + 1;
             // start again, and we've used the first char of the limit already with the whitespace char.
             used = 1;
         }
 
         // add on the remainder, and return
-        newString.append(s);
+        newString.append(s, start, end);
         return newString.toString();
     }
 
@@ -1204,7 +959,7 @@ public class MimeUtility {
         // we need to scan and fix things up.
         final int length = s.length();
 
-        final StringBuffer newString = new StringBuffer(length);
+        final StringBuilder newString = new StringBuilder(length);
 
         // scan the entire string
         for (int i = 0; i < length; i++) {
@@ -1301,14 +1056,11 @@ public class MimeUtility {
  * the stream so it can make transfer encoding determinations.
  */
 class ContentCheckingOutputStream extends OutputStream {
-    private int asciiChars = 0;
-    private int nonAsciiChars = 0;
-    private boolean containsLongLines = false;
-    private boolean containsMalformedEOL = false;
-    private int previousChar = 0;
-    private int span = 0;
-
-    ContentCheckingOutputStream() {
+    private final ContentAnalyzer analyzer;
+    private final byte[] single = new byte[1];
+
+    ContentCheckingOutputStream(final boolean text) {
+        analyzer = new ContentAnalyzer(text);
     }
 
     @Override
@@ -1318,76 +1070,17 @@ class ContentCheckingOutputStream extends OutputStream {
 
     @Override
     public void write(final byte[] data, final int offset, final int length) throws IOException {
-        for (int i = 0; i < length; i++) {
-            write(data[offset + i]);
-        }
+        // once the encoding is decided, the rest of the data is just skipped
+        analyzer.update(data, offset, length);
     }
 
     @Override
-    public void write(final int ch) {
-        // we found a linebreak.  Reset the line length counters on either one.  We don't
-        // really need to validate here.
-        if (ch == '\n' || ch == '\r') {
-            // we found a newline, this is only valid if the previous char was the '\r'
-            if (ch == '\n') {
-                // malformed linebreak?  force this to base64 encoding.
-                if (previousChar != '\r') {
-                    containsMalformedEOL = true;
-                }
-            }
-            // hit a line end, reset our line length counter
-            span = 0;
-        }
-        else {
-            span++;
-            // the text has long lines, we can't transfer this as unencoded text.
-            if (span > 998) {
-                containsLongLines = true;
-            }
-
-            // non-ascii character, we have to transfer this in binary.
-            if (!ASCIIUtil.isAscii(ch)) {
-                nonAsciiChars++;
-            }
-            else {
-                asciiChars++;
-            }
-        }
-        previousChar = ch;
-    }
-
-
-    public String getBinaryTransferEncoding() {
-        if (nonAsciiChars != 0 || containsLongLines || containsMalformedEOL) {
-            return "base64";
-        }
-        else {
-            return "7bit";
-        }
+    public void write(final int ch) throws IOException {
+        single[0] = (byte)ch;
+        write(single, 0, 1);
     }
 
-    public String getTextTransferEncoding() {
-        // looking good so far, only valid chars here.
-        if (nonAsciiChars == 0) {
-            // does this contain long text lines?  We need to use a Q-P encoding which will
-            // be only slightly longer, but handles folding the longer lines.
-            if (containsLongLines) {
-                return "quoted-printable";
-            }
-            else {
-                // ideal!  Easiest one to handle.
-                return "7bit";
-            }
-        }
-        else {
-            // mostly characters requiring encoding?  Base64 is our best bet.
-            if (nonAsciiChars > asciiChars) {
-                return "base64";
-            }
-            else {
-                // Q-P encoding will use fewer bytes than the full Base64.
-                return "quoted-printable";
-            }
-        }
+    public String getEncoding() {
+        return analyzer.getEncoding();
     }
 }
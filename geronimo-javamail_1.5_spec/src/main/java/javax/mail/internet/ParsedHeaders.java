@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail.internet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the parsed form of a part's Content-Type and Content-Disposition
+ * headers.  Each entry remembers the header value it was parsed from, so
+ * a changed header is simply parsed again, however it was changed.
+ *
+ * Values not found in a part's own cache are looked up in a small cache
+ * shared by all parts, since most messages use the same few content
+ * types.  The shared cache is emptied whenever it fills up.
+ *
+ * The parsed objects are shared, so they must only be used for reading.
+ * Anything that needs to modify the value has to parse its own copy.
+ *
+ * @version $Rev$ $Date$
+ */
+final class ParsedHeaders {
+    // the most values held by each of the shared caches
+    private static final int MAX_SHARED = 128;
+
+    private static final ConcurrentMap<String, ContentType> sharedTypes = new ConcurrentHashMap<String, ContentType>();
+    private static final ConcurrentMap<String, ContentDisposition> sharedDispositions = new ConcurrentHashMap<String, ContentDisposition>();
+
+    private Entry<ContentType> type;
+    private Entry<ContentDisposition> disposition;
+
+    /**
+     * Get the parsed form of a Content-Type value for this part.
+     *
+     * @param value  The header value.
+     *
+     * @return The parsed value.  This must not be modified.
+     * @exception ParseException
+     */
+    ContentType getContentType(final String value) throws ParseException {
+        final Entry<ContentType> entry = type;
+        if (entry != null && entry.matches(value)) {
+            return entry.parsed;
+        }
+        final ContentType parsed = contentType(value);
+        type = new Entry<ContentType>(value, parsed);
+        return parsed;
+    }
+
+    /**
+     * Get the parsed form of a Content-Disposition value for this part.
+     *
+     * @param value  The header value.
+     *
+     * @return The parsed value.  This must not be modified.
+     * @exception ParseException
+     */
+    ContentDisposition getContentDisposition(final String value) throws ParseException {
+        final Entry<ContentDisposition> entry = disposition;
+        if (entry != null && entry.matches(value)) {
+            return entry.parsed;
+        }
+        final ContentDisposition parsed = contentDisposition(value);
+        disposition = new Entry<ContentDisposition>(value, parsed);
+        return parsed;
+    }
+
+    /**
+     * Get the parsed form of a Content-Type value from the shared cache.
+     *
+     * @param value  The header value.
+     *
+     * @return The parsed value.  This must not be modified.
+     * @exception ParseException
+     */
+    static ContentType contentType(final String value) throws ParseException {
+        if (value == null) {
+            return new ContentType(value);
+        }
+        ContentType parsed = sharedTypes.get(value);
+        if (parsed == null) {
+            parsed = new ContentType(value);
+            if (sharedTypes.size() >= MAX_SHARED) {
+                sharedTypes.clear();
+            }
+            sharedTypes.put(value, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Get the parsed form of a Content-Disposition value from the shared cache.
+     *
+     * @param value  The header value.
+     *
+     * @return The parsed value.  This must not be modified.
+     * @exception ParseException
+     */
+    static ContentDisposition contentDisposition(final String value) throws ParseException {
+        if (value == null) {
+            return new ContentDisposition(value);
+        }
+        ContentDisposition parsed = sharedDispositions.get(value);
+        if (parsed == null) {
+            parsed = new ContentDisposition(value);
+            if (sharedDispositions.size() >= MAX_SHARED) {
+                sharedDispositions.clear();
+            }
+            sharedDispositions.put(value, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * A parsed value and the header value it came from.  Entries are
+     * immutable, so they can be handed between threads without locking.
+     */
+    private static final class Entry<T> {
+        final String value;
+        final T parsed;
+
+        Entry(final String value, final T parsed) {
+            this.value = value;
+            this.parsed = parsed;
+        }
+
+        boolean matches(final String other) {
+            return value == other || (value != null && value.equals(other));
+        }
+    }
+}
@@ -20,12 +20,17 @@
 package javax.mail.search;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 import javax.mail.BodyPart;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Part;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimePartDataSource;
+import javax.mail.internet.MimeUtility;
 
 /**
  * Term that matches on a message body. All {@link javax.mail.BodyPart parts} that have
@@ -64,6 +69,16 @@ public final class BodyTerm extends StringTerm {
             }
             return false;
         } else if (part.isMimeType("text/*")) {
+            if (part.getDataHandler().getDataSource() instanceof MimePartDataSource) {
+                // the text still has to be decoded from the raw part data, so we
+                // examine it as it's decoded rather than building the whole string
+                final Reader reader = new InputStreamReader(part.getInputStream(), getCharset(part));
+                try {
+                    return match(reader);
+                } finally {
+                    reader.close();
+                }
+            }
             final String content = (String) part.getContent();
             return super.match(content);
         } else if (part.isMimeType("message/rfc822")) {
@@ -73,4 +88,12 @@ public final class BodyTerm extends StringTerm {
             return false;
         }
     }
+
+    private static String getCharset(final Part part) throws MessagingException {
+        String charset = new ContentType(part.getContentType()).getParameter("charset");
+        if (charset == null) {
+            charset = "us-ascii";
+        }
+        return MimeUtility.javaCharset(charset);
+    }
 }
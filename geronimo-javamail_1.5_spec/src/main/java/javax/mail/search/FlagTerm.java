@@ -65,22 +65,10 @@ public final class FlagTerm extends SearchTerm {
             if (set) {
                 return msgFlags.contains(flags);
             } else {
-                // yuk - I wish we could get at the internal state of the Flags
-                final Flags.Flag[] system = flags.getSystemFlags();
-                for (int i = 0; i < system.length; i++) {
-                    final Flags.Flag flag = system[i];
-                    if (msgFlags.contains(flag)) {
-                        return false;
-                    }
-                }
-                final String[] user = flags.getUserFlags();
-                for (int i = 0; i < user.length; i++) {
-                    final String flag = user[i];
-                    if (msgFlags.contains(flag)) {
-                        return false;
-                    }
-                }
-                return true;
+                // none of the flags are set if removing them changes nothing
+                final Flags rest = new Flags(msgFlags);
+                rest.remove(flags);
+                return rest.equals(msgFlags);
             }
         } catch (final MessagingException e) {
             return false;
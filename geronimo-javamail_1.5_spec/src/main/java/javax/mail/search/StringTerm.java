@@ -19,6 +19,9 @@
 
 package javax.mail.search;
 
+import java.io.IOException;
+import java.io.Reader;
+
 /**
  * A Term that provides matching criteria for Strings.
  *
@@ -92,6 +95,67 @@ public abstract class StringTerm extends SearchTerm {
         return false;
     }
 
+    /**
+     * Determine if the pattern associated with this term occurs in the text
+     * read from a Reader.  The text is examined as it is read, and reading
+     * stops at the first match.
+     *
+     * @param reader the source of the text to compare to
+     * @return true if this pattern occurs in the text
+     * @exception IOException
+     */
+    boolean match(final Reader reader) throws IOException {
+        final int matchLength = pattern.length();
+        if (matchLength == 0) {
+            return true;
+        }
+        final char[] plain = pattern.toCharArray();
+        // the case folded forms of the pattern, compared the same way as String.regionMatches()
+        final char[] upper = new char[matchLength];
+        final char[] lower = new char[matchLength];
+        for (int i = 0; i < matchLength; i++) {
+            upper[i] = Character.toUpperCase(plain[i]);
+            lower[i] = Character.toLowerCase(upper[i]);
+        }
+
+        // the tail of each block is kept so a match can span blocks
+        final char[] buffer = new char[Math.max(4096, matchLength * 2)];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            final int last = length - matchLength;
+            for (int i = 0; i <= last; i++) {
+                if (regionMatches(buffer, i, plain, upper, lower)) {
+                    return true;
+                }
+            }
+            if (last >= 0) {
+                final int keep = matchLength - 1;
+                System.arraycopy(buffer, length - keep, buffer, 0, keep);
+                length = keep;
+            }
+        }
+        return false;
+    }
+
+    private boolean regionMatches(final char[] buffer, final int offset, final char[] plain, final char[] upper, final char[] lower) {
+        for (int j = 0; j < plain.length; j++) {
+            final char ch = buffer[offset + j];
+            if (ch == plain[j]) {
+                continue;
+            }
+            if (!ignoreCase) {
+                return false;
+            }
+            final char u = Character.toUpperCase(ch);
+            if (u != upper[j] && Character.toLowerCase(u) != lower[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean equals(final Object other) {
         if (this == other) {
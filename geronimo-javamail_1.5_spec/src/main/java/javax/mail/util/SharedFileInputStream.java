@@ -24,9 +24,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.mail.internet.SharedInputStream;
 
+import org.apache.geronimo.mail.util.SessionUtil;
+import org.apache.geronimo.mail.util.SharedFileTransfer;
+
 public class SharedFileInputStream extends BufferedInputStream implements SharedInputStream {
 
 
@@ -34,9 +43,27 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
     // Sun implementation.
     private static final int DEFAULT_BUFFER_SIZE = 2048;
 
+    // when set, the file data is read through read-only memory mappings rather than file reads.
+    // There is no API for releasing a mapping, so the mappings stay in place until they are
+    // garbage collected, even after the streams are closed.
+    private static final boolean MAP_FILES = SessionUtil.getBooleanProperty("mail.mime.sharedfile.mmap", false);
+
+    // the size of each mapped region of the file.  A single mapping can't exceed 2GB.
+    private static final long MAP_SEGMENT_SIZE = 1L << 30;
+
     // the shared file information, used to synchronize opens/closes of the base file.
     private SharedFileSource source;
 
+    static {
+        // the channel transfer is used by the javax.mail.internet classes, but is not part of the API
+        SharedFileTransfer.register(new SharedFileTransfer() {
+            @Override
+            protected long transfer(final SharedFileInputStream in, final WritableByteChannel target) throws IOException {
+                return in.transferTo(target);
+            }
+        });
+    }
+
     /**
      * The file offset that is the first byte in the read buffer.
      */
@@ -243,8 +270,7 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
             return false;
         }
 
-        // seek to the read location start.  Note this is a shared file, so this assumes all of the methods
-        // doing buffer fills will be synchronized.
+        // the amount of data we have room for in the buffer
         int fillLength = buf.length - pos;
 
         // we might be working with a subset of the file data, so normal eof processing might not apply.
@@ -287,7 +313,7 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
         // this is backed by a file, which doesn't really block.  We can return all the way to the
         // marked data end, if necessary
         final long endMarker = start + datalen;
-        return (int)(endMarker - (bufpos + pos));
+        return (int)Math.min(endMarker - (bufpos + pos), Integer.MAX_VALUE);
     }
 
 
@@ -363,6 +389,23 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
 
         int returnCount = 0;
         while (length > 0) {
+            // a read at least as large as our buffer can go straight from the file to the
+            // caller, as long as there's no buffered data or mark to worry about.
+            if (pos >= count && markpos < 0 && length >= buf.length) {
+                bufpos += count;
+                pos = 0;
+                count = 0;
+                final long remaining = start + datalen - bufpos;
+                final int read = remaining <= 0 ? -1 : source.read(bufpos, buffer, offset, (int)Math.min(length, remaining));
+                if (read <= 0) {
+                    return returnCount > 0 ? returnCount : -1;
+                }
+                bufpos += read;
+                length -= read;
+                returnCount += read;
+                offset += read;
+                continue;
+            }
             // check to see if we can/must fill more data
             if (!checkFill()) {
                 // we've hit the end, but if we've read data, then return that.
@@ -453,7 +496,7 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
      * @exception IOException
      */
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         // already closed?  This is not an error
         if (in == null) {
             return;
@@ -490,7 +533,45 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
         }
 
         // create a new one using the private constructor
-        return new SharedFileInputStream(source, start + (int)offset, (int)(end - offset), bufsize);
+        return new SharedFileInputStream(source, start + offset, end - offset, bufsize);
+    }
+
+
+    /**
+     * Transfer the rest of this stream's data to a channel.  The data is
+     * moved with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * which leaves the copying to the operating system where it can, rather
+     * than passing the data through the stream buffer.  The stream is at its
+     * end afterwards.
+     *
+     * @param target The channel to write to.
+     *
+     * @return The number of bytes transferred.
+     * @exception IOException
+     */
+    synchronized long transferTo(final WritableByteChannel target) throws IOException {
+        checkOpen();
+
+        long transferred = 0;
+        // anything already buffered goes first
+        if (pos < count) {
+            final ByteBuffer buffered = ByteBuffer.wrap(buf, pos, count - pos);
+            while (buffered.hasRemaining()) {
+                transferred += target.write(buffered);
+            }
+        }
+        bufpos += count;
+        pos = 0;
+        count = 0;
+        markpos = -1;
+
+        final long remaining = start + datalen - bufpos;
+        if (remaining > 0) {
+            final long moved = source.transferTo(bufpos, remaining, target);
+            bufpos += moved;
+            transferred += moved;
+        }
+        return transferred;
     }
 
 
@@ -523,16 +604,34 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
 
     /**
      * Internal class used to manage resources shared between the
-     * ShareFileInputStream instances.
+     * ShareFileInputStream instances.  Reads are done with positional
+     * FileChannel reads (or from read-only memory mappings of the file),
+     * which don't disturb any shared file pointer, so the instances can
+     * fill their buffers concurrently without holding a common lock.
+     *
+     * A FileChannel is closed when a thread blocked in it is interrupted,
+     * which would break every stream sharing the file.  The channel is
+     * reopened when that happens, and the reads carry on regardless of
+     * interrupts, as RandomAccessFile reads do.
      */
     class SharedFileSource {
         // the file source
         public RandomAccessFile source;
         // the shared instance count for this file (open instances)
         public int instanceCount = 0;
+        // the file, kept so the channel can be reopened
+        private final File file;
+        // the channel used for the positional reads
+        private volatile FileChannel channel;
+        // the mapped regions of the file, if reading through memory mappings.  These are
+        // dropped once the last instance is closed, and unmapped when they are collected.
+        private volatile MappedByteBuffer[] segments;
 
         public SharedFileSource(final File file) throws IOException {
+            this.file = file;
             source = new RandomAccessFile(file, "r");
+            channel = source.getChannel();
+            segments = MAP_FILES ? map(channel) : null;
         }
 
         /**
@@ -555,11 +654,38 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
                 instanceCount--;
                 // if the last open instance, close the real source file.
                 if (instanceCount == 0) {
-                    source.close();
+                    release();
                 }
             }
         }
 
+        /**
+         * Close the file and drop the memory mappings, which are left for
+         * the garbage collector to unmap.
+         */
+        private void release() throws IOException {
+            segments = null;
+            source.close();
+        }
+
+        /**
+         * Replace a channel that was closed by an interrupt.
+         *
+         * @param closed The channel that was found closed.
+         *
+         * @exception IOException if the file has been closed.
+         */
+        private synchronized void reopen(final FileChannel closed) throws IOException {
+            if (instanceCount == 0) {
+                throw new IOException("Stream has been closed");
+            }
+            // another reader may have replaced it already
+            if (channel == closed) {
+                source = new RandomAccessFile(file, "r");
+                channel = source.getChannel();
+            }
+        }
+
         /**
          * Read a buffer of data from the shared file.
          *
@@ -571,11 +697,90 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
          * @return The number of bytes actually read.
          * @exception IOException
          */
-        public synchronized int read(final long position, final byte[] buf, final int offset, final int length) throws IOException {
-            // seek to the read location start.  Note this is a shared file, so this assumes all of the methods
-            // doing buffer fills will be synchronized.
-            source.seek(position);
-            return source.read(buf, offset, length);
+        public int read(final long position, final byte[] buf, final int offset, final int length) throws IOException {
+            final MappedByteBuffer[] mapped = segments;
+            if (mapped != null) {
+                return readMapped(mapped, position, buf, offset, length);
+            }
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    final FileChannel current = channel;
+                    try {
+                        // positional reads leave the channel position alone, so there's no need to lock
+                        return current.read(ByteBuffer.wrap(buf, offset, length), position);
+                    } catch (final ClosedByInterruptException e) {
+                        // our own interrupt closed the channel.  Hold the interrupt back until
+                        // we're done, or the retry would be interrupted too.
+                        interrupted |= Thread.interrupted();
+                        reopen(current);
+                    } catch (final ClosedChannelException e) {
+                        // another reader's interrupt closed the channel
+                        reopen(current);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Transfer a range of the shared file to a channel.
+         *
+         * @param position The position to start at.
+         * @param length   The number of bytes to transfer.
+         * @param target   The channel to write to.
+         *
+         * @return The number of bytes transferred, which is less than the length
+         *         if the file ends first.
+         * @exception IOException
+         */
+        public long transferTo(final long position, final long length, final WritableByteChannel target) throws IOException {
+            long transferred = 0;
+            while (transferred < length) {
+                final FileChannel current = channel;
+                final long moved;
+                try {
+                    moved = current.transferTo(position + transferred, length - transferred, target);
+                } catch (final ClosedByInterruptException e) {
+                    // the interrupt may have closed the target as well, so this is not retried,
+                    // but the other streams get a working channel back.
+                    reopen(current);
+                    throw e;
+                } catch (final ClosedChannelException e) {
+                    if (!target.isOpen()) {
+                        throw e;
+                    }
+                    // another reader's interrupt closed our channel
+                    reopen(current);
+                    continue;
+                }
+                if (moved <= 0) {
+                    break;
+                }
+                transferred += moved;
+            }
+            return transferred;
+        }
+
+        private int readMapped(final MappedByteBuffer[] mapped, final long position, final byte[] buf, final int offset, final int length) {
+            final int index = (int)(position / MAP_SEGMENT_SIZE);
+            if (index >= mapped.length) {
+                return -1;
+            }
+            // each reader needs its own view of the mapping's position and limit
+            final ByteBuffer segment = mapped[index].duplicate();
+            final int segmentOffset = (int)(position - index * MAP_SEGMENT_SIZE);
+            if (segmentOffset >= segment.limit()) {
+                return -1;
+            }
+            segment.position(segmentOffset);
+            // a read spanning two segments just returns the first part
+            final int count = Math.min(length, segment.remaining());
+            segment.get(buf, offset, count);
+            return count;
         }
 
 
@@ -588,9 +793,27 @@ public class SharedFileInputStream extends BufferedInputStream implements Shared
         protected void finalize() throws Throwable {
             super.finalize();
             if (instanceCount > 0) {
-                source.close();
+                release();
             }
         }
     }
-}
 
+
+    /**
+     * Map a file into memory as a set of read-only segments.
+     *
+     * @param channel The channel for the file.
+     *
+     * @return The mapped segments, in file order.
+     * @exception IOException
+     */
+    private static MappedByteBuffer[] map(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final MappedByteBuffer[] segments = new MappedByteBuffer[(int)((size + MAP_SEGMENT_SIZE - 1) / MAP_SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            final long position = i * MAP_SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SEGMENT_SIZE, size - position));
+        }
+        return segments;
+    }
+}
@@ -22,6 +22,7 @@ import java.net.URL;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Bundle;
 
@@ -34,6 +35,8 @@ public class MailProviderRegistry {
     static ConcurrentMap<Long, URL> providers = new ConcurrentHashMap<Long, URL>();
     // a list of all active default provider config files
     static ConcurrentMap<Long, URL> defaultProviders = new ConcurrentHashMap<Long, URL>();
+    // bumped whenever the set of provider bundles changes
+    static final AtomicInteger generation = new AtomicInteger();
 
     /**
      * Perform the check for an existing mailcap file when
@@ -61,6 +64,9 @@ public class MailProviderRegistry {
             // this indicates our interest
             result = url;
         }
+        if (result != null) {
+            generation.incrementAndGet();
+        }
         // the url marks our interest in additional activity for this
         // bundle.
         return result;
@@ -76,6 +82,7 @@ public class MailProviderRegistry {
         // remove these items
         providers.remove(bundle.getBundleId());
         defaultProviders.remove(bundle.getBundleId());
+        generation.incrementAndGet();
     }
 
     /**
@@ -99,4 +106,15 @@ public class MailProviderRegistry {
     public static Collection<URL> getDefaultProviders() {
         return defaultProviders.values();
     }
+
+    /**
+     * Get a counter that changes whenever provider bundles are
+     * added or removed.  Anything cached from the bundle providers
+     * is stale once this changes.
+     *
+     * @return The current registry generation.
+     */
+    public static int getGeneration() {
+        return generation.get();
+    }
 }
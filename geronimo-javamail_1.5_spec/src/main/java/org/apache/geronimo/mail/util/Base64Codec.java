@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table driven BASE64 codec working on whole blocks of data.  Encoded
+ * output is folded into lines in the same pass, with a CRLF inserted
+ * before any 4 character unit that would overflow the line length.  The
+ * encoded data never ends with a line break.
+ *
+ * On decode, characters outside the BASE64 alphabet and the padding
+ * character are skipped, as the decoder stream has always done.  That
+ * covers whitespace and line breaks, but also any other stray character.
+ * Padding takes its place in a 4 character unit, so "xx==" and "xxx=" end
+ * a unit early and decoding carries on with the next unit.  Padding
+ * anywhere else in a unit, or a unit left incomplete, makes
+ * {@link #finishDecoding()} report the data as incomplete.
+ */
+public class Base64Codec extends BlockCodec {
+
+    // our default line length for encoded data
+    public static final int DEFAULT_LINE_LENGTH = 76;
+
+    private static final byte[] ENCODING_TABLE = {
+        (byte)'A', (byte)'B', (byte)'C', (byte)'D', (byte)'E', (byte)'F', (byte)'G',
+        (byte)'H', (byte)'I', (byte)'J', (byte)'K', (byte)'L', (byte)'M', (byte)'N',
+        (byte)'O', (byte)'P', (byte)'Q', (byte)'R', (byte)'S', (byte)'T', (byte)'U',
+        (byte)'V', (byte)'W', (byte)'X', (byte)'Y', (byte)'Z',
+        (byte)'a', (byte)'b', (byte)'c', (byte)'d', (byte)'e', (byte)'f', (byte)'g',
+        (byte)'h', (byte)'i', (byte)'j', (byte)'k', (byte)'l', (byte)'m', (byte)'n',
+        (byte)'o', (byte)'p', (byte)'q', (byte)'r', (byte)'s', (byte)'t', (byte)'u',
+        (byte)'v', (byte)'w', (byte)'x', (byte)'y', (byte)'z',
+        (byte)'0', (byte)'1', (byte)'2', (byte)'3', (byte)'4', (byte)'5', (byte)'6',
+        (byte)'7', (byte)'8', (byte)'9',
+        (byte)'+', (byte)'/'
+    };
+
+    private static final byte PADDING = (byte)'=';
+
+    // decoding values, with -1 for anything outside of the alphabet
+    private static final byte[] DECODING_TABLE = new byte[256];
+
+    static {
+        Arrays.fill(DECODING_TABLE, (byte)-1);
+        for (int i = 0; i < ENCODING_TABLE.length; i++) {
+            DECODING_TABLE[ENCODING_TABLE[i]] = (byte)i;
+        }
+    }
+
+    // maximum encoded line length, or 0 if the data is not folded
+    private final int lineLength;
+    // number of encoded characters on the current line
+    private int column;
+    // source bytes waiting for a complete 3 byte unit
+    private final byte[] pending = new byte[3];
+    private int pendingCount;
+
+    // decoded bits of a partial 4 character unit
+    private int quantum;
+    private int quantumCount;
+    // true if the current unit has its first padding character, and needs the second
+    private boolean padded;
+    // true if padding has been misplaced somewhere in the data
+    private boolean malformed;
+
+    /**
+     * Create a codec folding encoded data at 76 characters.
+     */
+    public Base64Codec() {
+        this(DEFAULT_LINE_LENGTH);
+    }
+
+    /**
+     * Create a codec using a given line length.
+     *
+     * @param lineLength The maximum length of an encoded line.  This is rounded down
+     *                   to a multiple of 4.  Zero or a negative value disables line
+     *                   folding.
+     */
+    public Base64Codec(final int lineLength) {
+        if (lineLength <= 0 || lineLength == Integer.MAX_VALUE) {
+            this.lineLength = 0;
+        }
+        else {
+            // lines are written in complete units of 4 characters
+            this.lineLength = Math.max(4, (lineLength / 4) * 4);
+        }
+    }
+
+    @Override
+    public int maxEncodedLength(final int length) {
+        final long units = (pendingCount + (long)length + 2) / 3;
+        long size = units * 4;
+        if (lineLength > 0) {
+            size += 2 * (size / lineLength + 1);
+        }
+        return (int)Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int maxDecodedLength(final int length) {
+        return (int)(((quantumCount + (long)length) / 4) * 3);
+    }
+
+    @Override
+    protected void encodeBuffers(final ByteBuffer src, final ByteBuffer dst) {
+        final byte[] in = src.array();
+        int inPos = src.arrayOffset() + src.position();
+        final int inEnd = src.arrayOffset() + src.limit();
+        final byte[] out = dst.array();
+        int outPos = dst.arrayOffset() + dst.position();
+        final int outEnd = dst.arrayOffset() + dst.limit();
+
+        // complete a unit left over from the last call
+        if (pendingCount > 0) {
+            if (pendingCount + inEnd - inPos >= 3) {
+                if (outEnd - outPos < 6) {
+                    // no room for it yet
+                    return;
+                }
+                while (pendingCount < 3) {
+                    pending[pendingCount++] = in[inPos++];
+                }
+                outPos = breakLine(out, outPos);
+                outPos = encodeUnit(pending, 0, out, outPos);
+                pendingCount = 0;
+            }
+        }
+
+        while (inEnd - inPos >= 3) {
+            // work out how many units we can write before we need to either break
+            // the line or stop because the target is full
+            int room = outEnd - outPos;
+            if (lineLength > 0 && column + 4 > lineLength) {
+                if (room < 6) {
+                    break;
+                }
+                out[outPos++] = '\r';
+                out[outPos++] = '\n';
+                column = 0;
+                room -= 2;
+            }
+            int units = Math.min((inEnd - inPos) / 3, room / 4);
+            if (lineLength > 0) {
+                units = Math.min(units, (lineLength - column) / 4);
+            }
+            if (units == 0) {
+                break;
+            }
+            final int stop = inPos + units * 3;
+            while (inPos < stop) {
+                final int bits = ((in[inPos] & 0xff) << 16) | ((in[inPos + 1] & 0xff) << 8) | (in[inPos + 2] & 0xff);
+                out[outPos] = ENCODING_TABLE[bits >>> 18];
+                out[outPos + 1] = ENCODING_TABLE[(bits >>> 12) & 0x3f];
+                out[outPos + 2] = ENCODING_TABLE[(bits >>> 6) & 0x3f];
+                out[outPos + 3] = ENCODING_TABLE[bits & 0x3f];
+                inPos += 3;
+                outPos += 4;
+            }
+            if (lineLength > 0) {
+                column += units * 4;
+            }
+        }
+
+        // hang on to a trailing partial unit
+        if (inEnd - inPos < 3) {
+            while (inPos < inEnd) {
+                pending[pendingCount++] = in[inPos++];
+            }
+        }
+        src.position(inPos - src.arrayOffset());
+        dst.position(outPos - dst.arrayOffset());
+    }
+
+    @Override
+    protected void finishBuffer(final ByteBuffer dst) {
+        if (pendingCount == 0) {
+            return;
+        }
+        if (dst.remaining() < 6) {
+            throw new BufferOverflowException();
+        }
+        final byte[] out = dst.array();
+        int outPos = breakLine(out, dst.arrayOffset() + dst.position());
+
+        final int a1 = pending[0] & 0xff;
+        out[outPos++] = ENCODING_TABLE[a1 >>> 2];
+        if (pendingCount == 1) {
+            out[outPos++] = ENCODING_TABLE[(a1 << 4) & 0x3f];
+            out[outPos++] = PADDING;
+        }
+        else {
+            final int a2 = pending[1] & 0xff;
+            out[outPos++] = ENCODING_TABLE[((a1 << 4) | (a2 >>> 4)) & 0x3f];
+            out[outPos++] = ENCODING_TABLE[(a2 << 2) & 0x3f];
+        }
+        out[outPos++] = PADDING;
+        if (lineLength > 0) {
+            column += 4;
+        }
+        pendingCount = 0;
+        dst.position(outPos - dst.arrayOffset());
+    }
+
+    /**
+     * Insert a line break if another unit won't fit on the current line.
+     */
+    private int breakLine(final byte[] out, int outPos) {
+        if (lineLength > 0 && column + 4 > lineLength) {
+            out[outPos++] = '\r';
+            out[outPos++] = '\n';
+            column = 0;
+        }
+        return outPos;
+    }
+
+    /**
+     * Encode one complete 3 byte unit.
+     */
+    private int encodeUnit(final byte[] in, final int inPos, final byte[] out, final int outPos) {
+        final int bits = ((in[inPos] & 0xff) << 16) | ((in[inPos + 1] & 0xff) << 8) | (in[inPos + 2] & 0xff);
+        out[outPos] = ENCODING_TABLE[bits >>> 18];
+        out[outPos + 1] = ENCODING_TABLE[(bits >>> 12) & 0x3f];
+        out[outPos + 2] = ENCODING_TABLE[(bits >>> 6) & 0x3f];
+        out[outPos + 3] = ENCODING_TABLE[bits & 0x3f];
+        if (lineLength > 0) {
+            column += 4;
+        }
+        return outPos + 4;
+    }
+
+    @Override
+    protected void decodeBuffers(final ByteBuffer src, final ByteBuffer dst) {
+        final byte[] in = src.array();
+        int inPos = src.arrayOffset() + src.position();
+        final int inEnd = src.arrayOffset() + src.limit();
+        final byte[] out = dst.array();
+        int outPos = dst.arrayOffset() + dst.position();
+        final int outEnd = dst.arrayOffset() + dst.limit();
+
+        int bits = quantum;
+        int count = quantumCount;
+
+        while (inPos < inEnd) {
+            final int ch = in[inPos] & 0xff;
+            final int value = DECODING_TABLE[ch];
+            if (value < 0) {
+                if (ch == PADDING) {
+                    if (padded) {
+                        // the second padding character completes the unit
+                        padded = false;
+                        bits = 0;
+                        count = 0;
+                    }
+                    else if (count >= 2) {
+                        // padding ends the unit, leaving either 1 or 2 decoded bytes
+                        final int needed = count - 1;
+                        if (outEnd - outPos < needed) {
+                            break;
+                        }
+                        if (count == 2) {
+                            out[outPos++] = (byte)(bits >>> 4);
+                            // "xx=" still needs its second padding character
+                            padded = true;
+                            count = 3;
+                        }
+                        else {
+                            out[outPos++] = (byte)(bits >>> 10);
+                            out[outPos++] = (byte)(bits >>> 2);
+                            bits = 0;
+                            count = 0;
+                        }
+                    }
+                    else {
+                        malformed = true;
+                    }
+                }
+                // anything else outside the alphabet is ignored
+                inPos++;
+                continue;
+            }
+            if (padded) {
+                // data where the rest of the padding belongs.  Start a new unit with it.
+                malformed = true;
+                padded = false;
+                bits = 0;
+                count = 0;
+            }
+            if (count == 3) {
+                if (outEnd - outPos < 3) {
+                    break;
+                }
+                bits = (bits << 6) | value;
+                out[outPos] = (byte)(bits >>> 16);
+                out[outPos + 1] = (byte)(bits >>> 8);
+                out[outPos + 2] = (byte)bits;
+                outPos += 3;
+                bits = 0;
+                count = 0;
+            }
+            else {
+                bits = (bits << 6) | value;
+                count++;
+            }
+            inPos++;
+        }
+
+        quantum = bits;
+        quantumCount = count;
+        src.position(inPos - src.arrayOffset());
+        dst.position(outPos - dst.arrayOffset());
+    }
+
+    @Override
+    public boolean finishDecoding() {
+        final boolean complete = quantumCount == 0 && !malformed;
+        quantum = 0;
+        quantumCount = 0;
+        padded = false;
+        malformed = false;
+        return complete;
+    }
+}
@@ -38,7 +38,13 @@ public class Base64DecoderStream extends FilterInputStream {
     // data from the input stream and decode in blocks.
     static protected final int BUFFERED_UNITS = 2000;
 
-    // our decoder for processing the data
+    // our codec for processing the data
+    protected Base64Codec codec = new Base64Codec();
+
+    /**
+     * @deprecated No longer used by this stream, the decoding is done by {@link #codec}.
+     */
+    @Deprecated
     protected Base64Encoder decoder = new Base64Encoder();
 
     // can be overridden by a system property.
@@ -46,9 +52,8 @@ public class Base64DecoderStream extends FilterInputStream {
 
     // buffer for reading in chars for decoding (which can support larger bulk reads)
     protected byte[] encodedChars = new byte[BUFFERED_UNITS * 4];
-    // a buffer for one decoding unit's worth of data (3 bytes).  This is the minimum amount we
-    // can read at one time.
-    protected byte[] decodedChars = new byte[BUFFERED_UNITS * 3];
+    // buffer for the decoded data, with room for a unit carried over from the previous block.
+    protected byte[] decodedChars = new byte[BUFFERED_UNITS * 3 + 3];
     // count of characters in the buffer
     protected int decodedCount = 0;
     // index of the next decoded character
@@ -72,31 +77,30 @@ public class Base64DecoderStream extends FilterInputStream {
     }
 
     /**
-     * Get the next buffered decoded character.
-     *
-     * @return The next decoded character in the buffer.
-     */
-    private byte getBufferedChar() {
-        decodedCount--;
-        return decodedChars[decodedIndex++];
-    }
-
-    /**
-     * Decode a requested number of bytes of data into a buffer.
+     * Decode another block of data from the stream.  Blocks holding
+     * only whitespace or line breaks are skipped over.
      *
      * @return true if we were able to obtain more data, false otherwise.
      */
     private boolean decodeStreamData() throws IOException {
         decodedIndex = 0;
+        decodedCount = 0;
 
-        // fill up a data buffer with input data
-        final int readCharacters = fillEncodedBuffer();
-
-        if (readCharacters > 0) {
-            decodedCount =  decoder.decode(encodedChars, 0, readCharacters, decodedChars);
-            return true;
+        while (true) {
+            final int readCharacters = in.read(encodedChars, 0, encodedChars.length);
+            // did we hit an EOF condition?
+            if (readCharacters == -1) {
+                // if we didn't end on a complete unit, we may need to complain about this.
+                if (!codec.finishDecoding() && !ignoreErrors) {
+                    throw new IOException("Base64 encoding error, data truncated");
+                }
+                return false;
+            }
+            decodedCount = codec.decode(encodedChars, 0, readCharacters, decodedChars, 0);
+            if (decodedCount > 0) {
+                return true;
+            }
         }
-        return false;
     }
 
 
@@ -141,51 +145,6 @@ public class Base64DecoderStream extends FilterInputStream {
     }
 
 
-    /**
-     * Fill our buffer of input characters for decoding from the
-     * stream.  This will attempt read a full buffer, but will
-     * terminate on an EOF or read error.  This will filter out
-     * non-Base64 encoding chars and will only return a valid
-     * multiple of 4 number of bytes.
-     *
-     * @return The count of characters read.
-     */
-    private int fillEncodedBuffer() throws IOException
-    {
-        int readCharacters = 0;
-
-        while (true) {
-            // get the next character from the stream
-            final int ch = in.read();
-            // did we hit an EOF condition?
-            if (ch == -1) {
-                // now check to see if this is normal, or potentially an error
-                // if we didn't get characters as a multiple of 4, we may need to complain about this.
-                if ((readCharacters % 4) != 0) {
-                    // the error checking can be turned off...normally it isn't
-                    if (!ignoreErrors) {
-                        throw new IOException("Base64 encoding error, data truncated");
-                    }
-                    // we're ignoring errors, so round down to a multiple and return that.
-                    return (readCharacters / 4) * 4;
-                }
-                // return the count.
-                return readCharacters;
-            }
-            // if this character is valid in a Base64 stream, copy it to the buffer.
-            else if (decoder.isValidBase64(ch)) {
-                encodedChars[readCharacters++] = (byte)ch;
-                // if we've filled up the buffer, time to quit.
-                if (readCharacters >= encodedChars.length) {
-                    return readCharacters;
-                }
-            }
-
-            // we're filtering out whitespace and CRLF characters, so just ignore these
-        }
-    }
-
-
     // in order to function as a filter, these streams need to override the different
     // read() signature.
 
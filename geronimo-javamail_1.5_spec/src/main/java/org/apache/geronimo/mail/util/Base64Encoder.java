@@ -45,6 +45,9 @@ public class Base64Encoder
 
     protected byte    padding = (byte)'=';
 
+    // the largest block of encoded data written to the output stream in one call
+    private static final int ENCODE_BUFFER_SIZE = 4096;
+
     /*
      * set up the decoding table.
      */
@@ -79,16 +82,32 @@ public class Base64Encoder
         final int dataLength = (length - modulus);
         int a1, a2, a3;
 
+        // the encoded data is collected in a buffer and written out in blocks
+        final byte[] buffer = new byte[Math.min(((length + 2) / 3) * 4, ENCODE_BUFFER_SIZE)];
+        int count = 0;
+
         for (int i = off; i < off + dataLength; i += 3)
         {
+            if (count == buffer.length)
+            {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+
             a1 = data[i] & 0xff;
             a2 = data[i + 1] & 0xff;
             a3 = data[i + 2] & 0xff;
 
-            out.write(encodingTable[(a1 >>> 2) & 0x3f]);
-            out.write(encodingTable[((a1 << 4) | (a2 >>> 4)) & 0x3f]);
-            out.write(encodingTable[((a2 << 2) | (a3 >>> 6)) & 0x3f]);
-            out.write(encodingTable[a3 & 0x3f]);
+            buffer[count++] = encodingTable[(a1 >>> 2) & 0x3f];
+            buffer[count++] = encodingTable[((a1 << 4) | (a2 >>> 4)) & 0x3f];
+            buffer[count++] = encodingTable[((a2 << 2) | (a3 >>> 6)) & 0x3f];
+            buffer[count++] = encodingTable[a3 & 0x3f];
+        }
+
+        if (modulus != 0 && count == buffer.length)
+        {
+            out.write(buffer, 0, count);
+            count = 0;
         }
 
         /*
@@ -106,10 +125,10 @@ public class Base64Encoder
             b1 = (d1 >>> 2) & 0x3f;
             b2 = (d1 << 4) & 0x3f;
 
-            out.write(encodingTable[b1]);
-            out.write(encodingTable[b2]);
-            out.write(padding);
-            out.write(padding);
+            buffer[count++] = encodingTable[b1];
+            buffer[count++] = encodingTable[b2];
+            buffer[count++] = padding;
+            buffer[count++] = padding;
             break;
         case 2:
             d1 = data[off + dataLength] & 0xff;
@@ -119,13 +138,18 @@ public class Base64Encoder
             b2 = ((d1 << 4) | (d2 >>> 4)) & 0x3f;
             b3 = (d2 << 2) & 0x3f;
 
-            out.write(encodingTable[b1]);
-            out.write(encodingTable[b2]);
-            out.write(encodingTable[b3]);
-            out.write(padding);
+            buffer[count++] = encodingTable[b1];
+            buffer[count++] = encodingTable[b2];
+            buffer[count++] = encodingTable[b3];
+            buffer[count++] = padding;
             break;
         }
 
+        if (count > 0)
+        {
+            out.write(buffer, 0, count);
+        }
+
         return (dataLength / 3) * 4 + ((modulus == 0) ? 0 : 4);
     }
 
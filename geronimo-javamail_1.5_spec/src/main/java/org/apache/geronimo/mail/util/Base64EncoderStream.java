@@ -36,28 +36,49 @@ public class Base64EncoderStream extends FilterOutputStream {
     // be written with a single call.
     protected static final byte[] CRLF = { '\r', '\n' };
 
-    // our hex encoder utility class.
-    protected Base64Encoder encoder = new Base64Encoder();
-
     // our default for line breaks
     protected static final int DEFAULT_LINEBREAK = 76;
 
-    // Data can only be written out in complete units of 3 bytes encoded as 4.  Therefore, we need to buffer
-    // as many as 2 bytes to fill out an encoding unit.
+    // the amount of source data we encode in one pass
+    private static final int CHUNK_SIZE = 6144;
+
+    // the size we process line breaks at.  If this is Integer.MAX_VALUE, no line breaks are handled.
+    protected int lineBreak;
+
+    // the codec doing the encoding.  This also tracks partial units and the
+    // position on the current line between writes.
+    protected Base64Codec codec;
+
+    /**
+     * @deprecated No longer used by this stream, the encoding is done by {@link #codec}.
+     */
+    @Deprecated
+    protected Base64Encoder encoder = new Base64Encoder();
 
-    // the buffered byte count
+    /**
+     * @deprecated No longer used by this stream, {@link #codec} holds any partial unit.
+     */
+    @Deprecated
     protected int bufferedBytes = 0;
 
-    // we'll encode this part once it is filled up.
+    /**
+     * @deprecated No longer used by this stream, {@link #codec} holds any partial unit.
+     */
+    @Deprecated
     protected byte[] buffer = new byte[3];
 
+    /**
+     * @deprecated No longer used by this stream, {@link #codec} tracks the line position.
+     */
+    @Deprecated
+    protected int outputCount;
 
-    // the size we process line breaks at.  If this is Integer.MAX_VALUE, no line breaks are handled.
-    protected int lineBreak;
+    // single byte writes are collected here before encoding
+    private final byte[] staged = new byte[CHUNK_SIZE];
+    private int stagedCount;
 
-    // the number of encoded characters we've written to the stream, which determines where we
-    // insert line breaks.
-    protected int outputCount;
+    // the encoded output of a single pass
+    private final byte[] encoded;
 
     /**
      * Create a Base64 encoder stream that wraps a specifed stream
@@ -74,23 +95,18 @@ public class Base64EncoderStream extends FilterOutputStream {
         super(out);
         // lines are processed only in multiple of 4, so round this down.
         this.lineBreak = (lineBreak / 4) * 4 ;
+        codec = new Base64Codec(lineBreak == Integer.MAX_VALUE ? 0 : this.lineBreak);
+        // room for a full chunk plus a unit carried over from a previous write
+        encoded = new byte[codec.maxEncodedLength(CHUNK_SIZE + 2)];
     }
 
     // in order for this to work, we need to override the 3 different signatures for write
 
     @Override
     public void write(final int ch) throws IOException {
-        // store this in the buffer.
-        buffer[bufferedBytes++] = (byte)ch;
-        // if the buffer is filled, encode these bytes
-        if (bufferedBytes == 3) {
-            // check for room in the current line for this character
-            checkEOL(4);
-            // write these directly to the stream.
-            encoder.encode(buffer, 0, 3, out);
-            bufferedBytes = 0;
-            // and update the line length checkers
-            updateLineCount(4);
+        staged[stagedCount++] = (byte)ch;
+        if (stagedCount == staged.length) {
+            writeStaged();
         }
     }
 
@@ -101,42 +117,14 @@ public class Base64EncoderStream extends FilterOutputStream {
 
     @Override
     public void write(final byte [] data, int offset, int length) throws IOException {
-        // if we have something in the buffer, we need to write enough bytes out to flush
-        // those into the output stream AND continue on to finish off a line.  Once we're done there
-        // we can write additional data out in complete blocks.
-        while ((bufferedBytes > 0 || outputCount > 0) && length > 0) {
-            write(data[offset++]);
-            length--;
-        }
-
-        if (length > 0) {
-            // no linebreaks requested?  YES!!!!!, we can just dispose of the lot with one call.
-            if (lineBreak == Integer.MAX_VALUE) {
-                encoder.encode(data, offset, length, out);
-            }
-            else {
-                // calculate the size of a segment we can encode directly as a line.
-                final int segmentSize = (lineBreak / 4) * 3;
-
-                // write this out a block at a time, with separators between.
-                while (length > segmentSize) {
-                    // encode a segment
-                    encoder.encode(data, offset, segmentSize, out);
-                    // write an EOL marker
-                    out.write(CRLF);
-                    offset += segmentSize;
-                    length -= segmentSize;
-                }
-
-                // any remainder we write out a byte at a time to manage the groupings and
-                // the line count appropriately.
-                if (length > 0) {
-                    while (length > 0) {
-                        write(data[offset++]);
-                        length--;
-                    }
-                }
-            }
+        // anything written a byte at a time goes first
+        writeStaged();
+        while (length > 0) {
+            final int chunk = Math.min(length, CHUNK_SIZE);
+            final int count = codec.encode(data, offset, chunk, encoded, 0);
+            out.write(encoded, 0, count);
+            offset += chunk;
+            length -= chunk;
         }
     }
 
@@ -146,44 +134,24 @@ public class Base64EncoderStream extends FilterOutputStream {
         out.close();
     }
 
-    @Override
-    public void flush() throws IOException {
-        if (bufferedBytes > 0) {
-            encoder.encode(buffer, 0, bufferedBytes, out);
-            bufferedBytes = 0;
-        }
-    }
-
-
     /**
-     * Check for whether we're about the reach the end of our
-     * line limit for an update that's about to occur.  If we will
-     * overflow, then a line break is inserted.
-     *
-     * @param required The space required for this pending write.
-     *
-     * @exception IOException
+     * Write out everything written so far, padding out a final
+     * partial unit.
      */
-    private void checkEOL(final int required) throws IOException {
-        if (lineBreak != Integer.MAX_VALUE) {
-            // if this write would exceed the line maximum, add a linebreak to the stream.
-            if (outputCount + required > lineBreak) {
-                out.write(CRLF);
-                outputCount = 0;
-            }
+    @Override
+    public void flush() throws IOException {
+        writeStaged();
+        final int count = codec.finishEncoding(encoded, 0);
+        if (count > 0) {
+            out.write(encoded, 0, count);
         }
     }
 
-    /**
-     * Update the counter of characters on the current working line.
-     * This is conditional if we're not working with a line limit.
-     *
-     * @param added  The number of characters just added.
-     */
-    private void updateLineCount(final int added) {
-        if (lineBreak != Integer.MAX_VALUE) {
-            outputCount += added;
+    private void writeStaged() throws IOException {
+        if (stagedCount > 0) {
+            final int count = codec.encode(staged, 0, stagedCount, encoded, 0);
+            stagedCount = 0;
+            out.write(encoded, 0, count);
         }
     }
 }
-
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for the block oriented transfer encoding codecs.  A codec
+ * instance converts whole blocks of data held in byte arrays or
+ * ByteBuffers, carrying any partial encoding units (and the line position
+ * used for line folding) over from one call to the next.  This makes an
+ * instance usable for encoding or decoding a stream of data that arrives
+ * in arbitrary sized pieces.  A single instance should only be used for
+ * one direction at a time, and instances are not thread safe.
+ *
+ * The conversions are implemented by subclasses on array backed buffers.
+ * Buffers without an accessible array are handled here by staging the
+ * data through heap buffers.
+ */
+public abstract class BlockCodec {
+
+    // size of the staging buffers used for direct or read-only buffers
+    private static final int STAGING_SIZE = 8192;
+
+    /**
+     * Encode data from one buffer into another.  As much of the source
+     * is consumed as will fit into the target buffer.  Data that does not
+     * make up a complete encoding unit is retained until the next call,
+     * or until {@link #finishEncoding(ByteBuffer)} is called.
+     *
+     * @param src    The source data.
+     * @param dst    The target buffer for the encoded data.
+     */
+    public void encode(final ByteBuffer src, final ByteBuffer dst) {
+        try {
+            transfer(src, dst, true);
+        } catch (final IOException e) {
+            // encoding never fails
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * Decode data from one buffer into another.  As much of the source
+     * is consumed as will fit into the target buffer.
+     *
+     * @param src    The encoded source data.
+     * @param dst    The target buffer for the decoded data.
+     *
+     * @exception IOException if the source is not validly encoded.
+     */
+    public void decode(final ByteBuffer src, final ByteBuffer dst) throws IOException {
+        transfer(src, dst, false);
+    }
+
+    /**
+     * Encode a section of a byte array into another array.
+     *
+     * @param data   The source data.
+     * @param off    The offset of the data within the array.
+     * @param length The length of the data.
+     * @param out    The target array.  This must have room for at least
+     *               {@link #maxEncodedLength(int)} bytes after the offset.
+     * @param outOff The offset the encoded data is written at.
+     *
+     * @return The number of encoded bytes written to the target array.
+     */
+    public int encode(final byte[] data, final int off, final int length, final byte[] out, final int outOff) {
+        final ByteBuffer src = ByteBuffer.wrap(data, off, length);
+        final ByteBuffer dst = ByteBuffer.wrap(out, outOff, out.length - outOff);
+        encodeBuffers(src, dst);
+        if (src.hasRemaining()) {
+            throw new BufferOverflowException();
+        }
+        return dst.position() - outOff;
+    }
+
+    /**
+     * Decode a section of a byte array into another array.
+     *
+     * @param data   The encoded data.
+     * @param off    The offset of the data within the array.
+     * @param length The length of the data.
+     * @param out    The target array.  This must have room for at least
+     *               {@link #maxDecodedLength(int)} bytes after the offset.
+     * @param outOff The offset the decoded data is written at.
+     *
+     * @return The number of decoded bytes written to the target array.
+     * @exception IOException if the source is not validly encoded.
+     */
+    public int decode(final byte[] data, final int off, final int length, final byte[] out, final int outOff) throws IOException {
+        final ByteBuffer src = ByteBuffer.wrap(data, off, length);
+        final ByteBuffer dst = ByteBuffer.wrap(out, outOff, out.length - outOff);
+        decodeBuffers(src, dst);
+        if (src.hasRemaining()) {
+            throw new BufferOverflowException();
+        }
+        return dst.position() - outOff;
+    }
+
+    /**
+     * Write out any data retained from previous encode calls, completing
+     * the encoding.  The target needs room for {@link #maxEncodedLength(int)}
+     * of 0 bytes.
+     *
+     * @param dst    The target buffer.
+     */
+    public void finishEncoding(final ByteBuffer dst) {
+        if (dst.hasArray()) {
+            finishBuffer(dst);
+        }
+        else {
+            final ByteBuffer staging = ByteBuffer.allocate(maxEncodedLength(0));
+            finishBuffer(staging);
+            staging.flip();
+            dst.put(staging);
+        }
+    }
+
+    /**
+     * Write out any data retained from previous encode calls, completing
+     * the encoding.
+     *
+     * @param out    The target array.
+     * @param outOff The offset the data is written at.
+     *
+     * @return The number of bytes written.
+     */
+    public int finishEncoding(final byte[] out, final int outOff) {
+        final ByteBuffer dst = ByteBuffer.wrap(out, outOff, out.length - outOff);
+        finishBuffer(dst);
+        return dst.position() - outOff;
+    }
+
+    /**
+     * Give the maximum number of bytes a following encode of the given
+     * amount of data can produce, including any data currently retained
+     * by the codec.
+     *
+     * @param length The amount of source data.
+     *
+     * @return The upper bound for the encoded size.
+     */
+    public abstract int maxEncodedLength(int length);
+
+    /**
+     * Give the maximum number of bytes a following decode of the given
+     * amount of data can produce, including any data currently retained
+     * by the codec.
+     *
+     * @param length The amount of encoded data.
+     *
+     * @return The upper bound for the decoded size.
+     */
+    public abstract int maxDecodedLength(int length);
+
+    /**
+     * Check the decoder state at the end of the encoded data.  Any
+     * partial state is discarded.
+     *
+     * @return true if the data ended on a complete encoding unit, and had
+     *         no malformed units along the way.
+     */
+    public abstract boolean finishDecoding();
+
+    /**
+     * Encode between two array backed buffers.
+     */
+    protected abstract void encodeBuffers(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * Decode between two array backed buffers.
+     */
+    protected abstract void decodeBuffers(ByteBuffer src, ByteBuffer dst) throws IOException;
+
+    /**
+     * Flush the retained encoder state into an array backed buffer.
+     */
+    protected abstract void finishBuffer(ByteBuffer dst);
+
+
+    /**
+     * Run a conversion, staging the data through heap buffers if either
+     * buffer doesn't expose its array.
+     */
+    private void transfer(final ByteBuffer src, final ByteBuffer dst, final boolean encode) throws IOException {
+        if (src.hasArray() && dst.hasArray()) {
+            convert(src, dst, encode);
+            return;
+        }
+
+        while (src.hasRemaining() && dst.hasRemaining()) {
+            ByteBuffer in = src;
+            if (!src.hasArray()) {
+                in = ByteBuffer.allocate(Math.min(src.remaining(), STAGING_SIZE));
+                final ByteBuffer view = src.duplicate();
+                view.limit(view.position() + in.capacity());
+                in.put(view);
+                in.flip();
+            }
+            final ByteBuffer out = dst.hasArray() ? dst : ByteBuffer.allocate(Math.min(dst.remaining(), STAGING_SIZE));
+            final int inStart = in.position();
+            final int outStart = out.position();
+
+            convert(in, out, encode);
+
+            final int consumed = in.position() - inStart;
+            final int produced = out.position() - outStart;
+            if (in != src) {
+                src.position(src.position() + consumed);
+            }
+            if (out != dst) {
+                out.flip();
+                dst.put(out);
+            }
+            // stop once no more progress is possible
+            if (consumed == 0 && produced == 0) {
+                break;
+            }
+        }
+    }
+
+    private void convert(final ByteBuffer src, final ByteBuffer dst, final boolean encode) throws IOException {
+        if (encode) {
+            encodeBuffers(src, dst);
+        }
+        else {
+            decodeBuffers(src, dst);
+        }
+    }
+}
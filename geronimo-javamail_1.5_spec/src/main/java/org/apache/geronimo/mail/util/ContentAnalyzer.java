@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Single pass examination of content to choose a transfer encoding.  Data
+ * is fed in blocks, and the analyzer reports once nothing that follows can
+ * change the result, so the caller can stop reading.
+ *
+ * For text content the choice is between 7bit, quoted-printable (for long
+ * lines or a minority of non-ASCII characters) and base64 (for mostly
+ * non-ASCII data), following {@link ASCIIUtil#getTextTransferEncoding(InputStream)}.
+ * Since that depends on the ratio over the whole content, text always needs
+ * to be read to the end.
+ *
+ * Other content is sent as 7bit only if it is all ASCII, with no long lines
+ * and no newline without a CR before it, following
+ * {@link ASCIIUtil#getBinaryTransferEncoding(InputStream)}.  A CR on its own
+ * is an ordinary character there.  The first byte that breaks one of those
+ * rules settles on base64.
+ */
+public class ContentAnalyzer {
+
+    // the longest line allowed in 7bit data, not counting the line break
+    private static final int MAX_LINE_LENGTH = 998;
+
+    // the classes of byte values
+    private static final byte ASCII = 0;
+    private static final byte NON_ASCII = 1;
+    private static final byte CR = 2;
+    private static final byte LF = 3;
+
+    private static final byte[] BYTE_CLASS = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            BYTE_CLASS[i] = ASCIIUtil.isAscii(i) ? ASCII : NON_ASCII;
+        }
+        BYTE_CLASS['\r'] = CR;
+        BYTE_CLASS['\n'] = LF;
+    }
+
+    // true if we're judging text content
+    private final boolean text;
+
+    private int span;                     // span of characters without a line break
+    private boolean containsLongLines;
+    private boolean containsMalformedEOL;
+    private long asciiChars;
+    private long nonAsciiChars;
+    private boolean lastCR;               // true if the last byte seen was a '\r'
+
+    /**
+     * Create an analyzer.
+     *
+     * @param text   true if the content is a text type.
+     */
+    public ContentAnalyzer(final boolean text) {
+        this.text = text;
+    }
+
+    /**
+     * Examine a block of data.
+     *
+     * @param data   The data buffer.
+     * @param offset The offset of the data.
+     * @param length The length of the data.
+     *
+     * @return true if the encoding has been decided, and no more data is needed.
+     */
+    public boolean update(final byte[] data, final int offset, final int length) {
+        if (isDecided()) {
+            return true;
+        }
+        final int end = offset + length;
+        int count = span;
+        long ascii = 0;
+        long nonAscii = 0;
+        boolean cr = lastCR;
+
+        for (int i = offset; i < end; i++) {
+            final byte type = BYTE_CLASS[data[i] & 0xff];
+            if (type == LF) {
+                // a newline is only valid after a '\r'
+                if (!text && !cr) {
+                    containsMalformedEOL = true;
+                    return true;
+                }
+                count = 0;
+            }
+            else if (type == CR && text) {
+                // either one ends a line of text
+                count = 0;
+            }
+            else {
+                count++;
+                if (type == NON_ASCII) {
+                    nonAscii++;
+                    if (!text) {
+                        // no need to go any further
+                        nonAsciiChars += nonAscii;
+                        return true;
+                    }
+                }
+                else if (type == ASCII) {
+                    ascii++;
+                }
+                if (count > MAX_LINE_LENGTH) {
+                    containsLongLines = true;
+                    if (!text) {
+                        return true;
+                    }
+                }
+            }
+            cr = type == CR;
+        }
+
+        span = count;
+        lastCR = cr;
+        asciiChars += ascii;
+        nonAsciiChars += nonAscii;
+        return false;
+    }
+
+    /**
+     * Test whether the encoding is already decided.
+     *
+     * @return true if no further data can change the encoding.
+     */
+    public boolean isDecided() {
+        return !text && (nonAsciiChars != 0 || containsLongLines || containsMalformedEOL);
+    }
+
+    /**
+     * Get the transfer encoding for the data examined so far.  This
+     * should only be called once all of the data has been seen, or
+     * {@link #update(byte[], int, int)} has returned true.
+     *
+     * @return The transfer encoding name.
+     */
+    public String getEncoding() {
+        if (!text) {
+            return isDecided() ? "base64" : "7bit";
+        }
+
+        // looking good so far, only valid chars here.
+        if (nonAsciiChars == 0) {
+            // does this contain long text lines?  We need to use a Q-P encoding which will
+            // be only slightly longer, but handles folding the longer lines.
+            return containsLongLines ? "quoted-printable" : "7bit";
+        }
+        // mostly characters requiring encoding?  Base64 is our best bet.  Otherwise
+        // Q-P encoding will use fewer bytes than the full Base64.
+        return nonAsciiChars > asciiChars ? "base64" : "quoted-printable";
+    }
+
+    /**
+     * Read a stream until the encoding is decided.  The stream is not closed.
+     *
+     * @param in     The content stream.
+     * @param text   true if the content is a text type.
+     *
+     * @return The transfer encoding name.
+     * @exception IOException
+     */
+    public static String getEncoding(final InputStream in, final boolean text) throws IOException {
+        final ContentAnalyzer analyzer = new ContentAnalyzer(text);
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            if (analyzer.update(buffer, 0, count)) {
+                break;
+            }
+        }
+        return analyzer.getEncoding();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.mail.Session;
+import javax.mail.URLName;
+
+import org.apache.geronimo.osgi.locator.ProviderLocator;
+
+/**
+ * Times a single operation for the {@link MailInstrumentation} of a Session.
+ * The usage is:
+ *
+ * <pre>
+ * final Instrumentation instrumentation = Instrumentation.start(session, Operation.CONNECT, target);
+ * try {
+ *     ...
+ *     instrumentation.completed();
+ * } finally {
+ *     instrumentation.close();
+ * }
+ * </pre>
+ *
+ * When the Session has no instrumentation a shared instance is returned
+ * that does nothing, so the cost of an uninstrumented operation is the
+ * lookup of the session property.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class Instrumentation {
+
+    /**
+     * The session property naming the MailInstrumentation class.
+     */
+    public static final String INSTRUMENTATION_CLASS = "mail.instrumentation.class";
+
+    private static final Instrumentation DISABLED = new Instrumentation(null, null, null, null);
+
+    // the listener created for each instrumented session.
+    private static final Map<Session, Registration> registrations = new WeakHashMap<Session, Registration>();
+
+    private final MailInstrumentation listener;
+    private final Session session;
+    private final MailInstrumentation.Operation operation;
+    private String target;
+    private final long start;
+    private long bytes = -1;
+    private boolean completed;
+
+    private Instrumentation(final MailInstrumentation listener, final Session session, final MailInstrumentation.Operation operation, final String target) {
+        this.listener = listener;
+        this.session = session;
+        this.operation = operation;
+        this.target = target;
+        this.start = listener == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Start timing an operation.
+     *
+     * @param session   The Session the operation is performed for.  This may be null.
+     * @param operation The operation.
+     * @param target    The thing operated on.  This may be null.
+     *
+     * @return The Instrumentation to complete and close when the operation is done.
+     */
+    public static Instrumentation start(final Session session, final MailInstrumentation.Operation operation, final String target) {
+        final MailInstrumentation listener = getInstrumentation(session);
+        if (listener == null) {
+            return DISABLED;
+        }
+        return new Instrumentation(listener, session, operation, target);
+    }
+
+    /**
+     * Get the MailInstrumentation registered for a Session.
+     *
+     * @param session The Session.  This may be null.
+     *
+     * @return The MailInstrumentation, or null if the Session has none or
+     *         the configured class cannot be created.
+     */
+    public static MailInstrumentation getInstrumentation(final Session session) {
+        final String className = SessionUtil.getProperty(session, INSTRUMENTATION_CLASS);
+        if (className == null) {
+            return null;
+        }
+        synchronized (registrations) {
+            Registration registration = registrations.get(session);
+            // the property may be changed after the session is created
+            if (registration == null || !registration.className.equals(className)) {
+                registration = new Registration(className, createInstrumentation(session, className));
+                registrations.put(session, registration);
+            }
+            return registration.listener;
+        }
+    }
+
+    private static MailInstrumentation createInstrumentation(final Session session, final String className) {
+        try {
+            return (MailInstrumentation)ProviderLocator.loadClass(className, Instrumentation.class).newInstance();
+        } catch (final Exception e) {
+            // a broken listener must not stop the mail from flowing, so it is just left out
+            if (session.getDebug()) {
+                session.getDebugOut().println("DEBUG: unable to create " + INSTRUMENTATION_CLASS + " " + className + ": " + e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Build the target name used for the operations of a service.
+     *
+     * @param protocol The protocol.
+     * @param host     The host name.  This may be null.
+     * @param port     The port, or -1 for the protocol default.
+     *
+     * @return The target as protocol://host[:port].
+     */
+    public static String target(final String protocol, final String host, final int port) {
+        final StringBuilder buffer = new StringBuilder();
+        buffer.append(protocol).append("://");
+        if (host != null) {
+            buffer.append(host);
+        }
+        if (port != -1) {
+            buffer.append(':').append(port);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Test if the operation is being reported.  This can be used to skip
+     * any work only needed for the report.
+     *
+     * @return true if the Session has instrumentation.
+     */
+    public boolean isEnabled() {
+        return listener != null;
+    }
+
+    /**
+     * Set the target of the operation to a service, for operations whose
+     * target is only known once they are done.
+     *
+     * @param url The URLName of the service.  This may be null.
+     */
+    public void setTarget(final URLName url) {
+        if (listener != null && url != null) {
+            target = target(url.getProtocol(), url.getHost(), url.getPort());
+        }
+    }
+
+    /**
+     * Set the number of bytes handled by the operation.
+     *
+     * @param bytes The byte count, or -1 if not known.
+     */
+    public void setBytes(final long bytes) {
+        if (listener != null) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Count the bytes written to a stream as the bytes handled by the
+     * operation.
+     *
+     * @param out The stream written by the operation.
+     *
+     * @return A stream to write in its place.  This is the same stream
+     *         when the operation is not being reported.
+     */
+    public OutputStream count(final OutputStream out) {
+        if (listener == null) {
+            return out;
+        }
+        bytes = 0;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                bytes++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                bytes += len;
+            }
+        };
+    }
+
+    /**
+     * Mark the operation as successful.  An operation closed without
+     * this is reported as failed.
+     */
+    public void completed() {
+        if (listener != null) {
+            completed = true;
+        }
+    }
+
+    /**
+     * End the operation and report it.
+     */
+    public void close() {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.operationCompleted(session, operation, target, System.nanoTime() - start, bytes, !completed);
+        } catch (final RuntimeException e) {
+            if (session != null && session.getDebug()) {
+                session.getDebugOut().println("DEBUG: " + INSTRUMENTATION_CLASS + " failed: " + e);
+            }
+        }
+    }
+
+    private static final class Registration {
+        final String className;
+        final MailInstrumentation listener;
+
+        Registration(final String className, final MailInstrumentation listener) {
+            this.className = className;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.mail.Session;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A {@link MailInstrumentation} that keeps counters for each operation and
+ * target, and exposes them as MBeans on the platform MBean server.  It is
+ * enabled with
+ *
+ * <pre>
+ * mail.instrumentation.class=org.apache.geronimo.mail.util.JmxMailInstrumentation
+ * </pre>
+ *
+ * The counters are shared by all of the sessions using this class, and are
+ * registered as org.apache.geronimo.mail:type=MailOperation,operation=&lt;operation&gt;,target=&lt;target&gt;
+ * so that a service used from several sessions shows up as a single entry
+ * per host.
+ *
+ * @version $Rev$ $Date$
+ */
+public class JmxMailInstrumentation implements MailInstrumentation {
+
+    /**
+     * The JMX domain the statistics are registered in.
+     */
+    public static final String DOMAIN = "org.apache.geronimo.mail";
+
+    private static final ConcurrentMap<String, MailOperationStatistics> statistics = new ConcurrentHashMap<String, MailOperationStatistics>();
+
+    public void operationCompleted(final Session session, final Operation operation, final String target, final long nanos, final long bytes, final boolean failed) {
+        getStatistics(operation, target).record(nanos, bytes, failed);
+    }
+
+    /**
+     * Get the counters for an operation on a target, registering them
+     * the first time they are used.
+     *
+     * @param operation The operation.
+     * @param target    The target.  This may be null.
+     *
+     * @return The counters.
+     */
+    public static MailOperationStatistics getStatistics(final Operation operation, final String target) {
+        final String name = objectName(operation, target);
+        MailOperationStatistics stats = statistics.get(name);
+        if (stats == null) {
+            stats = new MailOperationStatistics(operation.name(), target);
+            final MailOperationStatistics existing = statistics.putIfAbsent(name, stats);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName(name));
+            } catch (final JMException e) {
+                // counting goes on without the MBean, for example when another copy of this
+                // class already registered the name.
+            } catch (final SecurityException e) {
+            }
+        }
+        return stats;
+    }
+
+    private static String objectName(final Operation operation, final String target) {
+        final StringBuilder name = new StringBuilder(DOMAIN);
+        name.append(":type=MailOperation,operation=").append(operation.name().toLowerCase());
+        if (target != null) {
+            name.append(",target=").append(ObjectName.quote(target));
+        }
+        return name.toString();
+    }
+}
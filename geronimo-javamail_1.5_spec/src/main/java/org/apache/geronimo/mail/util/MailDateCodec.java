@@ -0,0 +1,500 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formatting and parsing of RFC 822/5322 dates, as used in the "Date"
+ * header.  Unlike a {@link java.text.SimpleDateFormat}, this holds no
+ * state and can be shared between threads.  The date fields are worked
+ * out with plain arithmetic on the proleptic Gregorian calendar rather
+ * than by a {@link java.util.Calendar}.
+ *
+ * Dates are formatted as <code>EEE, d MMM yyyy HH:mm:ss Z (z)</code>.  Parsing
+ * is lenient about the format, since mail in the wild uses a lot of
+ * variations:  the day of the week is optional, the date fields can be
+ * separated by "-" as in IMAP internal dates, the seconds are optional,
+ * and the obsolete named and military zones are accepted.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class MailDateCodec {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private static final String[] DAY_NAMES = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+    private static final String[] MONTH_NAMES = { "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+                                                  "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+    // the short names of the last time zone we formatted for.  Looking these
+    // up is expensive, and a process generally only uses the one zone.
+    private static volatile ZoneNames zoneNames;
+
+    private MailDateCodec() {
+    }
+
+    /**
+     * Format a date in the default time zone.
+     *
+     * @param date   The date to format.
+     *
+     * @return The formatted date string.
+     */
+    public static String format(final Date date) {
+        return format(date, TimeZone.getDefault(), new StringBuilder(40)).toString();
+    }
+
+    /**
+     * Format a date.
+     *
+     * @param date   The date to format.
+     * @param zone   The time zone to express the date in.
+     * @param out    The buffer the formatted date is appended to.
+     *
+     * @return The buffer.
+     */
+    public static StringBuilder format(final Date date, final TimeZone zone, final StringBuilder out) {
+        final long millis = date.getTime();
+        final int offset = zone.getOffset(millis);
+        final long local = millis + offset;
+        final long days = floorDiv(local, MILLIS_PER_DAY);
+        final int secondOfDay = (int)((local - days * MILLIS_PER_DAY) / 1000);
+
+        // convert the day number into the civil date, shifting to a year
+        // that starts in March so the leap day comes last.
+        final long z = days + 719468;
+        final long era = floorDiv(z, 146097);
+        final int dayOfEra = (int)(z - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final int month = shiftedMonth < 10 ? shiftedMonth + 2 : shiftedMonth - 10;
+        final long year = yearOfEra + era * 400 + (month < 2 ? 1 : 0);
+
+        // the epoch was a Thursday
+        out.append(DAY_NAMES[(int)floorMod(days + 4, 7)]).append(", ");
+        out.append(day).append(' ');
+        out.append(MONTH_NAMES[month]).append(' ');
+        appendPadded(out, year, 4);
+        out.append(' ');
+        appendPadded(out, secondOfDay / 3600, 2);
+        out.append(':');
+        appendPadded(out, secondOfDay / 60 % 60, 2);
+        out.append(':');
+        appendPadded(out, secondOfDay % 60, 2);
+
+        final int offsetMinutes = offset / 60000;
+        out.append(offsetMinutes < 0 ? " -" : " +");
+        final int absolute = Math.abs(offsetMinutes);
+        appendPadded(out, absolute / 60, 2);
+        appendPadded(out, absolute % 60, 2);
+
+        out.append(" (").append(getZoneName(zone, zone.inDaylightTime(date))).append(')');
+        return out;
+    }
+
+    /**
+     * Parse a date, using lenient rules for the field values.
+     *
+     * @param text   The date text.
+     *
+     * @return The parsed date.
+     * @exception ParseException if the text is not a recognizable date.
+     */
+    public static Date parse(final CharSequence text) throws ParseException {
+        return parse(text, new ParsePosition(0), true);
+    }
+
+    /**
+     * Parse a date.
+     *
+     * @param text    The date text.
+     * @param pos     The position to start parsing at.  This is updated to the
+     *                end of the date, or on failure, with the error position.
+     * @param lenient If true, out of range field values roll over into the next field,
+     *                otherwise they are rejected.
+     *
+     * @return The parsed date.
+     * @exception ParseException if the text is not a recognizable date.
+     */
+    public static Date parse(final CharSequence text, final ParsePosition pos, final boolean lenient) throws ParseException {
+        final Parser parser = new Parser(text, pos.getIndex());
+        try {
+            final long millis = parser.parse(lenient);
+            pos.setIndex(parser.current);
+            return new Date(millis);
+        } catch (final ParseException e) {
+            pos.setErrorIndex(e.getErrorOffset());
+            throw e;
+        }
+    }
+
+    private static String getZoneName(final TimeZone zone, final boolean daylight) {
+        ZoneNames names = zoneNames;
+        if (names == null || !names.id.equals(zone.getID()) || names.rawOffset != zone.getRawOffset()) {
+            names = new ZoneNames(zone);
+            zoneNames = names;
+        }
+        return daylight ? names.daylight : names.standard;
+    }
+
+    private static void appendPadded(final StringBuilder out, final long value, final int width) {
+        if (value < 0) {
+            out.append(value);
+            return;
+        }
+        long limit = 10;
+        for (int i = 1; i < width; i++) {
+            if (value < limit) {
+                out.append('0');
+            }
+            limit *= 10;
+        }
+        out.append(value);
+    }
+
+    /**
+     * Get the day number relative to the epoch of a date.  The day may be past
+     * the end of the month, in which case it rolls into the following months.
+     */
+    static long toEpochDay(final long year, final int month, final int day) {
+        // count years from March, so the leap day is at the end
+        final long y = month < 2 ? year - 1 : year;
+        final long era = floorDiv(y, 400);
+        final long yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month < 2 ? month + 10 : month - 2) + 2) / 5;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468 + day - 1;
+    }
+
+    private static int daysInMonth(final long year, final int month) {
+        if (month == 1) {
+            return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+        }
+        return month == 3 || month == 5 || month == 8 || month == 10 ? 30 : 31;
+    }
+
+    private static long floorDiv(final long x, final long y) {
+        final long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    private static long floorMod(final long x, final long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    private static final class ZoneNames {
+        final String id;
+        final int rawOffset;
+        final String standard;
+        final String daylight;
+
+        ZoneNames(final TimeZone zone) {
+            id = zone.getID();
+            rawOffset = zone.getRawOffset();
+            standard = zone.getDisplayName(false, TimeZone.SHORT, Locale.US);
+            daylight = zone.getDisplayName(true, TimeZone.SHORT, Locale.US);
+        }
+    }
+
+    /**
+     * The state of a single parse.
+     */
+    private static final class Parser {
+        // the date source text
+        private final CharSequence source;
+        // our end parsing position
+        private final int endOffset;
+        // current parsing position
+        int current;
+
+        Parser(final CharSequence source, final int start) {
+            this.source = source;
+            this.endOffset = source.length();
+            this.current = start;
+        }
+
+        /**
+         * Parse the date, returning the time in milliseconds.
+         *
+         * @param lenient false if the field values must be within their normal ranges.
+         *
+         * @return The time in milliseconds since the epoch.
+         * @exception ParseException
+         */
+        long parse(final boolean lenient) throws ParseException {
+            // we just skip over any leading day of the week, which means scanning ahead until we
+            // find the first numeric character
+            locateNumeric();
+            // the day can be either 1 or two digits
+            final int day = parseNumber(1, 2);
+            skipDateDelimiter();
+            // parse off the month (which is in character format)
+            final int month = parseMonth();
+            skipDateDelimiter();
+            // now pull of the year, which can be either 2-digit or 4-digit
+            final int year = parseYear();
+            // white space is required here
+            skipRequiredWhiteSpace();
+            // accept a 1 or 2 digit hour
+            final int hour = parseNumber(1, 2);
+            skipRequiredChar(':');
+            // the minutes must be two digit
+            final int minutes = parseNumber(2, 2);
+
+            // the seconds are optional, but the ":" tells us if they are to
+            // be expected.
+            int seconds = 0;
+            if (skipOptionalChar(':')) {
+                seconds = parseNumber(2, 2);
+            }
+            skipWhiteSpace();
+            // and finally the timezone information
+            final int offset = parseTimeZone();
+
+            if (!lenient) {
+                // a seconds value of 60 is allowed for leap seconds
+                if (day < 1 || day > daysInMonth(year, month) || hour > 23 || minutes > 59 || seconds > 60) {
+                    throw new ParseException("Date field out of range", current);
+                }
+            }
+
+            // the offset is negated to get from the local time back to UTC.  For example, for
+            // the EST timezone the offset value is -300 (5 hours), so 15:00:00 EST is 20:00:00 UTC.
+            final long secondOfDay = hour * 3600L + (minutes - offset) * 60L + seconds;
+            return toEpochDay(year, month, day) * MILLIS_PER_DAY + secondOfDay * 1000;
+        }
+
+        private boolean isWhiteSpace(final char ch) {
+            return ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n';
+        }
+
+        private void skipRequiredChar(final char ch) throws ParseException {
+            if (current >= endOffset || source.charAt(current) != ch) {
+                throw new ParseException("Delimiter '" + ch + "' expected", current);
+            }
+            current++;
+        }
+
+        private boolean skipOptionalChar(final char ch) {
+            if (current >= endOffset || source.charAt(current) != ch) {
+                return false;
+            }
+            current++;
+            return true;
+        }
+
+        private void skipWhiteSpace() {
+            while (current < endOffset && isWhiteSpace(source.charAt(current))) {
+                current++;
+            }
+        }
+
+        private void skipRequiredWhiteSpace() throws ParseException {
+            final int start = current;
+            skipWhiteSpace();
+            // we must have at least one white space character
+            if (start == current) {
+                throw new ParseException("White space character expected", current);
+            }
+        }
+
+        private void locateNumeric() throws ParseException {
+            while (current < endOffset) {
+                final char ch = source.charAt(current);
+                if (ch >= '0' && ch <= '9') {
+                    return;
+                }
+                current++;
+            }
+            throw new ParseException("Number field expected", current);
+        }
+
+        /**
+         * Parse out an expected numeric field.
+         *
+         * @param minDigits The minimum number of digits we expect in this field.
+         * @param maxDigits The maximum number of digits expected.
+         *
+         * @return The parsed numeric value.
+         * @exception ParseException
+         */
+        private int parseNumber(final int minDigits, final int maxDigits) throws ParseException {
+            final int start = current;
+            int accumulator = 0;
+            while (current < endOffset) {
+                final char ch = source.charAt(current);
+                if (ch < '0' || ch > '9') {
+                    break;
+                }
+                accumulator = accumulator * 10 + (ch - '0');
+                current++;
+            }
+
+            final int fieldLength = current - start;
+            if (fieldLength < minDigits || fieldLength > maxDigits) {
+                throw new ParseException("Invalid number field", current);
+            }
+            return accumulator;
+        }
+
+        /**
+         * Skip a delimiter between the date portions of the
+         * string.  The IMAP internal date format uses "-", so
+         * we either accept a single "-" or any number of white
+         * space characters (at least one required).
+         */
+        private void skipDateDelimiter() throws ParseException {
+            if (current >= endOffset) {
+                throw new ParseException("Invalid date field delimiter", current);
+            }
+            if (source.charAt(current) == '-') {
+                current++;
+            }
+            else {
+                skipRequiredWhiteSpace();
+            }
+        }
+
+        /**
+         * Parse a character month name into the date month offset.
+         */
+        private int parseMonth() throws ParseException {
+            if (endOffset - current >= 3) {
+                final char c1 = Character.toLowerCase(source.charAt(current));
+                final char c2 = Character.toLowerCase(source.charAt(current + 1));
+                final char c3 = Character.toLowerCase(source.charAt(current + 2));
+                for (int month = 0; month < MONTH_NAMES.length; month++) {
+                    final String name = MONTH_NAMES[month];
+                    if (Character.toLowerCase(name.charAt(0)) == c1 && name.charAt(1) == c2 && name.charAt(2) == c3) {
+                        current += 3;
+                        return month;
+                    }
+                }
+            }
+            throw new ParseException("Invalid month", current);
+        }
+
+        /**
+         * Parse off a year field that might be expressed as 2, 3 or 4 digits.
+         * Short years are interpreted as RFC 5322 specifies:  two digit years
+         * below 50 are in this century, and larger ones in the last.
+         */
+        private int parseYear() throws ParseException {
+            final int start = current;
+            final int year = parseNumber(2, 4);
+            if (current - start == 4) {
+                return year;
+            }
+            return year < 50 && current - start == 2 ? year + 2000 : year + 1900;
+        }
+
+        /**
+         * Parse all of the different timezone options, returning the
+         * offset in minutes.
+         */
+        private int parseTimeZone() throws ParseException {
+            if (current >= endOffset) {
+                throw new ParseException("Missing time zone", current);
+            }
+
+            final char sign = source.charAt(current);
+            if (sign == '-' || sign == '+') {
+                current++;
+                // a numeric timezone is always 4 digits, hours and minutes
+                final int zoneInfo = parseNumber(4, 4);
+                final int offset = (zoneInfo / 100) * 60 + (zoneInfo % 100);
+                return sign == '-' ? -offset : offset;
+            }
+
+            // need to parse this out using the obsolete zone names.  This will be
+            // either a 3-character code (defined set), or a single character military
+            // zone designation.
+            final int start = current;
+            while (current < endOffset && !isWhiteSpace(source.charAt(current))) {
+                current++;
+            }
+            final int length = current - start;
+            if (length == 1) {
+                final int offset = militaryZoneOffset(Character.toUpperCase(source.charAt(start)));
+                if (offset != Integer.MIN_VALUE) {
+                    return offset;
+                }
+            }
+            else if (length == 2) {
+                // NOTE:  This is "UT", NOT "UTC"
+                if (Character.toUpperCase(source.charAt(start)) == 'U' && Character.toUpperCase(source.charAt(start + 1)) == 'T') {
+                    return 0;
+                }
+            }
+            else if (length == 3) {
+                final char c1 = Character.toUpperCase(source.charAt(start));
+                final char c2 = Character.toUpperCase(source.charAt(start + 1));
+                final char c3 = Character.toUpperCase(source.charAt(start + 2));
+                if (c1 == 'G' && c2 == 'M' && c3 == 'T') {
+                    return 0;
+                }
+                if (c3 == 'T' && (c2 == 'S' || c2 == 'D')) {
+                    // the US zones, an hour further east in daylight time
+                    final int daylight = c2 == 'D' ? 60 : 0;
+                    switch (c1) {
+                        case 'E':
+                            return -300 + daylight;
+                        case 'C':
+                            return -360 + daylight;
+                        case 'M':
+                            return -420 + daylight;
+                        case 'P':
+                            return -480 + daylight;
+                        default:
+                            break;
+                    }
+                }
+            }
+            throw new ParseException("Invalid time zone", current);
+        }
+
+        /**
+         * Get the offset of a single-character military timezone, or
+         * Integer.MIN_VALUE if this isn't one.
+         */
+        private int militaryZoneOffset(final char name) {
+            if (name >= 'A' && name <= 'I') {
+                return (name - 'A' + 1) * 60;
+            }
+            if (name >= 'K' && name <= 'M') {
+                return (name - 'K' + 10) * 60;
+            }
+            if (name >= 'N' && name <= 'Y') {
+                return -(name - 'N' + 1) * 60;
+            }
+            if (name == 'Z') {
+                return 0;
+            }
+            return Integer.MIN_VALUE;
+        }
+    }
+}
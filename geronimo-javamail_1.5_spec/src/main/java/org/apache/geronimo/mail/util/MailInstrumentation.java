@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import javax.mail.Session;
+
+/**
+ * A listener told about the time taken by the operations of a mail Session.
+ *
+ * An implementation is registered for a Session by naming its class in the
+ * session property mail.instrumentation.class.  The class needs a public
+ * no-argument constructor, and one instance is created for each Session
+ * that uses it.  Sessions without the property pay only for the property
+ * lookup.
+ *
+ * The spec classes report the operations they perform themselves.  The
+ * operations that are implemented by the providers, such as opening a
+ * folder or fetching messages, are reported by providers that use
+ * {@link Instrumentation} to time them.
+ *
+ * Events are delivered on the thread that performed the operation, so an
+ * implementation must be thread safe and should return quickly.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface MailInstrumentation {
+
+    /**
+     * The operations that are reported.
+     */
+    enum Operation {
+        /** Loading and creating a Store or Transport provider. */
+        PROVIDER_LOOKUP,
+        /** Connecting and authenticating a Store or Transport. */
+        CONNECT,
+        /** Sending a message through a Transport. */
+        SEND,
+        /** Opening a Folder. */
+        FOLDER_OPEN,
+        /** Fetching message data for a Folder. */
+        FETCH,
+        /** Searching the messages of a Folder. */
+        SEARCH,
+        /** Parsing a message from a stream. */
+        PARSE,
+        /** Encoding message content for writing. */
+        ENCODE,
+        /** Decoding message content into its object form. */
+        DECODE
+    }
+
+    /**
+     * Called when an operation has finished.
+     *
+     * @param session   The Session the operation was performed for.
+     * @param operation The operation.
+     * @param target    The thing operated on, usually protocol://host[:port] for
+     *                  the operations of a Store or Transport.  This may be null.
+     * @param nanos     The elapsed time of the operation, in nanoseconds.
+     * @param bytes     The number of bytes handled, or -1 if this is not known.
+     * @param failed    true if the operation ended with an exception.
+     */
+    void operationCompleted(Session session, Operation operation, String target, long nanos, long bytes, boolean failed);
+}
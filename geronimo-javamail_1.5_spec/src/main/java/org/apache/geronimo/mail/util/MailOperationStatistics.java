@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters kept by {@link JmxMailInstrumentation} for one operation on
+ * one target.
+ *
+ * @version $Rev$ $Date$
+ */
+public class MailOperationStatistics implements MailOperationStatisticsMBean {
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final String operation;
+    private final String target;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public MailOperationStatistics(final String operation, final String target) {
+        this.operation = operation;
+        this.target = target;
+    }
+
+    /**
+     * Add a completed operation to the counters.
+     *
+     * @param nanos  The elapsed time of the operation.
+     * @param bytes  The bytes handled, or -1 if not known.
+     * @param failed true if the operation failed.
+     */
+    public void record(final long nanos, final long bytes, final boolean failed) {
+        count.incrementAndGet();
+        if (failed) {
+            failures.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        if (bytes > 0) {
+            this.bytes.addAndGet(bytes);
+        }
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public double getTotalTimeMillis() {
+        return totalNanos.get() / NANOS_PER_MILLI;
+    }
+
+    public double getAverageTimeMillis() {
+        final long operations = count.get();
+        return operations == 0 ? 0 : totalNanos.get() / NANOS_PER_MILLI / operations;
+    }
+
+    public double getMaxTimeMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public void reset() {
+        count.set(0);
+        failures.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        bytes.set(0);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+/**
+ * The management interface of {@link MailOperationStatistics}.
+ *
+ * @version $Rev$ $Date$
+ */
+public interface MailOperationStatisticsMBean {
+
+    /**
+     * @return The operation the statistics are for.
+     */
+    String getOperation();
+
+    /**
+     * @return The target the statistics are for, or null for operations without one.
+     */
+    String getTarget();
+
+    /**
+     * @return The number of operations completed, including the failed ones.
+     */
+    long getCount();
+
+    /**
+     * @return The number of operations that failed.
+     */
+    long getFailures();
+
+    /**
+     * @return The total time taken by the operations, in milliseconds.
+     */
+    double getTotalTimeMillis();
+
+    /**
+     * @return The average time taken by an operation, in milliseconds.
+     */
+    double getAverageTimeMillis();
+
+    /**
+     * @return The longest time taken by an operation, in milliseconds.
+     */
+    double getMaxTimeMillis();
+
+    /**
+     * @return The number of bytes handled by the operations that reported a byte count.
+     */
+    long getBytes();
+
+    /**
+     * Set all of the counters back to zero.
+     */
+    void reset();
+}
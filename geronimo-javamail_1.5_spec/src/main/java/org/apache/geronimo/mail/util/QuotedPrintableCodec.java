@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table driven quoted-printable codec working on whole blocks of data.
+ * The encoding rules are the same as those of {@link QuotedPrintableEncoder}:
+ * line ends in the data are written as CRLF, blanks in front of a line end
+ * are encoded, and soft line breaks are inserted to keep lines within the
+ * line length.
+ *
+ * On decode, blanks in front of a line end are dropped, soft line breaks
+ * are removed, and hex escapes are converted back to the original bytes.
+ */
+public class QuotedPrintableCodec extends BlockCodec {
+
+    // our default line length for encoded data
+    public static final int DEFAULT_LINE_LENGTH = 76;
+
+    private static final byte[] ENCODING_TABLE = {
+        (byte)'0', (byte)'1', (byte)'2', (byte)'3', (byte)'4', (byte)'5', (byte)'6', (byte)'7',
+        (byte)'8', (byte)'9', (byte)'A', (byte)'B', (byte)'C', (byte)'D', (byte)'E', (byte)'F'
+    };
+
+    // the character classes used by the encoder
+    private static final byte LITERAL = 0;
+    private static final byte ENCODED = 1;
+    private static final byte SPACE = 2;
+    private static final byte CR = 3;
+    private static final byte LF = 4;
+
+    private static final byte[] CHARACTER_CLASS = new byte[256];
+
+    // hex digit values, with -1 for anything else
+    private static final byte[] DECODING_TABLE = new byte[256];
+
+    // the most output a single input byte can generate while encoding
+    private static final int MAX_UNIT_OUTPUT = 12;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            CHARACTER_CLASS[i] = i < 32 || i >= 127 || i == '=' ? ENCODED : LITERAL;
+        }
+        CHARACTER_CLASS[' '] = SPACE;
+        CHARACTER_CLASS['\r'] = CR;
+        CHARACTER_CLASS['\n'] = LF;
+
+        Arrays.fill(DECODING_TABLE, (byte)-1);
+        for (int i = 0; i < ENCODING_TABLE.length; i++) {
+            DECODING_TABLE[ENCODING_TABLE[i]] = (byte)i;
+            DECODING_TABLE[Character.toLowerCase((char)ENCODING_TABLE[i])] = (byte)i;
+        }
+    }
+
+    // line length we're dealing with
+    private final int lineLength;
+    // number of bytes written on the current line
+    private int lineCount;
+    // remember whether last character was a white space.
+    private boolean lastWhitespace;
+    // indicates whether the last character was a '\r', potentially part of a CRLF sequence.
+    private boolean lastCR;
+
+    // number of blanks read while decoding whose fate is not yet known
+    private int deferredWhitespace;
+    // progress through an escape sequence: 0 none, 1 after the '=', 2 after the first digit,
+    // 3 reading blanks following the '='
+    private int escape;
+    private int escapeDigit;
+    private int escapeBlanks;
+    // the characters of an invalid escape sequence still to be passed through
+    private final byte[] carry = new byte[2];
+    private int carryIndex;
+    private int carryCount;
+
+    /**
+     * Create a codec using the default 76 character line length.
+     */
+    public QuotedPrintableCodec() {
+        this(DEFAULT_LINE_LENGTH);
+    }
+
+    /**
+     * Create a codec using a given line length.
+     *
+     * @param lineLength The line length limit for the encoded data, including
+     *                   any soft line break marker.
+     */
+    public QuotedPrintableCodec(final int lineLength) {
+        this.lineLength = lineLength;
+    }
+
+    @Override
+    public int maxEncodedLength(final int length) {
+        return (int)Math.min(6L * length + MAX_UNIT_OUTPUT, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int maxDecodedLength(final int length) {
+        return (int)Math.min((long)length + deferredWhitespace + carryCount - carryIndex + 2, Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected void encodeBuffers(final ByteBuffer src, final ByteBuffer dst) {
+        final byte[] in = src.array();
+        int inPos = src.arrayOffset() + src.position();
+        final int inEnd = src.arrayOffset() + src.limit();
+        final byte[] out = dst.array();
+        int outPos = dst.arrayOffset() + dst.position();
+        final int outEnd = dst.arrayOffset() + dst.limit();
+
+        int count = lineCount;
+
+        while (inPos < inEnd && outEnd - outPos >= MAX_UNIT_OUTPUT) {
+            final int ch = in[inPos++] & 0xff;
+            final byte type = CHARACTER_CLASS[ch];
+
+            // see if we had to defer handling of a whitespace or '\r' character, and handle it if necessary.
+            if (lastWhitespace) {
+                // a blank at the end of a line is written encoded
+                if (type == CR || type == LF) {
+                    if (count + 3 >= lineLength) {
+                        outPos = softBreak(out, outPos);
+                        count = 0;
+                    }
+                    out[outPos++] = '=';
+                    out[outPos++] = '2';
+                    out[outPos++] = '0';
+                    count += 3;
+                }
+                else {
+                    if (count + 1 >= lineLength) {
+                        outPos = softBreak(out, outPos);
+                        count = 0;
+                    }
+                    out[outPos++] = ' ';
+                    count++;
+                }
+                lastWhitespace = false;
+            }
+            else if (lastCR) {
+                // if the char following the CR was not a new line, write an EOL now.
+                if (type != LF) {
+                    out[outPos++] = '\r';
+                    out[outPos++] = '\n';
+                    count = 0;
+                }
+                lastCR = false;
+            }
+
+            switch (type) {
+                case LITERAL:
+                    if (count + 1 >= lineLength) {
+                        outPos = softBreak(out, outPos);
+                        count = 0;
+                    }
+                    out[outPos++] = (byte)ch;
+                    count++;
+                    break;
+
+                case ENCODED:
+                    if (count + 3 >= lineLength) {
+                        outPos = softBreak(out, outPos);
+                        count = 0;
+                    }
+                    out[outPos++] = '=';
+                    out[outPos++] = ENCODING_TABLE[ch >> 4];
+                    out[outPos++] = ENCODING_TABLE[ch & 0x0F];
+                    count += 3;
+                    break;
+
+                case SPACE:
+                    // we don't know yet whether this needs encoding.
+                    lastWhitespace = true;
+                    break;
+
+                case CR:
+                    // just flag this until we see the next character.
+                    lastCR = true;
+                    break;
+
+                default:
+                    // a new line is always written as a CRLF pair.
+                    out[outPos++] = '\r';
+                    out[outPos++] = '\n';
+                    count = 0;
+                    break;
+            }
+        }
+
+        lineCount = count;
+        src.position(inPos - src.arrayOffset());
+        dst.position(outPos - dst.arrayOffset());
+    }
+
+    private int softBreak(final byte[] out, int outPos) {
+        out[outPos++] = '=';
+        out[outPos++] = '\r';
+        out[outPos++] = '\n';
+        return outPos;
+    }
+
+    @Override
+    protected void finishBuffer(final ByteBuffer dst) {
+        if (!lastWhitespace && !lastCR) {
+            return;
+        }
+        if (dst.remaining() < 6) {
+            throw new BufferOverflowException();
+        }
+        final byte[] out = dst.array();
+        int outPos = dst.arrayOffset() + dst.position();
+        if (lastWhitespace) {
+            // a blank at the end of the data needs protecting too
+            if (lineCount + 3 >= lineLength) {
+                outPos = softBreak(out, outPos);
+                lineCount = 0;
+            }
+            out[outPos++] = '=';
+            out[outPos++] = '2';
+            out[outPos++] = '0';
+            lineCount += 3;
+        }
+        else {
+            out[outPos++] = '\r';
+            out[outPos++] = '\n';
+            lineCount = 0;
+        }
+        lastWhitespace = false;
+        lastCR = false;
+        dst.position(outPos - dst.arrayOffset());
+    }
+
+    @Override
+    protected void decodeBuffers(final ByteBuffer src, final ByteBuffer dst) throws IOException {
+        final byte[] in = src.array();
+        int inPos = src.arrayOffset() + src.position();
+        final int inEnd = src.arrayOffset() + src.limit();
+        final byte[] out = dst.array();
+        int outPos = dst.arrayOffset() + dst.position();
+        final int outEnd = dst.arrayOffset() + dst.limit();
+
+        try {
+            while (true) {
+                // finish passing through an invalid escape sequence
+                while (carryIndex < carryCount && outPos < outEnd) {
+                    out[outPos++] = carry[carryIndex++];
+                }
+                if (carryIndex < carryCount || inPos == inEnd) {
+                    break;
+                }
+
+                final int ch = in[inPos] & 0xff;
+
+                if (escape == 1 || escape == 3) {
+                    if (ch == '\n') {
+                        // soft line break using a bare newline
+                        escape = 0;
+                    }
+                    else if (ch == ' ' || ch == '\t') {
+                        // blanks between the '=' and the line end of a soft break are
+                        // padding added in transport
+                        escape = 3;
+                        escapeBlanks++;
+                    }
+                    else if (escape == 1 || ch == '\r') {
+                        escapeDigit = ch;
+                        escape = 2;
+                    }
+                    else {
+                        // blanks after a '=' that aren't the end of the line.  The '=' is passed
+                        // through, and the blanks are handled like any others in the data
+                        if (outPos == outEnd) {
+                            break;
+                        }
+                        out[outPos++] = '=';
+                        deferredWhitespace = escapeBlanks;
+                        escape = 0;
+                        escapeBlanks = 0;
+                        continue;
+                    }
+                    if (escape != 3) {
+                        escapeBlanks = 0;
+                    }
+                    inPos++;
+                    continue;
+                }
+                if (escape == 2) {
+                    if (escapeDigit == '\r') {
+                        // this was a soft linebreak inserted by the encoding.  We just toss this away
+                        if (ch != '\n') {
+                            throw new IOException("Invalid quoted printable encoding");
+                        }
+                    }
+                    else {
+                        final int high = DECODING_TABLE[escapeDigit];
+                        final int low = DECODING_TABLE[ch];
+                        if (high >= 0 && low >= 0) {
+                            if (outPos == outEnd) {
+                                break;
+                            }
+                            out[outPos++] = (byte)((high << 4) | low);
+                        }
+                        else {
+                            // not a valid escape, so pass it through unchanged
+                            if (outPos == outEnd) {
+                                break;
+                            }
+                            out[outPos++] = '=';
+                            carry[0] = (byte)escapeDigit;
+                            carry[1] = (byte)ch;
+                            carryIndex = 0;
+                            carryCount = 2;
+                        }
+                    }
+                    escape = 0;
+                    inPos++;
+                    continue;
+                }
+
+                if (ch == ' ') {
+                    // we can't tell yet whether these are at the end of a line
+                    deferredWhitespace++;
+                    inPos++;
+                    continue;
+                }
+                if (deferredWhitespace > 0) {
+                    if (ch == '\r' || ch == '\n') {
+                        // those blanks don't really exist.
+                        deferredWhitespace = 0;
+                    }
+                    else {
+                        final int blanks = Math.min(deferredWhitespace, outEnd - outPos);
+                        Arrays.fill(out, outPos, outPos + blanks, (byte)' ');
+                        outPos += blanks;
+                        deferredWhitespace -= blanks;
+                        if (deferredWhitespace > 0) {
+                            break;
+                        }
+                    }
+                }
+                if (ch == '=') {
+                    escape = 1;
+                    inPos++;
+                    continue;
+                }
+                if (outPos == outEnd) {
+                    break;
+                }
+                out[outPos++] = (byte)ch;
+                inPos++;
+            }
+        } finally {
+            src.position(inPos - src.arrayOffset());
+            dst.position(outPos - dst.arrayOffset());
+        }
+    }
+
+    @Override
+    public boolean finishDecoding() {
+        // blanks at the end of the data are dropped like any other trailing blanks
+        deferredWhitespace = 0;
+        // blanks after a final '=' are treated as a soft line break
+        final boolean complete = escape == 0 || escape == 3;
+        escape = 0;
+        escapeBlanks = 0;
+        return complete;
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.geronimo.mail.util;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * An implementation of a FilterOutputStream that decodes the
@@ -31,9 +32,25 @@ import java.io.InputStream;
  * it also handles line breaks in the encoded data.
  */
 public class QuotedPrintableDecoderStream extends FilterInputStream {
-    // our decoder for processing the data
+    // our codec for processing the data
+    protected QuotedPrintableCodec codec;
+
+    /**
+     * @deprecated No longer used by this stream, the decoding is done by {@link #codec}.
+     */
+    @Deprecated
     protected QuotedPrintableEncoder decoder;
 
+    // encoded data read from the stream, waiting to be decoded
+    private final byte[] encoded = new byte[4096];
+    private int encodedIndex;
+    private int encodedCount;
+    // set once the wrapped stream is exhausted
+    private boolean eof;
+
+    // used for single byte reads
+    private final byte[] single = new byte[1];
+
 
     /**
      * Stream constructor.
@@ -42,6 +59,7 @@ public class QuotedPrintableDecoderStream extends FilterInputStream {
      */
     public QuotedPrintableDecoderStream(final InputStream in) {
         super(in);
+        codec = new QuotedPrintableCodec();
         decoder = new QuotedPrintableEncoder();
     }
 
@@ -58,8 +76,8 @@ public class QuotedPrintableDecoderStream extends FilterInputStream {
     @Override
     public int read() throws IOException
     {
-        // just get a single byte from the decoder
-        return decoder.decode(in);
+        final int count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
     }
 
 
@@ -75,16 +93,40 @@ public class QuotedPrintableDecoderStream extends FilterInputStream {
      */
     @Override
     public int read(final byte [] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
 
-        for (int i = 0; i < length; i++) {
-            final int ch = decoder.decode(in);
-            if (ch == -1) {
-                return i == 0 ? -1 : i;
+        while (true) {
+            if (encodedIndex == encodedCount && !eof) {
+                final int count = in.read(encoded, 0, encoded.length);
+                if (count == -1) {
+                    eof = true;
+                    // an escape sequence cut off by the end of the data
+                    if (!codec.finishDecoding()) {
+                        throw new IOException("Truncated quoted printable data");
+                    }
+                }
+                else {
+                    encodedIndex = 0;
+                    encodedCount = count;
+                }
             }
-            buffer[offset + i] = (byte)ch;
-        }
 
-        return length;
+            // decode as much as will fit into the caller's buffer
+            final ByteBuffer src = ByteBuffer.wrap(encoded, encodedIndex, encodedCount - encodedIndex);
+            final ByteBuffer dst = ByteBuffer.wrap(buffer, offset, length);
+            codec.decode(src, dst);
+            encodedIndex = src.position();
+
+            final int decoded = dst.position() - offset;
+            if (decoded > 0) {
+                return decoded;
+            }
+            if (eof) {
+                return -1;
+            }
+        }
     }
 
 
@@ -112,5 +154,3 @@ public class QuotedPrintableDecoderStream extends FilterInputStream {
         return -1;
     }
 }
-
-
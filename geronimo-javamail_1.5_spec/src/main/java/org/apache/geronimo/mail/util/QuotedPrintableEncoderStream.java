@@ -31,15 +31,31 @@ import java.io.OutputStream;
  * it also handles line breaks in the encoded data.
  */
 public class QuotedPrintableEncoderStream extends FilterOutputStream {
-    // our hex encoder utility class.
-    protected QuotedPrintableEncoder encoder;
-
     // our default for line breaks
     protected static final int DEFAULT_LINEBREAK = 76;
 
+    // the amount of source data we encode in one pass
+    private static final int CHUNK_SIZE = 2048;
+
     // the instance line break value
     protected int lineBreak;
 
+    // the codec doing the encoding, which also holds the line state between writes.
+    protected QuotedPrintableCodec codec;
+
+    /**
+     * @deprecated No longer used by this stream, the encoding is done by {@link #codec}.
+     */
+    @Deprecated
+    protected QuotedPrintableEncoder encoder;
+
+    // single byte writes are collected here before encoding
+    private final byte[] staged = new byte[CHUNK_SIZE];
+    private int stagedCount;
+
+    // the encoded output of a single pass
+    private final byte[] encoded;
+
     /**
      * Create a Base64 encoder stream that wraps a specifed stream
      * using the default line break size.
@@ -56,15 +72,19 @@ public class QuotedPrintableEncoderStream extends FilterOutputStream {
         // lines are processed only in multiple of 4, so round this down.
         this.lineBreak = (lineBreak / 4) * 4 ;
 
-        // create an encoder configured to this amount
+        // create a codec configured to this amount
+        codec = new QuotedPrintableCodec(this.lineBreak);
         encoder = new QuotedPrintableEncoder(out, this.lineBreak);
+        encoded = new byte[codec.maxEncodedLength(CHUNK_SIZE)];
     }
 
 
     @Override
     public void write(final int ch) throws IOException {
-        // have the encoder do the heavy lifting here.
-        encoder.encode(ch);
+        staged[stagedCount++] = (byte)ch;
+        if (stagedCount == staged.length) {
+            writeStaged();
+        }
     }
 
     @Override
@@ -73,20 +93,43 @@ public class QuotedPrintableEncoderStream extends FilterOutputStream {
     }
 
     @Override
-    public void write(final byte [] data, final int offset, final int length) throws IOException {
-        // the encoder does the heavy lifting here.
-        encoder.encode(data, offset, length);
+    public void write(final byte [] data, int offset, int length) throws IOException {
+        // anything written a byte at a time goes first
+        writeStaged();
+        while (length > 0) {
+            final int chunk = Math.min(length, CHUNK_SIZE);
+            final int count = codec.encode(data, offset, chunk, encoded, 0);
+            out.write(encoded, 0, count);
+            offset += chunk;
+            length -= chunk;
+        }
     }
 
+    /**
+     * Close the stream, writing out a trailing blank or
+     * carriage return still held by the encoder.
+     */
     @Override
     public void close() throws IOException {
+        writeStaged();
+        final int count = codec.finishEncoding(encoded, 0);
+        if (count > 0) {
+            out.write(encoded, 0, count);
+        }
         out.close();
     }
 
     @Override
     public void flush() throws IOException {
+        writeStaged();
         out.flush();
     }
-}
-
 
+    private void writeStaged() throws IOException {
+        if (stagedCount > 0) {
+            final int count = codec.encode(staged, 0, stagedCount, encoded, 0);
+            stagedCount = 0;
+            out.write(encoded, 0, count);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.geronimo.mail.util;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import javax.mail.util.SharedFileInputStream;
+
+/**
+ * Gives the other javax.mail packages access to the channel transfer of a
+ * {@link SharedFileInputStream}, which is not part of the spec API and so
+ * can't be a public method of the stream.  The implementation is registered
+ * by SharedFileInputStream itself when that class is initialized, and no
+ * other implementation is accepted.
+ *
+ * @version $Rev$ $Date$
+ */
+public abstract class SharedFileTransfer {
+    private static SharedFileTransfer instance;
+
+    /**
+     * Register the implementation.  This is only accepted from
+     * SharedFileInputStream.
+     *
+     * @param transfer The implementation.
+     *
+     * @exception SecurityException if the implementation doesn't belong to SharedFileInputStream.
+     */
+    public static synchronized void register(final SharedFileTransfer transfer) {
+        final Class<?> transferClass = transfer.getClass();
+        // a class claiming to be nested in SharedFileInputStream has to come from the same loader as it
+        if (transferClass.getEnclosingClass() != SharedFileInputStream.class
+                || transferClass.getClassLoader() != SharedFileInputStream.class.getClassLoader()) {
+            throw new SecurityException("Only SharedFileInputStream can register a SharedFileTransfer");
+        }
+        if (instance == null) {
+            instance = transfer;
+        }
+    }
+
+    /**
+     * Transfer the rest of a stream's data to a channel, directly from the file.
+     * The stream is at its end afterwards.
+     *
+     * @param in     The source stream.
+     * @param target The channel to write to.
+     *
+     * @return The number of bytes transferred.
+     * @exception IOException
+     */
+    public static long transferTo(final SharedFileInputStream in, final WritableByteChannel target) throws IOException {
+        final SharedFileTransfer transfer;
+        // the stream class has been initialized by now, as we have an instance of it
+        synchronized (SharedFileTransfer.class) {
+            transfer = instance;
+        }
+        return transfer.transfer(in, target);
+    }
+
+    protected abstract long transfer(SharedFileInputStream in, WritableByteChannel target) throws IOException;
+}
@@ -19,10 +19,18 @@
 
 package javax.mail;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.mail.event.FolderEvent;
 import javax.mail.event.FolderListener;
+import javax.mail.event.MessageChangedEvent;
+import javax.mail.event.MessageChangedListener;
 
 import junit.framework.TestCase;
 
@@ -70,6 +78,82 @@ public class EventQueueTest extends TestCase {
         assertEquals("Unexpcted method dispatched", type, listener.getState());
     }
     
+    public void testPerQueueOrdering() throws Exception {
+        // many queues sharing a small pool must each still see their events in order
+        final Properties props = new Properties();
+        props.setProperty("mail.event.threads", "2");
+        final Session session = Session.getInstance(props);
+        final int queues = 50;
+        final int events = 200;
+        final CountDownLatch done = new CountDownLatch(queues);
+        for (int i = 0; i < queues; i++) {
+            final EventQueue q = EventQueue.getEventQueue(session);
+            final OrderingListener listener = new OrderingListener(done, events);
+            final Vector listeners = new Vector();
+            listeners.add(listener);
+            for (int j = 0; j < events; j++) {
+                q.queueEvent(new MessageChangedEvent(this, j, null), listeners);
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    public void testConfiguredExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final Executor executor = new Executor() {
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        };
+        final Properties props = new Properties();
+        props.put("mail.event.executor", executor);
+        props.setProperty("mail.event.scope", "session");
+        final Session session = Session.getInstance(props);
+
+        final EventQueue q = EventQueue.getEventQueue(session);
+        assertSame(q, EventQueue.getEventQueue(session));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final OrderingListener listener = new OrderingListener(done, 2);
+        final Vector listeners = new Vector();
+        listeners.add(listener);
+        q.queueEvent(new MessageChangedEvent(this, 0, null), listeners);
+        q.queueEvent(new MessageChangedEvent(this, 1, null), listeners);
+        // only one drain task is scheduled for the queue, and nothing is dispatched until it runs
+        assertEquals(1, tasks.size());
+        assertEquals(1, done.getCount());
+        tasks.get(0).run();
+        assertEquals(0, done.getCount());
+        // a shared queue is not stopped by one of its users
+        q.stop();
+        q.queueEvent(new MessageChangedEvent(this, 2, null), listeners);
+        assertEquals(2, tasks.size());
+    }
+
+    public static class OrderingListener implements MessageChangedListener {
+        private final CountDownLatch done;
+        private final int events;
+        private int expected;
+
+        OrderingListener(final CountDownLatch done, final int events) {
+            this.done = done;
+            this.events = events;
+        }
+
+        public void messageChanged(final MessageChangedEvent event) {
+            if (event.getMessageChangeType() == expected) {
+                expected++;
+                if (expected == events) {
+                    done.countDown();
+                }
+            }
+            else {
+                // out of order, so never count down
+                expected = -1;
+            }
+        }
+    }
+
     public static class FolderListenerTest implements FolderListener {
         private int state = 0;
         public void folderCreated(final FolderEvent event) {
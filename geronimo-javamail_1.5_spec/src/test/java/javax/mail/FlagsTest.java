@@ -19,6 +19,11 @@
 
 package javax.mail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -153,4 +158,139 @@ public class FlagsTest extends TestCase {
         assertTrue(other != flags);
         assertEquals(other, flags);
     }
+    public void testUserFlagCase() {
+        flags.add("CaseTest");
+        assertTrue(flags.contains("casetest"));
+        assertTrue(flags.contains("CASETEST"));
+        final Flags other = new Flags("caseTEST");
+        assertEquals(flags, other);
+        assertEquals(flags.hashCode(), other.hashCode());
+        // each instance keeps the spelling it was given
+        assertEquals("CaseTest", flags.getUserFlags()[0]);
+        assertEquals("caseTEST", other.getUserFlags()[0]);
+        flags.remove("CASETEST");
+        assertFalse(flags.contains("CaseTest"));
+        assertEquals(new Flags(), flags);
+    }
+    public void testManyUserFlags() {
+        final Flags even = new Flags();
+        for (int i = 0; i < 200; i++) {
+            flags.add("Many" + i);
+            if (i % 2 == 0) {
+                even.add("many" + i);
+            }
+        }
+        assertEquals(200, flags.getUserFlags().length);
+        assertTrue(flags.contains(even));
+        assertFalse(even.contains(flags));
+        flags.remove(even);
+        assertEquals(100, flags.getUserFlags().length);
+        assertTrue(flags.contains("Many199"));
+        assertFalse(flags.contains("Many198"));
+        flags.add(even);
+        assertEquals(200, flags.getUserFlags().length);
+    }
+    public void testVocabularyOverflow() throws Exception {
+        // more names than the shared vocabulary holds
+        final Flags even = new Flags();
+        for (int i = 0; i < 1000; i++) {
+            flags.add("Overflow" + i);
+            if (i % 2 == 0) {
+                even.add("OVERFLOW" + i);
+            }
+        }
+        assertEquals(1000, flags.getUserFlags().length);
+        assertTrue(flags.contains("overflow999"));
+        assertTrue(flags.contains(even));
+        assertFalse(even.contains(flags));
+
+        final Flags copy = new Flags(flags);
+        assertEquals(flags, copy);
+        assertEquals(flags.hashCode(), copy.hashCode());
+        copy.remove("Overflow999");
+        assertFalse(copy.contains("Overflow999"));
+        assertFalse(flags.equals(copy));
+
+        flags.remove(even);
+        assertEquals(500, flags.getUserFlags().length);
+        assertFalse(flags.contains("Overflow998"));
+        flags.add(even);
+        assertEquals(1000, flags.getUserFlags().length);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(flags);
+        out.close();
+        assertEquals(flags, new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject());
+    }
+    public void testConcurrentUserFlags() throws Exception {
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t * 100;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = first; i < first + 100; i++) {
+                        flags.add("Concurrent" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertEquals(400, flags.getUserFlags().length);
+    }
+
+    public void testConcurrentAddFlags() throws Exception {
+        // enough names to be sure some are held beyond the shared vocabulary
+        for (int i = 0; i < 1000; i++) {
+            flags.add("Source" + i);
+        }
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int round = 0; round < 200; round++) {
+                    for (int i = 0; i < 1000; i++) {
+                        flags.remove("Source" + i);
+                    }
+                    for (int i = 0; i < 1000; i++) {
+                        flags.add("Source" + i);
+                    }
+                }
+            }
+        };
+        writer.start();
+        try {
+            // the source is changing under us, but it must be read under its lock
+            while (writer.isAlive()) {
+                final Flags target = new Flags();
+                target.add(flags);
+                target.contains(flags);
+                target.equals(flags);
+                target.remove(flags);
+            }
+        } finally {
+            writer.join();
+        }
+        final Flags target = new Flags();
+        target.add(flags);
+        assertEquals(flags, target);
+    }
+
+    public void testSerialization() throws Exception {
+        flags.add("Serial");
+        flags.add("other");
+        flags.add(Flags.Flag.SEEN);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(flags);
+        out.close();
+        final Flags copy = (Flags) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(flags, copy);
+        final String[] names = copy.getUserFlags();
+        Arrays.sort(names);
+        assertEquals(Arrays.asList("Serial", "other"), Arrays.asList(names));
+    }
 }
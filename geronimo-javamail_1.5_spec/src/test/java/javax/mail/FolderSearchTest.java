@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.mail.internet.MimeMessage;
+import javax.mail.search.AndTerm;
+import javax.mail.search.BodyTerm;
+import javax.mail.search.FlagTerm;
+import javax.mail.search.NotTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.SearchTerm;
+import javax.mail.search.SubjectTerm;
+
+import junit.framework.TestCase;
+
+import org.apache.geronimo.mail.util.MailInstrumentation;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class FolderSearchTest extends TestCase {
+
+    public void testCompile() {
+        final SearchTerm body = new BodyTerm("body");
+        final SearchTerm subject = new SubjectTerm("subject");
+        final SearchTerm flag = new FlagTerm(new Flags(Flags.Flag.SEEN), true);
+
+        // nested ANDs are flattened, and the cheap terms go first
+        assertEquals(new AndTerm(new SearchTerm[] { flag, subject, body }),
+            FolderSearch.compile(new AndTerm(body, new AndTerm(subject, flag))));
+        assertEquals(new OrTerm(new SearchTerm[] { flag, subject, body }),
+            FolderSearch.compile(new OrTerm(new OrTerm(body, subject), flag)));
+        // an OR nested in an AND is kept, ordered by its most expensive term
+        assertEquals(new AndTerm(new SearchTerm[] { subject, new OrTerm(flag, body) }),
+            FolderSearch.compile(new AndTerm(new OrTerm(body, flag), subject)));
+        assertEquals(subject, FolderSearch.compile(new NotTerm(new NotTerm(subject))));
+    }
+
+    public void testSearch() throws MessagingException {
+        final Message[] messages = createMessages(new Properties(), 20);
+        final Folder folder = new SimpleFolder(null);
+        final Message[] result = folder.search(new AndTerm(new BodyTerm("message 1"), new NotTerm(new SubjectTerm("odd"))), messages);
+
+        // "message 1" matches 1 and 10-19, and the even ones are kept in order
+        assertEquals(Arrays.asList(messages[10], messages[12], messages[14], messages[16], messages[18]), Arrays.asList(result));
+    }
+
+    public void testParallelSearch() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.search.parallel", "4");
+        final Message[] messages = createMessages(props, 2000);
+        final Folder folder = new SimpleFolder(createStore(messages[0].session));
+
+        final SearchTerm term = new OrTerm(new SubjectTerm("odd"), new BodyTerm("message 12"));
+        final Message[] result = folder.search(term, messages);
+
+        final Message[] expected = new SimpleFolder(null).search(term, messages);
+        assertEquals(1000 + 56, expected.length);
+        assertEquals(Arrays.asList(expected), Arrays.asList(result));
+    }
+
+    public void testSearchInstrumentation() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.instrumentation.class", RecordingInstrumentation.class.getName());
+        final Message[] messages = createMessages(props, 10);
+        final Folder folder = new SimpleFolder(createStore(messages[0].session));
+        RecordingInstrumentation.reset();
+
+        assertEquals(5, folder.search(new SubjectTerm("odd"), messages).length);
+        assertEquals(Arrays.asList("SEARCH null -1"), RecordingInstrumentation.getEvents(MailInstrumentation.Operation.SEARCH));
+    }
+
+    public void testBodySpanningBuffers() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("filler ");
+        }
+        body.append("Needle");
+        final String text = "Subject: test\r\nContent-Type: text/plain; charset=us-ascii\r\n"
+            + "Content-Transfer-Encoding: quoted-printable\r\n\r\n" + body + "\r\n";
+        final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(text.getBytes("US-ASCII")));
+
+        assertTrue(message.match(new BodyTerm("filler needle")));
+        assertTrue(message.match(new BodyTerm("Needle")));
+        assertFalse(message.match(new BodyTerm("needles")));
+    }
+
+    private Message[] createMessages(final Properties props, final int count) throws MessagingException {
+        final Session session = Session.getInstance(props);
+        final Message[] messages = new Message[count];
+        for (int i = 0; i < count; i++) {
+            final MimeMessage message = new MimeMessage(session);
+            message.setSubject(i % 2 == 0 ? "even" : "odd");
+            message.setText("This is message " + i);
+            messages[i] = message;
+        }
+        return messages;
+    }
+
+    private Store createStore(final Session session) {
+        return new Store(session, null) {
+            @Override
+            public Folder getDefaultFolder() throws MessagingException {
+                return null;
+            }
+
+            @Override
+            public Folder getFolder(final String name) throws MessagingException {
+                return null;
+            }
+
+            @Override
+            public Folder getFolder(final URLName name) throws MessagingException {
+                return null;
+            }
+        };
+    }
+}
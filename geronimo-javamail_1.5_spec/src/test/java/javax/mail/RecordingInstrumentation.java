@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.geronimo.mail.util.MailInstrumentation;
+
+/**
+ * A MailInstrumentation that records the operations reported to it, as
+ * "OPERATION target bytes" strings with a trailing " failed" for failures.
+ *
+ * @version $Rev$ $Date$
+ */
+public class RecordingInstrumentation implements MailInstrumentation {
+    static final List<String> events = new ArrayList<String>();
+
+    public static synchronized void reset() {
+        events.clear();
+    }
+
+    public static synchronized List<String> getEvents(final Operation operation) {
+        final List<String> result = new ArrayList<String>();
+        for (final String event : events) {
+            if (event.startsWith(operation.name() + " ")) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    public void operationCompleted(final Session session, final Operation operation, final String target, final long nanos, final long bytes, final boolean failed) {
+        if (nanos < 0) {
+            throw new IllegalStateException("Negative time for " + operation);
+        }
+        synchronized (RecordingInstrumentation.class) {
+            events.add(operation + " " + target + " " + bytes + (failed ? " failed" : ""));
+        }
+    }
+}
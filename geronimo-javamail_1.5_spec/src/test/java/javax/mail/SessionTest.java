@@ -19,6 +19,10 @@
 
 package javax.mail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.util.Properties;
 
 import junit.framework.TestCase;
@@ -46,6 +50,118 @@ public class SessionTest extends TestCase {
         assertTrue(trans instanceof NullTransport);
     }
 
+    public void testConcurrentProviderLookup() throws Exception {
+        Session.getInstance(new Properties()).addProvider(new Provider(Provider.Type.TRANSPORT, "foo", NullTransport.class.getName(), "Apache", "Java 1.4 Test"));
+
+        final Thread[] threads = new Thread[16];
+        final Throwable[] failures = new Throwable[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 200; j++) {
+                            final Session session = Session.getInstance(new Properties());
+                            assertTrue(session.getTransport("foo") instanceof NullTransport);
+                            assertTrue(session.getProviders().length > 0);
+                        }
+                    } catch (final Throwable e) {
+                        failures[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (failures[i] != null) {
+                throw new AssertionError(failures[i]);
+            }
+        }
+    }
+
+    public void testClassLoaderMap() {
+        final ClassLoaderMap<String> map = new ClassLoaderMap<String>();
+        final ClassLoader cl = getClass().getClassLoader();
+        assertNull(map.get(cl));
+        assertEquals("first", map.putIfAbsent(cl, "first"));
+        assertEquals("first", map.putIfAbsent(cl, "second"));
+        assertEquals("first", map.get(cl));
+
+        // the bootstrap loader is null
+        assertNull(map.get(null));
+        assertEquals("boot", map.putIfAbsent(null, "boot"));
+        assertEquals("boot", map.get(null));
+        assertEquals("first", map.get(cl));
+    }
+
+    public void testProviderClassLoaderReleased() throws Exception {
+        final WeakReference<ClassLoader> ref = useIsolatedProvider();
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("provider class loader was not released", ref.get());
+    }
+
+    private WeakReference<ClassLoader> useIsolatedProvider() throws Exception {
+        final ClassLoader loader = new IsolatingClassLoader(NullTransport.class.getName(), getClass().getClassLoader());
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            final Session session = Session.getInstance(new Properties());
+            session.addProvider(new Provider(Provider.Type.TRANSPORT, "foo", NullTransport.class.getName(), "Apache", "Java 1.4 Test"));
+            final Transport trans = session.getTransport("foo");
+            assertSame(loader, trans.getClass().getClassLoader());
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    /**
+     * Defines its own copy of a single class, the way a redeployed
+     * application would, and delegates everything else.
+     */
+    static class IsolatingClassLoader extends ClassLoader {
+        private final String isolated;
+
+        IsolatingClassLoader(final String isolated, final ClassLoader parent) {
+            super(parent);
+            this.isolated = isolated;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(isolated)) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    final InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+                    int length;
+                    while ((length = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, length);
+                    }
+                    in.close();
+                    final byte[] data = out.toByteArray();
+                    c = defineClass(name, data, 0, data.length);
+                } catch (final IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
     static public class NullTransport extends Transport {
         public NullTransport(final Session session, final URLName urlName) {
             super(session, urlName);
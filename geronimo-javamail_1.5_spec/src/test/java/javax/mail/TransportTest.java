@@ -0,0 +1,421 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package javax.mail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.mail.internet.MimeMessage;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.apache.geronimo.mail.util.JmxMailInstrumentation;
+import org.apache.geronimo.mail.util.MailInstrumentation;
+import org.apache.geronimo.mail.util.MailOperationStatistics;
+
+/**
+ * @version $Rev$ $Date$
+ */
+public class TransportTest extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        CountingTransport.reset();
+    }
+
+    public void testSendGroupsByProvider() throws MessagingException {
+        final Session session = createSession(new Properties());
+
+        Transport.send(createMessage(session), createAddresses(5));
+
+        assertEquals(1, CountingTransport.connects);
+        assertEquals(1, CountingTransport.closes);
+        assertEquals(1, CountingTransport.sends.size());
+        assertEquals(5, CountingTransport.sends.get(0).length);
+    }
+
+    public void testPooledTransport() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.counting.pool.size", "1");
+        final Session session = createSession(props);
+
+        Transport.send(createMessage(session), createAddresses(3));
+        Transport.send(createMessage(session), createAddresses(3));
+
+        // the connection was kept open and reused by the second send
+        assertEquals(1, CountingTransport.connects);
+        assertEquals(0, CountingTransport.closes);
+        assertEquals(2, CountingTransport.sends.size());
+
+        // different credentials get a connection of their own
+        Transport.send(createMessage(session), createAddresses(1), "user", "password");
+        assertEquals(2, CountingTransport.connects);
+    }
+
+    public void testPooledTransportIdleTimeout() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.counting.pool.size", "1");
+        props.setProperty("mail.counting.pool.timeout", "0");
+        final Session session = createSession(props);
+
+        Transport.send(createMessage(session), createAddresses(1));
+        Transport.send(createMessage(session), createAddresses(1));
+
+        // with no idle time allowed, the connections are closed rather than pooled
+        assertEquals(2, CountingTransport.connects);
+        assertEquals(2, CountingTransport.closes);
+    }
+
+    public void testPooledTransportSweep() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.counting.pool.size", "1");
+        props.setProperty("mail.counting.pool.timeout", "100");
+        final Session session = createSession(props);
+
+        Transport.send(createMessage(session), createAddresses(1));
+
+        // the idle connection is closed once it times out, without the pool being used again
+        final long end = System.currentTimeMillis() + 10000;
+        while (getCloses() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, getCloses());
+        assertEquals(1, CountingTransport.connects);
+    }
+
+    private static int getCloses() {
+        synchronized (CountingTransport.class) {
+            return CountingTransport.closes;
+        }
+    }
+
+    public void testFailedTransportNotPooled() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.counting.pool.size", "1");
+        final Session session = createSession(props);
+
+        CountingTransport.fail = true;
+        try {
+            Transport.send(createMessage(session), createAddresses(2));
+            fail("send should have failed");
+        } catch (final MessagingException e) {
+            // expected
+        }
+        CountingTransport.fail = false;
+        Transport.send(createMessage(session), createAddresses(2));
+
+        assertEquals(2, CountingTransport.connects);
+        assertEquals(1, CountingTransport.closes);
+    }
+
+    public void testParallelSend() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.transport.parallel", "4");
+        final Session session = createSession(props);
+
+        Transport.send(createMessage(session), new Address[] {
+            new CountingAddress("a1"), new CountingAddress("b1", "counting2"), new CountingAddress("a2") });
+
+        assertEquals(2, CountingTransport.sends.size());
+        assertEquals(2, CountingTransport.closes);
+        assertTrue(CountingTransport.maxActive > 1);
+    }
+
+    public void testParallelSendFailure() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.transport.parallel", "4");
+        final Session session = createSession(props);
+
+        final Address[] addresses = createMixedAddresses();
+        SendFailedException parallel = null;
+        try {
+            Transport.send(createMessage(session), addresses);
+            fail("send should have failed");
+        } catch (final SendFailedException e) {
+            parallel = e;
+        }
+
+        // the merged result must be the same as a sequential send
+        props.setProperty("mail.transport.parallel", "1");
+        SendFailedException sequential = null;
+        try {
+            Transport.send(createMessage(session), addresses);
+            fail("send should have failed");
+        } catch (final SendFailedException e) {
+            sequential = e;
+        }
+        assertAddresses(sequential.getValidSentAddresses(), parallel.getValidSentAddresses());
+        assertAddresses(sequential.getValidUnsentAddresses(), parallel.getValidUnsentAddresses());
+        assertAddresses(sequential.getInvalidAddresses(), parallel.getInvalidAddresses());
+        assertEquals(4, parallel.getValidSentAddresses().length);
+        assertEquals(1, parallel.getValidUnsentAddresses().length);
+        assertEquals(1, parallel.getInvalidAddresses().length);
+    }
+
+    public void testSendAsync() throws Exception {
+        final Session session = createSession(new Properties());
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final Future<Void> result = Transport.sendAsync(createMessage(session), createMixedAddresses(), executor);
+            try {
+                result.get();
+                fail("send should have failed");
+            } catch (final ExecutionException e) {
+                final SendFailedException failure = (SendFailedException)e.getCause();
+                assertEquals(4, failure.getValidSentAddresses().length);
+                assertEquals(1, failure.getInvalidAddresses().length);
+            }
+            assertTrue(result.isDone());
+            assertEquals(3, CountingTransport.sends.size());
+            assertTrue(CountingTransport.maxActive > 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testSendAsyncFailureGetTwice() throws Exception {
+        final Session session = createSession(new Properties());
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Void> result = Transport.sendAsync(createMessage(session), new Address[] {
+                new CountingAddress("c1", "rejecting"), new CountingAddress("c2", "rejecting"),
+                new CountingAddress("d1", "rejecting2"), new CountingAddress("d2", "rejecting2") }, executor);
+            SendFailedException first = null;
+            try {
+                result.get();
+                fail("send should have failed");
+            } catch (final ExecutionException e) {
+                first = (SendFailedException)e.getCause();
+            }
+            final String message = first.getMessage();
+            // the outcome is merged once, and the same one is reported again
+            try {
+                result.get();
+                fail("send should have failed");
+            } catch (final ExecutionException e) {
+                assertSame(first, e.getCause());
+            }
+            assertEquals(message, first.getMessage());
+            assertEquals(2, first.getInvalidAddresses().length);
+            assertEquals(2, first.getValidUnsentAddresses().length);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertAddresses(final Address[] expected, final Address[] actual) {
+        assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+    }
+
+    public void testInstrumentation() throws MessagingException {
+        final Properties props = new Properties();
+        props.setProperty("mail.instrumentation.class", RecordingInstrumentation.class.getName());
+        final Session session = createSession(props);
+        RecordingInstrumentation.reset();
+
+        Transport.send(createMessage(session), createAddresses(2));
+
+        assertEquals(Arrays.asList("PROVIDER_LOOKUP counting -1"), RecordingInstrumentation.getEvents(MailInstrumentation.Operation.PROVIDER_LOOKUP));
+        assertEquals(Arrays.asList("CONNECT counting:// -1"), RecordingInstrumentation.getEvents(MailInstrumentation.Operation.CONNECT));
+        assertEquals(1, RecordingInstrumentation.getEvents(MailInstrumentation.Operation.SEND).size());
+
+        RecordingInstrumentation.reset();
+        CountingTransport.fail = true;
+        try {
+            Transport.send(createMessage(session), createAddresses(1));
+            fail("send should have failed");
+        } catch (final MessagingException e) {
+        }
+        final List<String> sends = RecordingInstrumentation.getEvents(MailInstrumentation.Operation.SEND);
+        assertEquals(1, sends.size());
+        assertTrue(sends.get(0).endsWith(" failed"));
+
+        // a session without the property reports nothing
+        RecordingInstrumentation.reset();
+        CountingTransport.fail = false;
+        Transport.send(createMessage(createSession(new Properties())), createAddresses(1));
+        assertTrue(RecordingInstrumentation.events.isEmpty());
+    }
+
+    public void testJmxInstrumentation() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.instrumentation.class", JmxMailInstrumentation.class.getName());
+        final Session session = createSession(props);
+        final ObjectName name = new ObjectName("org.apache.geronimo.mail:type=MailOperation,operation=send,target=" + ObjectName.quote("counting://"));
+        final MailOperationStatistics stats = JmxMailInstrumentation.getStatistics(MailInstrumentation.Operation.SEND, "counting://");
+        stats.reset();
+
+        Transport.send(createMessage(session), createAddresses(1));
+        Transport.send(createMessage(session), createAddresses(1));
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(Long.valueOf(2), server.getAttribute(name, "Count"));
+        assertEquals(Long.valueOf(0), server.getAttribute(name, "Failures"));
+        assertTrue(((Double)server.getAttribute(name, "MaxTimeMillis")).doubleValue() > 0);
+    }
+
+    private Session createSession(final Properties props) throws MessagingException {
+        final Session session = Session.getInstance(props);
+        session.addProvider(new Provider(Provider.Type.TRANSPORT, "counting", CountingTransport.class.getName(), "Apache", "Test"));
+        session.addProvider(new Provider(Provider.Type.TRANSPORT, "counting2", CountingTransport.class.getName(), "Apache", "Test"));
+        session.addProvider(new Provider(Provider.Type.TRANSPORT, "rejecting", RejectingTransport.class.getName(), "Apache", "Test"));
+        session.setProtocolForAddress("counting", "counting");
+        session.setProtocolForAddress("counting2", "counting2");
+        session.addProvider(new Provider(Provider.Type.TRANSPORT, "rejecting2", RejectingTransport.class.getName(), "Apache", "Test"));
+        session.setProtocolForAddress("rejecting", "rejecting");
+        session.setProtocolForAddress("rejecting2", "rejecting2");
+        return session;
+    }
+
+    private Address[] createMixedAddresses() {
+        return new Address[] {
+            new CountingAddress("a1"), new CountingAddress("b1", "counting2"), new CountingAddress("c1", "rejecting"),
+            new CountingAddress("a2"), new CountingAddress("b2", "counting2"), new CountingAddress("c2", "rejecting"),
+        };
+    }
+
+    private Message createMessage(final Session session) throws MessagingException {
+        final MimeMessage message = new MimeMessage(session);
+        message.setText("Hello");
+        return message;
+    }
+
+    private Address[] createAddresses(final int count) {
+        final Address[] addresses = new Address[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = new CountingAddress("recipient" + i);
+        }
+        return addresses;
+    }
+
+    static public class CountingTransport extends Transport {
+        static int connects;
+        static int closes;
+        static boolean fail;
+        static List<Address[]> sends = new ArrayList<Address[]>();
+        // the number of sends running at the same time
+        static int active;
+        static int maxActive;
+
+        static synchronized void reset() {
+            connects = 0;
+            closes = 0;
+            fail = false;
+            sends.clear();
+            active = 0;
+            maxActive = 0;
+        }
+
+        public CountingTransport(final Session session, final URLName urlName) {
+            super(session, urlName);
+        }
+
+        @Override
+        public void sendMessage(final Message message, final Address[] addresses) throws MessagingException {
+            synchronized (CountingTransport.class) {
+                if (fail) {
+                    throw new MessagingException("Connection dropped");
+                }
+                sends.add(addresses);
+                maxActive = Math.max(maxActive, ++active);
+            }
+            try {
+                // give the other deliveries a chance to overlap
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                throw new MessagingException("Interrupted", e);
+            }
+            synchronized (CountingTransport.class) {
+                active--;
+            }
+        }
+
+        @Override
+        protected boolean protocolConnect(final String host, final int port, final String user, final String password) throws MessagingException {
+            synchronized (CountingTransport.class) {
+                connects++;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws MessagingException {
+            synchronized (CountingTransport.class) {
+                closes++;
+            }
+            super.close();
+        }
+    }
+
+    static public class RejectingTransport extends CountingTransport {
+        public RejectingTransport(final Session session, final URLName urlName) {
+            super(session, urlName);
+        }
+
+        @Override
+        public void sendMessage(final Message message, final Address[] addresses) throws MessagingException {
+            super.sendMessage(message, addresses);
+            throw new SendFailedException("Rejected", null, new Address[0], new Address[] { addresses[0] }, new Address[] { addresses[1] });
+        }
+    }
+
+    static public class CountingAddress extends Address {
+        private final String name;
+        private final String type;
+
+        public CountingAddress(final String name) {
+            this(name, "counting");
+        }
+
+        public CountingAddress(final String name, final String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public String getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof CountingAddress && ((CountingAddress)other).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+}
@@ -286,6 +286,38 @@ public class InternetAddressTest extends TestCase {
         validateAddress(addresses[1], "bar@apache.org", "Bar", "Bar <bar@apache.org>", false);
     }
 
+    public void testSimpleForms() throws Exception {
+        final InternetAddress[] addresses = InternetAddress.parse(" foo@apache.org ,\"Foo Bar\" <foo.bar@apache.org>, Foo \"Q\" Bar\t< bar@apache.org >,,", true);
+        assertEquals(3, addresses.length);
+        validateAddress(addresses[0], "foo@apache.org", null, "foo@apache.org", false);
+        validateAddress(addresses[1], "foo.bar@apache.org", "Foo Bar", "Foo Bar <foo.bar@apache.org>", false);
+        validateAddress(addresses[2], "bar@apache.org", "Foo \"Q\" Bar", "\"Foo \\\"Q\\\" Bar\" <bar@apache.org>", false);
+
+        // a single address must not be followed by anything
+        constructorErrorTest("foo@apache.org,", true);
+        constructorErrorTest("foo@apache.org, bar@apache.org", true);
+        parseErrorTest("Foo <foo..bar@apache.org>", true);
+    }
+
+    public void testAddressCache() throws Exception {
+        System.setProperty("mail.mime.address.cachesize", "10");
+        try {
+            final String header = "Foo <foo@apache.org>, bar@apache.org";
+            final InternetAddress[] first = InternetAddress.parse(header);
+            first[0].setPersonal("Changed");
+            final InternetAddress[] second = InternetAddress.parse(header);
+            assertNotSame(first[0], second[0]);
+            // changes to the addresses handed out don't reach the cache
+            validateAddress(second[0], "foo@apache.org", "Foo", "Foo <foo@apache.org>", false);
+            validateAddress(second[1], "bar@apache.org", null, "bar@apache.org", false);
+            // the validation level is part of the key
+            assertEquals(1, InternetAddress.parseHeader("foo@apache.org bar@apache.org", false).length);
+            parseErrorTest("foo@apache.org bar@apache.org", true);
+        } finally {
+            System.getProperties().remove("mail.mime.address.cachesize");
+        }
+    }
+
     public void testParseHeaderErrors() throws Exception {
         parseHeaderErrorTest("foo@apache.org bar@apache.org", true);
         parseHeaderErrorTest("Foo foo@apache.org", true);
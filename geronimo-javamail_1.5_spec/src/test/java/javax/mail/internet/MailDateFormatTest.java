@@ -20,13 +20,19 @@
 package javax.mail.internet;
 
 import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Random;
 import java.util.SimpleTimeZone;
+import java.util.TimeZone;
 
 import junit.framework.TestCase;
 
+import org.apache.geronimo.mail.util.MailDateCodec;
+
 /**
  * @version $Rev$ $Date$
  */
@@ -93,4 +99,63 @@ public class MailDateFormatTest extends TestCase {
         assertEquals(43, cal.get(Calendar.MINUTE));
         assertEquals(00, cal.get(Calendar.SECOND));
     }
+
+    public void testFormatMatchesSimpleDateFormat() {
+        final Random random = new Random(5322);
+        final String[] zones = { "GMT", "America/New_York", "Asia/Kolkata", "Australia/Lord_Howe", "Europe/Berlin" };
+        for (final String id : zones) {
+            final TimeZone zone = TimeZone.getTimeZone(id);
+            final SimpleDateFormat reference = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z (z)", Locale.US);
+            reference.setTimeZone(zone);
+            final MailDateFormat mdf = new MailDateFormat();
+            mdf.setTimeZone(zone);
+            for (int i = 0; i < 1000; i++) {
+                // anywhere between 1901 and 2099
+                final Date date = new Date(-2177452800000L + (long)(random.nextDouble() * 6279897600000L));
+                assertEquals(reference.format(date), MailDateCodec.format(date, zone, new StringBuilder()).toString());
+                assertEquals(reference.format(date), mdf.format(date));
+            }
+        }
+    }
+
+    public void testParseRoundTrip() throws ParseException {
+        final Random random = new Random(822);
+        for (int i = 0; i < 1000; i++) {
+            final Date date = new Date((random.nextLong() % 4000000000000L) / 1000 * 1000);
+            assertEquals(date, MailDateCodec.parse(MailDateCodec.format(date)));
+        }
+    }
+
+    public void testParseYears() throws ParseException {
+        assertEquals(MailDateCodec.parse("1 Jan 2049 00:00:00 GMT"), MailDateCodec.parse("1 Jan 49 00:00:00 GMT"));
+        assertEquals(MailDateCodec.parse("1 Jan 1999 00:00:00 GMT"), MailDateCodec.parse("1 Jan 99 00:00:00 GMT"));
+        assertEquals(MailDateCodec.parse("1 Jan 2003 00:00:00 GMT"), MailDateCodec.parse("1 Jan 103 00:00:00 GMT"));
+    }
+
+    public void testParseLeniency() throws ParseException {
+        final MailDateFormat mdf = new MailDateFormat();
+        // rolls over into March
+        assertEquals(mdf.parse("1 Mar 2003 00:00:00 GMT"), mdf.parse("29 Feb 2003 00:00:00 GMT"));
+        mdf.setLenient(false);
+        try {
+            mdf.parse("29 Feb 2003 00:00:00 GMT");
+            fail("Out of range day accepted");
+        } catch (final ParseException e) {
+            // expected
+        }
+        assertNotNull(mdf.parse("29 Feb 2004 00:00:00 GMT"));
+    }
+
+    public void testParseErrors() {
+        final String[] invalid = { "", "Wed, 27 Aug", "27 Foo 2003 13:43:38 GMT", "27 Aug 2003 13-43 GMT", "27 Aug 2003 13:43:38", "27 Aug 2003 13:43:38 XYZ", "27 Aug 2003 13:43:38 J" };
+        for (final String text : invalid) {
+            final ParsePosition pos = new ParsePosition(0);
+            try {
+                MailDateCodec.parse(text, pos, true);
+                fail("Parsed " + text);
+            } catch (final ParseException e) {
+                assertEquals(e.getErrorOffset(), pos.getErrorIndex());
+            }
+        }
+    }
 }
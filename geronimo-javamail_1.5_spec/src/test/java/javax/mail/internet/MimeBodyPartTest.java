@@ -81,6 +81,31 @@ public class MimeBodyPartTest extends TestCase {
     }
 
 
+    public void testParsedHeadersFollowChanges() throws MessagingException {
+        final MimeBodyPart part = new MimeBodyPart();
+        part.setHeader("Content-Type", "text/html; name=a.html");
+        assertTrue(part.isMimeType("text/html"));
+        assertEquals("a.html", part.getFileName());
+
+        // changes made directly to the headers are seen as well
+        part.headers.setHeader("Content-Type", "image/png; name=b.png");
+        assertFalse(part.isMimeType("text/html"));
+        assertTrue(part.isMimeType("image/png"));
+        assertEquals("b.png", part.getFileName());
+
+        part.setDisposition("attachment");
+        part.headers.setHeader("Content-Disposition", "inline; filename=c.png");
+        assertEquals("inline", part.getDisposition());
+        assertEquals("c.png", part.getFileName());
+        part.removeHeader("Content-Disposition");
+        assertNull(part.getDisposition());
+        assertEquals("b.png", part.getFileName());
+
+        // common values are shared between parts
+        assertSame(ParsedHeaders.contentType("text/plain; charset=us-ascii"), ParsedHeaders.contentType("text/plain; charset=us-ascii"));
+    }
+
+
     public void testGetDisposition() throws MessagingException {
         final MimeBodyPart part = new MimeBodyPart();
         assertNull(part.getDisposition());
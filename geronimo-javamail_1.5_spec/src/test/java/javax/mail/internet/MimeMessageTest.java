@@ -21,8 +21,12 @@ package javax.mail.internet;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.Properties;
 
 import javax.activation.CommandMap;
@@ -32,10 +36,14 @@ import javax.mail.Flags.Flag;
 import javax.mail.Message;
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
+import javax.mail.RecordingInstrumentation;
 import javax.mail.Session;
+import javax.mail.util.SharedFileInputStream;
 
 import junit.framework.TestCase;
 
+import org.apache.geronimo.mail.util.MailInstrumentation;
+
 /**
  * @version $Rev$ $Date$
  */
@@ -457,6 +465,165 @@ public class MimeMessageTest extends TestCase {
     }
 
 
+    public void testLazyBody() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.mime.lazybody", "true");
+        props.setProperty("mail.mime.lazybody.threshold", "1024");
+        final Session lazySession = Session.getInstance(props);
+
+        final StringBuilder filler = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            filler.append("Line ").append(i).append(" of the first part\r\n");
+        }
+        final String text = "Subject: Lazy\r\nMessage-ID: <lazy@apache.org>\r\n"
+            + "Content-Type: multipart/mixed; boundary=\"XX\"\r\n\r\n"
+            + "--XX\r\nContent-Type: text/plain\r\n\r\n" + filler
+            + "--XX\r\nContent-Type: text/plain\r\n\r\nsecond\r\n--XX--\r\n";
+        final byte[] data = text.getBytes("US-ASCII");
+
+        final MimeMessage msg = new MimeMessage(lazySession, new ByteArrayInputStream(data));
+        assertEquals("Lazy", msg.getSubject());
+        assertEquals("<lazy@apache.org>", msg.getMessageID());
+        // the body has been moved out of memory
+        assertTrue(msg.getRawInputStream() instanceof SharedInputStream);
+
+        final MimeMultipart mp = new MimeMultipart(msg.getDataHandler().getDataSource());
+        assertEquals(2, mp.getCount());
+        assertEquals("second", readAll(mp.getBodyPart(1).getInputStream()));
+        // and can be read more than once
+        assertTrue(readAll(msg.getRawInputStream()).endsWith("--XX--\r\n"));
+        assertTrue(readAll(msg.getRawInputStream()).startsWith("--XX\r\n"));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        msg.writeTo(out);
+        assertEquals(text, out.toString("US-ASCII"));
+
+        // a small body is still kept in memory
+        final MimeMessage small = new MimeMessage(lazySession, new ByteArrayInputStream("Subject: Small\r\n\r\nbody\r\n".getBytes("US-ASCII")));
+        assertFalse(small.getRawInputStream() instanceof SharedInputStream);
+        assertEquals("body\r\n", readAll(small.getRawInputStream()));
+
+        // replacing the content closes the spool, but not the streams already handed out
+        final InputStream spooled = msg.contentStream;
+        final InputStream view = msg.getRawInputStream();
+        msg.setText("replaced");
+        // until the change is saved, the parsed body is still the one written
+        out.reset();
+        msg.writeTo(out);
+        assertTrue(out.toString("US-ASCII").endsWith("--XX--\r\n"));
+        assertTrue(spooled.available() > 0);
+        msg.saveChanges();
+        try {
+            spooled.read();
+            fail();
+        } catch (final IOException e) {
+        }
+        assertTrue(readAll(view).endsWith("--XX--\r\n"));
+        out.reset();
+        msg.writeTo(out);
+        assertTrue(out.toString("US-ASCII").endsWith("\r\n\r\nreplaced"));
+    }
+
+    public void testWriteToChannel() throws Exception {
+        final String text = "Subject: Channel\r\nContent-Type: text/plain\r\n\r\nThe body\r\nof the message\r\n";
+        final byte[] data = text.getBytes("US-ASCII");
+
+        // content held in memory
+        MimeMessage msg = new MimeMessage(session, new ByteArrayInputStream(data));
+        assertEquals(text, writeToChannel(msg));
+
+        // content in a shared file goes straight from the file to the target
+        final File file = File.createTempFile("message", ".eml");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+            final SharedFileInputStream in = new SharedFileInputStream(file);
+            msg = new MimeMessage(session, in);
+
+            final File copy = File.createTempFile("copy", ".eml");
+            try {
+                final FileOutputStream target = new FileOutputStream(copy);
+                msg.writeTo(target.getChannel(), new String[] { "Content-Type" });
+                target.close();
+                assertEquals("Subject: Channel\r\n\r\nThe body\r\nof the message\r\n", readAll(new FileInputStream(copy)));
+            } finally {
+                copy.delete();
+            }
+            in.close();
+        } finally {
+            file.delete();
+        }
+
+        // modified content is encoded the same way as for a stream
+        msg = new MimeMessage(session);
+        msg.setSubject("Modified");
+        msg.setText("Modified \u00e9 text", "ISO-8859-1");
+        msg.saveChanges();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        msg.writeTo(expected);
+        assertEquals(expected.toString("US-ASCII"), writeToChannel(msg));
+    }
+
+    public void testWriteToChannelEmptyBody() throws Exception {
+        final String text = "Subject: Empty\r\n\r\n";
+        final MimeMessage msg = new MimeMessage(session, new ByteArrayInputStream(text.getBytes("US-ASCII")));
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        msg.writeTo(expected);
+        assertEquals(text, expected.toString("US-ASCII"));
+
+        // a file channel takes the gathering write, with an empty body buffer
+        final File copy = File.createTempFile("copy", ".eml");
+        try {
+            final FileOutputStream target = new FileOutputStream(copy);
+            msg.writeTo(target.getChannel());
+            target.close();
+            assertEquals(text, readAll(new FileInputStream(copy)));
+        } finally {
+            copy.delete();
+        }
+    }
+
+    public void testInstrumentation() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("mail.instrumentation.class", RecordingInstrumentation.class.getName());
+        final Session instrumented = Session.getInstance(props);
+        RecordingInstrumentation.reset();
+
+        final byte[] data = "Subject: Parsed\r\nContent-Type: text/plain\r\n\r\nThe body\r\n".getBytes("US-ASCII");
+        final MimeMessage parsed = new MimeMessage(instrumented, new ByteArrayInputStream(data));
+        assertEquals("[PARSE null 10]", RecordingInstrumentation.getEvents(MailInstrumentation.Operation.PARSE).toString());
+        parsed.getContent();
+        assertEquals("[DECODE null 10]", RecordingInstrumentation.getEvents(MailInstrumentation.Operation.DECODE).toString());
+
+        final MimeMessage msg = new MimeMessage(instrumented);
+        msg.setText("Some text");
+        msg.saveChanges();
+        msg.writeTo(new ByteArrayOutputStream());
+        assertEquals("[ENCODE null 9]", RecordingInstrumentation.getEvents(MailInstrumentation.Operation.ENCODE).toString());
+
+        // the session without instrumentation reports nothing
+        RecordingInstrumentation.reset();
+        new MimeMessage(session, new ByteArrayInputStream(data)).getContent();
+        assertEquals(0, RecordingInstrumentation.getEvents(MailInstrumentation.Operation.PARSE).size());
+    }
+
+    private String writeToChannel(final MimeMessage msg) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        msg.writeTo(Channels.newChannel(out));
+        return out.toString("US-ASCII");
+    }
+
+    private String readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int ch;
+        while ((ch = in.read()) != -1) {
+            out.write(ch);
+        }
+        in.close();
+        return out.toString("US-ASCII");
+    }
+
 
     @Override
     protected void setUp() throws Exception {
@@ -39,6 +39,7 @@ import javax.mail.BodyPart;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.util.SharedByteArrayInputStream;
 
 import junit.framework.TestCase;
 
@@ -251,6 +252,110 @@ public class MimeMultipartTest extends TestCase {
 		}
     }
     
+    public void testSharedStreamParsing() throws IOException, MessagingException {
+        final String nested = "Content-Type: multipart/alternative; boundary=\"inner\"\r\n" +
+                "\r\n" +
+                "--inner\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "plain text\r\n" +
+                "--inner\r\n" +
+                "Content-Type: text/html\r\n" +
+                "\r\n" +
+                "<p>html text</p>\r\n" +
+                "--inner--\r\n";
+        final String data = "Subject: shared\r\n" +
+                "Content-Type: multipart/mixed; boundary=\"outer\"\r\n" +
+                "\r\n" +
+                "preamble\r\n" +
+                "--outer\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "first part\r\n" +
+                "--outer\r\n" +
+                nested +
+                "--outer--\r\n";
+        final MimeMessage message = new MimeMessage(null, new SharedByteArrayInputStream(data.getBytes("ISO8859-1")));
+        // the content is a view onto the source, not a copy of it
+        assertNull(message.content);
+        assertTrue(message.contentStream instanceof SharedInputStream);
+
+        final MimeMultipart mmp = (MimeMultipart) message.getContent();
+        assertEquals(2, mmp.getCount());
+        assertEquals("preamble\r\n", mmp.getPreamble());
+
+        final MimeBodyPart first = (MimeBodyPart) mmp.getBodyPart(0);
+        assertNull(first.content);
+        assertTrue(first.contentStream instanceof SharedInputStream);
+        assertEquals("text/plain", first.getContentType());
+        // each request for the content gets a fresh view
+        assertEquals("first part", readAll(first.getRawInputStream()));
+        assertEquals("first part", readAll(first.getRawInputStream()));
+
+        final MimeBodyPart second = (MimeBodyPart) mmp.getBodyPart(1);
+        assertEquals(nested.substring(nested.indexOf("--inner"), nested.length() - 2), readAll(second.getRawInputStream()));
+        final MimeMultipart inner = new MimeMultipart(new MimePartDataSource(second));
+        assertEquals(2, inner.getCount());
+        final MimeBodyPart html = (MimeBodyPart) inner.getBodyPart(1);
+        assertTrue(html.contentStream instanceof SharedInputStream);
+        assertEquals("text/html", html.getContentType());
+        assertEquals("<p>html text</p>", readAll(html.getRawInputStream()));
+
+        // the parts must match what an unshared parse produces
+        final MimeMessage copy = new MimeMessage(null, new ByteArrayInputStream(data.getBytes("ISO8859-1")));
+        final MimeMultipart copyMmp = (MimeMultipart) copy.getContent();
+        assertEquals(mmp.getCount(), copyMmp.getCount());
+        for (int i = 0; i < mmp.getCount(); i++) {
+            final MimeBodyPart shared = (MimeBodyPart) mmp.getBodyPart(i);
+            final MimeBodyPart copied = (MimeBodyPart) copyMmp.getBodyPart(i);
+            assertNotNull(copied.content);
+            assertEquals(copied.getContentType(), shared.getContentType());
+            assertEquals(readAll(copied.getRawInputStream()), readAll(shared.getRawInputStream()));
+        }
+    }
+
+    public void testLargePartBoundaryScan() throws IOException, MessagingException {
+        // a body larger than the scan block, with lines that only look like boundaries
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            body.append("line ").append(i).append(" of the attachment\r\n");
+            if (i % 300 == 0) {
+                body.append("--bound-x\r\n--boundary\r\n--bound -\r\n\r--bound\r\n");
+            }
+        }
+        body.append("last line");
+        final String data = "Content-Type: multipart/mixed; boundary=bound\r\n" +
+                "\r\n" +
+                "--bound\r\n" +
+                "\r\n" +
+                body +
+                "\r\n--bound  \t\r\n" +
+                "\r\n" +
+                "second\r\n" +
+                "--bound--";
+
+        for (int i = 0; i < 2; i++) {
+            final byte[] bytes = data.getBytes("ISO8859-1");
+            final InputStream source = i == 0 ? new ByteArrayInputStream(bytes) : new SharedByteArrayInputStream(bytes);
+            final MimeMultipart mmp = new MimeMultipart(new MimePartDataSource(new MimeMessage(null, source)));
+            assertEquals(2, mmp.getCount());
+            assertTrue(mmp.isComplete());
+            assertEquals(body.toString(), readAll(((MimeBodyPart) mmp.getBodyPart(0)).getRawInputStream()));
+            assertEquals("second", readAll(((MimeBodyPart) mmp.getBodyPart(1)).getRawInputStream()));
+        }
+    }
+
+    private String readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toString("ISO8859-1");
+    }
+
     protected void setMultipartSystemPropsToDefault() {
     	setMultipartSystemProps(true, true, false, false);
     }
@@ -21,13 +21,25 @@ package javax.mail.internet;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
 
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
 import javax.mail.util.ByteArrayDataSource;
 
 import junit.framework.TestCase;
 
+import org.apache.geronimo.mail.util.Base64Codec;
+
 public class MimeUtilityTest extends TestCase {
 
     private final byte[] encodeBytes = new byte[] { 32, 104, -61, -87, 33, 32, -61, -96, -61, -88, -61, -76, 117, 32, 33, 33, 33 };
@@ -59,6 +71,164 @@ public class MimeUtilityTest extends TestCase {
     }
 
 
+    public void testLargeEncodeDecode() throws Exception {
+        final byte[] data = new byte[100000];
+        final Random random = new Random(42);
+        random.nextBytes(data);
+        // a run of text so the quoted-printable encoder sees some literals and blanks
+        for (int i = 1000; i < 3000; i++) {
+            data[i] = (byte)(i % 7 == 0 ? ' ' : 'a' + i % 26);
+        }
+
+        // base64 round trips the bytes exactly, and never writes lines longer than 76
+        byte[] encoded = encodeInPieces(data, "base64", random);
+        assertEquals(data, readInPieces(MimeUtility.decode(new ByteArrayInputStream(encoded), "base64"), random));
+        int column = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] == '\r') {
+                assertEquals('\n', encoded[++i]);
+                column = 0;
+            }
+            else {
+                assertTrue(++column <= 76);
+            }
+        }
+
+        // quoted-printable normalizes line ends to CRLF, so use data without any
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '\r' || data[i] == '\n') {
+                data[i] = 'x';
+            }
+        }
+        encoded = encodeInPieces(data, "quoted-printable", random);
+        assertEquals(data, readInPieces(MimeUtility.decode(new ByteArrayInputStream(encoded), "quoted-printable"), random));
+    }
+
+
+    public void testBase64Decoding() throws Exception {
+        // characters outside the alphabet are skipped, not just line breaks
+        assertEquals("abcdef", decodeBase64("YWJj\r\nZG Vm"));
+        assertEquals("abc", decodeBase64("YW*Jj"));
+        assertEquals("abc", decodeBase64("YW\u00e9Jj"));
+        // a padded unit can be followed by more data
+        assertEquals("aabc", decodeBase64("YQ==YWJj"));
+        assertEquals("abab", decodeBase64("YWI=YWI="));
+
+        // misplaced or missing padding is an error, as is a partial unit
+        final String[] malformed = { "Y=WJj", "YQ=", "YW=Jj", "YWJ" };
+        for (int i = 0; i < malformed.length; i++) {
+            try {
+                decodeBase64(malformed[i]);
+                fail(malformed[i]);
+            } catch (final IOException e) {
+            }
+        }
+    }
+
+
+    private String decodeBase64(final String encoded) throws Exception {
+        final InputStream in = MimeUtility.decode(new ByteArrayInputStream(encoded.getBytes("ISO8859-1")), "base64");
+        return new String(readInPieces(in, new Random(1)), "ISO8859-1");
+    }
+
+
+    public void testQuotedPrintableDecoding() throws Exception {
+        // soft line breaks, including ones padded with blanks and ones using a bare newline
+        assertEquals("abc def", decodeString("abc =\r\ndef"));
+        assertEquals("abcdef", decodeString("abc=  \r\ndef"));
+        assertEquals("abcdef", decodeString("abc=\ndef"));
+        // trailing blanks are dropped, encoded ones are kept
+        assertEquals("abc\r\ndef", decodeString("abc  \r\ndef"));
+        assertEquals("abc \r\ndef", decodeString("abc=20\r\ndef"));
+        // lower case escapes are accepted, and invalid ones passed through
+        assertEquals("a=b", decodeString("a=3db"));
+        assertEquals("a=xyb", decodeString("a=xyb"));
+    }
+
+
+    public void testCodecBuffers() throws Exception {
+        final byte[] data = new byte[1000];
+        new Random(7).nextBytes(data);
+
+        // direct buffers are staged through the codec's heap buffers
+        final Base64Codec encoder = new Base64Codec();
+        final ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+        src.put(data).flip();
+        final ByteBuffer encoded = ByteBuffer.allocateDirect(encoder.maxEncodedLength(data.length));
+        encoder.encode(src, encoded);
+        encoder.finishEncoding(encoded);
+        assertFalse(src.hasRemaining());
+        encoded.flip();
+
+        final Base64Codec decoder = new Base64Codec();
+        final ByteBuffer decoded = ByteBuffer.allocate(data.length);
+        decoder.decode(encoded, decoded);
+        assertTrue(decoder.finishDecoding());
+        assertEquals(data, decoded.array());
+
+        // and the array methods produce the same result as the stream encoder
+        final byte[] out = new byte[encoder.maxEncodedLength(data.length)];
+        final Base64Codec arrayEncoder = new Base64Codec();
+        int length = arrayEncoder.encode(data, 0, data.length, out, 0);
+        length += arrayEncoder.finishEncoding(out, length);
+        final byte[] streamed = encodeInPieces(data, "base64", new Random(7));
+        assertEquals(streamed, Arrays.copyOf(out, length));
+    }
+
+
+    private byte[] encodeInPieces(final byte[] data, final String encoding, final Random random) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final OutputStream encoder = MimeUtility.encode(out, encoding);
+        int offset = 0;
+        while (offset < data.length) {
+            if (random.nextInt(4) == 0) {
+                encoder.write(data[offset++]);
+            }
+            else {
+                final int length = Math.min(data.length - offset, 1 + random.nextInt(5000));
+                encoder.write(data, offset, length);
+                offset += length;
+            }
+        }
+        encoder.close();
+        return out.toByteArray();
+    }
+
+
+    private byte[] readInPieces(final InputStream in, final Random random) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[5000];
+        while (true) {
+            if (random.nextInt(4) == 0) {
+                final int ch = in.read();
+                if (ch == -1) {
+                    break;
+                }
+                out.write(ch);
+            }
+            else {
+                final int count = in.read(buffer, 0, 1 + random.nextInt(buffer.length));
+                if (count == -1) {
+                    break;
+                }
+                out.write(buffer, 0, count);
+            }
+        }
+        return out.toByteArray();
+    }
+
+
+    private String decodeString(final String encoded) throws Exception {
+        final InputStream in = MimeUtility.decode(new ByteArrayInputStream(encoded.getBytes("ISO8859-1")), "quoted-printable");
+        return new String(readInPieces(in, new Random(1)), "ISO8859-1");
+    }
+
+
+    private void assertEquals(final byte[] expected, final byte[] actual) {
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+
     public void testFoldUnfold() throws Exception {
         doFoldTest(0, "This is a short string", "This is a short string");
         doFoldTest(0, "The quick brown fox jumped over the lazy dog. The quick brown fox jumped over the lazy dog. The quick brown fox jumped over the lazy dog.",
@@ -151,6 +321,40 @@ public class MimeUtilityTest extends TestCase {
     }
 
 
+    public void testDecodeText() throws Exception {
+        // text without encoded words comes back untouched
+        final String plain = "Just a subject";
+        assertSame(plain, MimeUtility.decodeText(plain));
+
+        // white space between encoded words is dropped, but kept next to ordinary words
+        assertEquals("Hello World again", MimeUtility.decodeText("=?ISO-8859-1?Q?Hello_?= =?US-ASCII?B?V29ybGQ=?= again"));
+        assertEquals("a \u00e9 b", MimeUtility.decodeText("a =?iso-8859-1?q?=E9?= b"));
+        // an encoded text may start with an encoded character
+        assertEquals("=x", MimeUtility.decodeWord("=?utf-8?Q?=3Dx?="));
+        // a malformed word is kept as it is
+        assertEquals("=?utf-8?Q x", MimeUtility.decodeText("=?utf-8?Q x"));
+        assertEquals("", MimeUtility.decodeWord("=?utf-8?Q??="));
+        try {
+            MimeUtility.decodeWord("=?no-such-charset?Q?abc?=");
+            fail("Expected UnsupportedEncodingException");
+        } catch (final UnsupportedEncodingException e) {
+        }
+    }
+
+
+    public void testDecodeTextNonStrict() throws Exception {
+        System.setProperty("mail.mime.decodetext.strict", "false");
+        try {
+            assertEquals("Re:Hello World!", MimeUtility.decodeText("Re:=?utf-8?Q?Hello?= World=?utf-8?B?IQ==?="));
+            assertEquals("x=?y", MimeUtility.decodeText("x=?y"));
+        } finally {
+            System.getProperties().remove("mail.mime.decodetext.strict");
+        }
+        // strict decoding leaves an embedded encoded word alone
+        assertEquals("Re:=?utf-8?Q?Hello?=", MimeUtility.decodeText("Re:=?utf-8?Q?Hello?="));
+    }
+
+
     public void testGetEncoding() throws Exception {
         ByteArrayDataSource source = new ByteArrayDataSource(new byte[] { 'a', 'b', 'c'}, "text/plain");
 
@@ -179,6 +383,101 @@ public class MimeUtilityTest extends TestCase {
     }
 
 
+    public void testGetEncodingLineBreaks() throws Exception {
+        assertEquals("7bit", MimeUtility.getEncoding(new ByteArrayDataSource("abc\r\ndef\r\n", "application/binary")));
+        assertEquals("base64", MimeUtility.getEncoding(new ByteArrayDataSource("abc\ndef", "application/binary")));
+        // a CR on its own is just another character
+        assertEquals("7bit", MimeUtility.getEncoding(new ByteArrayDataSource("abb\raaa", "application/octet-stream")));
+        assertEquals("7bit", MimeUtility.getEncoding(new ByteArrayDataSource("abc\r", "application/binary")));
+        assertEquals("7bit", MimeUtility.getEncoding(new ByteArrayDataSource("abc\r\r\ndef", "application/binary")));
+
+        final byte[] longLine = new byte[1000];
+        Arrays.fill(longLine, (byte)'a');
+        assertEquals("base64", MimeUtility.getEncoding(new ByteArrayDataSource(longLine, "application/binary")));
+        assertEquals("quoted-printable", MimeUtility.getEncoding(new ByteArrayDataSource(longLine, "text/plain")));
+        // line breaks are fine in any form for text
+        assertEquals("7bit", MimeUtility.getEncoding(new ByteArrayDataSource("abc\ndef\r", "text/plain")));
+    }
+
+
+    public void testGetEncodingEarlyExit() throws Exception {
+        final byte[] data = new byte[100000];
+        Arrays.fill(data, (byte)'a');
+        data[10] = (byte)0x81;
+        final CountingDataSource source = new CountingDataSource(data, "application/binary");
+
+        assertEquals("base64", MimeUtility.getEncoding(source));
+        // the first block settles it
+        assertTrue(source.read < data.length);
+
+        // a handler is judged by reading its data source, which stops early the same way
+        final CountingDataSource handlerSource = new CountingDataSource(data, "application/binary");
+        assertEquals("base64", MimeUtility.getEncoding(new DataHandler(handlerSource)));
+        assertTrue(handlerSource.read < data.length);
+    }
+
+
+    public void testGetEncodingCached() throws Exception {
+        final CountingDataSource source = new CountingDataSource(new byte[] { 'a', (byte)0x82, (byte)0x81}, "text/plain");
+        assertEquals("base64", MimeUtility.getEncoding(source));
+        assertEquals("base64", MimeUtility.getEncoding(source));
+        assertEquals(1, source.opened);
+        // a handler for the source uses the same result
+        assertEquals("base64", MimeUtility.getEncoding(new DataHandler(source)));
+        assertEquals(1, source.opened);
+
+        // a file is examined again once it changes
+        final File file = File.createTempFile("encoding", ".txt");
+        try {
+            final FileDataSource fileSource = new FileDataSource(file);
+            writeFile(file, "abc");
+            assertEquals("7bit", MimeUtility.getEncoding(fileSource));
+            writeFile(file, "abc\u00e9\u00e9\u00e9\u00e9");
+            assertEquals("base64", MimeUtility.getEncoding(fileSource));
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    private static void writeFile(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * A byte array source keeping track of how much of it gets read.
+     */
+    static class CountingDataSource extends ByteArrayDataSource {
+        int opened;
+        int read;
+
+        CountingDataSource(final byte[] data, final String type) {
+            super(data, type);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            opened++;
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final int count = super.read(b, off, Math.min(len, 4096));
+                    if (count > 0) {
+                        read += count;
+                    }
+                    return count;
+                }
+            };
+        }
+    }
+
+
     public void testQuote() throws Exception {
         assertEquals("abc", MimeUtility.quote("abc", "&*%"));
         assertEquals("\"abc&\"", MimeUtility.quote("abc&", "&*%"));
@@ -19,11 +19,21 @@
 
 package javax.mail.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
+import org.apache.geronimo.mail.util.SharedFileTransfer;
+
 /**
  * @version $Rev$ $Date$
  */
@@ -146,5 +156,154 @@ public class SharedFileInputStreamTest extends TestCase {
          } catch (final IOException e) {
          }
     }
-}
 
+
+    public void testConcurrentReads() throws Exception {
+        final byte[] data = new byte[256 * 1024];
+        new Random(3).nextBytes(data);
+        final File file = File.createTempFile("shared", ".dat");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+
+            final SharedFileInputStream in = new SharedFileInputStream(file, 512);
+            final Thread[] threads = new Thread[8];
+            final Throwable[] failures = new Throwable[threads.length];
+            for (int i = 0; i < threads.length; i++) {
+                final int index = i;
+                final int offset = i * 1000;
+                final InputStream sub = in.newStream(offset, -1);
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            // mix single byte, small and buffer bypassing reads
+                            final ByteArrayOutputStream read = new ByteArrayOutputStream();
+                            final byte[] buffer = new byte[4096];
+                            int count = 0;
+                            while (count != -1) {
+                                if ((read.size() & 1) == 0) {
+                                    count = sub.read(buffer, 0, 1 + read.size() % buffer.length);
+                                    if (count > 0) {
+                                        read.write(buffer, 0, count);
+                                    }
+                                }
+                                else {
+                                    count = sub.read();
+                                    if (count != -1) {
+                                        read.write(count);
+                                    }
+                                }
+                            }
+                            assertTrue(Arrays.equals(Arrays.copyOfRange(data, offset, data.length), read.toByteArray()));
+                        } catch (final Throwable e) {
+                            failures[index] = e;
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].join();
+                if (failures[i] != null) {
+                    throw new AssertionError(failures[i]);
+                }
+            }
+            in.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    public void testInterruptedRead() throws Exception {
+        final SharedFileInputStream in = new SharedFileInputStream(testInput, 16);
+        final SharedFileInputStream sub = (SharedFileInputStream)in.newStream(10, 10 + 26);
+        assertEquals('0', in.read());
+
+        // an interrupt closes a file channel, but must not break the read or the other streams
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals('a', sub.read());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        final byte[] data = new byte[15];
+        assertEquals(15, in.read(data));
+        assertEquals("123456789abcdef", new String(data, "ISO8859-1"));
+        assertEquals('b', sub.read());
+
+        sub.close();
+        in.close();
+    }
+
+
+    public void testTransferTo() throws Exception {
+        final SharedFileInputStream in = new SharedFileInputStream(testInput, 16);
+        final SharedFileInputStream sub = (SharedFileInputStream)in.newStream(10, 10 + 26);
+
+        // part of the data is already buffered when the transfer starts
+        assertEquals('a', sub.read());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(25, sub.transferTo(Channels.newChannel(out)));
+        assertEquals("bcdefghijklmnopqrstuvwxyz", out.toString("ISO8859-1"));
+        assertEquals(-1, sub.read());
+        assertEquals(26, sub.getPosition());
+
+        sub.close();
+        in.close();
+    }
+
+
+    public void testTransferRegistration() throws Exception {
+        try {
+            SharedFileTransfer.register(new SharedFileTransfer() {
+                @Override
+                protected long transfer(final SharedFileInputStream in, final WritableByteChannel target) {
+                    return 0;
+                }
+            });
+            fail("registered a transfer from outside SharedFileInputStream");
+        } catch (final SecurityException e) {
+            // expected
+        }
+
+        final SharedFileInputStream in = new SharedFileInputStream(testInput);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(testInput.length(), SharedFileTransfer.transferTo(in, Channels.newChannel(out)));
+        in.close();
+    }
+
+
+    public void testLargeOffsets() throws Exception {
+        // a sparse file larger than 2GB, with some data past the 2GB mark
+        final long offset = Integer.MAX_VALUE + 100L;
+        final File file = File.createTempFile("shared", ".dat");
+        try {
+            final RandomAccessFile out = new RandomAccessFile(file, "rw");
+            out.setLength(offset + 1000);
+            out.seek(offset);
+            out.write("abcdefghij".getBytes("ISO8859-1"));
+            out.close();
+
+            final SharedFileInputStream in = new SharedFileInputStream(file);
+            final SharedFileInputStream sub = (SharedFileInputStream)in.newStream(offset, offset + 10);
+            final byte[] buffer = new byte[20];
+            assertEquals(10, sub.read(buffer));
+            assertEquals("abcdefghij", new String(buffer, 0, 10, "ISO8859-1"));
+            assertEquals(-1, sub.read());
+            assertEquals(10, sub.getPosition());
+
+            final SharedFileInputStream tail = (SharedFileInputStream)in.newStream(offset + 5, -1);
+            assertEquals('f', tail.read());
+            assertEquals(994, tail.available());
+            sub.close();
+            tail.close();
+            in.close();
+        } finally {
+            file.delete();
+        }
+    }
+}